@@ -23,6 +23,201 @@ public final class BookContract {
      different data from the database tables.
     */
     public static final String PATH_BOOKS = "books";
+    public static final String PATH_ISBN = "isbn";
+    public static final String PATH_STORES = "stores";
+    public static final String PATH_AVAILABILITY = "availability";
+    public static final String PATH_REPORTS = "reports";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_SECTIONS = "sections";
+
+    /*
+     Names of the methods that can be passed to the provider's call() method, along with the
+     keys of the values that are returned in the result Bundle.
+    */
+    public static final String METHOD_UNDO_DELETE = "undo_delete";
+    public static final String METHOD_PURGE_DELETED = "purge_deleted";
+    public static final String METHOD_METRICS = "metrics";
+    public static final String METHOD_SLOW_QUERIES = "slow_queries";
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+    public static final String METHOD_GET_CHANGES = "get_changes";
+    public static final String METHOD_ACKNOWLEDGE_CHANGES = "acknowledge_changes";
+    public static final String METHOD_APPLY_SYNC_DELTAS = "apply_sync_deltas";
+    public static final String METHOD_SYNC_STATE = "sync_state";
+    public static final String METHOD_SELL_BY_ISBN = "sell_by_isbn";
+    public static final String METHOD_CHECKOUT = "checkout";
+    public static final String METHOD_FIND_DUPLICATE = "find_duplicate";
+    public static final String METHOD_ADD_STOCK = "add_stock";
+    public static final String METHOD_MERGE_DUPLICATES = "merge_duplicates";
+    public static final String METHOD_RUN_MAINTENANCE_STEP = "run_maintenance_step";
+    public static final String METHOD_REPRICE = "reprice";
+    public static final String METHOD_UPDATE_IF_VERSION = "update_if_version";
+    public static final String METHOD_SET_WORKLOAD_RECORDING = "set_workload_recording";
+    public static final String METHOD_MAIN_THREAD_CALLS = "main_thread_calls";
+    public static final String METHOD_SET_MAIN_THREAD_STRICT = "set_main_thread_strict";
+
+    public static final String KEY_ROWS_RESTORED = "rows_restored";
+    public static final String KEY_ROWS_PURGED = "rows_purged";
+    public static final String KEY_PURGE_INCOMPLETE = "purge_incomplete";
+
+    /*
+     Keys of the values in each operation's Bundle returned by the metrics method. The
+     histogram holds the count of calls in power of two buckets of microseconds.
+    */
+    public static final String KEY_METRICS_SINCE = "since";
+    public static final String KEY_METRICS_COUNT = "count";
+    public static final String KEY_METRICS_ERRORS = "errors";
+    public static final String KEY_METRICS_ROWS = "rows";
+    public static final String KEY_METRICS_TOTAL_NANOS = "total_nanos";
+    public static final String KEY_METRICS_MAX_NANOS = "max_nanos";
+    public static final String KEY_METRICS_HISTOGRAM = "histogram_micros";
+    public static final String KEY_METRICS_P50_MICROS = "p50_micros";
+    public static final String KEY_METRICS_P95_MICROS = "p95_micros";
+    public static final String KEY_METRICS_P99_MICROS = "p99_micros";
+    public static final String KEY_METRICS_CACHE_HITS = "query_cache_hits";
+    public static final String KEY_METRICS_CACHE_MISSES = "query_cache_misses";
+
+    /*
+     Keys of the values passed to and returned by the sync methods. Changed books and server
+     deltas are passed as lists of ContentValues keyed by the book's global ID.
+    */
+    public static final String KEY_SYNC_LIMIT = "limit";
+    public static final String KEY_SYNC_BOOKS = "books";
+    public static final String KEY_SYNC_LAST_SEQUENCE = "last_sequence";
+    public static final String KEY_SYNC_ACKNOWLEDGED_SEQUENCE = "acknowledged_sequence";
+    public static final String KEY_SYNC_SERVER_SEQUENCE = "server_sequence";
+    public static final String KEY_SYNC_DEVICE_ID = "device_id";
+    public static final String KEY_SYNC_APPLIED = "applied";
+    public static final String KEY_SYNC_COUNTERS = "counters";
+
+    /*
+     Keys of the values returned by the sell by ISBN method, and the possible outcomes of the
+     sale. A unit is only sold if the book is in stock.
+    */
+    public static final String KEY_SALE_RESULT = "sale_result";
+    public static final String KEY_SALE_BOOK_ID = "book_id";
+    public static final String KEY_SALE_BOOK_NAME = "book_name";
+    public static final String KEY_SALE_QUANTITY = "quantity";
+
+    public static final int SALE_SOLD = 0;
+    public static final int SALE_OUT_OF_STOCK = 1;
+    public static final int SALE_UNKNOWN_ISBN = 2;
+
+    /*
+     Keys of the values passed to and returned by the checkout method. The basket is passed as
+     two arrays of the same length holding the ID and quantity of each line. If any line is
+     short of stock, nothing is sold and the first short book is returned.
+    */
+    public static final String KEY_CHECKOUT_BOOK_IDS = "book_ids";
+    public static final String KEY_CHECKOUT_QUANTITIES = "quantities";
+    public static final String KEY_CHECKOUT_COMPLETE = "complete";
+    public static final String KEY_CHECKOUT_UNITS_SOLD = "units_sold";
+    public static final String KEY_CHECKOUT_SHORT_BOOK_ID = "short_book_id";
+    public static final String KEY_CHECKOUT_SHORT_BOOK_NAME = "short_book_name";
+
+    /*
+     Keys of the values used to find and merge duplicate books. The find duplicate method takes
+     the name and authors of a new book in its extras, keyed by their column names, and returns
+     the book in the inventory with the same fingerprint, if there is one. The add stock method
+     takes the book ID as its argument and adds the given quantity to it.
+    */
+    public static final String KEY_DUPLICATE_BOOK_ID = "duplicate_book_id";
+    public static final String KEY_DUPLICATE_BOOK_NAME = "duplicate_book_name";
+    public static final String KEY_DUPLICATE_QUANTITY = "duplicate_quantity";
+    public static final String KEY_ADD_STOCK_QUANTITY = "add_quantity";
+    public static final String KEY_DUPLICATE_GROUPS = "duplicate_groups";
+    public static final String KEY_DUPLICATES_MERGED = "duplicates_merged";
+
+    /*
+     The steps of the database maintenance, in the order they are run, and the keys of the
+     values returned by the run maintenance step method. Each call runs one short step, passed
+     as the argument, and returns the step to run next, which is null once they are all done.
+    */
+    public static final String MAINTENANCE_STEP_COMPACT_HISTORY = "compact_history";
+    public static final String MAINTENANCE_STEP_CONVERT_AUTO_VACUUM = "convert_auto_vacuum";
+    public static final String MAINTENANCE_STEP_INCREMENTAL_VACUUM = "incremental_vacuum";
+    public static final String MAINTENANCE_STEP_OPTIMIZE = "optimize";
+    public static final String MAINTENANCE_STEP_QUICK_CHECK = "quick_check";
+
+    public static final String KEY_MAINTENANCE_NEXT_STEP = "next_step";
+    public static final String KEY_MAINTENANCE_MICROS = "micros";
+    public static final String KEY_MAINTENANCE_RESULT = "result";
+
+    /*
+     Keys of the values passed to and returned by the update if version method, and its
+     possible outcomes. The book ID is passed as the argument, and the extras hold the changed
+     values, the version of the book they are based on and the number of units to add or take
+     away, as the quantity is only ever sent as a change. Nothing is written unless the book is
+     still at that version. If it isn't, the book's current values and version are returned, so
+     that the changes can be merged with them and sent again.
+    */
+    public static final String KEY_UPDATE_VALUES = "values";
+    public static final String KEY_UPDATE_VERSION = "version";
+    public static final String KEY_UPDATE_QUANTITY_CHANGE = "quantity_change";
+    public static final String KEY_UPDATE_RESULT = "update_result";
+    public static final String KEY_UPDATE_CURRENT_VALUES = "current_values";
+
+    public static final int UPDATE_SAVED = 0;
+    public static final int UPDATE_CONFLICT = 1;
+    public static final int UPDATE_DELETED = 2;
+    public static final int UPDATE_NOT_ENOUGH_STOCK = 3;
+
+    /*
+     Keys of the values passed to and returned by the reprice method. The books to reprice are
+     chosen by any of the supplier name, the authors and a range of prices in pence, and the
+     new price is worked out from the old one by a percentage, then a fixed change in pence,
+     then optionally rounding to the nearest price ending in 99 pence. A dry run returns how
+     many books would change and a sample of them, as ContentValues holding the book's ID,
+     name, price and new price, without changing anything.
+    */
+    public static final String KEY_REPRICE_SUPPLIER_NAME = "supplier_name";
+    public static final String KEY_REPRICE_AUTHORS = "authors";
+    public static final String KEY_REPRICE_MIN_PRICE = "min_price";
+    public static final String KEY_REPRICE_MAX_PRICE = "max_price";
+    public static final String KEY_REPRICE_PERCENT = "percent";
+    public static final String KEY_REPRICE_DELTA = "delta";
+    public static final String KEY_REPRICE_ROUND_TO_99 = "round_to_99";
+    public static final String KEY_REPRICE_DRY_RUN = "dry_run";
+    public static final String KEY_REPRICE_COUNT = "books_repriced";
+    public static final String KEY_REPRICE_SAMPLE = "sample";
+    public static final String KEY_REPRICE_NEW_PRICE = "new_price";
+
+    /*
+     Keys of the values returned by the slow queries method. The queries are returned as a list
+     of Bundles, one for each logged query, and the argument values are replaced by their shapes.
+    */
+    public static final String KEY_SLOW_QUERY_THRESHOLD_MILLIS = "threshold_millis";
+    public static final String KEY_SLOW_QUERIES = "slow_queries";
+    public static final String KEY_SLOW_QUERY_LOGGED_AT = "logged_at";
+    public static final String KEY_SLOW_QUERY_SQL = "sql";
+    public static final String KEY_SLOW_QUERY_ARGUMENTS = "argument_shapes";
+    public static final String KEY_SLOW_QUERY_MICROS = "micros";
+    public static final String KEY_SLOW_QUERY_ROWS = "rows";
+    public static final String KEY_SLOW_QUERY_PLAN = "query_plan";
+
+    /*
+     Keys of the values returned by the workload recording method, which is passed "true" or
+     "false" as its argument. The traces are written to files in the returned directory.
+    */
+    public static final String KEY_WORKLOAD_RECORDING = "recording";
+    public static final String KEY_WORKLOAD_TRACE_DIRECTORY = "trace_directory";
+
+    /*
+     Keys of the values returned by the main thread audit methods, which only record calls in
+     debug builds. The calls are returned as a Bundle holding one Bundle for each call site,
+     keyed by its class, method and line. The strict method is passed "true" or "false".
+    */
+    public static final String KEY_MAIN_THREAD_STRICT = "strict";
+    public static final String KEY_MAIN_THREAD_CALL_SITES = "call_sites";
+    public static final String KEY_MAIN_THREAD_COUNT = "count";
+    public static final String KEY_MAIN_THREAD_TOTAL_NANOS = "total_nanos";
+    public static final String KEY_MAIN_THREAD_MAX_NANOS = "max_nanos";
+    public static final String KEY_MAIN_THREAD_OPERATIONS = "operations";
+
+    /*
+     The length of time in milliseconds after a deletion in which it can still be undone.
+     Deleted rows are only purged from the database once this window has passed.
+    */
+    public static final long UNDO_WINDOW_MILLIS = 8000;
 
     // Prevent anyone from instantiating this class.
     private BookContract() {
@@ -33,6 +228,12 @@ public final class BookContract {
         // The content URI to access the book data in the provider.
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /*
+         The base URI to look up a single book by its ISBN or barcode, which is added to the end
+         of it, for example books/isbn/9780141439518.
+        */
+        public static final Uri CONTENT_ISBN_URI = Uri.withAppendedPath(CONTENT_URI, PATH_ISBN);
+
         // The MIME type of the {@link #CONTENT_URI} for the list of books.
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS;
@@ -52,5 +253,215 @@ public final class BookContract {
         public static final String COLUMN_BOOK_QUANTITY = "quantity";
         public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
         public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+
+        // The ISBN or other barcode number printed on the book. This is optional but unique.
+        public static final String COLUMN_ISBN = "isbn";
+
+        /*
+         The order of the main list, by name regardless of case. The list's sections are worked
+         out in the same order, and an index on the name in this order means neither has to sort.
+        */
+        public static final String SORT_BY_NAME = COLUMN_BOOK_NAME + " COLLATE NOCASE";
+
+        /*
+         Return the URI that lists the other stores that have the given book in stock. The
+         book is matched by its ISBN, or by its name if it doesn't have one.
+        */
+        public static Uri buildAvailabilityUri(long bookId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(bookId))
+                    .appendPath(PATH_AVAILABILITY)
+                    .build();
+        }
+
+        // Return the URI of the price and stock history of the given book.
+        public static Uri buildHistoryUri(long bookId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(bookId))
+                    .appendPath(PATH_HISTORY)
+                    .build();
+        }
+
+        /*
+         The time in milliseconds at which the book was deleted. This is null for books that
+         are still in the inventory.
+        */
+        public static final String COLUMN_DELETED_AT = "deleted_at";
+
+        /*
+         A unique ID for the book that is the same on every device and on the head office
+         server, as the auto-increment ID is only unique to this database.
+        */
+        public static final String COLUMN_GLOBAL_ID = "global_id";
+
+        /*
+         The name and authors of the book in lower case, without accents, spaces or punctuation.
+         Books with the same fingerprint are copies of the same book. This is kept up to date by
+         the provider and can't be written to directly.
+        */
+        public static final String COLUMN_FINGERPRINT = "fingerprint";
+
+        /*
+         A number that goes up by one every time the book is written to. An editor reads it with
+         the book, and only saves its changes if it hasn't moved on since. This is kept up to
+         date by a trigger and can't be written to directly.
+        */
+        public static final String COLUMN_VERSION = "version";
+    }
+
+    /*
+     Inner class that defines the change log table. Every write to a book adds a row with the
+     next sequence number, so that the changes since the last sync can be found quickly.
+    */
+    public static final class ChangeLogEntry {
+        public static final String TABLE_NAME = "change_log";
+
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_BOOK_ID = "book_id";
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+    }
+
+    /*
+     Inner class that defines the sync state table, which holds named values such as the last
+     sequence number acknowledged by the server.
+    */
+    public static final class SyncStateEntry {
+        public static final String TABLE_NAME = "sync_state";
+
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_VALUE = "value";
+
+        public static final String DEVICE_ID = "device_id";
+        public static final String ACKNOWLEDGED_SEQUENCE = "acknowledged_sequence";
+        public static final String SERVER_SEQUENCE = "server_sequence";
+    }
+
+    /*
+     Inner class that defines the stock counter table. The quantity of a book is kept as a
+     running total of increments and decrements for each device that has changed it, so that
+     the changes from several tills can be merged without losing any sales. The quantity column
+     of the book table always holds the sum of its counters.
+    */
+    public static final class StockCounterEntry {
+        public static final String TABLE_NAME = "stock_counters";
+
+        public static final String COLUMN_BOOK_ID = "book_id";
+        public static final String COLUMN_DEVICE_ID = "device_id";
+        public static final String COLUMN_INCREMENTS = "increments";
+        public static final String COLUMN_DECREMENTS = "decrements";
+    }
+
+    /*
+     Inner class that defines the history table, which triggers on the book table fill in with
+     a row each time a book's price or quantity changes. Only the columns that changed are set:
+     the price holds the new price, and the quantity change holds the number of units added or
+     taken away, so a book's quantity at any time is the sum of its changes up to then. Rows
+     older than the retention period are folded into a single row for each book, which keeps
+     the price and quantity at that point without keeping every change that led to them.
+    */
+    public static final class HistoryEntry implements BaseColumns {
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "book_history";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_BOOK_ID = "book_id";
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+        public static final String COLUMN_PRICE = "price";
+        public static final String COLUMN_QUANTITY_CHANGE = "quantity_change";
+
+        // How long every change is kept for before it is folded into the book's earlier history.
+        public static final long RETENTION_MILLIS = 90L * 24 * 60 * 60 * 1000;
+    }
+
+    /*
+     Inner class that defines the maintenance log table, which records when each maintenance
+     step ran, how long it took and what it found.
+    */
+    public static final class MaintenanceLogEntry {
+        public static final String TABLE_NAME = "maintenance_log";
+
+        public static final String COLUMN_RUN_AT = "run_at";
+        public static final String COLUMN_STEP = "step";
+        public static final String COLUMN_MICROS = "micros";
+        public static final String COLUMN_RESULT = "result";
+    }
+
+    /*
+     Inner class that defines the other stores. Each store keeps its books in its own database
+     file, with the same columns as the book table, which is reached through a URI that names
+     the store, for example stores/leeds/books.
+    */
+    public static final class StoreEntry {
+        // The content URI that lists the names of the other stores.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STORES);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STORES;
+
+        // The name of the store, which is made of lower case letters, digits and underscores.
+        public static final String COLUMN_STORE_NAME = "store";
+
+        // Return the URI of the book table of the given store.
+        public static Uri buildBooksUri(String storeName) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(storeName)
+                    .appendPath(PATH_BOOKS)
+                    .build();
+        }
+    }
+
+    /*
+     Inner class that defines the inventory reports. Each report groups the books in the
+     inventory by one value and adds up their titles, units and stock value, so every report
+     has the same columns. The group holds the supplier name, the authors, or the lowest price
+     in the band in pence, depending on the report.
+    */
+    public static final class ReportEntry implements BaseColumns {
+        // The content URI that the reports are found under, for example reports/supplier_stock.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_REPORTS);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REPORTS;
+
+        // The names of the reports.
+        public static final String REPORT_SUPPLIER_STOCK = "supplier_stock";
+        public static final String REPORT_AUTHOR_UNITS = "author_units";
+        public static final String REPORT_PRICE_BANDS = "price_bands";
+
+        // The ID of a row is the lowest ID of the books in its group.
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_GROUP = "report_group";
+        public static final String COLUMN_TITLES = "titles";
+        public static final String COLUMN_UNITS = "units";
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+
+        // The width of each band of the price band report in pence, so the first band is £0.00 to £4.99.
+        public static final int PRICE_BAND_WIDTH = 500;
+
+        // Return the URI of the report with the given name.
+        public static Uri buildReportUri(String reportName) {
+            return Uri.withAppendedPath(CONTENT_URI, reportName);
+        }
+    }
+
+    /*
+     Inner class that defines the sections of the book list, which are the first letters of the
+     books' names. Each section holds the position of its first book in the list when the books
+     are sorted by {@link BookEntry#SORT_BY_NAME} with the same selection, so that the fast
+     scroller can jump straight to it.
+    */
+    public static final class SectionEntry {
+        // The content URI of the sections, which are books/sections.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_SECTIONS);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SECTIONS;
+
+        // The first letter of the section, in upper case, and where its books are in the list.
+        public static final String COLUMN_SECTION = "section";
+        public static final String COLUMN_FIRST_POSITION = "first_position";
+        public static final String COLUMN_BOOK_COUNT = "book_count";
     }
 }
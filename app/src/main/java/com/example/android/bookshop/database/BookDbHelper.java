@@ -1,15 +1,26 @@
 package com.example.android.bookshop.database;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.bookshop.core.BookFingerprint;
 import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ChangeLogEntry;
+import com.example.android.bookshop.database.BookContract.HistoryEntry;
+import com.example.android.bookshop.database.BookContract.MaintenanceLogEntry;
+import com.example.android.bookshop.database.BookContract.StockCounterEntry;
+import com.example.android.bookshop.database.BookContract.SyncStateEntry;
+
+import java.util.UUID;
 
 public class BookDbHelper extends SQLiteOpenHelper {
 
     // Upgrade the database version if the database is altered.
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
     private static final String DATABASE_NAME = "bookshop.db";
 
     /*
@@ -18,7 +29,7 @@ public class BookDbHelper extends SQLiteOpenHelper {
      rather than pounds, and authors, which should be saved as a single string with names
      of different authors separated by commas.
     */
-    private static final String SQL_CREATE_ENTRIES =
+    static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + BookEntry.TABLE_NAME + " (" +
                     BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
                     BookEntry.COLUMN_BOOK_NAME + " TEXT NOT NULL," +
@@ -27,28 +38,386 @@ public class BookDbHelper extends SQLiteOpenHelper {
                     BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL," +
                     BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL DEFAULT 0," +
                     BookEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL," +
-                    BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL);";
+                    BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL," +
+                    BookEntry.COLUMN_DELETED_AT + " INTEGER," +
+                    BookEntry.COLUMN_GLOBAL_ID + " TEXT UNIQUE," +
+                    BookEntry.COLUMN_ISBN + " TEXT," +
+                    BookEntry.COLUMN_FINGERPRINT + " TEXT," +
+                    BookEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0);";
+
+    /*
+     Deleted books are kept as tombstones until they are purged, so index the names of only
+     the books that are still in the inventory. The second index covers just the tombstones,
+     which keeps the purge from having to scan the whole table.
+    */
+    static final String SQL_CREATE_LIVE_NAME_INDEX =
+            "CREATE INDEX books_live_name_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_BOOK_NAME + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    /*
+     Index the names again in the order of the main list, which ignores case, so that the list
+     is read in order rather than sorted, and its sections are counted from this index alone.
+     The deleted time is included for the same reason as in the report indexes below.
+    */
+    private static final String SQL_CREATE_LIVE_NAME_SORT_INDEX =
+            "CREATE INDEX books_live_name_sort_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.SORT_BY_NAME + ", " + BookEntry.COLUMN_DELETED_AT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    static final String SQL_CREATE_DELETED_INDEX =
+            "CREATE INDEX books_deleted_at_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_DELETED_AT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NOT NULL;";
+
+    /*
+     Each barcode can only belong to one book in the inventory, so that a scan always finds a
+     single book with one probe of this index. Deleted books are left out, so a book can be
+     added again with the same barcode before the old one has been purged.
+    */
+    static final String SQL_CREATE_ISBN_INDEX =
+            "CREATE UNIQUE INDEX books_live_isbn_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_ISBN + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    /*
+     Copies of the same book share a fingerprint, so a new book can be checked for a duplicate
+     with one probe of this index, and the duplicates in the whole inventory can be found by
+     reading it in order. It isn't unique, as keeping a duplicate is left up to the user.
+    */
+    static final String SQL_CREATE_FINGERPRINT_INDEX =
+            "CREATE INDEX books_live_fingerprint_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_FINGERPRINT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    /*
+     Covering indexes for the inventory reports, so that each report is worked out from one of
+     these without reading the book table. The supplier and authors indexes hold the books in
+     the order they are grouped in, so the groups are added up in a single pass. The deleted
+     time is included even though it is always null, as older versions of SQLite only treat an
+     index as covering if it holds every column that the query uses.
+    */
+    private static final String SQL_CREATE_SUPPLIER_REPORT_INDEX =
+            "CREATE INDEX books_live_supplier_report_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_SUPPLIER_NAME + ", " + BookEntry.COLUMN_BOOK_PRICE + ", " +
+                    BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_DELETED_AT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    private static final String SQL_CREATE_AUTHORS_REPORT_INDEX =
+            "CREATE INDEX books_live_authors_report_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_BOOK_AUTHORS + ", " + BookEntry.COLUMN_BOOK_PRICE + ", " +
+                    BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_DELETED_AT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    private static final String SQL_CREATE_PRICE_REPORT_INDEX =
+            "CREATE INDEX books_live_price_report_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_QUANTITY + ", " +
+                    BookEntry.COLUMN_DELETED_AT + ")" +
+                    " WHERE " + BookEntry.COLUMN_DELETED_AT + " IS NULL;";
+
+    // Stands in for the unique constraint on the global ID in a database upgraded from before version 3.
+    private static final String SQL_CREATE_GLOBAL_ID_INDEX =
+            "CREATE UNIQUE INDEX books_global_id_idx ON " + BookEntry.TABLE_NAME +
+                    " (" + BookEntry.COLUMN_GLOBAL_ID + ");";
+
+    // SQL expression for the current time in milliseconds, for use inside the triggers.
+    private static final String SQL_NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /*
+     The change log records the ID of every book that is written to, in the order that the
+     writes happen. Triggers on the book table fill it in, so it can never miss a write made
+     through the provider. Deleted books are recorded too, as deleting a book sets its tombstone.
+    */
+    private static final String SQL_CREATE_CHANGE_LOG =
+            "CREATE TABLE " + ChangeLogEntry.TABLE_NAME + " (" +
+                    ChangeLogEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    ChangeLogEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL," +
+                    ChangeLogEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL);";
+
+    private static final String SQL_CREATE_CHANGE_LOG_INSERT_TRIGGER =
+            "CREATE TRIGGER books_change_log_insert AFTER INSERT ON " + BookEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + ChangeLogEntry.TABLE_NAME +
+                    " (" + ChangeLogEntry.COLUMN_BOOK_ID + ", " + ChangeLogEntry.COLUMN_CHANGED_AT + ")" +
+                    " VALUES (NEW." + BookEntry._ID + ", " + SQL_NOW_MILLIS + "); END;";
+
+    // The update made by the version trigger below isn't a change of its own, so it isn't logged.
+    private static final String SQL_CREATE_CHANGE_LOG_UPDATE_TRIGGER =
+            "CREATE TRIGGER books_change_log_update AFTER UPDATE ON " + BookEntry.TABLE_NAME +
+                    " WHEN NEW." + BookEntry.COLUMN_VERSION + " = OLD." + BookEntry.COLUMN_VERSION +
+                    " BEGIN INSERT INTO " + ChangeLogEntry.TABLE_NAME +
+                    " (" + ChangeLogEntry.COLUMN_BOOK_ID + ", " + ChangeLogEntry.COLUMN_CHANGED_AT + ")" +
+                    " VALUES (NEW." + BookEntry._ID + ", " + SQL_NOW_MILLIS + "); END;";
+
+    /*
+     Move the version of a book on by one after every update, whichever way it was made, so an
+     editor can tell that the book has changed since it was read. SQLite can't change the new
+     row before it is written, so this updates it again straight afterwards, which doesn't fire
+     the trigger a second time as the version has then changed.
+    */
+    static final String SQL_CREATE_VERSION_TRIGGER =
+            "CREATE TRIGGER books_version_update AFTER UPDATE ON " + BookEntry.TABLE_NAME +
+                    " WHEN NEW." + BookEntry.COLUMN_VERSION + " = OLD." + BookEntry.COLUMN_VERSION +
+                    " BEGIN UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_VERSION + " = OLD." + BookEntry.COLUMN_VERSION + " + 1" +
+                    " WHERE " + BookEntry._ID + " = NEW." + BookEntry._ID + "; END;";
 
-    // Use this raw SQL code to delete a table in the database file.
-    private static final String SQL_DELETE_ENTRIES = "DROP TABLE IF EXISTS " + BookEntry.TABLE_NAME;
+    // The sync state is a small table of named values.
+    private static final String SQL_CREATE_SYNC_STATE =
+            "CREATE TABLE " + SyncStateEntry.TABLE_NAME + " (" +
+                    SyncStateEntry.COLUMN_NAME + " TEXT PRIMARY KEY," +
+                    SyncStateEntry.COLUMN_VALUE + " TEXT);";
+
+    // Each device has one row of counters for each book that it has changed the quantity of.
+    private static final String SQL_CREATE_STOCK_COUNTERS =
+            "CREATE TABLE " + StockCounterEntry.TABLE_NAME + " (" +
+                    StockCounterEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL," +
+                    StockCounterEntry.COLUMN_DEVICE_ID + " TEXT NOT NULL," +
+                    StockCounterEntry.COLUMN_INCREMENTS + " INTEGER NOT NULL DEFAULT 0," +
+                    StockCounterEntry.COLUMN_DECREMENTS + " INTEGER NOT NULL DEFAULT 0," +
+                    "PRIMARY KEY (" + StockCounterEntry.COLUMN_BOOK_ID + ", " + StockCounterEntry.COLUMN_DEVICE_ID + "));";
+
+    // Remove the counters of a book once it has been purged.
+    private static final String SQL_CREATE_STOCK_COUNTERS_DELETE_TRIGGER =
+            "CREATE TRIGGER books_stock_counters_delete AFTER DELETE ON " + BookEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + StockCounterEntry.TABLE_NAME +
+                    " WHERE " + StockCounterEntry.COLUMN_BOOK_ID + " = OLD." + BookEntry._ID + "; END;";
+
+    /*
+     The history gets a row when a book is added, with its starting price and quantity, and
+     then one each time an update changes either of them. An update that only changes other
+     columns doesn't fire the trigger at all, and one that changes only the quantity leaves the
+     price null, so each row stays a few bytes long. The index serves both the history of one
+     book and the compaction, which works through the books' oldest rows.
+    */
+    private static final String SQL_CREATE_HISTORY =
+            "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                    HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                    HistoryEntry.COLUMN_BOOK_ID + " INTEGER NOT NULL," +
+                    HistoryEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL," +
+                    HistoryEntry.COLUMN_PRICE + " INTEGER," +
+                    HistoryEntry.COLUMN_QUANTITY_CHANGE + " INTEGER);";
+
+    private static final String SQL_CREATE_HISTORY_INDEX =
+            "CREATE INDEX book_history_book_idx ON " + HistoryEntry.TABLE_NAME +
+                    " (" + HistoryEntry.COLUMN_BOOK_ID + ", " + HistoryEntry.COLUMN_CHANGED_AT + ");";
+
+    private static final String SQL_CREATE_HISTORY_INSERT_TRIGGER =
+            "CREATE TRIGGER books_history_insert AFTER INSERT ON " + BookEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + HistoryEntry.TABLE_NAME +
+                    " (" + HistoryEntry.COLUMN_BOOK_ID + ", " + HistoryEntry.COLUMN_CHANGED_AT + ", " +
+                    HistoryEntry.COLUMN_PRICE + ", " + HistoryEntry.COLUMN_QUANTITY_CHANGE + ")" +
+                    " VALUES (NEW." + BookEntry._ID + ", " + SQL_NOW_MILLIS + ", NEW." + BookEntry.COLUMN_BOOK_PRICE +
+                    ", NEW." + BookEntry.COLUMN_BOOK_QUANTITY + "); END;";
+
+    private static final String SQL_CREATE_HISTORY_UPDATE_TRIGGER =
+            "CREATE TRIGGER books_history_update AFTER UPDATE OF " +
+                    BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry.COLUMN_BOOK_QUANTITY + " ON " + BookEntry.TABLE_NAME +
+                    " WHEN OLD." + BookEntry.COLUMN_BOOK_PRICE + " IS NOT NEW." + BookEntry.COLUMN_BOOK_PRICE +
+                    " OR OLD." + BookEntry.COLUMN_BOOK_QUANTITY + " IS NOT NEW." + BookEntry.COLUMN_BOOK_QUANTITY +
+                    " BEGIN INSERT INTO " + HistoryEntry.TABLE_NAME +
+                    " (" + HistoryEntry.COLUMN_BOOK_ID + ", " + HistoryEntry.COLUMN_CHANGED_AT + ", " +
+                    HistoryEntry.COLUMN_PRICE + ", " + HistoryEntry.COLUMN_QUANTITY_CHANGE + ")" +
+                    " VALUES (NEW." + BookEntry._ID + ", " + SQL_NOW_MILLIS +
+                    ", NULLIF(NEW." + BookEntry.COLUMN_BOOK_PRICE + ", OLD." + BookEntry.COLUMN_BOOK_PRICE + ")" +
+                    ", NULLIF(NEW." + BookEntry.COLUMN_BOOK_QUANTITY + " - OLD." + BookEntry.COLUMN_BOOK_QUANTITY + ", 0)); END;";
+
+    // Remove the history of a book once it has been purged.
+    private static final String SQL_CREATE_HISTORY_DELETE_TRIGGER =
+            "CREATE TRIGGER books_history_delete AFTER DELETE ON " + BookEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + HistoryEntry.COLUMN_BOOK_ID + " = OLD." + BookEntry._ID + "; END;";
+
+    // The maintenance log holds one row for each maintenance step that has been run.
+    private static final String SQL_CREATE_MAINTENANCE_LOG =
+            "CREATE TABLE " + MaintenanceLogEntry.TABLE_NAME + " (" +
+                    MaintenanceLogEntry.COLUMN_RUN_AT + " INTEGER NOT NULL," +
+                    MaintenanceLogEntry.COLUMN_STEP + " TEXT NOT NULL," +
+                    MaintenanceLogEntry.COLUMN_MICROS + " INTEGER NOT NULL," +
+                    MaintenanceLogEntry.COLUMN_RESULT + " TEXT);";
+
+    // The value of PRAGMA auto_vacuum for incremental auto vacuum.
+    static final long AUTO_VACUUM_INCREMENTAL = 2;
 
     BookDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /*
+     Ask for incremental auto vacuum before any tables are created, so that a new database can
+     hand its free pages back a few at a time. This has no effect on an existing database from
+     before version 7, which keeps auto vacuum off until the maintenance converts it.
+    */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
     // Create a new database if one does not exist.
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL(SQL_CREATE_ENTRIES);
+        sqLiteDatabase.execSQL(SQL_CREATE_LIVE_NAME_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LIVE_NAME_SORT_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_DELETED_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_ISBN_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_FINGERPRINT_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SUPPLIER_REPORT_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_AUTHORS_REPORT_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_PRICE_REPORT_INDEX);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_VERSION_TRIGGER);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_STATE);
+        addDeviceId(sqLiteDatabase);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_STOCK_COUNTERS);
+        sqLiteDatabase.execSQL(SQL_CREATE_STOCK_COUNTERS_DELETE_TRIGGER);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_MAINTENANCE_LOG);
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_DELETE_TRIGGER);
     }
 
     /*
-     Update an existing database if it already exists by removing the old one and then
-     recreating it with the new schema/values.
+     Bring an existing database up to date one version at a time, keeping the books and their
+     history. Each step only makes the changes of its own version, so an old database goes
+     through every step after its version in order. The new columns are filled in for the books
+     that are already there, so they look just as if they had been added with this version.
     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 2) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookEntry.COLUMN_DELETED_AT + " INTEGER");
+            sqLiteDatabase.execSQL(SQL_CREATE_LIVE_NAME_INDEX);
+            sqLiteDatabase.execSQL(SQL_CREATE_DELETED_INDEX);
+        }
+        if (oldVersion < 3) {
+            // A column added later can't be declared unique, so a unique index stands in for it.
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookEntry.COLUMN_GLOBAL_ID + " TEXT");
+            sqLiteDatabase.execSQL(SQL_CREATE_GLOBAL_ID_INDEX);
+            addGlobalIds(sqLiteDatabase);
+
+            // Log every book that is already in the inventory, so that the first sync sends them all.
+            sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG);
+            sqLiteDatabase.execSQL("INSERT INTO " + ChangeLogEntry.TABLE_NAME +
+                    " (" + ChangeLogEntry.COLUMN_BOOK_ID + ", " + ChangeLogEntry.COLUMN_CHANGED_AT + ")" +
+                    " SELECT " + BookEntry._ID + ", " + SQL_NOW_MILLIS + " FROM " + BookEntry.TABLE_NAME +
+                    " ORDER BY " + BookEntry._ID);
+            sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG_INSERT_TRIGGER);
+
+            sqLiteDatabase.execSQL(SQL_CREATE_SYNC_STATE);
+            addDeviceId(sqLiteDatabase);
+        }
+        if (oldVersion < 4) {
+            // The quantities so far are counted as this device's, so they still add up after a merge.
+            sqLiteDatabase.execSQL(SQL_CREATE_STOCK_COUNTERS);
+            sqLiteDatabase.execSQL("INSERT INTO " + StockCounterEntry.TABLE_NAME +
+                    " (" + StockCounterEntry.COLUMN_BOOK_ID + ", " + StockCounterEntry.COLUMN_DEVICE_ID + ", " +
+                    StockCounterEntry.COLUMN_INCREMENTS + ", " + StockCounterEntry.COLUMN_DECREMENTS + ")" +
+                    " SELECT " + BookEntry._ID + ", ?, MAX(" + BookEntry.COLUMN_BOOK_QUANTITY + ", 0), MAX(-" +
+                    BookEntry.COLUMN_BOOK_QUANTITY + ", 0) FROM " + BookEntry.TABLE_NAME +
+                    " WHERE " + BookEntry.COLUMN_BOOK_QUANTITY + " != 0",
+                    new Object[]{DatabaseUtils.stringForQuery(sqLiteDatabase,
+                            "SELECT " + SyncStateEntry.COLUMN_VALUE + " FROM " + SyncStateEntry.TABLE_NAME +
+                                    " WHERE " + SyncStateEntry.COLUMN_NAME + "=?", new String[]{SyncStateEntry.DEVICE_ID})});
+            sqLiteDatabase.execSQL(SQL_CREATE_STOCK_COUNTERS_DELETE_TRIGGER);
+        }
+        if (oldVersion < 5) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookEntry.COLUMN_ISBN + " TEXT");
+            sqLiteDatabase.execSQL(SQL_CREATE_ISBN_INDEX);
+        }
+        if (oldVersion < 6) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookEntry.COLUMN_FINGERPRINT + " TEXT");
+            addFingerprints(sqLiteDatabase);
+            sqLiteDatabase.execSQL(SQL_CREATE_FINGERPRINT_INDEX);
+        }
+        if (oldVersion < 7) {
+            sqLiteDatabase.execSQL(SQL_CREATE_MAINTENANCE_LOG);
+        }
+        if (oldVersion < 8) {
+            sqLiteDatabase.execSQL(SQL_CREATE_SUPPLIER_REPORT_INDEX);
+            sqLiteDatabase.execSQL(SQL_CREATE_AUTHORS_REPORT_INDEX);
+            sqLiteDatabase.execSQL(SQL_CREATE_PRICE_REPORT_INDEX);
+        }
+        if (oldVersion < 9) {
+            // Start the history of each book with its price and quantity as they are now.
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY);
+            sqLiteDatabase.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME +
+                    " (" + HistoryEntry.COLUMN_BOOK_ID + ", " + HistoryEntry.COLUMN_CHANGED_AT + ", " +
+                    HistoryEntry.COLUMN_PRICE + ", " + HistoryEntry.COLUMN_QUANTITY_CHANGE + ")" +
+                    " SELECT " + BookEntry._ID + ", " + SQL_NOW_MILLIS + ", " + BookEntry.COLUMN_BOOK_PRICE +
+                    ", " + BookEntry.COLUMN_BOOK_QUANTITY + " FROM " + BookEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_INDEX);
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_INSERT_TRIGGER);
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_UPDATE_TRIGGER);
+            sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_DELETE_TRIGGER);
+        }
+        if (oldVersion < 10) {
+            /*
+             The change log's update trigger has to skip the update made by the version trigger,
+             so one from an older version is replaced rather than kept.
+            */
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0");
+            sqLiteDatabase.execSQL("DROP TRIGGER IF EXISTS books_change_log_update");
+            sqLiteDatabase.execSQL(SQL_CREATE_CHANGE_LOG_UPDATE_TRIGGER);
+            sqLiteDatabase.execSQL(SQL_CREATE_VERSION_TRIGGER);
+        }
+        if (oldVersion < 11) {
+            sqLiteDatabase.execSQL(SQL_CREATE_LIVE_NAME_SORT_INDEX);
+        }
+    }
+
+    // Give each book that doesn't have one yet the ID that the server knows it by.
+    private static void addGlobalIds(SQLiteDatabase sqLiteDatabase) {
+        Cursor bookCursor = sqLiteDatabase.query(BookEntry.TABLE_NAME, new String[]{BookEntry._ID},
+                BookEntry.COLUMN_GLOBAL_ID + " IS NULL", null, null, null, null);
+        try {
+            ContentValues globalIdValues = new ContentValues();
+            while (bookCursor.moveToNext()) {
+                globalIdValues.put(BookEntry.COLUMN_GLOBAL_ID, UUID.randomUUID().toString());
+                sqLiteDatabase.update(BookEntry.TABLE_NAME, globalIdValues,
+                        BookEntry._ID + "=?", new String[]{bookCursor.getString(0)});
+            }
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Fill in the fingerprint of every book from its name and authors.
+    private static void addFingerprints(SQLiteDatabase sqLiteDatabase) {
+        Cursor bookCursor = sqLiteDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_AUTHORS},
+                null, null, null, null, null);
+        try {
+            ContentValues fingerprintValues = new ContentValues();
+            while (bookCursor.moveToNext()) {
+                fingerprintValues.put(BookEntry.COLUMN_FINGERPRINT,
+                        BookFingerprint.of(bookCursor.getString(1), bookCursor.getString(2)));
+                sqLiteDatabase.update(BookEntry.TABLE_NAME, fingerprintValues,
+                        BookEntry._ID + "=?", new String[]{bookCursor.getString(0)});
+            }
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Give this database its own device ID, which identifies its changes to the server.
+    private static void addDeviceId(SQLiteDatabase sqLiteDatabase) {
+        ContentValues deviceIdValues = new ContentValues();
+        deviceIdValues.put(SyncStateEntry.COLUMN_NAME, SyncStateEntry.DEVICE_ID);
+        deviceIdValues.put(SyncStateEntry.COLUMN_VALUE, UUID.randomUUID().toString());
+        sqLiteDatabase.insert(SyncStateEntry.TABLE_NAME, null, deviceIdValues);
     }
-}
\ No newline at end of file
+}
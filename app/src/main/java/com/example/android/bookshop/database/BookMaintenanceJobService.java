@@ -0,0 +1,137 @@
+package com.example.android.bookshop.database;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+/*
+ Runs the database maintenance about once a day, while the device is idle or charging. There
+ is one job for each of the two conditions, as a job's conditions must all be met together,
+ and whichever runs first does the maintenance. The steps are run one at a time within a time
+ limit, and the next step is remembered so that a run that is cut short carries on from where
+ it stopped.
+*/
+public class BookMaintenanceJobService extends JobService {
+
+    public final String LOG_TAG = BookMaintenanceJobService.class.getSimpleName();
+
+    private static final int IDLE_JOB_ID = 102;
+    private static final int CHARGING_JOB_ID = 103;
+
+    private static final long MAINTENANCE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Don't start the maintenance again if it was finished within this time.
+    private static final long MIN_GAP_MILLIS = 20 * 60 * 60 * 1000;
+
+    // The longest a single run spends starting new steps, so that it never keeps the device busy for long.
+    private static final long MAX_RUN_MILLIS = 20 * 1000;
+
+    private static final String PREFERENCES_NAME = "maintenance";
+    private static final String PREFERENCE_NEXT_STEP = "next_step";
+    private static final String PREFERENCE_FINISHED_AT = "finished_at";
+
+    private volatile boolean maintenanceStopped;
+
+    /*
+     Schedule the periodic maintenance jobs if they haven't been scheduled already. This is safe
+     to call every time the app starts.
+    */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        boolean idleJobPending = false;
+        boolean chargingJobPending = false;
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            idleJobPending |= pendingJob.getId() == IDLE_JOB_ID;
+            chargingJobPending |= pendingJob.getId() == CHARGING_JOB_ID;
+        }
+
+        ComponentName maintenanceService = new ComponentName(context, BookMaintenanceJobService.class);
+        if (!idleJobPending) {
+            jobScheduler.schedule(new JobInfo.Builder(IDLE_JOB_ID, maintenanceService)
+                    .setPeriodic(MAINTENANCE_INTERVAL_MILLIS)
+                    .setRequiresDeviceIdle(true)
+                    .build());
+        }
+        if (!chargingJobPending) {
+            jobScheduler.schedule(new JobInfo.Builder(CHARGING_JOB_ID, maintenanceService)
+                    .setPeriodic(MAINTENANCE_INTERVAL_MILLIS)
+                    .setRequiresCharging(true)
+                    .build());
+        }
+    }
+
+    // Job services are started on the main thread, so run the maintenance on a separate thread.
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        final SharedPreferences preferences = getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
+        String savedStep = preferences.getString(PREFERENCE_NEXT_STEP, null);
+        if (savedStep == null
+                && System.currentTimeMillis() - preferences.getLong(PREFERENCE_FINISHED_AT, 0) < MIN_GAP_MILLIS) {
+            // The other job has already done today's maintenance.
+            return false;
+        }
+
+        // Start from the first step, as well as when the saved step was taken out by a newer version of the app.
+        final String firstStep = DatabaseMaintenance.isStep(savedStep) ? savedStep : BookContract.MAINTENANCE_STEP_COMPACT_HISTORY;
+        maintenanceStopped = false;
+        Thread maintenanceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startMillis = SystemClock.elapsedRealtime();
+                String step = firstStep;
+
+                while (step != null && !maintenanceStopped
+                        && SystemClock.elapsedRealtime() - startMillis < MAX_RUN_MILLIS) {
+                    Bundle result = getContentResolver().call(BookEntry.CONTENT_URI,
+                            BookContract.METHOD_RUN_MAINTENANCE_STEP, step, null);
+                    if (result == null) {
+                        break;
+                    }
+
+                    Log.v(LOG_TAG, "Maintenance step " + step + " took " +
+                            result.getLong(BookContract.KEY_MAINTENANCE_MICROS) + " us: " +
+                            result.getString(BookContract.KEY_MAINTENANCE_RESULT));
+                    step = result.getString(BookContract.KEY_MAINTENANCE_NEXT_STEP);
+                }
+
+                // Remember where to carry on from, or when the maintenance was last finished.
+                SharedPreferences.Editor editor = preferences.edit().putString(PREFERENCE_NEXT_STEP, step);
+                if (step == null) {
+                    editor.putLong(PREFERENCE_FINISHED_AT, System.currentTimeMillis());
+                }
+                editor.apply();
+
+                /*
+                 Only report that the job has finished if it wasn't stopped, as onStopJob has
+                 already asked for it to be rescheduled in that case.
+                */
+                if (!maintenanceStopped) {
+                    jobFinished(jobParameters, false);
+                }
+            }
+        });
+        maintenanceThread.start();
+
+        return true;
+    }
+
+    // Stop the maintenance after its current step and carry on later.
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        maintenanceStopped = true;
+        return true;
+    }
+}
@@ -5,12 +5,35 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.util.SparseArray;
 
+import com.example.android.bookshop.BuildConfig;
+import com.example.android.bookshop.core.BookFingerprint;
+import com.example.android.bookshop.core.BookValidator;
 import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ChangeLogEntry;
+import com.example.android.bookshop.database.BookContract.HistoryEntry;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BookProvider extends ContentProvider {
 
@@ -19,6 +42,18 @@ public class BookProvider extends ContentProvider {
     // URI matcher codes for the book table content URI and single book content URI respectively.
     private static final int BOOKS = 25;
     private static final int BOOK_ID = 50;
+    private static final int BOOK_ISBN = 75;
+    private static final int BOOK_AVAILABILITY = 80;
+    private static final int BOOK_HISTORY = 85;
+    private static final int BOOK_SECTIONS = 90;
+
+    // URI matcher codes for the list of other stores, and the books of one of them.
+    private static final int STORES = 100;
+    private static final int STORE_BOOKS = 125;
+    private static final int STORE_BOOK_ID = 150;
+
+    // URI matcher code for the inventory reports, which are named by the last path segment.
+    private static final int REPORT = 175;
 
     /*
      Initialise the UriMatcher object to match content URIs with their corresponding code.
@@ -27,47 +62,235 @@ public class BookProvider extends ContentProvider {
     */
     private static final UriMatcher sBookUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    // The path of each URI matcher code, which is used to name the code in the metrics.
+    private static final SparseArray<String> sUriCodeNames = new SparseArray<>();
+
     static {
-        sBookUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
-        sBookUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS, BOOKS);
+        addUri(BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_ISBN + "/*", BOOK_ISBN);
+        addUri(BookContract.PATH_BOOKS + "/#/" + BookContract.PATH_AVAILABILITY, BOOK_AVAILABILITY);
+        addUri(BookContract.PATH_BOOKS + "/#/" + BookContract.PATH_HISTORY, BOOK_HISTORY);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SECTIONS, BOOK_SECTIONS);
+        addUri(BookContract.PATH_STORES, STORES);
+        addUri(BookContract.PATH_STORES + "/*/" + BookContract.PATH_BOOKS, STORE_BOOKS);
+        addUri(BookContract.PATH_STORES + "/*/" + BookContract.PATH_BOOKS + "/#", STORE_BOOK_ID);
+        addUri(BookContract.PATH_REPORTS + "/*", REPORT);
     }
 
+    // Names of the operations that are recorded in the metrics.
+    private static final String OPERATION_QUERY = "query";
+    private static final String OPERATION_INSERT = "insert";
+    private static final String OPERATION_BULK_INSERT = "bulk_insert";
+    private static final String OPERATION_UPDATE = "update";
+    private static final String OPERATION_DELETE = "delete";
+    private static final String OPERATION_CALL = "call";
+
+    // Selection that excludes any books that have been deleted but not yet purged.
+    private static final String LIVE_BOOKS_SELECTION = BookEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    // Selection for a single book that has not been deleted.
+    private static final String LIVE_BOOK_ID_SELECTION = BookEntry._ID + "=? AND " + LIVE_BOOKS_SELECTION;
+
+    // Selection for the book with a given ISBN, which matches the partial index on the ISBN column.
+    private static final String LIVE_BOOK_ISBN_SELECTION = BookEntry.COLUMN_ISBN + "=? AND " + LIVE_BOOKS_SELECTION;
+
+    // Take a number of units from a book, but only if it hasn't been deleted and has enough of them.
+    private static final String SQL_GUARDED_DECREMENT =
+            "UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY + " - ?" +
+                    " WHERE " + LIVE_BOOK_ID_SELECTION + " AND " + BookEntry.COLUMN_BOOK_QUANTITY + " >= ?";
+
+    // Selection for the books that share a fingerprint, which matches the partial index on the fingerprint column.
+    private static final String LIVE_BOOK_FINGERPRINT_SELECTION = BookEntry.COLUMN_FINGERPRINT + "=? AND " + LIVE_BOOKS_SELECTION;
+
+    // Add a number of units to a book, but only if it hasn't been deleted.
+    private static final String SQL_INCREMENT =
+            "UPDATE " + BookEntry.TABLE_NAME +
+                    " SET " + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY + " + ?" +
+                    " WHERE " + LIVE_BOOK_ID_SELECTION;
+
+    /*
+     Find every fingerprint that more than one book in the inventory has. This only reads the
+     fingerprint index, in order, rather than the book table.
+    */
+    private static final String SQL_DUPLICATE_FINGERPRINTS =
+            "SELECT " + BookEntry.COLUMN_FINGERPRINT + " FROM " + BookEntry.TABLE_NAME +
+                    " WHERE " + LIVE_BOOKS_SELECTION + " AND " + BookEntry.COLUMN_FINGERPRINT + " IS NOT NULL" +
+                    " GROUP BY " + BookEntry.COLUMN_FINGERPRINT + " HAVING COUNT(*) > 1";
+
+    // The number of sets of duplicate books that are merged in each transaction.
+    private static final int MERGE_CHUNK_SIZE = 100;
+
+    /*
+     The maximum number of deleted books that are purged in one call, so that a purge never
+     holds the database lock for long, and the number of free pages to reclaim afterwards.
+    */
+    private static final int PURGE_CHUNK_SIZE = 200;
+    private static final int VACUUM_PAGE_COUNT = 64;
+
+    // The largest batch of changed books that is read for the sync engine in one call.
+    private static final int MAX_SYNC_BATCH_SIZE = 1000;
+
+    // The directory, in the app's files, that recorded workload traces are written to.
+    private static final String WORKLOAD_DIRECTORY = "workload";
+
     private BookDbHelper databaseHelper;
+    private SyncStore syncStore;
+    private StoreDatabases storeDatabases;
+    private DatabaseMaintenance databaseMaintenance;
+    private InventoryReports inventoryReports;
+    private BookSections bookSections;
+    private BulkRepricer bulkRepricer;
+
+    // The ID of this device never changes once the database has been created, so it is read once.
+    private volatile String deviceId;
+
+    private final ProviderMetrics providerMetrics = new ProviderMetrics();
+    private final SlowQueryLog slowQueryLog = new SlowQueryLog();
+    private final QueryResultCache queryResultCache = new QueryResultCache();
+    private WorkloadRecorder workloadRecorder;
+
+    /*
+     Only switched on in debug builds. Strict mode can be switched on for a whole test run with
+     -Dbookshop.mainthread.strict=true, which the build passes through to the unit tests.
+    */
+    private final MainThreadAuditor mainThreadAuditor =
+            new MainThreadAuditor(BuildConfig.DEBUG, Boolean.getBoolean("bookshop.mainthread.strict"));
+
+    // Goes up by one every time a write to the database is committed.
+    private final AtomicLong dataGeneration = new AtomicLong();
+
+    /*
+     The time stamp given to the books removed by the most recent delete call, and the last
+     time stamp given to any removed book. Every delete call uses a unique time stamp so that it
+     can be undone on its own, and merged duplicates get one of their own that isn't undone.
+    */
+    private long undoDeleteStamp;
+    private long lastDeleteStamp;
+
+    // Add a path to the URI matcher and remember its name for the metrics.
+    private static void addUri(String path, int matchCode) {
+        sBookUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, path, matchCode);
+        sUriCodeNames.put(matchCode, path);
+    }
+
+    // Return the name of the URI matcher code that the given URI matches.
+    private static String uriName(Uri uri) {
+        return sUriCodeNames.get(sBookUriMatcher.match(uri), "unknown");
+    }
 
     // Initialise the database helper object.
     @Override
     public boolean onCreate() {
         databaseHelper = new BookDbHelper(getContext());
+        syncStore = new SyncStore(databaseHelper);
+        storeDatabases = new StoreDatabases(getContext());
+        databaseMaintenance = new DatabaseMaintenance(databaseHelper);
+        inventoryReports = new InventoryReports(databaseHelper, slowQueryLog);
+        bookSections = new BookSections(databaseHelper, slowQueryLog);
+        bulkRepricer = new BulkRepricer(databaseHelper);
+        workloadRecorder = new WorkloadRecorder(new File(getContext().getFilesDir(), WORKLOAD_DIRECTORY), databaseHelper);
         return true;
     }
 
     /*
-     Perform a query for the given URI. Use the given projection, selection, selection
-     arguments and sort order in the provider call.
+     Each of the provider operations below is timed and counted against the URI it was called
+     with, and then handed on to the method that carries it out. While a workload is being
+     recorded, each operation is also written to the trace, whether it succeeded or not. In
+     debug builds, the operations that arrive on the main thread are noted against their call site.
     */
     @Override
     public Cursor query(@NonNull Uri uriInput, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        return query(uriInput, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /*
+     The loaders pass a cancellation signal with each query, which is handed on to SQLite so
+     that a query that has been superseded, such as a search for text that has since been
+     typed over, stops reading the database as soon as it is cancelled.
+    */
+    @Override
+    public Cursor query(@NonNull Uri uriInput, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
+        long startNanos = System.nanoTime();
+        String mainThreadCallSite = mainThreadAuditor.checkCall(OPERATION_QUERY, uriName(uriInput));
+        try {
+            Cursor responseCursor = performQuery(uriInput, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            int rowCount = responseCursor.getCount();
+            providerMetrics.record(OPERATION_QUERY, uriName(uriInput), startNanos, rowCount);
+            workloadRecorder.recordQuery(uriInput, projection, selection, selectionArgs, sortOrder, startNanos,
+                    WorkloadTrace.OUTCOME_OK, rowCount);
+            return responseCursor;
+        } catch (OperationCanceledException e) {
+            // A cancelled query was no longer wanted, so it doesn't count as an error.
+            workloadRecorder.recordQuery(uriInput, projection, selection, selectionArgs, sortOrder, startNanos,
+                    WorkloadTrace.OUTCOME_CANCELLED, 0);
+            throw e;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_QUERY, uriName(uriInput));
+            workloadRecorder.recordQuery(uriInput, projection, selection, selectionArgs, sortOrder, startNanos,
+                    WorkloadTrace.OUTCOME_ERROR, 0);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_QUERY, uriName(uriInput), startNanos);
+            }
+        }
+    }
+
+    /*
+     Perform a query for the given URI. Use the given projection, selection, selection
+     arguments and sort order in the provider call.
+    */
+    private Cursor performQuery(Uri uriInput, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                                CancellationSignal cancellationSignal) {
+        long startNanos = System.nanoTime();
+
         // Get a readable version of the database.
         SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
 
         // Initialise the cursor that will hold the result of the query.
         Cursor responseCursor;
 
-        // Use the URI matcher to match the incoming URI with a specific code.
+        /*
+         Use the URI matcher to match the incoming URI with a specific code. If the list has
+         already been queried in the same way and nothing has been written since, return the
+         cached result without running the query again.
+        */
         final int matchCode = sBookUriMatcher.match(uriInput);
+        final long queryGeneration = dataGeneration.get();
+        if (matchCode == BOOKS) {
+            Cursor cachedCursor = queryResultCache.get(queryGeneration, projection, selection, selectionArgs, sortOrder);
+            if (cachedCursor != null) {
+                if (getContext() != null) {
+                    cachedCursor.setNotificationUri(getContext().getContentResolver(), uriInput);
+                }
+                return cachedCursor;
+            }
+        }
+
+        // Keep hold of the caller's selection, as it forms part of the key for the cached result.
+        final String callerSelection = selection;
+
+        // The table that is queried. For the store URIs, bookDatabase is that store's database.
+        String queryTable = BookEntry.TABLE_NAME;
         switch (matchCode) {
             case BOOKS:
                 /*
                  For the BOOKS code, query the whole book table directly. The returned
-                 cursor will contain all the rows in the book table.
+                 cursor will contain all the rows in the book table that haven't been deleted.
                 */
-                responseCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                selection = DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection);
+                responseCursor = bookDatabase.query(false, BookEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        null,
+                        cancellationSignal);
                 break;
             case BOOK_ID:
                 /*
@@ -75,23 +298,154 @@ public class BookProvider extends ContentProvider {
                  selection arguments array and then perform the query operation with this
                  as an input.
                 */
-                selection = BookEntry._ID + "=?";
+                selection = LIVE_BOOK_ID_SELECTION;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
 
                 // This query will return a Cursor object containing a single row of the table.
-                responseCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                responseCursor = bookDatabase.query(false, BookEntry.TABLE_NAME,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        null,
+                        cancellationSignal);
+                break;
+            case BOOK_ISBN:
+                /*
+                 For the BOOK_ISBN code, look the book up by the ISBN at the end of the URI. The
+                 unique index on the ISBN means this is a single index probe.
+                */
+                selection = LIVE_BOOK_ISBN_SELECTION;
+                selectionArgs = new String[]{uriInput.getLastPathSegment()};
+
+                responseCursor = bookDatabase.query(false, BookEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        null,
+                        cancellationSignal);
+                break;
+            case BOOK_AVAILABILITY:
+                // Find the other stores that have the book in stock, across all their databases.
+                return queryAvailability(uriInput, cancellationSignal);
+            case BOOK_HISTORY:
+                /*
+                 For the BOOK_HISTORY code, read the book's history rows through the index on
+                 the book ID and time, oldest first unless the caller asks otherwise. The history
+                 is kept for deleted books too, until they are purged.
+                */
+                queryTable = HistoryEntry.TABLE_NAME;
+                String bookId = uriInput.getPathSegments().get(1);
+                selection = DatabaseUtils.concatenateWhere(HistoryEntry.COLUMN_BOOK_ID + "=?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(new String[]{bookId}, selectionArgs);
+                if (sortOrder == null) {
+                    sortOrder = HistoryEntry.COLUMN_CHANGED_AT + ", " + HistoryEntry._ID;
+                }
+                responseCursor = bookDatabase.query(false, queryTable,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        null,
+                        cancellationSignal);
+                break;
+            case BOOK_SECTIONS:
+                /*
+                 Count the books under each first letter, or return the cached sections if no
+                 book has been written to since. Like the reports, watch the whole book table.
+                */
+                Cursor sectionCursor = bookSections.query(queryGeneration, selection, selectionArgs, cancellationSignal);
+                if (getContext() != null) {
+                    sectionCursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                }
+                return sectionCursor;
+            case STORES:
+                // List the other stores from their database files.
+                MatrixCursor storesCursor = new MatrixCursor(new String[]{BookContract.StoreEntry.COLUMN_STORE_NAME});
+                for (String storeName : storeDatabases.storeNames()) {
+                    storesCursor.addRow(new Object[]{storeName});
+                }
+                if (getContext() != null) {
+                    storesCursor.setNotificationUri(getContext().getContentResolver(), uriInput);
+                }
+                return storesCursor;
+            case REPORT:
+                /*
+                 Work the report out from the books, or return the cached copy if no book has
+                 been written to since. Watch the whole book table for changes, as a change to
+                 any book can move the report's totals.
+                */
+                Cursor reportCursor = inventoryReports.query(uriInput.getLastPathSegment(), queryGeneration,
+                        projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                if (getContext() != null) {
+                    reportCursor.setNotificationUri(getContext().getContentResolver(), BookEntry.CONTENT_URI);
+                }
+                return reportCursor;
+            case STORE_BOOKS:
+                /*
+                 For the STORE_BOOKS code, query the book table of the named store in the same
+                 way as the book table of this store. It has the same indexes, so the query runs
+                 just as fast, and only that store's database is read.
+                */
+                bookDatabase = storeDatabases.storeDatabase(storeName(uriInput));
+                selection = DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection);
+                responseCursor = bookDatabase.query(false, queryTable,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        null,
+                        cancellationSignal);
+                break;
+            case STORE_BOOK_ID:
+                bookDatabase = storeDatabases.storeDatabase(storeName(uriInput));
+                selection = LIVE_BOOK_ID_SELECTION;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
+                responseCursor = bookDatabase.query(false, queryTable,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        null,
+                        cancellationSignal);
                 break;
             default:
                 // Throw an exception if the input URI did not match one of the acceptable cases.
                 throw new IllegalArgumentException("Cannot query unknown URI: " + uriInput);
         }
 
+        /*
+         SQLite only runs the query once the cursor is first read, so count the rows here to
+         make sure the query time is measured. The loaders read the count straight away anyway.
+         If the query was slow, add it to the slow query log along with its query plan.
+        */
+        int rowCount = responseCursor.getCount();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (slowQueryLog.isSlow(elapsedNanos)) {
+            String querySql = SQLiteQueryBuilder.buildQueryString(false, queryTable,
+                    projection, selection, null, null, sortOrder, null);
+            slowQueryLog.record(bookDatabase, querySql, selectionArgs, elapsedNanos, rowCount);
+        }
+
+        /*
+         Cache the list result against the generation from before the query ran. If a write
+         happened while it was running, the generation will have moved on and it won't be used.
+        */
+        if (matchCode == BOOKS) {
+            responseCursor = queryResultCache.put(queryGeneration, projection, callerSelection, selectionArgs, sortOrder, responseCursor);
+        }
+
         /*
          Set a notification URI on the Cursor so that we know which content URI the Cursor
          was created for. If the data at this URI changes, this will notify that we need to
@@ -104,16 +458,37 @@ public class BookProvider extends ContentProvider {
         return responseCursor;
     }
 
+    @Override
+    public Uri insert(@NonNull Uri uriInput, ContentValues bookValues) {
+        long startNanos = System.nanoTime();
+        String mainThreadCallSite = mainThreadAuditor.checkCall(OPERATION_INSERT, uriName(uriInput));
+        try {
+            Uri newUri = performInsert(uriInput, bookValues);
+            providerMetrics.record(OPERATION_INSERT, uriName(uriInput), startNanos, newUri == null ? 0 : 1);
+            workloadRecorder.recordInsert(uriInput, bookValues, startNanos, WorkloadTrace.OUTCOME_OK, newUri == null ? 0 : 1);
+            return newUri;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_INSERT, uriName(uriInput));
+            workloadRecorder.recordInsert(uriInput, bookValues, startNanos, WorkloadTrace.OUTCOME_ERROR, 0);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_INSERT, uriName(uriInput), startNanos);
+            }
+        }
+    }
+
     /*
      Insert new data into the provider with the given ContentValues. The only acceptable content
      URI that can be passed to this is the one for the whole table.
     */
-    @Override
-    public Uri insert(@NonNull Uri uriInput, ContentValues bookValues) {
+    private Uri performInsert(Uri uriInput, ContentValues bookValues) {
         final int matchCode = sBookUriMatcher.match(uriInput);
         switch (matchCode) {
             case BOOKS:
                 return insertBook(uriInput, bookValues);
+            case STORE_BOOKS:
+                return insertStoreBook(uriInput, bookValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for: " + uriInput);
         }
@@ -124,52 +499,26 @@ public class BookProvider extends ContentProvider {
      for that specific row in the database.
     */
     private Uri insertBook(Uri uriInput, ContentValues bookValues) {
-        // Check that the book name is not null.
-        String bookName = bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME);
-        if (bookName == null) {
-            throw new IllegalArgumentException("Book requires a name.");
-        }
-
-        // If the number of pages is provided, check that it's greater than or equal to 0.
-        Integer bookPages = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PAGES);
-        if (bookPages != null && bookPages < 0) {
-            throw new IllegalArgumentException("Book requires a valid number of pages.");
-        }
-
-        // Check that the price is provided and that it is greater than or equal to 0.
-        Integer bookPrice = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
-        if (bookPrice == null) {
-            throw new IllegalArgumentException("Book requires a price.");
-        } else if (bookPrice < 0) {
-            throw new IllegalArgumentException("Book requires a valid price.");
-        }
-
-        // Check that the quantity is provided and that it is greater than or equal to 0.
-        Integer bookQuantity = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-        if (bookQuantity == null) {
-            throw new IllegalArgumentException("Book requires a quantity.");
-        } else if (bookQuantity < 0) {
-            throw new IllegalArgumentException("Book requires a valid quantity.");
-        }
-
-        // Check that the supplier name is not null.
-        String supplierName = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            throw new IllegalArgumentException("Book requires a supplier name.");
-        }
-
-        // Check that the supplier number is not null.
-        String supplierNumber = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-        if (supplierNumber == null) {
-            throw new IllegalArgumentException("Book requires a supplier number.");
-        }
+        checkNewBook(bookValues);
+        bookValues = withFingerprint(withGlobalId(bookValues));
 
         /*
          Retrieve a writable version of the database and insert the given values into a new
-         row of the book table.
+         row of the book table, along with the stock counter for its starting quantity.
         */
         SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
-        long newBookId = bookDatabase.insert(BookEntry.TABLE_NAME, null, bookValues);
+        long newBookId;
+        bookDatabase.beginTransaction();
+        try {
+            newBookId = bookDatabase.insert(BookEntry.TABLE_NAME, null, bookValues);
+            if (newBookId != -1) {
+                StockCounters.recordChange(bookDatabase, newBookId, getDeviceId(),
+                        bookValues.getAsLong(BookEntry.COLUMN_BOOK_QUANTITY));
+                bookDatabase.setTransactionSuccessful();
+            }
+        } finally {
+            bookDatabase.endTransaction();
+        }
 
         // Log an error message if the new book could not be inserted.
         if (newBookId == -1) {
@@ -178,9 +527,7 @@ public class BookProvider extends ContentProvider {
         }
 
         // Notify all notification URIs that the data has changed for the given content URI.
-        if (getContext() != null) {
-            getContext().getContentResolver().notifyChange(uriInput, null);
-        }
+        notifyDataChanged(uriInput);
 
         /*
          Once we know the ID of the new row in the table, return the new URI with the ID added
@@ -189,23 +536,240 @@ public class BookProvider extends ContentProvider {
         return ContentUris.withAppendedId(uriInput, newBookId);
     }
 
-    // Updates the data at the given selection and selection arguments with the new ContentValues.
+    /*
+     Insert a book into the database of another store. The other stores' stock is looked after
+     by the stores themselves, so their books don't take part in this device's stock counters
+     or sync, and they are deleted straight away rather than kept for undo.
+    */
+    private Uri insertStoreBook(Uri uriInput, ContentValues bookValues) {
+        checkNewBook(bookValues);
+
+        SQLiteDatabase storeDatabase = storeDatabases.storeDatabase(storeName(uriInput));
+        long newBookId = storeDatabase.insert(BookEntry.TABLE_NAME, null, withFingerprint(bookValues));
+        if (newBookId == -1) {
+            Log.e(LOG_TAG, "Failed to insert new book for: " + uriInput);
+            return null;
+        }
+
+        notifyDataChanged(uriInput);
+        return ContentUris.withAppendedId(uriInput, newBookId);
+    }
+
+    // Return the store name from a URI of the form stores/*/books.
+    private static String storeName(Uri uriInput) {
+        String storeName = uriInput.getPathSegments().get(1);
+        StoreDatabases.checkStoreName(storeName);
+        return storeName;
+    }
+
+    /*
+     Return the other stores that have the given book in stock, with the ID and quantity of the
+     book in each one. The book is matched by its ISBN if it has one, or by its name otherwise.
+     Every store's database is searched in turn.
+    */
+    private Cursor queryAvailability(Uri uriInput, CancellationSignal cancellationSignal) {
+        String[] availabilityColumns = {BookContract.StoreEntry.COLUMN_STORE_NAME, BookEntry._ID, BookEntry.COLUMN_BOOK_QUANTITY};
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+
+        // The book's ID is the second path segment of books/#/availability.
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_ISBN},
+                LIVE_BOOK_ID_SELECTION,
+                new String[]{uriInput.getPathSegments().get(1)},
+                null,
+                null,
+                null);
+        String bookName;
+        String bookIsbn;
+        try {
+            if (!bookCursor.moveToFirst()) {
+                return new MatrixCursor(availabilityColumns);
+            }
+            bookName = bookCursor.getString(0);
+            bookIsbn = bookCursor.getString(1);
+        } finally {
+            bookCursor.close();
+        }
+
+        String matchSelection = bookIsbn != null ? LIVE_BOOK_ISBN_SELECTION : BookEntry.COLUMN_BOOK_NAME + "=? AND " + LIVE_BOOKS_SELECTION;
+        String matchValue = bookIsbn != null ? bookIsbn : bookName;
+
+        /*
+         Each store's database is searched on its own, in the order of the store names, and the
+         matches are gathered into one cursor. A store holds few copies of any one book, so the
+         result is small whatever the size of the stores.
+        */
+        MatrixCursor availabilityCursor = new MatrixCursor(availabilityColumns);
+        String storeSelection = matchSelection + " AND " + BookEntry.COLUMN_BOOK_QUANTITY + " > 0";
+        for (String storeName : storeDatabases.storeNames()) {
+            Cursor storeCursor = storeDatabases.storeDatabase(storeName).query(false, BookEntry.TABLE_NAME,
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_QUANTITY},
+                    storeSelection,
+                    new String[]{matchValue},
+                    null,
+                    null,
+                    BookEntry._ID,
+                    null,
+                    cancellationSignal);
+            try {
+                while (storeCursor.moveToNext()) {
+                    availabilityCursor.addRow(new Object[]{storeName, storeCursor.getLong(0), storeCursor.getLong(1)});
+                }
+            } finally {
+                storeCursor.close();
+            }
+        }
+
+        if (getContext() != null) {
+            availabilityCursor.setNotificationUri(getContext().getContentResolver(), BookContract.StoreEntry.CONTENT_URI);
+        }
+        return availabilityCursor;
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uriInput, @NonNull ContentValues[] bookValuesArray) {
+        long startNanos = System.nanoTime();
+        String mainThreadCallSite = mainThreadAuditor.checkCall(OPERATION_BULK_INSERT, uriName(uriInput));
+        try {
+            int rowsInserted = performBulkInsert(uriInput, bookValuesArray);
+            providerMetrics.record(OPERATION_BULK_INSERT, uriName(uriInput), startNanos, rowsInserted);
+            workloadRecorder.recordBulkInsert(uriInput, bookValuesArray, startNanos, WorkloadTrace.OUTCOME_OK, rowsInserted);
+            return rowsInserted;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_BULK_INSERT, uriName(uriInput));
+            workloadRecorder.recordBulkInsert(uriInput, bookValuesArray, startNanos, WorkloadTrace.OUTCOME_ERROR, 0);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_BULK_INSERT, uriName(uriInput), startNanos);
+            }
+        }
+    }
+
+    /*
+     Insert a batch of new books in a single transaction, which is much faster than inserting
+     them one at a time. Either all of the books are inserted or none of them are.
+    */
+    private int performBulkInsert(Uri uriInput, ContentValues[] bookValuesArray) {
+        final int matchCode = sBookUriMatcher.match(uriInput);
+        if (matchCode != BOOKS) {
+            throw new IllegalArgumentException("Insertion is not supported for: " + uriInput);
+        }
+
+        // Check every book before starting the transaction.
+        for (ContentValues bookValues : bookValuesArray) {
+            checkNewBook(bookValues);
+        }
+
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            String deviceId = getDeviceId();
+            for (ContentValues bookValues : bookValuesArray) {
+                long newBookId = bookDatabase.insert(BookEntry.TABLE_NAME, null, withFingerprint(withGlobalId(bookValues)));
+                if (newBookId == -1) {
+                    Log.e(LOG_TAG, "Failed to bulk insert books for: " + uriInput);
+                    return 0;
+                }
+                StockCounters.recordChange(bookDatabase, newBookId, deviceId,
+                        bookValues.getAsLong(BookEntry.COLUMN_BOOK_QUANTITY));
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        // Only notify the notification URIs once for the whole batch.
+        if (bookValuesArray.length != 0) {
+            notifyDataChanged(uriInput);
+        }
+
+        return bookValuesArray.length;
+    }
+
+    // Check that each of the book attributes of a new book follows its rule.
+    private void checkNewBook(ContentValues bookValues) {
+        BookValidator.checkName(bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+        BookValidator.checkPages(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PAGES));
+        BookValidator.checkPrice(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
+        BookValidator.checkQuantity(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+        BookValidator.checkSupplierName(bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME));
+        BookValidator.checkSupplierNumber(bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+        BookValidator.checkIsbn(bookValues.getAsString(BookEntry.COLUMN_ISBN));
+        checkNoFingerprint(bookValues);
+        checkNoVersion(bookValues);
+    }
+
+    /*
+     Give a new book the global ID that identifies it to head office, unless it already has
+     one. The caller's values are copied rather than changed.
+    */
+    private static ContentValues withGlobalId(ContentValues bookValues) {
+        if (bookValues.getAsString(BookEntry.COLUMN_GLOBAL_ID) != null) {
+            return bookValues;
+        }
+
+        ContentValues globalValues = new ContentValues(bookValues);
+        globalValues.put(BookEntry.COLUMN_GLOBAL_ID, UUID.randomUUID().toString());
+        return globalValues;
+    }
+
+    // Give a book the fingerprint of its name and authors. The caller's values are copied rather than changed.
+    private static ContentValues withFingerprint(ContentValues bookValues) {
+        ContentValues fingerprintValues = new ContentValues(bookValues);
+        fingerprintValues.put(BookEntry.COLUMN_FINGERPRINT, BookFingerprint.of(
+                bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME),
+                bookValues.getAsString(BookEntry.COLUMN_BOOK_AUTHORS)));
+        return fingerprintValues;
+    }
+
     @Override
     public int update(@NonNull Uri uriInput, ContentValues bookValues, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        String mainThreadCallSite = mainThreadAuditor.checkCall(OPERATION_UPDATE, uriName(uriInput));
+        try {
+            int rowsUpdated = performUpdate(uriInput, bookValues, selection, selectionArgs);
+            providerMetrics.record(OPERATION_UPDATE, uriName(uriInput), startNanos, rowsUpdated);
+            workloadRecorder.recordUpdate(uriInput, bookValues, selection, selectionArgs, startNanos,
+                    WorkloadTrace.OUTCOME_OK, rowsUpdated);
+            return rowsUpdated;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_UPDATE, uriName(uriInput));
+            workloadRecorder.recordUpdate(uriInput, bookValues, selection, selectionArgs, startNanos,
+                    WorkloadTrace.OUTCOME_ERROR, 0);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_UPDATE, uriName(uriInput), startNanos);
+            }
+        }
+    }
+
+    // Updates the data at the given selection and selection arguments with the new ContentValues.
+    private int performUpdate(Uri uriInput, ContentValues bookValues, String selection, String[] selectionArgs) {
         final int matchCode = sBookUriMatcher.match(uriInput);
         switch (matchCode) {
             case BOOKS:
+                // Only update the books that haven't been deleted.
+                selection = DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection);
                 return updateBook(uriInput, bookValues, selection, selectionArgs);
             case BOOK_ID:
                 /*
                  For the BOOK_ID code, first extract out the ID from the URI so that we
                  know which row to update and then add this to the selection arguments array.
                 */
-                selection = BookEntry._ID + "=?";
+                selection = LIVE_BOOK_ID_SELECTION;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
 
                 // Perform the update operation with the new selection and selectionArgs array.
                 return updateBook(uriInput, bookValues, selection, selectionArgs);
+            case STORE_BOOKS:
+                selection = DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection);
+                return updateStoreBook(uriInput, bookValues, selection, selectionArgs);
+            case STORE_BOOK_ID:
+                selection = LIVE_BOOK_ID_SELECTION;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
+                return updateStoreBook(uriInput, bookValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for: " + uriInput);
         }
@@ -221,88 +785,212 @@ public class BookProvider extends ContentProvider {
             return 0;
         }
 
-        // Check that the name is not null if it is present in the ContentValues object.
-        if (bookValues.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
-            String bookName = bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME);
-            if (bookName == null) {
-                throw new IllegalArgumentException("Book requires a name.");
+        checkChangedBook(bookValues);
+
+        /*
+         Retrieve a writable version of the database and perform the update operation,
+         retrieving the number of rows that were altered.
+         */
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookValues = new ContentValues(bookValues);
+        int rowsUpdated;
+        bookDatabase.beginTransaction();
+        try {
+            if (bookValues.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
+                rowsUpdated = updateBookQuantity(bookDatabase, bookValues, selection, selectionArgs);
+            } else {
+                rowsUpdated = updateWithFingerprints(bookDatabase, BookEntry.TABLE_NAME, bookValues, selection, selectionArgs);
             }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        // Set a notification URI on the Cursor once again.
+        if (rowsUpdated != 0) {
+            notifyDataChanged(uriInput);
+        }
+
+        // Return the number of rows updated
+        return rowsUpdated;
+    }
+
+    // Check that each of the book attributes present in the ContentValues object follows its rule.
+    private void checkChangedBook(ContentValues bookValues) {
+        if (bookValues.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
+            BookValidator.checkName(bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
         }
 
-        /*
-         Check that the number of pages is an acceptable value if it is present in the
-         ContentValues object.
-        */
         if (bookValues.containsKey(BookEntry.COLUMN_BOOK_PAGES)) {
-            Integer bookPages = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PAGES);
-            if (bookPages != null && bookPages < 0) {
-                throw new IllegalArgumentException("Book requires a valid number of pages.");
-            }
+            BookValidator.checkPages(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PAGES));
         }
 
-        /*
-         Check that the price is not null and that it is an acceptable value if it is present
-         in the ContentValues object.
-        */
         if (bookValues.containsKey(BookEntry.COLUMN_BOOK_PRICE)) {
-            Integer bookPrice = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
-            if (bookPrice == null) {
-                throw new IllegalArgumentException("Book requires a price.");
-            } else if (bookPrice < 0) {
-                throw new IllegalArgumentException("Book requires a valid price.");
-            }
+            BookValidator.checkPrice(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
         }
 
-        /*
-         Check that the quantity is not null and that it is an acceptable value if it is
-         present in the ContentValues object.
-        */
         if (bookValues.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
-            Integer bookQuantity = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
-            if (bookQuantity == null) {
-                throw new IllegalArgumentException("Book requires a quantity.");
-            } else if (bookQuantity < 0) {
-                throw new IllegalArgumentException("Book requires a valid quantity.");
-            }
+            BookValidator.checkQuantity(bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
         }
 
-        // Check that the supplier's name is not null if it is present in the ContentValues object.
         if (bookValues.containsKey(BookEntry.COLUMN_SUPPLIER_NAME)) {
-            String bookSupplier = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
-            if (bookSupplier == null) {
-                throw new IllegalArgumentException("Book requires a supplier name.");
-            }
+            BookValidator.checkSupplierName(bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME));
         }
 
-        // Check that the supplier's number is not null if it is present in the ContentValues object.
         if (bookValues.containsKey(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)) {
-            String supplierNumber = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-            if (supplierNumber == null) {
-                throw new IllegalArgumentException("Book requires a supplier number.");
-            }
+            BookValidator.checkSupplierNumber(bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
         }
 
-        /*
-         Retrieve a writable version of the database and perform the update operation,
-         retrieving the number of rows that were altered.
-         */
-        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
-        int rowsUpdated = bookDatabase.update(BookEntry.TABLE_NAME, bookValues, selection, selectionArgs);
+        if (bookValues.containsKey(BookEntry.COLUMN_ISBN)) {
+            BookValidator.checkIsbn(bookValues.getAsString(BookEntry.COLUMN_ISBN));
+        }
 
-        if (getContext() != null) {
-            // Set a notification URI on the Cursor once again.
-            if (rowsUpdated != 0) {
-                getContext().getContentResolver().notifyChange(uriInput, null);
+        checkNoFingerprint(bookValues);
+        checkNoVersion(bookValues);
+    }
+
+    // The fingerprint always follows the name and authors, so it can't be set on its own.
+    private static void checkNoFingerprint(ContentValues bookValues) {
+        if (bookValues.containsKey(BookEntry.COLUMN_FINGERPRINT)) {
+            throw new IllegalArgumentException("Book fingerprint can't be written directly.");
+        }
+    }
+
+    // The version is moved on by a trigger on every write, so it can't be set either.
+    private static void checkNoVersion(ContentValues bookValues) {
+        if (bookValues.containsKey(BookEntry.COLUMN_VERSION)) {
+            throw new IllegalArgumentException("Book version can't be written directly.");
+        }
+    }
+
+    // Update books in the database of another store, which has no stock counters to keep up to date.
+    private int updateStoreBook(Uri uriInput, ContentValues bookValues, String selection, String[] selectionArgs) {
+        if (bookValues.size() == 0) {
+            return 0;
+        }
+
+        checkChangedBook(bookValues);
+
+        SQLiteDatabase storeDatabase = storeDatabases.storeDatabase(storeName(uriInput));
+        bookValues = new ContentValues(bookValues);
+        int rowsUpdated;
+        storeDatabase.beginTransaction();
+        try {
+            rowsUpdated = updateWithFingerprints(storeDatabase, BookEntry.TABLE_NAME, bookValues, selection, selectionArgs);
+            storeDatabase.setTransactionSuccessful();
+        } finally {
+            storeDatabase.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyDataChanged(uriInput);
+        }
+
+        return rowsUpdated;
+    }
+
+    /*
+     Update the selected books, keeping their fingerprints in step with their names and authors
+     in the same UPDATE, so the triggers only see one write for each book. If both the name and
+     the authors are being changed, the new fingerprint is simply added to the values. If only
+     one of them is, each book's fingerprint also depends on its stored value of the other, so
+     each book is updated on its own with its own fingerprint. This has to be called inside a
+     transaction. Return the number of books updated.
+    */
+    private static int updateWithFingerprints(SQLiteDatabase bookDatabase, String booksTable, ContentValues bookValues,
+                                              String selection, String[] selectionArgs) {
+        boolean nameChanged = bookValues.containsKey(BookEntry.COLUMN_BOOK_NAME);
+        boolean authorsChanged = bookValues.containsKey(BookEntry.COLUMN_BOOK_AUTHORS);
+        if (nameChanged == authorsChanged) {
+            if (nameChanged) {
+                bookValues.put(BookEntry.COLUMN_FINGERPRINT, BookFingerprint.of(
+                        bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME),
+                        bookValues.getAsString(BookEntry.COLUMN_BOOK_AUTHORS)));
             }
+            return bookDatabase.update(booksTable, bookValues, selection, selectionArgs);
         }
 
-        // Return the number of rows updated
+        int rowsUpdated = 0;
+        ContentValues bookRowValues = new ContentValues(bookValues);
+        Cursor bookCursor = bookDatabase.query(booksTable,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_AUTHORS},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (bookCursor.moveToNext()) {
+                bookRowValues.put(BookEntry.COLUMN_FINGERPRINT, BookFingerprint.of(
+                        nameChanged ? bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME) : bookCursor.getString(1),
+                        authorsChanged ? bookValues.getAsString(BookEntry.COLUMN_BOOK_AUTHORS) : bookCursor.getString(2)));
+                rowsUpdated += bookDatabase.update(booksTable, bookRowValues,
+                        BookEntry._ID + "=?", new String[]{bookCursor.getString(0)});
+            }
+        } finally {
+            bookCursor.close();
+        }
         return rowsUpdated;
     }
 
-    // Delete the data at the given selection and selection arguments.
+    /*
+     A new quantity is turned into a change from the current one, which is added to this
+     device's stock counter for each book, in the same transaction as the update itself. That
+     keeps the quantity equal to the sum of the counters, and lets a sale on this till be merged
+     with the sales on other tills without either of them being lost.
+    */
+    private int updateBookQuantity(SQLiteDatabase bookDatabase, ContentValues bookValues, String selection, String[] selectionArgs) {
+        long newQuantity = bookValues.getAsLong(BookEntry.COLUMN_BOOK_QUANTITY);
+        String deviceId = getDeviceId();
+
+        bookDatabase.beginTransaction();
+        try {
+            Cursor quantityCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_QUANTITY},
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    null);
+            try {
+                while (quantityCursor.moveToNext()) {
+                    StockCounters.recordChange(bookDatabase, quantityCursor.getLong(0), deviceId,
+                            newQuantity - quantityCursor.getLong(1));
+                }
+            } finally {
+                quantityCursor.close();
+            }
+
+            int rowsUpdated = updateWithFingerprints(bookDatabase, BookEntry.TABLE_NAME, bookValues, selection, selectionArgs);
+            bookDatabase.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            bookDatabase.endTransaction();
+        }
+    }
+
     @Override
     public int delete(@NonNull Uri uriInput, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        String mainThreadCallSite = mainThreadAuditor.checkCall(OPERATION_DELETE, uriName(uriInput));
+        try {
+            int rowsDeleted = performDelete(uriInput, selection, selectionArgs);
+            providerMetrics.record(OPERATION_DELETE, uriName(uriInput), startNanos, rowsDeleted);
+            workloadRecorder.recordDelete(uriInput, selection, selectionArgs, startNanos, WorkloadTrace.OUTCOME_OK, rowsDeleted);
+            return rowsDeleted;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_DELETE, uriName(uriInput));
+            workloadRecorder.recordDelete(uriInput, selection, selectionArgs, startNanos, WorkloadTrace.OUTCOME_ERROR, 0);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_DELETE, uriName(uriInput), startNanos);
+            }
+        }
+    }
+
+    /*
+     Delete the data at the given selection and selection arguments. Rather than removing the
+     rows straight away, mark them with a deletion time stamp so that the deletion can be undone.
+     The tombstoned rows are removed later on by the purge job.
+    */
+    private int performDelete(Uri uriInput, String selection, String[] selectionArgs) {
         // Get a writable version of the database.
         SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
 
@@ -315,29 +1003,731 @@ public class BookProvider extends ContentProvider {
         switch (matchCode) {
             case BOOKS:
                 // Delete all the rows that match the selection and selection args.
-                rowsDeleted = bookDatabase.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                selection = DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection);
+                rowsDeleted = tombstoneBooks(bookDatabase, selection, selectionArgs);
                 break;
             case BOOK_ID:
                 // Delete a single row given by the ID in the URI.
+                selection = LIVE_BOOK_ID_SELECTION;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
+                rowsDeleted = tombstoneBooks(bookDatabase, selection, selectionArgs);
+                break;
+            case STORE_BOOKS:
+                // The other stores' books are deleted straight away, as they can't be undone.
+                rowsDeleted = storeDatabases.storeDatabase(storeName(uriInput)).delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case STORE_BOOK_ID:
                 selection = BookEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uriInput))};
-                rowsDeleted = bookDatabase.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = storeDatabases.storeDatabase(storeName(uriInput)).delete(BookEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for: " + uriInput);
         }
 
-        if (getContext() != null) {
-            // Set a notification URI on the Cursor once again.
-            if (rowsDeleted != 0) {
-                getContext().getContentResolver().notifyChange(uriInput, null);
-            }
+        // Set a notification URI on the Cursor once again.
+        if (rowsDeleted != 0) {
+            notifyDataChanged(uriInput);
         }
 
         // Return the number of rows deleted.
         return rowsDeleted;
     }
 
+    /*
+     Move the data generation on once a write has been committed, so that no cached results
+     from before the write are served, and then let any observers know about the change.
+    */
+    private void notifyDataChanged(Uri changedUri) {
+        dataGeneration.incrementAndGet();
+        if (getContext() != null) {
+            getContext().getContentResolver().notifyChange(changedUri, null);
+        }
+    }
+
+    // Return the ID of this device, which its stock counters are kept under.
+    private String getDeviceId() {
+        if (deviceId == null) {
+            deviceId = syncStore.getDeviceId();
+        }
+        return deviceId;
+    }
+
+    /*
+     Mark the matching books as deleted with a new time stamp of their own. Only a delete that
+     removed some books becomes the one that undo restores, so deleting nothing, or deleting
+     another store's books, which is done straight away, doesn't lose a delete that could still
+     be undone.
+    */
+    private int tombstoneBooks(SQLiteDatabase bookDatabase, String selection, String[] selectionArgs) {
+        long deleteStamp = nextTombstoneStamp();
+        ContentValues tombstoneValues = new ContentValues();
+        tombstoneValues.put(BookEntry.COLUMN_DELETED_AT, deleteStamp);
+
+        int rowsDeleted = bookDatabase.update(BookEntry.TABLE_NAME, tombstoneValues, selection, selectionArgs);
+        if (rowsDeleted > 0) {
+            synchronized (this) {
+                undoDeleteStamp = Math.max(undoDeleteStamp, deleteStamp);
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /*
+     Return a new time stamp for removed books. If two calls happen within the same
+     millisecond, move the second one on by a millisecond so that each one stays unique.
+    */
+    private synchronized long nextTombstoneStamp() {
+        lastDeleteStamp = Math.max(System.currentTimeMillis(), lastDeleteStamp + 1);
+        return lastDeleteStamp;
+    }
+
+    // Handle the provider specific methods that don't fit into the query, insert, update or delete calls.
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        long startNanos = System.nanoTime();
+
+        // The audit's own methods are left out, so that a test on the main thread can read it and switch strict mode off.
+        String mainThreadCallSite = BookContract.METHOD_MAIN_THREAD_CALLS.equals(method)
+                || BookContract.METHOD_SET_MAIN_THREAD_STRICT.equals(method)
+                ? null : mainThreadAuditor.checkCall(OPERATION_CALL, method);
+        try {
+            Bundle result = performCall(method, arg, extras);
+            providerMetrics.record(OPERATION_CALL, method, startNanos, 0);
+            recordCall(method, arg, extras, startNanos, WorkloadTrace.OUTCOME_OK);
+            return result;
+        } catch (RuntimeException e) {
+            providerMetrics.recordError(OPERATION_CALL, method);
+            recordCall(method, arg, extras, startNanos, WorkloadTrace.OUTCOME_ERROR);
+            throw e;
+        } finally {
+            if (mainThreadCallSite != null) {
+                mainThreadAuditor.record(mainThreadCallSite, OPERATION_CALL, method, startNanos);
+            }
+        }
+    }
+
+    // Switching the recording on or off isn't part of the workload, so it is left out of the trace.
+    private void recordCall(String method, String arg, Bundle extras, long startNanos, int outcome) {
+        if (!BookContract.METHOD_SET_WORKLOAD_RECORDING.equals(method)) {
+            workloadRecorder.recordCall(method, arg, extras, startNanos, outcome);
+        }
+    }
+
+    private Bundle performCall(String method, String arg, Bundle extras) {
+        switch (method) {
+            case BookContract.METHOD_METRICS:
+                Bundle metricsBundle = providerMetrics.toBundle();
+                metricsBundle.putLong(BookContract.KEY_METRICS_CACHE_HITS, queryResultCache.getHitCount());
+                metricsBundle.putLong(BookContract.KEY_METRICS_CACHE_MISSES, queryResultCache.getMissCount());
+                return metricsBundle;
+            case BookContract.METHOD_SLOW_QUERIES:
+                return slowQueryLog.toBundle();
+            case BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                // The new threshold in milliseconds is passed in as the argument.
+                if (arg == null) {
+                    throw new IllegalArgumentException("Slow query threshold requires a number of milliseconds.");
+                }
+                slowQueryLog.setThresholdMillis(Long.parseLong(arg));
+                return slowQueryLog.toBundle();
+            case BookContract.METHOD_SET_WORKLOAD_RECORDING:
+                // Whether to record is passed in as the argument, "true" or "false".
+                workloadRecorder.setRecording(Boolean.parseBoolean(arg));
+                Bundle recordingBundle = new Bundle();
+                recordingBundle.putBoolean(BookContract.KEY_WORKLOAD_RECORDING, workloadRecorder.isRecording());
+                recordingBundle.putString(BookContract.KEY_WORKLOAD_TRACE_DIRECTORY,
+                        workloadRecorder.getTraceDirectory().getAbsolutePath());
+                return recordingBundle;
+            case BookContract.METHOD_MAIN_THREAD_CALLS:
+                return mainThreadAuditor.toBundle();
+            case BookContract.METHOD_SET_MAIN_THREAD_STRICT:
+                // Whether calls on the main thread should fail is passed in as the argument, "true" or "false".
+                mainThreadAuditor.setStrict(Boolean.parseBoolean(arg));
+                return mainThreadAuditor.toBundle();
+            case BookContract.METHOD_UNDO_DELETE:
+                return undoLastDelete();
+            case BookContract.METHOD_PURGE_DELETED:
+                return purgeDeletedBooks();
+            case BookContract.METHOD_SYNC_STATE:
+                return syncStore.getState();
+            case BookContract.METHOD_GET_CHANGES:
+                // The batch size is passed in the extras, and capped so the result fits in a Binder transaction.
+                int limit = extras == null ? MAX_SYNC_BATCH_SIZE : extras.getInt(BookContract.KEY_SYNC_LIMIT, MAX_SYNC_BATCH_SIZE);
+                if (limit <= 0) {
+                    throw new IllegalArgumentException("Sync batch size must be positive: " + limit);
+                }
+                return syncStore.getChanges(Math.min(limit, MAX_SYNC_BATCH_SIZE));
+            case BookContract.METHOD_ACKNOWLEDGE_CHANGES:
+                // The last sequence number that the server has stored is passed in as the argument.
+                syncStore.acknowledge(Long.parseLong(arg));
+                return syncStore.getState();
+            case BookContract.METHOD_APPLY_SYNC_DELTAS:
+                return applySyncDeltas(extras);
+            case BookContract.METHOD_SELL_BY_ISBN:
+                // The scanned ISBN is passed in as the argument.
+                return sellByIsbn(arg);
+            case BookContract.METHOD_CHECKOUT:
+                return checkout(extras);
+            case BookContract.METHOD_FIND_DUPLICATE:
+                return findDuplicate(extras);
+            case BookContract.METHOD_ADD_STOCK:
+                // The ID of the book is passed in as the argument.
+                return addStock(Long.parseLong(arg), extras);
+            case BookContract.METHOD_MERGE_DUPLICATES:
+                return mergeDuplicates();
+            case BookContract.METHOD_RUN_MAINTENANCE_STEP:
+                // The name of the step to run is passed in as the argument.
+                return databaseMaintenance.runStep(arg);
+            case BookContract.METHOD_REPRICE:
+                return reprice(extras);
+            case BookContract.METHOD_UPDATE_IF_VERSION:
+                // The ID of the book is passed in as the argument.
+                return updateIfVersion(Long.parseLong(arg), extras);
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    /*
+     Restore the books that were removed by the most recent delete call, as long as it was
+     made within the undo window. Return the number of rows that were restored.
+    */
+    private Bundle undoLastDelete() {
+        long deleteStamp;
+        synchronized (this) {
+            deleteStamp = undoDeleteStamp;
+        }
+
+        int rowsRestored = 0;
+        if (deleteStamp != 0 && System.currentTimeMillis() - deleteStamp <= BookContract.UNDO_WINDOW_MILLIS) {
+            // Clear the tombstone from every row that was given the time stamp of the last delete.
+            ContentValues restoreValues = new ContentValues();
+            restoreValues.putNull(BookEntry.COLUMN_DELETED_AT);
+
+            SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+            /*
+             Skip any book whose ISBN has been given to a new book since it was deleted, as
+             restoring it would break the unique ISBN index.
+            */
+            rowsRestored = bookDatabase.updateWithOnConflict(BookEntry.TABLE_NAME,
+                    restoreValues,
+                    BookEntry.COLUMN_DELETED_AT + "=?",
+                    new String[]{String.valueOf(deleteStamp)},
+                    SQLiteDatabase.CONFLICT_IGNORE);
+        }
+
+        if (rowsRestored != 0) {
+            notifyDataChanged(BookEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(BookContract.KEY_ROWS_RESTORED, rowsRestored);
+        return result;
+    }
+
+    /*
+     Sell one unit of the book with the given ISBN, as long as it is in stock. The lookup, the
+     stock check and the decrement all happen in one call and one transaction, so a barcode
+     scan only needs a single round trip to the provider and two tills can't sell the last copy
+     twice.
+    */
+    private Bundle sellByIsbn(String isbn) {
+        BookValidator.checkIsbn(isbn);
+
+        Bundle result = new Bundle();
+        result.putInt(BookContract.KEY_SALE_RESULT, BookContract.SALE_UNKNOWN_ISBN);
+
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_QUANTITY},
+                    LIVE_BOOK_ISBN_SELECTION,
+                    new String[]{isbn},
+                    null,
+                    null,
+                    null);
+            try {
+                if (!bookCursor.moveToFirst()) {
+                    return result;
+                }
+
+                long bookId = bookCursor.getLong(0);
+                int quantity = bookCursor.getInt(2);
+                result.putLong(BookContract.KEY_SALE_BOOK_ID, bookId);
+                result.putString(BookContract.KEY_SALE_BOOK_NAME, bookCursor.getString(1));
+
+                if (quantity <= 0) {
+                    result.putInt(BookContract.KEY_SALE_RESULT, BookContract.SALE_OUT_OF_STOCK);
+                    result.putInt(BookContract.KEY_SALE_QUANTITY, quantity);
+                    return result;
+                }
+
+                StockCounters.recordChange(bookDatabase, bookId, getDeviceId(), -1);
+                ContentValues quantityValues = new ContentValues();
+                quantityValues.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity - 1);
+                bookDatabase.update(BookEntry.TABLE_NAME, quantityValues, BookEntry._ID + "=?",
+                        new String[]{String.valueOf(bookId)});
+
+                result.putInt(BookContract.KEY_SALE_RESULT, BookContract.SALE_SOLD);
+                result.putInt(BookContract.KEY_SALE_QUANTITY, quantity - 1);
+            } finally {
+                bookCursor.close();
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        notifyDataChanged(BookEntry.CONTENT_URI);
+        return result;
+    }
+
+    /*
+     Sell every line of a basket in one transaction. Each line is a guarded decrement that only
+     changes the book if it has enough stock, so if any line is short the transaction is rolled
+     back and nothing is sold. Observers are only notified once, when the whole basket is sold.
+    */
+    private Bundle checkout(Bundle extras) {
+        long[] bookIds = extras == null ? null : extras.getLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS);
+        int[] quantities = extras == null ? null : extras.getIntArray(BookContract.KEY_CHECKOUT_QUANTITIES);
+        if (bookIds == null || quantities == null || bookIds.length != quantities.length) {
+            throw new IllegalArgumentException("Checkout requires a book ID and a quantity for each line.");
+        }
+
+        // Add up the lines for the same book, so that each one is only checked against its stock once.
+        LinkedHashMap<Long, Integer> basket = new LinkedHashMap<>();
+        int unitsSold = 0;
+        for (int line = 0; line < bookIds.length; line++) {
+            if (quantities[line] <= 0) {
+                throw new IllegalArgumentException("Checkout requires a positive quantity: " + quantities[line]);
+            }
+            Integer basketQuantity = basket.get(bookIds[line]);
+            basket.put(bookIds[line], basketQuantity == null ? quantities[line] : basketQuantity + quantities[line]);
+            unitsSold += quantities[line];
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(BookContract.KEY_CHECKOUT_COMPLETE, false);
+
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        String deviceId = getDeviceId();
+        bookDatabase.beginTransaction();
+        try {
+            SQLiteStatement decrementStatement = bookDatabase.compileStatement(SQL_GUARDED_DECREMENT);
+            try {
+                for (Map.Entry<Long, Integer> basketLine : basket.entrySet()) {
+                    long bookId = basketLine.getKey();
+                    int quantity = basketLine.getValue();
+
+                    decrementStatement.bindLong(1, quantity);
+                    decrementStatement.bindLong(2, bookId);
+                    decrementStatement.bindLong(3, quantity);
+                    if (decrementStatement.executeUpdateDelete() == 0) {
+                        result.putLong(BookContract.KEY_CHECKOUT_SHORT_BOOK_ID, bookId);
+                        result.putString(BookContract.KEY_CHECKOUT_SHORT_BOOK_NAME, findBookName(bookDatabase, bookId));
+                        return result;
+                    }
+                    StockCounters.recordChange(bookDatabase, bookId, deviceId, -quantity);
+                }
+            } finally {
+                decrementStatement.close();
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        if (!basket.isEmpty()) {
+            notifyDataChanged(BookEntry.CONTENT_URI);
+        }
+
+        result.putBoolean(BookContract.KEY_CHECKOUT_COMPLETE, true);
+        result.putInt(BookContract.KEY_CHECKOUT_UNITS_SOLD, unitsSold);
+        return result;
+    }
+
+    /*
+     Find the book in the inventory with the same name and authors as the ones in the extras,
+     ignoring case, accents, spaces and punctuation, with one probe of the fingerprint index.
+     Return its ID, name and quantity, or an empty Bundle if there isn't one.
+    */
+    private Bundle findDuplicate(Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException("Duplicate check requires a book name.");
+        }
+        String bookName = extras.getString(BookEntry.COLUMN_BOOK_NAME);
+        BookValidator.checkName(bookName);
+        String fingerprint = BookFingerprint.of(bookName, extras.getString(BookEntry.COLUMN_BOOK_AUTHORS));
+
+        Bundle result = new Bundle();
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_QUANTITY},
+                LIVE_BOOK_FINGERPRINT_SELECTION,
+                new String[]{fingerprint},
+                null,
+                null,
+                BookEntry._ID,
+                "1");
+        try {
+            if (bookCursor.moveToFirst()) {
+                result.putLong(BookContract.KEY_DUPLICATE_BOOK_ID, bookCursor.getLong(0));
+                result.putString(BookContract.KEY_DUPLICATE_BOOK_NAME, bookCursor.getString(1));
+                result.putInt(BookContract.KEY_DUPLICATE_QUANTITY, bookCursor.getInt(2));
+            }
+        } finally {
+            bookCursor.close();
+        }
+        return result;
+    }
+
+    /*
+     Add a number of units to a book, such as when a restock is merged into a book that is
+     already in the inventory. Return the book's new quantity, or an empty Bundle if it has
+     been deleted.
+    */
+    private Bundle addStock(long bookId, Bundle extras) {
+        int addedQuantity = extras == null ? -1 : extras.getInt(BookContract.KEY_ADD_STOCK_QUANTITY, -1);
+        BookValidator.checkQuantity(addedQuantity);
+
+        Bundle result = new Bundle();
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            SQLiteStatement incrementStatement = bookDatabase.compileStatement(SQL_INCREMENT);
+            try {
+                incrementStatement.bindLong(1, addedQuantity);
+                incrementStatement.bindLong(2, bookId);
+                if (incrementStatement.executeUpdateDelete() == 0) {
+                    return result;
+                }
+            } finally {
+                incrementStatement.close();
+            }
+            StockCounters.recordChange(bookDatabase, bookId, getDeviceId(), addedQuantity);
+            result.putInt(BookContract.KEY_DUPLICATE_QUANTITY, (int) DatabaseUtils.longForQuery(bookDatabase,
+                    "SELECT " + BookEntry.COLUMN_BOOK_QUANTITY + " FROM " + BookEntry.TABLE_NAME +
+                            " WHERE " + BookEntry._ID + "=?",
+                    new String[]{String.valueOf(bookId)}));
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        notifyDataChanged(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        return result;
+    }
+
+    /*
+     Update a book with the changed values in the extras and add the change in quantity to it,
+     but only if the book is still at the version that the changes are based on. Otherwise,
+     write nothing and return the book's current values and version, so that the caller can
+     merge its changes with them rather than overwriting a change it hasn't seen, such as a sale
+     made from the list while the book was open in the editor.
+    */
+    private Bundle updateIfVersion(long bookId, Bundle extras) {
+        if (extras == null || !extras.containsKey(BookContract.KEY_UPDATE_VERSION)) {
+            throw new IllegalArgumentException("Versioned update requires the version it is based on.");
+        }
+        long baseVersion = extras.getLong(BookContract.KEY_UPDATE_VERSION);
+        int quantityChange = extras.getInt(BookContract.KEY_UPDATE_QUANTITY_CHANGE, 0);
+        ContentValues changedValues = extras.getParcelable(BookContract.KEY_UPDATE_VALUES);
+        changedValues = changedValues == null ? new ContentValues() : new ContentValues(changedValues);
+        if (changedValues.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
+            throw new IllegalArgumentException("Versioned update requires the quantity to be sent as a change.");
+        }
+        checkChangedBook(changedValues);
+
+        String[] idArgs = {String.valueOf(bookId)};
+        Bundle result = new Bundle();
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            ContentValues currentValues = readEditableValues(bookDatabase, idArgs);
+            if (currentValues == null) {
+                result.putInt(BookContract.KEY_UPDATE_RESULT, BookContract.UPDATE_DELETED);
+                return result;
+            }
+
+            long currentVersion = currentValues.getAsLong(BookEntry.COLUMN_VERSION);
+            int newQuantity = currentValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY) + quantityChange;
+            if (currentVersion != baseVersion) {
+                result.putInt(BookContract.KEY_UPDATE_RESULT, BookContract.UPDATE_CONFLICT);
+                result.putLong(BookContract.KEY_UPDATE_VERSION, currentVersion);
+                result.putParcelable(BookContract.KEY_UPDATE_CURRENT_VALUES, currentValues);
+                return result;
+            } else if (newQuantity < 0) {
+                result.putInt(BookContract.KEY_UPDATE_RESULT, BookContract.UPDATE_NOT_ENOUGH_STOCK);
+                result.putLong(BookContract.KEY_UPDATE_VERSION, currentVersion);
+                result.putParcelable(BookContract.KEY_UPDATE_CURRENT_VALUES, currentValues);
+                return result;
+            }
+
+            // If nothing has changed, there is nothing to write and the version stays the same.
+            result.putInt(BookContract.KEY_UPDATE_RESULT, BookContract.UPDATE_SAVED);
+            if (changedValues.size() == 0 && quantityChange == 0) {
+                result.putLong(BookContract.KEY_UPDATE_VERSION, currentVersion);
+                return result;
+            }
+
+            if (quantityChange != 0) {
+                changedValues.put(BookEntry.COLUMN_BOOK_QUANTITY, newQuantity);
+                StockCounters.recordChange(bookDatabase, bookId, getDeviceId(), quantityChange);
+            }
+            updateWithFingerprints(bookDatabase, BookEntry.TABLE_NAME, changedValues, LIVE_BOOK_ID_SELECTION, idArgs);
+
+            result.putLong(BookContract.KEY_UPDATE_VERSION, DatabaseUtils.longForQuery(bookDatabase,
+                    "SELECT " + BookEntry.COLUMN_VERSION + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + "=?",
+                    idArgs));
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        notifyDataChanged(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        return result;
+    }
+
+    // Read the values of a book that the editor can change, along with its version, or null if it has been deleted.
+    private static ContentValues readEditableValues(SQLiteDatabase bookDatabase, String[] idArgs) {
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_AUTHORS, BookEntry.COLUMN_BOOK_PAGES,
+                        BookEntry.COLUMN_ISBN, BookEntry.COLUMN_BOOK_PRICE, BookEntry.COLUMN_BOOK_QUANTITY,
+                        BookEntry.COLUMN_SUPPLIER_NAME, BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, BookEntry.COLUMN_VERSION},
+                LIVE_BOOK_ID_SELECTION,
+                idArgs,
+                null,
+                null,
+                null);
+        try {
+            if (!bookCursor.moveToFirst()) {
+                return null;
+            }
+            ContentValues currentValues = new ContentValues();
+            currentValues.put(BookEntry.COLUMN_BOOK_NAME, bookCursor.getString(0));
+            currentValues.put(BookEntry.COLUMN_BOOK_AUTHORS, bookCursor.getString(1));
+            currentValues.put(BookEntry.COLUMN_BOOK_PAGES, bookCursor.getInt(2));
+            currentValues.put(BookEntry.COLUMN_ISBN, bookCursor.getString(3));
+            currentValues.put(BookEntry.COLUMN_BOOK_PRICE, bookCursor.getInt(4));
+            currentValues.put(BookEntry.COLUMN_BOOK_QUANTITY, bookCursor.getInt(5));
+            currentValues.put(BookEntry.COLUMN_SUPPLIER_NAME, bookCursor.getString(6));
+            currentValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, bookCursor.getString(7));
+            currentValues.put(BookEntry.COLUMN_VERSION, bookCursor.getLong(8));
+            return currentValues;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Reprice the books chosen by the extras, and let the list know if any prices changed.
+    private Bundle reprice(Bundle extras) {
+        Bundle result = bulkRepricer.reprice(extras);
+        if (!extras.getBoolean(BookContract.KEY_REPRICE_DRY_RUN) && result.getInt(BookContract.KEY_REPRICE_COUNT) != 0) {
+            notifyDataChanged(BookEntry.CONTENT_URI);
+        }
+        return result;
+    }
+
+    /*
+     Merge every set of books in the inventory that share a fingerprint into the oldest book of
+     the set. The stock of the others is moved onto it through the stock counters, and it takes
+     the ISBN of one of them if it has none, then the others are removed. The sets are found by
+     reading the fingerprint index once, and are merged a chunk at a time, so that a large
+     inventory never holds the database lock for long. Return the number of sets merged and the
+     number of books removed.
+    */
+    private Bundle mergeDuplicates() {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        List<String> duplicateFingerprints = new ArrayList<>();
+        Cursor fingerprintCursor = bookDatabase.rawQuery(SQL_DUPLICATE_FINGERPRINTS, null);
+        try {
+            while (fingerprintCursor.moveToNext()) {
+                duplicateFingerprints.add(fingerprintCursor.getString(0));
+            }
+        } finally {
+            fingerprintCursor.close();
+        }
+
+        String deviceId = getDeviceId();
+        ContentValues tombstoneValues = new ContentValues();
+        tombstoneValues.put(BookEntry.COLUMN_DELETED_AT, nextTombstoneStamp());
+        tombstoneValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 0);
+
+        int booksMerged = 0;
+        for (int chunkStart = 0; chunkStart < duplicateFingerprints.size(); chunkStart += MERGE_CHUNK_SIZE) {
+            int chunkEnd = Math.min(chunkStart + MERGE_CHUNK_SIZE, duplicateFingerprints.size());
+            bookDatabase.beginTransaction();
+            try {
+                for (String fingerprint : duplicateFingerprints.subList(chunkStart, chunkEnd)) {
+                    booksMerged += mergeDuplicateSet(bookDatabase, fingerprint, deviceId, tombstoneValues);
+                }
+                bookDatabase.setTransactionSuccessful();
+            } finally {
+                bookDatabase.endTransaction();
+            }
+        }
+
+        if (booksMerged != 0) {
+            notifyDataChanged(BookEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(BookContract.KEY_DUPLICATE_GROUPS, duplicateFingerprints.size());
+        result.putInt(BookContract.KEY_DUPLICATES_MERGED, booksMerged);
+        return result;
+    }
+
+    // Merge the books with the given fingerprint into the oldest one, and return how many were removed.
+    private static int mergeDuplicateSet(SQLiteDatabase bookDatabase, String fingerprint, String deviceId,
+                                         ContentValues tombstoneValues) {
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_QUANTITY, BookEntry.COLUMN_ISBN},
+                LIVE_BOOK_FINGERPRINT_SELECTION,
+                new String[]{fingerprint},
+                null,
+                null,
+                BookEntry._ID);
+        try {
+            if (!bookCursor.moveToFirst()) {
+                return 0;
+            }
+            long keptBookId = bookCursor.getLong(0);
+            String keptIsbn = bookCursor.getString(2);
+            String mergedIsbn = null;
+            long movedQuantity = 0;
+            int booksRemoved = 0;
+
+            while (bookCursor.moveToNext()) {
+                long bookId = bookCursor.getLong(0);
+                long quantity = bookCursor.getLong(1);
+                if (mergedIsbn == null) {
+                    mergedIsbn = bookCursor.getString(2);
+                }
+
+                StockCounters.recordChange(bookDatabase, bookId, deviceId, -quantity);
+                bookDatabase.update(BookEntry.TABLE_NAME, tombstoneValues, BookEntry._ID + "=?",
+                        new String[]{String.valueOf(bookId)});
+                movedQuantity += quantity;
+                booksRemoved++;
+            }
+
+            ContentValues keptValues = new ContentValues();
+            if (keptIsbn == null && mergedIsbn != null) {
+                // The removed book no longer holds the ISBN in the unique index, so it can be moved.
+                keptValues.put(BookEntry.COLUMN_ISBN, mergedIsbn);
+            }
+            if (movedQuantity != 0) {
+                StockCounters.recordChange(bookDatabase, keptBookId, deviceId, movedQuantity);
+                bookDatabase.execSQL(SQL_INCREMENT, new Object[]{movedQuantity, keptBookId});
+            }
+            if (keptValues.size() != 0) {
+                bookDatabase.update(BookEntry.TABLE_NAME, keptValues, BookEntry._ID + "=?",
+                        new String[]{String.valueOf(keptBookId)});
+            }
+            return booksRemoved;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Return the name of a book that hasn't been deleted, or null if there isn't one.
+    private static String findBookName(SQLiteDatabase bookDatabase, long bookId) {
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry.COLUMN_BOOK_NAME},
+                LIVE_BOOK_ID_SELECTION,
+                new String[]{String.valueOf(bookId)},
+                null,
+                null,
+                null);
+        try {
+            return bookCursor.moveToFirst() ? bookCursor.getString(0) : null;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    /*
+     Apply the books sent by the server, along with the server's sequence number for the
+     batch. Observers are only notified once for the whole batch.
+    */
+    private Bundle applySyncDeltas(Bundle extras) {
+        if (extras == null || !extras.containsKey(BookContract.KEY_SYNC_SERVER_SEQUENCE)) {
+            throw new IllegalArgumentException("Sync deltas require a server sequence number.");
+        }
+
+        ArrayList<ContentValues> serverBooks = extras.getParcelableArrayList(BookContract.KEY_SYNC_BOOKS);
+        ArrayList<ContentValues> serverCounters = extras.getParcelableArrayList(BookContract.KEY_SYNC_COUNTERS);
+        int booksApplied = syncStore.applyDeltas(serverBooks == null ? new ArrayList<ContentValues>() : serverBooks,
+                serverCounters == null ? new ArrayList<ContentValues>() : serverCounters,
+                extras.getLong(BookContract.KEY_SYNC_SERVER_SEQUENCE));
+
+        if (booksApplied != 0) {
+            notifyDataChanged(BookEntry.CONTENT_URI);
+        }
+
+        Bundle result = syncStore.getState();
+        result.putInt(BookContract.KEY_SYNC_APPLIED, booksApplied);
+        return result;
+    }
+
+    /*
+     Permanently remove one chunk of the deleted books whose undo window has passed and then
+     hand a few of the freed pages back to the file system. The result states whether there
+     are any more books left to purge, so the caller can keep going while it has time.
+    */
+    private Bundle purgeDeletedBooks() {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        long purgeBefore = System.currentTimeMillis() - BookContract.UNDO_WINDOW_MILLIS;
+
+        /*
+         Once sync is set up, a deletion has to reach head office before the book can go, so
+         keep any tombstones that are still waiting in the change log. Without sync, trim the
+         change log instead so that it doesn't grow without limit.
+        */
+        String pendingSyncSelection = "";
+        if (syncStore.isSyncEnabled()) {
+            pendingSyncSelection = " AND " + BookEntry._ID + " NOT IN (SELECT " + ChangeLogEntry.COLUMN_BOOK_ID +
+                    " FROM " + ChangeLogEntry.TABLE_NAME + ")";
+        } else {
+            syncStore.trimChangeLog(PURGE_CHUNK_SIZE);
+        }
+
+        /*
+         Pick out the oldest tombstones using the deleted index and remove at most one chunk
+         of them.
+        */
+        int rowsPurged = bookDatabase.delete(BookEntry.TABLE_NAME,
+                BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME +
+                        " WHERE " + BookEntry.COLUMN_DELETED_AT + " < ?" + pendingSyncSelection +
+                        " ORDER BY " + BookEntry.COLUMN_DELETED_AT +
+                        " LIMIT " + PURGE_CHUNK_SIZE + ")",
+                new String[]{String.valueOf(purgeBefore)});
+
+        /*
+         Reclaim a limited number of free pages. This can only be done when the database uses
+         incremental auto vacuum, which it does once it has been converted after an upgrade.
+         Until then the pages are simply reused by later inserts.
+        */
+        if (rowsPurged != 0 && DatabaseUtils.longForQuery(bookDatabase, "PRAGMA auto_vacuum", null)
+                == BookDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            bookDatabase.execSQL("PRAGMA incremental_vacuum(" + VACUUM_PAGE_COUNT + ")");
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(BookContract.KEY_ROWS_PURGED, rowsPurged);
+        result.putBoolean(BookContract.KEY_PURGE_INCOMPLETE, rowsPurged == PURGE_CHUNK_SIZE);
+        return result;
+    }
+
+    // Write the metrics out when the provider is dumped, for example with "adb shell dumpsys activity provider".
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        providerMetrics.dump(writer);
+        databaseMaintenance.dump(writer);
+        mainThreadAuditor.dump(writer);
+    }
+
     // Returns the MIME type of data for the content URI.
     @Override
     public String getType(@NonNull Uri uri) {
@@ -346,7 +1736,20 @@ public class BookProvider extends ContentProvider {
             case BOOKS:
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
+            case BOOK_ISBN:
+            case STORE_BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case STORE_BOOKS:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case STORES:
+            case BOOK_AVAILABILITY:
+                return BookContract.StoreEntry.CONTENT_LIST_TYPE;
+            case REPORT:
+                return BookContract.ReportEntry.CONTENT_LIST_TYPE;
+            case BOOK_HISTORY:
+                return HistoryEntry.CONTENT_LIST_TYPE;
+            case BOOK_SECTIONS:
+                return BookContract.SectionEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI: " + uri + " with match: " + matchCode);
         }
@@ -0,0 +1,94 @@
+package com.example.android.bookshop.database;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+public class BookPurgeJobService extends JobService {
+
+    public final String LOG_TAG = BookPurgeJobService.class.getSimpleName();
+
+    private static final int PURGE_JOB_ID = 100;
+
+    // Run the purge a few times a day, whenever the device isn't being used.
+    private static final long PURGE_INTERVAL_MILLIS = 6 * 60 * 60 * 1000;
+
+    private volatile boolean purgeStopped;
+
+    /*
+     Schedule the periodic purge job if it hasn't been scheduled already. This is safe to call
+     every time the app starts.
+    */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == PURGE_JOB_ID) {
+                return;
+            }
+        }
+
+        JobInfo purgeJob = new JobInfo.Builder(PURGE_JOB_ID, new ComponentName(context, BookPurgeJobService.class))
+                .setPeriodic(PURGE_INTERVAL_MILLIS)
+                .setRequiresDeviceIdle(true)
+                .build();
+        jobScheduler.schedule(purgeJob);
+    }
+
+    /*
+     Job services are started on the main thread, so do the purge on a separate thread. Each
+     provider call only purges one small chunk, which lets the job stop quickly if it's asked to.
+    */
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        purgeStopped = false;
+        Thread purgeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int totalPurged = 0;
+                boolean purgeIncomplete = true;
+
+                while (purgeIncomplete && !purgeStopped) {
+                    Bundle result = getContentResolver().call(BookEntry.CONTENT_URI,
+                            BookContract.METHOD_PURGE_DELETED, null, null);
+                    if (result == null) {
+                        break;
+                    }
+
+                    totalPurged += result.getInt(BookContract.KEY_ROWS_PURGED);
+                    purgeIncomplete = result.getBoolean(BookContract.KEY_PURGE_INCOMPLETE);
+                }
+
+                Log.v(LOG_TAG, totalPurged + " deleted books purged from the database.");
+
+                /*
+                 Only report that the job has finished if it wasn't stopped, as onStopJob has
+                 already asked for it to be rescheduled in that case.
+                */
+                if (!purgeStopped) {
+                    jobFinished(jobParameters, false);
+                }
+            }
+        });
+        purgeThread.start();
+
+        return true;
+    }
+
+    // Stop the purge after its current chunk and retry it later on.
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        purgeStopped = true;
+        return true;
+    }
+}
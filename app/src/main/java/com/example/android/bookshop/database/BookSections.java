@@ -0,0 +1,88 @@
+package com.example.android.bookshop.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.SectionEntry;
+
+import java.util.Locale;
+
+/*
+ Works out the sections of the main list, one for each first letter of the books' names, with
+ a single GROUP BY over the index of the names in list order. Only the counts of each letter
+ are read, never the books, and the position of each section is added up from the counts. The
+ result is cached against the data generation it was read at, so scrolling and reloading the
+ list don't count the books again until one is written to.
+*/
+class BookSections {
+
+    // Selection that excludes deleted books, which matches the partial index on the names.
+    private static final String LIVE_BOOKS_SELECTION = BookEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /*
+     The first letter of a name, compared in the same way as the list is sorted, so that each
+     section covers the books in one unbroken run of the list.
+    */
+    private static final String SECTION_EXPRESSION =
+            "SUBSTR(" + BookEntry.COLUMN_BOOK_NAME + ", 1, 1) COLLATE NOCASE";
+
+    private static final String[] SECTION_COLUMNS = {
+            SectionEntry.COLUMN_SECTION,
+            SectionEntry.COLUMN_FIRST_POSITION,
+            SectionEntry.COLUMN_BOOK_COUNT};
+
+    private final BookDbHelper databaseHelper;
+    private final SlowQueryLog slowQueryLog;
+    private final SingleResultCache sectionCache = new SingleResultCache();
+
+    BookSections(BookDbHelper databaseHelper, SlowQueryLog slowQueryLog) {
+        this.databaseHelper = databaseHelper;
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /*
+     Return the sections of the list of books that match the selection, in list order. The
+     sections always have the same columns, so there is no projection or sort order to apply.
+    */
+    Cursor query(long generation, String selection, String[] selectionArgs, CancellationSignal cancellationSignal) {
+        Cursor cachedCursor = sectionCache.get(generation, null, selection, selectionArgs, null);
+        if (cachedCursor != null) {
+            return cachedCursor;
+        }
+
+        String sectionSql = "SELECT SUBSTR(" + BookEntry.COLUMN_BOOK_NAME + ", 1, 1), COUNT(*)" +
+                " FROM " + BookEntry.TABLE_NAME +
+                " WHERE " + DatabaseUtils.concatenateWhere(LIVE_BOOKS_SELECTION, selection) +
+                " GROUP BY " + SECTION_EXPRESSION +
+                " ORDER BY " + SECTION_EXPRESSION;
+
+        long startNanos = System.nanoTime();
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+        Cursor countCursor = bookDatabase.rawQuery(sectionSql, selectionArgs, cancellationSignal);
+
+        // Turn the count of each letter into the position in the list where its books start.
+        MatrixCursor sectionCursor = new MatrixCursor(SECTION_COLUMNS, countCursor.getCount());
+        int firstPosition = 0;
+        try {
+            while (countCursor.moveToNext()) {
+                int bookCount = countCursor.getInt(1);
+                sectionCursor.addRow(new Object[]{
+                        countCursor.getString(0).toUpperCase(Locale.getDefault()), firstPosition, bookCount});
+                firstPosition += bookCount;
+            }
+        } finally {
+            countCursor.close();
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (slowQueryLog.isSlow(elapsedNanos)) {
+            slowQueryLog.record(bookDatabase, sectionSql, selectionArgs, elapsedNanos, sectionCursor.getCount());
+        }
+
+        return sectionCache.put(generation, null, selection, selectionArgs, null, sectionCursor);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ Changes the price of every book that matches a selection with a single UPDATE, so that a
+ supplier's price change across thousands of books is one statement rather than one update
+ call for each book. The new price is worked out by SQLite from the old one, so the books are
+ never read into the app, not even for a dry run, which only counts them and reads a sample.
+*/
+class BulkRepricer {
+
+    // The number of books returned as a sample by a dry run.
+    private static final int SAMPLE_SIZE = 10;
+
+    private final BookDbHelper databaseHelper;
+
+    BulkRepricer(BookDbHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    /*
+     Reprice the books chosen by the extras, or only preview the change for a dry run. Books
+     whose price wouldn't change are left alone and aren't counted, so they don't show up as
+     changes to sync. Return the number of books repriced, or that would be.
+    */
+    Bundle reprice(Bundle extras) {
+        if (extras == null) {
+            throw new IllegalArgumentException("Repricing requires a rule.");
+        }
+
+        // Build the selection of the books first, with their values bound as arguments.
+        StringBuilder selection = new StringBuilder(BookEntry.COLUMN_DELETED_AT + " IS NULL");
+        List<String> selectionArgs = new ArrayList<>();
+        String supplierName = extras.getString(BookContract.KEY_REPRICE_SUPPLIER_NAME);
+        if (supplierName != null) {
+            selection.append(" AND ").append(BookEntry.COLUMN_SUPPLIER_NAME).append(" = ?");
+            selectionArgs.add(supplierName);
+        }
+        String authors = extras.getString(BookContract.KEY_REPRICE_AUTHORS);
+        if (authors != null) {
+            selection.append(" AND ").append(BookEntry.COLUMN_BOOK_AUTHORS).append(" = ?");
+            selectionArgs.add(authors);
+        }
+        int minPrice = extras.getInt(BookContract.KEY_REPRICE_MIN_PRICE, 0);
+        int maxPrice = extras.getInt(BookContract.KEY_REPRICE_MAX_PRICE, Integer.MAX_VALUE);
+        if (minPrice < 0 || maxPrice < minPrice) {
+            throw new IllegalArgumentException("Repricing requires a valid price range: " + minPrice + " to " + maxPrice);
+        }
+        if (extras.containsKey(BookContract.KEY_REPRICE_MIN_PRICE)) {
+            selection.append(" AND ").append(BookEntry.COLUMN_BOOK_PRICE).append(" >= ?");
+            selectionArgs.add(String.valueOf(minPrice));
+        }
+        if (extras.containsKey(BookContract.KEY_REPRICE_MAX_PRICE)) {
+            selection.append(" AND ").append(BookEntry.COLUMN_BOOK_PRICE).append(" <= ?");
+            selectionArgs.add(String.valueOf(maxPrice));
+        }
+
+        // Then only touch the books whose price would change.
+        String newPrice = newPriceExpression(extras);
+        selection.append(" AND ").append(BookEntry.COLUMN_BOOK_PRICE).append(" <> ").append(newPrice);
+        String[] selectionArgsArray = selectionArgs.toArray(new String[selectionArgs.size()]);
+
+        Bundle result = new Bundle();
+        if (extras.getBoolean(BookContract.KEY_REPRICE_DRY_RUN)) {
+            SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+            result.putInt(BookContract.KEY_REPRICE_COUNT, (int) DatabaseUtils.longForQuery(bookDatabase,
+                    "SELECT COUNT(*) FROM " + BookEntry.TABLE_NAME + " WHERE " + selection,
+                    selectionArgsArray));
+            result.putParcelableArrayList(BookContract.KEY_REPRICE_SAMPLE,
+                    readSample(bookDatabase, newPrice, selection.toString(), selectionArgsArray));
+            return result;
+        }
+
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            SQLiteStatement repriceStatement = bookDatabase.compileStatement(
+                    "UPDATE " + BookEntry.TABLE_NAME +
+                            " SET " + BookEntry.COLUMN_BOOK_PRICE + " = " + newPrice +
+                            " WHERE " + selection);
+            try {
+                repriceStatement.bindAllArgsAsStrings(selectionArgsArray);
+                result.putInt(BookContract.KEY_REPRICE_COUNT, repriceStatement.executeUpdateDelete());
+            } finally {
+                repriceStatement.close();
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+        return result;
+    }
+
+    /*
+     Build the SQL expression for the new price of a book from the rule in the extras. The
+     rule's values are numbers that have already been read as such, so they can be written into
+     the SQL, which lets the expression be used in both the SET and the WHERE clause.
+    */
+    private static String newPriceExpression(Bundle extras) {
+        boolean hasPercent = extras.containsKey(BookContract.KEY_REPRICE_PERCENT);
+        boolean hasDelta = extras.containsKey(BookContract.KEY_REPRICE_DELTA);
+        boolean roundTo99 = extras.getBoolean(BookContract.KEY_REPRICE_ROUND_TO_99);
+        if (!hasPercent && !hasDelta && !roundTo99) {
+            throw new IllegalArgumentException("Repricing requires a percentage, a change in price or rounding.");
+        }
+
+        String newPrice = BookEntry.COLUMN_BOOK_PRICE;
+        if (hasPercent) {
+            double percent = extras.getDouble(BookContract.KEY_REPRICE_PERCENT);
+            if (!(percent > -100) || Double.isInfinite(percent)) {
+                throw new IllegalArgumentException("Repricing requires a percentage above -100: " + percent);
+            }
+            newPrice = String.format(Locale.ENGLISH, "CAST(ROUND(%s * %s) AS INTEGER)", newPrice, 1 + percent / 100);
+        }
+        if (hasDelta) {
+            newPrice = "(" + newPrice + " + " + extras.getInt(BookContract.KEY_REPRICE_DELTA) + ")";
+        }
+
+        // A price can't go below nothing, however large a cut is.
+        newPrice = "MAX(0, " + newPrice + ")";
+
+        // The nearest price ending in 99 pence, which is never below 99 pence.
+        if (roundTo99) {
+            newPrice = "MAX(99, ((" + newPrice + " + 51) / 100) * 100 - 1)";
+        }
+        return newPrice;
+    }
+
+    // Read the first few books that would be repriced, with their old and new prices.
+    private static ArrayList<ContentValues> readSample(SQLiteDatabase bookDatabase, String newPrice, String selection,
+                                                       String[] selectionArgs) {
+        ArrayList<ContentValues> sample = new ArrayList<>();
+        Cursor sampleCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_PRICE,
+                        newPrice + " AS " + BookContract.KEY_REPRICE_NEW_PRICE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                BookEntry._ID,
+                String.valueOf(SAMPLE_SIZE));
+        try {
+            while (sampleCursor.moveToNext()) {
+                ContentValues sampleValues = new ContentValues();
+                sampleValues.put(BookEntry._ID, sampleCursor.getLong(0));
+                sampleValues.put(BookEntry.COLUMN_BOOK_NAME, sampleCursor.getString(1));
+                sampleValues.put(BookEntry.COLUMN_BOOK_PRICE, sampleCursor.getInt(2));
+                sampleValues.put(BookContract.KEY_REPRICE_NEW_PRICE, sampleCursor.getInt(3));
+                sample.add(sampleValues);
+            }
+        } finally {
+            sampleCursor.close();
+        }
+        return sample;
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract.HistoryEntry;
+import com.example.android.bookshop.database.BookContract.MaintenanceLogEntry;
+
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Runs the database maintenance one short step at a time, so that the job running it can stop
+ between any two steps. The steps fold old book history together, keep the query planner's
+ statistics up to date, hand the pages freed by deleted books and old history back to the
+ file system and check that the file isn't corrupt. A database from before version 7 is
+ also converted to incremental auto vacuum, once, by the one step that can take a while.
+ Every step is recorded in the maintenance log along with how long it took.
+*/
+class DatabaseMaintenance {
+
+    // The number of free pages handed back in each incremental vacuum step.
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    // PRAGMA optimize was added in SQLite 3.18.0. Older versions ignore it, so run ANALYZE instead.
+    private static final int[] OPTIMIZE_MIN_VERSION = {3, 18, 0};
+
+    // The number of books whose history is compacted in each step.
+    private static final int HISTORY_STEP_BOOKS = 200;
+
+    // Find the books with more than one history row from before the retention period.
+    private static final String SQL_HISTORY_TO_COMPACT =
+            "SELECT " + HistoryEntry.COLUMN_BOOK_ID + " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + HistoryEntry.COLUMN_CHANGED_AT + " < ?" +
+                    " GROUP BY " + HistoryEntry.COLUMN_BOOK_ID + " HAVING COUNT(*) > 1" +
+                    " LIMIT " + HISTORY_STEP_BOOKS;
+
+    /*
+     Sum up the old history rows of a book: the time of the last one, the total change in its
+     quantity and the last price that was set.
+    */
+    private static final String SQL_FOLD_HISTORY =
+            "SELECT MAX(" + HistoryEntry.COLUMN_CHANGED_AT + "), SUM(" + HistoryEntry.COLUMN_QUANTITY_CHANGE + ")," +
+                    " (SELECT " + HistoryEntry.COLUMN_PRICE + " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + HistoryEntry.COLUMN_BOOK_ID + " = ?1 AND " + HistoryEntry.COLUMN_CHANGED_AT + " < ?2" +
+                    " AND " + HistoryEntry.COLUMN_PRICE + " IS NOT NULL" +
+                    " ORDER BY " + HistoryEntry.COLUMN_CHANGED_AT + " DESC, " + HistoryEntry._ID + " DESC LIMIT 1)" +
+                    " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + HistoryEntry.COLUMN_BOOK_ID + " = ?1 AND " + HistoryEntry.COLUMN_CHANGED_AT + " < ?2";
+
+    // The number of maintenance log rows that are kept, which covers a few months of daily runs.
+    private static final int LOG_CAPACITY = 500;
+
+    private final BookDbHelper databaseHelper;
+
+    DatabaseMaintenance(BookDbHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    // Return whether the given step is one of the maintenance steps, for checking a step saved by an older version.
+    static boolean isStep(String step) {
+        return BookContract.MAINTENANCE_STEP_COMPACT_HISTORY.equals(step)
+                || BookContract.MAINTENANCE_STEP_CONVERT_AUTO_VACUUM.equals(step)
+                || BookContract.MAINTENANCE_STEP_INCREMENTAL_VACUUM.equals(step)
+                || BookContract.MAINTENANCE_STEP_OPTIMIZE.equals(step)
+                || BookContract.MAINTENANCE_STEP_QUICK_CHECK.equals(step);
+    }
+
+    // Run a single maintenance step and return how long it took and the step to run next.
+    Bundle runStep(String step) {
+        if (step == null) {
+            throw new IllegalArgumentException("Maintenance requires a step to run.");
+        }
+
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        long startNanos = System.nanoTime();
+        String result;
+        String nextStep;
+
+        switch (step) {
+            case BookContract.MAINTENANCE_STEP_COMPACT_HISTORY:
+                // Compact a batch of books, and come back to this step until a batch isn't full.
+                int booksCompacted = compactHistory(bookDatabase, System.currentTimeMillis() - HistoryEntry.RETENTION_MILLIS);
+                result = booksCompacted + " books compacted";
+                nextStep = booksCompacted == HISTORY_STEP_BOOKS
+                        ? BookContract.MAINTENANCE_STEP_COMPACT_HISTORY
+                        : BookContract.MAINTENANCE_STEP_CONVERT_AUTO_VACUUM;
+                break;
+            case BookContract.MAINTENANCE_STEP_CONVERT_AUTO_VACUUM:
+                /*
+                 A database from before version 7 still has auto vacuum off, which is recorded in
+                 the file itself, so there is no flag to keep. Turning it on takes a full VACUUM to
+                 rebuild the file, which is left to the maintenance rather than holding up the
+                 first open after the upgrade. Once it is on, this step only reads the setting.
+                */
+                if (DatabaseUtils.longForQuery(bookDatabase, "PRAGMA auto_vacuum", null)
+                        == BookDbHelper.AUTO_VACUUM_INCREMENTAL) {
+                    result = "already incremental";
+                } else {
+                    bookDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                    bookDatabase.execSQL("VACUUM");
+                    result = "converted";
+                }
+                nextStep = BookContract.MAINTENANCE_STEP_INCREMENTAL_VACUUM;
+                break;
+            case BookContract.MAINTENANCE_STEP_INCREMENTAL_VACUUM:
+                /*
+                 Hand back one batch of free pages, and come back to this step while any are left.
+                 If none were handed back, auto vacuum isn't on, so move on rather than trying again.
+                */
+                long freePagesBefore = DatabaseUtils.longForQuery(bookDatabase, "PRAGMA freelist_count", null);
+                bookDatabase.execSQL("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                long freePages = DatabaseUtils.longForQuery(bookDatabase, "PRAGMA freelist_count", null);
+                result = freePages + " free pages left";
+                nextStep = freePages > 0 && freePages < freePagesBefore
+                        ? BookContract.MAINTENANCE_STEP_INCREMENTAL_VACUUM
+                        : BookContract.MAINTENANCE_STEP_OPTIMIZE;
+                break;
+            case BookContract.MAINTENANCE_STEP_OPTIMIZE:
+                /*
+                 PRAGMA optimize only analyses the tables whose statistics are likely to be out of
+                 date, so it is cheap when little has changed.
+                */
+                String sqliteVersion = DatabaseUtils.stringForQuery(bookDatabase, "SELECT sqlite_version()", null);
+                if (isAtLeast(sqliteVersion, OPTIMIZE_MIN_VERSION)) {
+                    bookDatabase.execSQL("PRAGMA optimize");
+                    result = "optimize";
+                } else {
+                    bookDatabase.execSQL("ANALYZE");
+                    result = "analyze";
+                }
+                nextStep = BookContract.MAINTENANCE_STEP_QUICK_CHECK;
+                break;
+            case BookContract.MAINTENANCE_STEP_QUICK_CHECK:
+                result = quickCheck(bookDatabase);
+                nextStep = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown maintenance step: " + step);
+        }
+
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        recordStep(bookDatabase, step, elapsedMicros, result);
+
+        Bundle stepResult = new Bundle();
+        stepResult.putString(BookContract.KEY_MAINTENANCE_NEXT_STEP, nextStep);
+        stepResult.putLong(BookContract.KEY_MAINTENANCE_MICROS, elapsedMicros);
+        stepResult.putString(BookContract.KEY_MAINTENANCE_RESULT, result);
+        return stepResult;
+    }
+
+    // Write the most recent maintenance steps out, for the provider's dump.
+    void dump(PrintWriter writer) {
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+        Cursor logCursor = bookDatabase.query(MaintenanceLogEntry.TABLE_NAME,
+                new String[]{MaintenanceLogEntry.COLUMN_RUN_AT, MaintenanceLogEntry.COLUMN_STEP,
+                        MaintenanceLogEntry.COLUMN_MICROS, MaintenanceLogEntry.COLUMN_RESULT},
+                null,
+                null,
+                null,
+                null,
+                MaintenanceLogEntry.COLUMN_RUN_AT + " DESC",
+                "20");
+        try {
+            writer.println("Recent maintenance steps:");
+            DateFormat dateFormat = DateFormat.getDateTimeInstance();
+            while (logCursor.moveToNext()) {
+                writer.println("  " + dateFormat.format(new Date(logCursor.getLong(0))) + " " + logCursor.getString(1) +
+                        " took " + logCursor.getLong(2) + " us: " + logCursor.getString(3));
+            }
+        } finally {
+            logCursor.close();
+        }
+    }
+
+    /*
+     Fold the history rows from before the cutoff into a single row for each of a batch of
+     books, which keeps the book's price and quantity at that time. The history from after the
+     cutoff is left as it is, so every change within the retention period can still be seen.
+     Return the number of books compacted.
+    */
+    private static int compactHistory(SQLiteDatabase bookDatabase, long cutoffMillis) {
+        String cutoff = String.valueOf(cutoffMillis);
+        List<String> bookIds = new ArrayList<>();
+        Cursor bookCursor = bookDatabase.rawQuery(SQL_HISTORY_TO_COMPACT, new String[]{cutoff});
+        try {
+            while (bookCursor.moveToNext()) {
+                bookIds.add(bookCursor.getString(0));
+            }
+        } finally {
+            bookCursor.close();
+        }
+
+        bookDatabase.beginTransaction();
+        try {
+            for (String bookId : bookIds) {
+                String[] foldArgs = {bookId, cutoff};
+                ContentValues foldedValues = new ContentValues();
+                foldedValues.put(HistoryEntry.COLUMN_BOOK_ID, bookId);
+                Cursor foldCursor = bookDatabase.rawQuery(SQL_FOLD_HISTORY, foldArgs);
+                try {
+                    foldCursor.moveToFirst();
+                    foldedValues.put(HistoryEntry.COLUMN_CHANGED_AT, foldCursor.getLong(0));
+                    if (!foldCursor.isNull(1)) {
+                        foldedValues.put(HistoryEntry.COLUMN_QUANTITY_CHANGE, foldCursor.getLong(1));
+                    }
+                    if (!foldCursor.isNull(2)) {
+                        foldedValues.put(HistoryEntry.COLUMN_PRICE, foldCursor.getLong(2));
+                    }
+                } finally {
+                    foldCursor.close();
+                }
+
+                bookDatabase.delete(HistoryEntry.TABLE_NAME,
+                        HistoryEntry.COLUMN_BOOK_ID + " = ? AND " + HistoryEntry.COLUMN_CHANGED_AT + " < ?",
+                        foldArgs);
+                bookDatabase.insert(HistoryEntry.TABLE_NAME, null, foldedValues);
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+        return bookIds.size();
+    }
+
+    /*
+     Run a quick integrity check, which checks the structure of the file without comparing the
+     indexes to their tables. Return "ok", or the first problem found.
+    */
+    private static String quickCheck(SQLiteDatabase bookDatabase) {
+        Cursor checkCursor = bookDatabase.rawQuery("PRAGMA quick_check(1)", null);
+        try {
+            return checkCursor.moveToFirst() ? checkCursor.getString(0) : "no result";
+        } finally {
+            checkCursor.close();
+        }
+    }
+
+    // Add a step to the maintenance log, dropping the oldest rows once it is full.
+    private static void recordStep(SQLiteDatabase bookDatabase, String step, long elapsedMicros, String result) {
+        ContentValues logValues = new ContentValues();
+        logValues.put(MaintenanceLogEntry.COLUMN_RUN_AT, System.currentTimeMillis());
+        logValues.put(MaintenanceLogEntry.COLUMN_STEP, step);
+        logValues.put(MaintenanceLogEntry.COLUMN_MICROS, elapsedMicros);
+        logValues.put(MaintenanceLogEntry.COLUMN_RESULT, result);
+        bookDatabase.insert(MaintenanceLogEntry.TABLE_NAME, null, logValues);
+
+        bookDatabase.delete(MaintenanceLogEntry.TABLE_NAME,
+                "rowid NOT IN (SELECT rowid FROM " + MaintenanceLogEntry.TABLE_NAME +
+                        " ORDER BY rowid DESC LIMIT " + LOG_CAPACITY + ")",
+                null);
+    }
+
+    // Check whether a version string such as "3.22.0" is at least the given version.
+    private static boolean isAtLeast(String version, int[] minimumVersion) {
+        String[] versionParts = version.split("\\.");
+        for (int i = 0; i < minimumVersion.length; i++) {
+            int part = 0;
+            if (i < versionParts.length) {
+                try {
+                    part = Integer.parseInt(versionParts[i]);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            if (part != minimumVersion[i]) {
+                return part > minimumVersion[i];
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.android.bookshop.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.CancellationSignal;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ReportEntry;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ Works out the inventory reports with a GROUP BY query over the books that haven't been
+ deleted. Each report is read from its own covering index rather than the book table, and its
+ result is cached against the data generation it was read at, so opening a report again is
+ free until a book is written to.
+*/
+class InventoryReports {
+
+    // Selection that excludes deleted books, which matches the partial report indexes.
+    private static final String LIVE_BOOKS_SELECTION = BookEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    // The expression that the books are grouped by in the price band report.
+    private static final String PRICE_BAND_EXPRESSION =
+            "(" + BookEntry.COLUMN_BOOK_PRICE + " / " + ReportEntry.PRICE_BAND_WIDTH + ") * " + ReportEntry.PRICE_BAND_WIDTH;
+
+    private final BookDbHelper databaseHelper;
+    private final SlowQueryLog slowQueryLog;
+
+    // Each report has its own cache, so that opening one report doesn't push another out.
+    private final Map<String, SingleResultCache> reportCaches = new HashMap<>();
+
+    InventoryReports(BookDbHelper databaseHelper, SlowQueryLog slowQueryLog) {
+        this.databaseHelper = databaseHelper;
+        this.slowQueryLog = slowQueryLog;
+
+        reportCaches.put(ReportEntry.REPORT_SUPPLIER_STOCK, new SingleResultCache());
+        reportCaches.put(ReportEntry.REPORT_AUTHOR_UNITS, new SingleResultCache());
+        reportCaches.put(ReportEntry.REPORT_PRICE_BANDS, new SingleResultCache());
+    }
+
+    /*
+     Return the rows of the named report. The selection applies to the books before they are
+     grouped, and the projection and sort order use the report's columns. Without a sort order,
+     the suppliers with the most stock value, the authors with the most units and the cheapest
+     price bands come first.
+    */
+    Cursor query(String reportName, long generation, String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder, CancellationSignal cancellationSignal) {
+        SingleResultCache reportCache = reportCaches.get(reportName);
+        if (reportCache == null) {
+            throw new IllegalArgumentException("Unknown report: " + reportName);
+        }
+
+        Cursor cachedCursor = reportCache.get(generation, projection, selection, selectionArgs, sortOrder);
+        if (cachedCursor != null) {
+            return cachedCursor;
+        }
+
+        String groupExpression;
+        String reportSortOrder;
+        switch (reportName) {
+            case ReportEntry.REPORT_SUPPLIER_STOCK:
+                groupExpression = BookEntry.COLUMN_SUPPLIER_NAME;
+                reportSortOrder = ReportEntry.COLUMN_STOCK_VALUE + " DESC";
+                break;
+            case ReportEntry.REPORT_AUTHOR_UNITS:
+                groupExpression = BookEntry.COLUMN_BOOK_AUTHORS;
+                reportSortOrder = ReportEntry.COLUMN_UNITS + " DESC";
+                break;
+            default:
+                groupExpression = PRICE_BAND_EXPRESSION;
+                reportSortOrder = ReportEntry.COLUMN_GROUP;
+                break;
+        }
+        if (sortOrder != null) {
+            reportSortOrder = sortOrder;
+        }
+
+        SQLiteQueryBuilder reportBuilder = new SQLiteQueryBuilder();
+        reportBuilder.setTables(BookEntry.TABLE_NAME);
+        reportBuilder.setProjectionMap(reportProjection(groupExpression));
+        reportBuilder.appendWhere(LIVE_BOOKS_SELECTION);
+
+        long startNanos = System.nanoTime();
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+        Cursor reportCursor = reportBuilder.query(bookDatabase,
+                projection,
+                selection,
+                selectionArgs,
+                groupExpression,
+                null,
+                reportSortOrder,
+                null,
+                cancellationSignal);
+
+        // Count the rows so that the whole query has run before it is timed.
+        int rowCount = reportCursor.getCount();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (slowQueryLog.isSlow(elapsedNanos)) {
+            String reportSql = reportBuilder.buildQuery(projection, selection, groupExpression, null, reportSortOrder, null);
+            slowQueryLog.record(bookDatabase, reportSql, selectionArgs, elapsedNanos, rowCount);
+        }
+
+        return reportCache.put(generation, projection, selection, selectionArgs, sortOrder, reportCursor);
+    }
+
+    // Map each report column to the expression that works it out for the group.
+    private static Map<String, String> reportProjection(String groupExpression) {
+        Map<String, String> projectionMap = new LinkedHashMap<>();
+        projectionMap.put(ReportEntry._ID, "MIN(" + BookEntry._ID + ") AS " + ReportEntry._ID);
+        projectionMap.put(ReportEntry.COLUMN_GROUP, groupExpression + " AS " + ReportEntry.COLUMN_GROUP);
+        projectionMap.put(ReportEntry.COLUMN_TITLES, "COUNT(*) AS " + ReportEntry.COLUMN_TITLES);
+        projectionMap.put(ReportEntry.COLUMN_UNITS, "SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + ") AS " + ReportEntry.COLUMN_UNITS);
+        projectionMap.put(ReportEntry.COLUMN_STOCK_VALUE,
+                "SUM(" + BookEntry.COLUMN_BOOK_PRICE + " * " + BookEntry.COLUMN_BOOK_QUANTITY + ") AS " + ReportEntry.COLUMN_STOCK_VALUE);
+        return projectionMap;
+    }
+}
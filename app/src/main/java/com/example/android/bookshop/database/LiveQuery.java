@@ -0,0 +1,231 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ A query of one of the provider's URIs that delivers a fresh result on the main thread every
+ time the data behind it changes, in place of a CursorLoader and a ContentObserver of its own.
+ A burst of change notifications, such as a batch of sales, is conflated: while a query is
+ running only the fact that something changed again is noted, and one more query is run once
+ the result has been delivered. So there is never more than one query in flight for each live
+ query, and a new one isn't started until the observer has been handed the last result, which
+ keeps the queries from running ahead of a busy main thread.
+*/
+public final class LiveQuery {
+
+    private static final String LOG_TAG = LiveQuery.class.getSimpleName();
+
+    // Receives the results of a live query on the main thread.
+    public interface Observer {
+        /*
+         Called with each new result of the given live query. The cursor belongs to the live
+         query, which closes it when the next result has been delivered or the live query is
+         cancelled, so the cursor must be let go of before then.
+        */
+        void onQueryResult(LiveQuery liveQuery, Cursor cursor);
+    }
+
+    /*
+     All the live queries share a small pool of background threads. Each live query has at most
+     one query waiting or running at a time, so the queue never holds more tasks than there are
+     live queries, however many changes arrive.
+    */
+    private static final int QUERY_THREAD_COUNT = 2;
+
+    private static final ExecutorService sQueryExecutor = Executors.newFixedThreadPool(QUERY_THREAD_COUNT,
+            new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable queryRunnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            queryRunnable.run();
+                        }
+                    }, "LiveQuery #" + threadCount.incrementAndGet());
+                }
+            });
+
+    private final ContentResolver contentResolver;
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+    private final Observer observer;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /*
+     Registered on each result, so it hears about changes to whatever the provider set as the
+     result's notification URI, which isn't always the URI that was queried.
+    */
+    private final ContentObserver changeObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            requery();
+        }
+    };
+
+    // The state of the live query, which is only read and changed on the main thread.
+    private boolean queryInFlight;
+    private boolean changedSinceQuery;
+    private boolean cancelled;
+    private Cursor currentCursor;
+    private CancellationSignal cancellationSignal;
+
+    private LiveQuery(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs,
+                      String sortOrder, Observer observer) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.uri = uri;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.sortOrder = sortOrder;
+        this.observer = observer;
+    }
+
+    /*
+     Start a live query of the given URI, with the same arguments as ContentResolver.query, and
+     run its first query straight away. This must be called on the main thread, and the live
+     query must be cancelled when its results are no longer wanted.
+    */
+    public static LiveQuery start(Context context, Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder, Observer observer) {
+        LiveQuery liveQuery = new LiveQuery(context, uri, projection, selection, selectionArgs, sortOrder, observer);
+        liveQuery.requery();
+        return liveQuery;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public String getSelection() {
+        return selection;
+    }
+
+    /*
+     Stop delivering results, cancel the query in the provider if one is running and close the
+     last result. This must be called on the main thread.
+    */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+        }
+        replaceCursor(null);
+    }
+
+    // Run the query again, unless one is already in flight, in which case it is run once that one is done.
+    private void requery() {
+        if (cancelled) {
+            return;
+        }
+        if (queryInFlight) {
+            changedSinceQuery = true;
+            return;
+        }
+
+        queryInFlight = true;
+        changedSinceQuery = false;
+        final CancellationSignal querySignal = new CancellationSignal();
+        cancellationSignal = querySignal;
+        sQueryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor resultCursor = runQuery(querySignal);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliverResult(resultCursor);
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     Run the query on a background thread. The rows are counted before the cursor is handed
+     over, so that the first window of rows is read here rather than on the main thread. A
+     query that fails is logged and delivered as no result, so that the live query isn't left
+     with a query in flight for ever: the last result stays current, and the query is run
+     again on the next change to it.
+    */
+    private Cursor runQuery(CancellationSignal querySignal) {
+        Cursor resultCursor = null;
+        try {
+            resultCursor = contentResolver.query(uri, projection, selection, selectionArgs, sortOrder, querySignal);
+            if (resultCursor != null) {
+                resultCursor.getCount();
+            }
+            return resultCursor;
+        } catch (OperationCanceledException e) {
+            // The live query was cancelled while its query was running.
+            closeCursor(resultCursor);
+            return null;
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Query of " + uri + " failed", e);
+            closeCursor(resultCursor);
+            return null;
+        }
+    }
+
+    private static void closeCursor(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    // Hand a result to the observer on the main thread, then run the query again if there were more changes.
+    private void deliverResult(Cursor resultCursor) {
+        queryInFlight = false;
+        cancellationSignal = null;
+        if (cancelled) {
+            if (resultCursor != null) {
+                resultCursor.close();
+            }
+            return;
+        }
+
+        if (resultCursor != null) {
+            resultCursor.registerContentObserver(changeObserver);
+            observer.onQueryResult(this, resultCursor);
+            replaceCursor(resultCursor);
+        }
+
+        if (changedSinceQuery) {
+            requery();
+        }
+    }
+
+    // Make the given cursor the current result, closing the one that the observer has now let go of.
+    private void replaceCursor(Cursor newCursor) {
+        Cursor oldCursor = currentCursor;
+        currentCursor = newCursor;
+        if (oldCursor != null && oldCursor != newCursor) {
+            oldCursor.unregisterContentObserver(changeObserver);
+            oldCursor.close();
+        }
+    }
+}
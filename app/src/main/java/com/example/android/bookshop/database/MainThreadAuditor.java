@@ -0,0 +1,146 @@
+package com.example.android.bookshop.database;
+
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ Notes every provider operation that arrives on the main thread in debug builds, together with
+ the place in the app that called it, so that database work that slipped onto the UI thread is
+ found in testing rather than as a stutter at the till. The calls are added up for each call
+ site, and each new call site is logged once with its stack. In strict mode a call on the main
+ thread fails instead, which lets the Robolectric tests catch one as soon as it is added. In
+ release builds the auditor does nothing, so the only cost is one check per operation.
+*/
+class MainThreadAuditor {
+
+    private static final String LOG_TAG = MainThreadAuditor.class.getSimpleName();
+
+    // The call site is the first frame of the app's own code outside the provider.
+    private static final String APP_PACKAGE = "com.example.android.bookshop.";
+
+    private final boolean enabled;
+    private volatile boolean strict;
+
+    // The calls seen on the main thread, keyed by call site and sorted so that the dump is stable.
+    private final Map<String, CallSiteStats> callSites = new TreeMap<>();
+
+    MainThreadAuditor(boolean enabled, boolean strict) {
+        this.enabled = enabled;
+        this.strict = enabled && strict;
+    }
+
+    // Set whether calls on the main thread fail. This has no effect unless the auditor is enabled.
+    void setStrict(boolean shouldFail) {
+        strict = enabled && shouldFail;
+    }
+
+    /*
+     Check an operation as it arrives. Return its call site if it arrived on the main thread,
+     or null if it didn't or the auditor is off. In strict mode a call on the main thread is
+     counted and then refused with an IllegalStateException before it reaches the database.
+    */
+    String checkCall(String operation, String uriName) {
+        if (!enabled || Looper.myLooper() != Looper.getMainLooper()) {
+            return null;
+        }
+        String callSite = findCallSite(new Throwable().getStackTrace());
+        if (strict) {
+            record(callSite, operation, uriName, System.nanoTime());
+            throw new IllegalStateException("Database " + operation + " of " + uriName
+                    + " on the main thread from " + callSite);
+        }
+        return callSite;
+    }
+
+    // Record a call from the given call site that was started at the given time and has now finished.
+    void record(String callSite, String operation, String uriName, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        String operationName = operation + " " + uriName;
+        synchronized (callSites) {
+            CallSiteStats stats = callSites.get(callSite);
+            if (stats == null) {
+                stats = new CallSiteStats();
+                callSites.put(callSite, stats);
+                Log.w(LOG_TAG, String.format(Locale.ENGLISH, "%s on the main thread took %.2f ms, from %s",
+                        operationName, elapsedNanos / 1e6, callSite), new Throwable("Main thread call site"));
+            }
+            stats.count++;
+            stats.totalNanos += elapsedNanos;
+            stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+            stats.operations.add(operationName);
+        }
+    }
+
+    /*
+     Return the calls seen so far as a Bundle holding whether strict mode is on, and a Bundle
+     for each call site keyed by the call site.
+    */
+    Bundle toBundle() {
+        Bundle callSitesBundle = new Bundle();
+        synchronized (callSites) {
+            for (Map.Entry<String, CallSiteStats> entry : callSites.entrySet()) {
+                CallSiteStats stats = entry.getValue();
+                Bundle statsBundle = new Bundle();
+                statsBundle.putLong(BookContract.KEY_MAIN_THREAD_COUNT, stats.count);
+                statsBundle.putLong(BookContract.KEY_MAIN_THREAD_TOTAL_NANOS, stats.totalNanos);
+                statsBundle.putLong(BookContract.KEY_MAIN_THREAD_MAX_NANOS, stats.maxNanos);
+                statsBundle.putStringArray(BookContract.KEY_MAIN_THREAD_OPERATIONS,
+                        stats.operations.toArray(new String[stats.operations.size()]));
+                callSitesBundle.putBundle(entry.getKey(), statsBundle);
+            }
+        }
+
+        Bundle auditBundle = new Bundle();
+        auditBundle.putBoolean(BookContract.KEY_MAIN_THREAD_STRICT, strict);
+        auditBundle.putBundle(BookContract.KEY_MAIN_THREAD_CALL_SITES, callSitesBundle);
+        return auditBundle;
+    }
+
+    // Write the calls seen on the main thread out as a readable table, if the auditor is enabled.
+    void dump(PrintWriter writer) {
+        if (!enabled) {
+            return;
+        }
+        writer.println("Provider calls on the main thread" + (strict ? " (strict):" : ":"));
+        synchronized (callSites) {
+            for (Map.Entry<String, CallSiteStats> entry : callSites.entrySet()) {
+                CallSiteStats stats = entry.getValue();
+                writer.println(String.format(Locale.ENGLISH, "  %6d calls, %10.2f ms total, %8.2f ms max  %s  %s",
+                        stats.count, stats.totalNanos / 1e6, stats.maxNanos / 1e6, entry.getKey(), stats.operations));
+            }
+        }
+    }
+
+    // Return the first frame of the app's own code that isn't the provider or the auditor.
+    private static String findCallSite(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.startsWith(APP_PACKAGE)
+                    && !isClassOrNested(className, BookProvider.class)
+                    && !isClassOrNested(className, MainThreadAuditor.class)) {
+                return className.substring(APP_PACKAGE.length()) + "." + frame.getMethodName()
+                        + ":" + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    private static boolean isClassOrNested(String className, Class<?> outerClass) {
+        return className.equals(outerClass.getName()) || className.startsWith(outerClass.getName() + "$");
+    }
+
+    // The calls from a single call site, which are only changed while holding the lock on the call sites.
+    private static class CallSiteStats {
+        long count;
+        long totalNanos;
+        long maxNanos;
+        final TreeSet<String> operations = new TreeSet<>();
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.bookshop.database;
+
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ Counters and latency histograms for the provider's operations, kept separately for each
+ operation and matched URI. Recording only increments a few atomic counters, so it is cheap
+ enough to leave switched on in the field.
+*/
+class ProviderMetrics {
+
+    /*
+     The latency histogram uses power of two buckets of microseconds. Bucket 0 holds anything
+     under 1 µs, bucket n holds latencies from 2^(n-1) up to 2^n µs and the last bucket holds
+     everything from about 4 seconds upwards.
+    */
+    private static final int BUCKET_COUNT = 24;
+
+    private final ConcurrentHashMap<String, OperationStats> operationStats = new ConcurrentHashMap<>();
+
+    private final long createdAtMillis = System.currentTimeMillis();
+
+    // Record one run of an operation that was started at the given time.
+    void record(String operation, String uriName, long startNanos, int rowsAffected) {
+        statsFor(operation, uriName).record(System.nanoTime() - startNanos, rowsAffected);
+    }
+
+    // Record a run of an operation that failed with an exception.
+    void recordError(String operation, String uriName) {
+        statsFor(operation, uriName).errors.incrementAndGet();
+    }
+
+    // Return the counters for the operation and URI pair, creating them on first use.
+    private OperationStats statsFor(String operation, String uriName) {
+        String key = operation + " " + uriName;
+        OperationStats stats = operationStats.get(key);
+        if (stats == null) {
+            OperationStats newStats = new OperationStats();
+            stats = operationStats.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /*
+     Return the metrics as a Bundle holding one Bundle for each operation and URI pair, keyed
+     by a name such as "query books/#".
+    */
+    Bundle toBundle() {
+        Bundle metricsBundle = new Bundle();
+        metricsBundle.putLong(BookContract.KEY_METRICS_SINCE, createdAtMillis);
+
+        for (Map.Entry<String, OperationStats> entry : operationStats.entrySet()) {
+            OperationStats stats = entry.getValue();
+            long[] histogram = stats.histogramSnapshot();
+
+            Bundle statsBundle = new Bundle();
+            statsBundle.putLong(BookContract.KEY_METRICS_COUNT, stats.count.get());
+            statsBundle.putLong(BookContract.KEY_METRICS_ERRORS, stats.errors.get());
+            statsBundle.putLong(BookContract.KEY_METRICS_ROWS, stats.rows.get());
+            statsBundle.putLong(BookContract.KEY_METRICS_TOTAL_NANOS, stats.totalNanos.get());
+            statsBundle.putLong(BookContract.KEY_METRICS_MAX_NANOS, stats.maxNanos.get());
+            statsBundle.putLongArray(BookContract.KEY_METRICS_HISTOGRAM, histogram);
+            statsBundle.putLong(BookContract.KEY_METRICS_P50_MICROS, percentileMicros(histogram, 0.50));
+            statsBundle.putLong(BookContract.KEY_METRICS_P95_MICROS, percentileMicros(histogram, 0.95));
+            statsBundle.putLong(BookContract.KEY_METRICS_P99_MICROS, percentileMicros(histogram, 0.99));
+            metricsBundle.putBundle(entry.getKey(), statsBundle);
+        }
+
+        return metricsBundle;
+    }
+
+    // Write the metrics out as a readable table, sorted by operation and URI.
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics since " + createdAtMillis + " (latency percentiles are bucket upper bounds):");
+        writer.println(String.format(Locale.ENGLISH, "  %-24s %10s %7s %10s %10s %10s %10s %10s",
+                "operation", "count", "errors", "rows", "mean µs", "p50 µs", "p95 µs", "p99 µs"));
+
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(operationStats).entrySet()) {
+            OperationStats stats = entry.getValue();
+            long[] histogram = stats.histogramSnapshot();
+            long count = stats.count.get();
+            long meanMicros = count == 0 ? 0 : stats.totalNanos.get() / count / 1000;
+
+            writer.println(String.format(Locale.ENGLISH, "  %-24s %10d %7d %10d %10d %10d %10d %10d",
+                    entry.getKey(),
+                    count,
+                    stats.errors.get(),
+                    stats.rows.get(),
+                    meanMicros,
+                    percentileMicros(histogram, 0.50),
+                    percentileMicros(histogram, 0.95),
+                    percentileMicros(histogram, 0.99)));
+        }
+    }
+
+    // Return the upper bound of the histogram bucket that contains the given percentile.
+    private static long percentileMicros(long[] histogram, double fraction) {
+        long total = 0;
+        for (long bucketCount : histogram) {
+            total += bucketCount;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+
+        return 1L << (histogram.length - 1);
+    }
+
+    // The counters for a single operation and URI pair.
+    private static class OperationStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long elapsedNanos, int rowsAffected) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(elapsedNanos);
+            if (rowsAffected > 0) {
+                rows.addAndGet(rowsAffected);
+            }
+
+            // Find the bucket from the number of bits needed to hold the latency in microseconds.
+            long elapsedMicros = elapsedNanos / 1000;
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(elapsedMicros), BUCKET_COUNT - 1);
+            histogram.incrementAndGet(bucket);
+
+            long currentMax = maxNanos.get();
+            while (elapsedNanos > currentMax && !maxNanos.compareAndSet(currentMax, elapsedNanos)) {
+                currentMax = maxNanos.get();
+            }
+        }
+
+        long[] histogramSnapshot() {
+            long[] snapshot = new long[BUCKET_COUNT];
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                snapshot[bucket] = histogram.get(bucket);
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.android.bookshop.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+ A small cache of recent list query results. Each result is stored with the data generation it
+ was read at, so a result is only ever served while nothing has been written since. That lets
+ a loader that restarts, for example after a rotation, skip running the same query again.
+ The most recent query of the whole list, without a selection, is kept in a slot of its own
+ whatever its size, as that is the query the main screen runs again; searches and filters are
+ only cached while they are small.
+*/
+class QueryResultCache {
+
+    private static final int MAX_ENTRIES = 8;
+
+    /*
+     Results of searches and filters with more rows than this aren't cached, as copying every
+     row of every miss would cost more than running the query again. The rows kept across all
+     of them are limited too, and the least recently used results are dropped to stay under it.
+    */
+    private static final int MAX_CACHED_ROWS = 500;
+    private static final int MAX_TOTAL_CACHED_ROWS = 2000;
+
+    // The results in order of use, least recently used first.
+    private final LinkedHashMap<String, CachedResult> cachedResults = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    private int totalCachedRows;
+
+    // The most recent result of the whole list, and its key.
+    private String fullListKey;
+    private CachedResult fullListResult;
+
+    private long hitCount;
+    private long missCount;
+
+    /*
+     Return a new cursor over the cached result of the query, or null if the query hasn't been
+     cached at the given generation.
+    */
+    synchronized Cursor get(long generation, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        String key = cacheKey(projection, selection, selectionArgs, sortOrder);
+        CachedResult cachedResult = key.equals(fullListKey) ? fullListResult : cachedResults.get(key);
+        if (cachedResult == null || cachedResult.generation != generation) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        MatrixCursor cachedCursor = new MatrixCursor(cachedResult.columnNames, cachedResult.rows.length);
+        for (Object[] row : cachedResult.rows) {
+            cachedCursor.addRow(row);
+        }
+        return cachedCursor;
+    }
+
+    /*
+     Cache the result of a query that was run at the given generation, if it is of the whole
+     list or small enough. The result is copied out of the cursor, which is then closed, so
+     return a cursor over the copy for the caller to use instead.
+    */
+    Cursor put(long generation, String[] projection, String selection, String[] selectionArgs, String sortOrder, Cursor queryCursor) {
+        int rowCount = queryCursor.getCount();
+        boolean fullList = selection == null;
+        if (rowCount > MAX_CACHED_ROWS && !fullList) {
+            return queryCursor;
+        }
+
+        String[] columnNames = queryCursor.getColumnNames();
+        Object[][] rows = new Object[rowCount][];
+        MatrixCursor copiedCursor = new MatrixCursor(columnNames, rowCount);
+
+        queryCursor.moveToPosition(-1);
+        for (int row = 0; queryCursor.moveToNext(); row++) {
+            rows[row] = copyRow(queryCursor, columnNames.length);
+            copiedCursor.addRow(rows[row]);
+        }
+        queryCursor.close();
+
+        CachedResult cachedResult = new CachedResult();
+        cachedResult.generation = generation;
+        cachedResult.columnNames = columnNames;
+        cachedResult.rows = rows;
+
+        String key = cacheKey(projection, selection, selectionArgs, sortOrder);
+        synchronized (this) {
+            if (fullList) {
+                fullListKey = key;
+                fullListResult = cachedResult;
+                return copiedCursor;
+            }
+
+            CachedResult replacedResult = cachedResults.put(key, cachedResult);
+            if (replacedResult != null) {
+                totalCachedRows -= replacedResult.rows.length;
+            }
+            totalCachedRows += rowCount;
+
+            Iterator<CachedResult> eldestResults = cachedResults.values().iterator();
+            while (cachedResults.size() > MAX_ENTRIES || totalCachedRows > MAX_TOTAL_CACHED_ROWS) {
+                totalCachedRows -= eldestResults.next().rows.length;
+                eldestResults.remove();
+            }
+        }
+
+        return copiedCursor;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    // Copy the values of the current row, keeping the type that SQLite returned for each column.
+    static Object[] copyRow(Cursor queryCursor, int columnCount) {
+        Object[] row = new Object[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            switch (queryCursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[column] = queryCursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[column] = queryCursor.getDouble(column);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[column] = queryCursor.getString(column);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[column] = queryCursor.getBlob(column);
+                    break;
+                default:
+                    row[column] = null;
+                    break;
+            }
+        }
+        return row;
+    }
+
+    // Join the parts of the query together with a separator that can't appear in any of them.
+    static String cacheKey(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder();
+        appendAll(key, projection);
+        key.append(selection).append('\u0000');
+        appendAll(key, selectionArgs);
+        key.append(sortOrder);
+        return key.toString();
+    }
+
+    private static void appendAll(StringBuilder key, String[] parts) {
+        if (parts != null) {
+            for (String part : parts) {
+                key.append(part).append('\u0001');
+            }
+        }
+        key.append('\u0000');
+    }
+
+    private static class CachedResult {
+        long generation;
+        String[] columnNames;
+        Object[][] rows;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.bookshop.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/*
+ Holds the latest result of one query, such as a report or the list's sections, against the
+ data generation it was read at. Unlike the list cache, the result is kept whatever its size:
+ it is the only one kept, and a report over a large catalogue is exactly the result that is
+ worth not working out again. A result of a different query, or of a later generation,
+ replaces it.
+*/
+class SingleResultCache {
+
+    private String cachedKey;
+    private long cachedGeneration;
+    private String[] columnNames;
+    private Object[][] rows;
+
+    /*
+     Return a new cursor over the cached result of the query, or null if it isn't the query
+     that was cached at the given generation.
+    */
+    synchronized Cursor get(long generation, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (rows == null || cachedGeneration != generation
+                || !QueryResultCache.cacheKey(projection, selection, selectionArgs, sortOrder).equals(cachedKey)) {
+            return null;
+        }
+
+        MatrixCursor cachedCursor = new MatrixCursor(columnNames, rows.length);
+        for (Object[] row : rows) {
+            cachedCursor.addRow(row);
+        }
+        return cachedCursor;
+    }
+
+    /*
+     Cache the result of a query that was run at the given generation. The result is copied
+     out of the cursor, which is then closed, so return a cursor over the copy for the caller
+     to use instead.
+    */
+    Cursor put(long generation, String[] projection, String selection, String[] selectionArgs, String sortOrder, Cursor queryCursor) {
+        String[] queryColumnNames = queryCursor.getColumnNames();
+        Object[][] queryRows = new Object[queryCursor.getCount()][];
+        MatrixCursor copiedCursor = new MatrixCursor(queryColumnNames, queryRows.length);
+
+        queryCursor.moveToPosition(-1);
+        for (int row = 0; queryCursor.moveToNext(); row++) {
+            queryRows[row] = QueryResultCache.copyRow(queryCursor, queryColumnNames.length);
+            copiedCursor.addRow(queryRows[row]);
+        }
+        queryCursor.close();
+
+        String key = QueryResultCache.cacheKey(projection, selection, selectionArgs, sortOrder);
+        synchronized (this) {
+            cachedKey = key;
+            cachedGeneration = generation;
+            columnNames = queryColumnNames;
+            rows = queryRows;
+        }
+        return copiedCursor;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.bookshop.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+ A bounded log of the queries that took longer than a threshold to run. Each entry holds the
+ SQL, the shape of its arguments, how long it took, how many rows it returned and the plan that
+ SQLite chose for it. Only the most recent entries are kept, so the log can't grow without limit.
+*/
+class SlowQueryLog {
+
+    private static final int CAPACITY = 32;
+    private static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    private final SlowQuery[] entries = new SlowQuery[CAPACITY];
+    private int nextEntry;
+    private int entryCount;
+
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD_MILLIS);
+
+    // Check whether a query that took the given time should be logged.
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query threshold can't be negative: " + thresholdMillis);
+        }
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /*
+     Add a slow query to the log, capturing its query plan. The argument values themselves are
+     not kept, as they may hold customer or supplier details, only their shapes.
+    */
+    void record(SQLiteDatabase database, String sql, String[] selectionArgs, long elapsedNanos, int rowCount) {
+        SlowQuery slowQuery = new SlowQuery();
+        slowQuery.loggedAtMillis = System.currentTimeMillis();
+        slowQuery.sql = sql;
+        slowQuery.argumentShapes = argumentShapes(selectionArgs);
+        slowQuery.elapsedMicros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        slowQuery.rowCount = rowCount;
+        slowQuery.queryPlan = explainQueryPlan(database, sql, selectionArgs);
+
+        synchronized (this) {
+            entries[nextEntry] = slowQuery;
+            nextEntry = (nextEntry + 1) % CAPACITY;
+            entryCount = Math.min(entryCount + 1, CAPACITY);
+        }
+    }
+
+    // Return the logged queries as a list of Bundles, from the oldest to the most recent.
+    Bundle toBundle() {
+        ArrayList<Bundle> queryBundles = new ArrayList<>();
+        synchronized (this) {
+            int firstEntry = (nextEntry - entryCount + CAPACITY) % CAPACITY;
+            for (int i = 0; i < entryCount; i++) {
+                SlowQuery slowQuery = entries[(firstEntry + i) % CAPACITY];
+
+                Bundle queryBundle = new Bundle();
+                queryBundle.putLong(BookContract.KEY_SLOW_QUERY_LOGGED_AT, slowQuery.loggedAtMillis);
+                queryBundle.putString(BookContract.KEY_SLOW_QUERY_SQL, slowQuery.sql);
+                queryBundle.putStringArray(BookContract.KEY_SLOW_QUERY_ARGUMENTS, slowQuery.argumentShapes);
+                queryBundle.putLong(BookContract.KEY_SLOW_QUERY_MICROS, slowQuery.elapsedMicros);
+                queryBundle.putInt(BookContract.KEY_SLOW_QUERY_ROWS, slowQuery.rowCount);
+                queryBundle.putString(BookContract.KEY_SLOW_QUERY_PLAN, slowQuery.queryPlan);
+                queryBundles.add(queryBundle);
+            }
+        }
+
+        Bundle logBundle = new Bundle();
+        logBundle.putLong(BookContract.KEY_SLOW_QUERY_THRESHOLD_MILLIS, TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+        logBundle.putParcelableArrayList(BookContract.KEY_SLOW_QUERIES, queryBundles);
+        return logBundle;
+    }
+
+    // Describe each argument by its type and length, for example "text(12)" or "number(4)".
+    private static String[] argumentShapes(String[] selectionArgs) {
+        if (selectionArgs == null) {
+            return new String[0];
+        }
+
+        String[] shapes = new String[selectionArgs.length];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            String argument = selectionArgs[i];
+            if (argument == null) {
+                shapes[i] = "null";
+            } else if (TextUtils.isDigitsOnly(argument) && !argument.isEmpty()) {
+                shapes[i] = "number(" + argument.length() + ")";
+            } else {
+                shapes[i] = "text(" + argument.length() + ")";
+            }
+        }
+        return shapes;
+    }
+
+    // Ask SQLite how it runs the query, joining the detail of each step into separate lines.
+    private static String explainQueryPlan(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        StringBuilder queryPlan = new StringBuilder();
+        Cursor planCursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = planCursor.getColumnIndexOrThrow("detail");
+            while (planCursor.moveToNext()) {
+                if (queryPlan.length() != 0) {
+                    queryPlan.append('\n');
+                }
+                queryPlan.append(planCursor.getString(detailColumnIndex));
+            }
+        } finally {
+            planCursor.close();
+        }
+        return queryPlan.toString();
+    }
+
+    private static class SlowQuery {
+        long loggedAtMillis;
+        String sql;
+        String[] argumentShapes;
+        long elapsedMicros;
+        int rowCount;
+        String queryPlan;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.bookshop.core.PnCounter;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.StockCounterEntry;
+
+/*
+ Reads and writes the stock counters of the books, which are stored as one row for each book
+ and device. Every method here has to be called inside a transaction that also writes the
+ quantity of the book, so that the quantity column always matches the sum of its counters.
+*/
+class StockCounters {
+
+    private static final String SQL_ADD_TO_COUNTER =
+            "UPDATE " + StockCounterEntry.TABLE_NAME +
+                    " SET " + StockCounterEntry.COLUMN_INCREMENTS + " = " + StockCounterEntry.COLUMN_INCREMENTS + " + ?, " +
+                    StockCounterEntry.COLUMN_DECREMENTS + " = " + StockCounterEntry.COLUMN_DECREMENTS + " + ?" +
+                    " WHERE " + StockCounterEntry.COLUMN_BOOK_ID + " = ? AND " + StockCounterEntry.COLUMN_DEVICE_ID + " = ?";
+
+    // Prevent anyone from instantiating this class.
+    private StockCounters() {
+    }
+
+    // Add a change in the quantity of a book, made on this device, to the device's counter.
+    static void recordChange(SQLiteDatabase bookDatabase, long bookId, String deviceId, long delta) {
+        if (delta == 0) {
+            return;
+        }
+
+        long increments = Math.max(delta, 0);
+        long decrements = Math.max(-delta, 0);
+
+        SQLiteStatement addStatement = bookDatabase.compileStatement(SQL_ADD_TO_COUNTER);
+        try {
+            addStatement.bindLong(1, increments);
+            addStatement.bindLong(2, decrements);
+            addStatement.bindLong(3, bookId);
+            addStatement.bindString(4, deviceId);
+            if (addStatement.executeUpdateDelete() != 0) {
+                return;
+            }
+        } finally {
+            addStatement.close();
+        }
+
+        ContentValues counterValues = new ContentValues();
+        counterValues.put(StockCounterEntry.COLUMN_BOOK_ID, bookId);
+        counterValues.put(StockCounterEntry.COLUMN_DEVICE_ID, deviceId);
+        counterValues.put(StockCounterEntry.COLUMN_INCREMENTS, increments);
+        counterValues.put(StockCounterEntry.COLUMN_DECREMENTS, decrements);
+        bookDatabase.insertOrThrow(StockCounterEntry.TABLE_NAME, null, counterValues);
+    }
+
+    // Load the counters of a book from every device.
+    static PnCounter read(SQLiteDatabase bookDatabase, long bookId) {
+        PnCounter stockCounter = new PnCounter();
+        Cursor counterCursor = bookDatabase.query(StockCounterEntry.TABLE_NAME,
+                new String[]{StockCounterEntry.COLUMN_DEVICE_ID, StockCounterEntry.COLUMN_INCREMENTS, StockCounterEntry.COLUMN_DECREMENTS},
+                StockCounterEntry.COLUMN_BOOK_ID + "=?",
+                new String[]{String.valueOf(bookId)},
+                null,
+                null,
+                null);
+        try {
+            while (counterCursor.moveToNext()) {
+                stockCounter.mergeDevice(counterCursor.getString(0), counterCursor.getLong(1), counterCursor.getLong(2));
+            }
+        } finally {
+            counterCursor.close();
+        }
+        return stockCounter;
+    }
+
+    /*
+     Merge the counters of a book from another copy of the catalogue into the stored ones, and
+     set the quantity of the book to the merged sum. Only the counters that have moved on are
+     written back. Return whether anything changed.
+    */
+    static boolean merge(SQLiteDatabase bookDatabase, long bookId, PnCounter otherCounter) {
+        PnCounter storedCounter = read(bookDatabase, bookId);
+        PnCounter mergedCounter = read(bookDatabase, bookId);
+        mergedCounter.merge(otherCounter);
+        if (mergedCounter.equals(storedCounter)) {
+            return false;
+        }
+
+        for (String deviceId : mergedCounter.getDeviceIds()) {
+            long increments = mergedCounter.getIncrements(deviceId);
+            long decrements = mergedCounter.getDecrements(deviceId);
+            if (increments == storedCounter.getIncrements(deviceId) && decrements == storedCounter.getDecrements(deviceId)) {
+                continue;
+            }
+
+            ContentValues counterValues = new ContentValues();
+            counterValues.put(StockCounterEntry.COLUMN_BOOK_ID, bookId);
+            counterValues.put(StockCounterEntry.COLUMN_DEVICE_ID, deviceId);
+            counterValues.put(StockCounterEntry.COLUMN_INCREMENTS, increments);
+            counterValues.put(StockCounterEntry.COLUMN_DECREMENTS, decrements);
+            bookDatabase.insertWithOnConflict(StockCounterEntry.TABLE_NAME, null, counterValues, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+
+        ContentValues quantityValues = new ContentValues();
+        quantityValues.put(BookEntry.COLUMN_BOOK_QUANTITY, mergedCounter.value());
+        bookDatabase.update(BookEntry.TABLE_NAME, quantityValues, BookEntry._ID + "=?", new String[]{String.valueOf(bookId)});
+        return true;
+    }
+}
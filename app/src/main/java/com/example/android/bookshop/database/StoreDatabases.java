@@ -0,0 +1,84 @@
+package com.example.android.bookshop.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/*
+ Keeps track of the database files of the other stores and opens each one with a helper of its
+ own the first time it is needed. The stores' files are never attached to the main database,
+ which would make it fall back to a single connection and to the rollback journal, couldn't be
+ done inside a transaction and is limited to ten files. Books in this store stay in the main
+ database, so its queries never touch the other files.
+*/
+class StoreDatabases {
+
+    private static final String FILE_PREFIX = "store_";
+    private static final String FILE_SUFFIX = ".db";
+
+    /*
+     Store names are used in file names, so they are limited to lower case letters, digits and
+     underscores.
+    */
+    private static final Pattern STORE_NAME_PATTERN = Pattern.compile("[a-z0-9_]{1,32}");
+
+    private final Context context;
+
+    /*
+     The helper of each store that has been used. Like the main database, a store's database
+     stays open once it has been opened, as the provider lives as long as the app and there are
+     only ever a few stores.
+    */
+    private final Map<String, StoreDbHelper> storeHelpers = new HashMap<>();
+
+    StoreDatabases(Context context) {
+        this.context = context;
+    }
+
+    static void checkStoreName(String storeName) {
+        if (storeName == null || !STORE_NAME_PATTERN.matcher(storeName).matches()) {
+            throw new IllegalArgumentException("Store requires a valid name: " + storeName);
+        }
+    }
+
+    /*
+     Return the database of a store, which holds its books in a table with the same name and
+     columns as this store's book table. The store's database is created, or brought up to
+     date, the first time it is used.
+    */
+    synchronized SQLiteDatabase storeDatabase(String storeName) {
+        checkStoreName(storeName);
+        StoreDbHelper storeHelper = storeHelpers.get(storeName);
+        if (storeHelper == null) {
+            storeHelper = new StoreDbHelper(context, FILE_PREFIX + storeName + FILE_SUFFIX);
+            storeHelpers.put(storeName, storeHelper);
+        }
+        return storeHelper.getWritableDatabase();
+    }
+
+    // Return the names of every other store that has a database file, in alphabetical order.
+    List<String> storeNames() {
+        List<String> storeNames = new ArrayList<>();
+        File[] databaseFiles = context.getDatabasePath(FILE_PREFIX + FILE_SUFFIX).getParentFile().listFiles();
+        if (databaseFiles != null) {
+            for (File databaseFile : databaseFiles) {
+                String fileName = databaseFile.getName();
+                if (fileName.startsWith(FILE_PREFIX) && fileName.endsWith(FILE_SUFFIX)) {
+                    String storeName = fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length());
+                    if (STORE_NAME_PATTERN.matcher(storeName).matches()) {
+                        storeNames.add(storeName);
+                    }
+                }
+            }
+        }
+        Collections.sort(storeNames);
+        return storeNames;
+    }
+}
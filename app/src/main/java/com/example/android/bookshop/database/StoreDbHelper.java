@@ -0,0 +1,45 @@
+package com.example.android.bookshop.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/*
+ Creates or upgrades the database file of another store. It holds a book table with the same
+ columns and indexes as the book table of this store, so the same queries run just as fast
+ against it. Each store's file is opened through a helper of its own, kept by StoreDatabases.
+ Like the main database's, the stores' books are kept when the schema changes, as they can't
+ be fetched again.
+*/
+class StoreDbHelper extends SQLiteOpenHelper {
+
+    private static final int DATABASE_VERSION = 3;
+
+    StoreDbHelper(Context context, String fileName) {
+        super(context, fileName, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_ENTRIES);
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_LIVE_NAME_INDEX);
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_DELETED_INDEX);
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_ISBN_INDEX);
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_FINGERPRINT_INDEX);
+        sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_VERSION_TRIGGER);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookContract.BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookContract.BookEntry.COLUMN_FINGERPRINT + " TEXT");
+            sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_FINGERPRINT_INDEX);
+        }
+        if (oldVersion < 3) {
+            sqLiteDatabase.execSQL("ALTER TABLE " + BookContract.BookEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookContract.BookEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 0");
+            sqLiteDatabase.execSQL(BookDbHelper.SQL_CREATE_VERSION_TRIGGER);
+        }
+    }
+}
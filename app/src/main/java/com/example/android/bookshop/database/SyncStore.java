@@ -0,0 +1,431 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.bookshop.core.BookFingerprint;
+import com.example.android.bookshop.core.PnCounter;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ChangeLogEntry;
+import com.example.android.bookshop.database.BookContract.StockCounterEntry;
+import com.example.android.bookshop.database.BookContract.SyncStateEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ Reads and writes the sync data that the provider keeps: the change log, the sequence numbers
+ that have been acknowledged by and received from the server, and the books themselves when
+ deltas from the server are applied.
+*/
+class SyncStore {
+
+    private static final String LOG_TAG = SyncStore.class.getSimpleName();
+
+    /*
+     The book columns that are accepted from the server. The quantity is sent to the server but
+     never taken from it, as it is worked out from the merged stock counters instead.
+    */
+    private static final List<String> SYNCED_COLUMNS = Arrays.asList(
+            BookEntry.COLUMN_GLOBAL_ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHORS,
+            BookEntry.COLUMN_BOOK_PAGES,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BookEntry.COLUMN_ISBN,
+            BookEntry.COLUMN_DELETED_AT);
+
+    /*
+     Find the books that have changed since the given sequence number. A book that has changed
+     several times is only returned once, with its current values and the sequence number of
+     its latest change, so a batch never holds more than one copy of a book.
+    */
+    private static final String SQL_CHANGED_BOOKS =
+            "SELECT MAX(c." + ChangeLogEntry.COLUMN_SEQUENCE + ") AS " + ChangeLogEntry.COLUMN_SEQUENCE +
+                    ", b." + BookEntry._ID +
+                    ", b." + BookEntry.COLUMN_GLOBAL_ID +
+                    ", b." + BookEntry.COLUMN_BOOK_NAME +
+                    ", b." + BookEntry.COLUMN_BOOK_AUTHORS +
+                    ", b." + BookEntry.COLUMN_BOOK_PAGES +
+                    ", b." + BookEntry.COLUMN_BOOK_PRICE +
+                    ", b." + BookEntry.COLUMN_BOOK_QUANTITY +
+                    ", b." + BookEntry.COLUMN_SUPPLIER_NAME +
+                    ", b." + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER +
+                    ", b." + BookEntry.COLUMN_ISBN +
+                    ", b." + BookEntry.COLUMN_DELETED_AT +
+                    " FROM " + ChangeLogEntry.TABLE_NAME + " c JOIN " + BookEntry.TABLE_NAME + " b" +
+                    " ON b." + BookEntry._ID + " = c." + ChangeLogEntry.COLUMN_BOOK_ID +
+                    " WHERE c." + ChangeLogEntry.COLUMN_SEQUENCE + " > ?" +
+                    " GROUP BY c." + ChangeLogEntry.COLUMN_BOOK_ID +
+                    " ORDER BY " + ChangeLogEntry.COLUMN_SEQUENCE +
+                    " LIMIT ?";
+
+    // Find the stock counters of a set of books, along with the global ID of each book.
+    private static final String SQL_BOOK_COUNTERS =
+            "SELECT b." + BookEntry.COLUMN_GLOBAL_ID +
+                    ", s." + StockCounterEntry.COLUMN_DEVICE_ID +
+                    ", s." + StockCounterEntry.COLUMN_INCREMENTS +
+                    ", s." + StockCounterEntry.COLUMN_DECREMENTS +
+                    " FROM " + StockCounterEntry.TABLE_NAME + " s JOIN " + BookEntry.TABLE_NAME + " b" +
+                    " ON b." + BookEntry._ID + " = s." + StockCounterEntry.COLUMN_BOOK_ID +
+                    " WHERE s." + StockCounterEntry.COLUMN_BOOK_ID + " IN ";
+
+    private final BookDbHelper databaseHelper;
+
+    SyncStore(BookDbHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    /*
+     Sync is set up once the first batch of changes has been read. Until then, the change log
+     doesn't need to be kept.
+    */
+    boolean isSyncEnabled() {
+        return readState(databaseHelper.getReadableDatabase(), SyncStateEntry.ACKNOWLEDGED_SEQUENCE) != null;
+    }
+
+    /*
+     Return the next batch of changed books that the server hasn't acknowledged yet, along with
+     the sequence number of the last change in the batch.
+    */
+    Bundle getChanges(int limit) {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+
+        /*
+         The first time that sync is used, the change log may have been trimmed while sync was
+         switched off. Start it again with every book in it, so that the server starts with the
+         full catalogue.
+        */
+        if (!isSyncEnabled()) {
+            bookDatabase.beginTransaction();
+            try {
+                bookDatabase.delete(ChangeLogEntry.TABLE_NAME, null, null);
+                bookDatabase.execSQL("INSERT INTO " + ChangeLogEntry.TABLE_NAME +
+                        " (" + ChangeLogEntry.COLUMN_BOOK_ID + ", " + ChangeLogEntry.COLUMN_CHANGED_AT + ")" +
+                        " SELECT " + BookEntry._ID + ", " + System.currentTimeMillis() + " FROM " + BookEntry.TABLE_NAME);
+                writeState(bookDatabase, SyncStateEntry.ACKNOWLEDGED_SEQUENCE, 0);
+                bookDatabase.setTransactionSuccessful();
+            } finally {
+                bookDatabase.endTransaction();
+            }
+        }
+
+        long acknowledgedSequence = readLongState(bookDatabase, SyncStateEntry.ACKNOWLEDGED_SEQUENCE);
+        ArrayList<ContentValues> changedBooks = new ArrayList<>();
+        StringBuilder changedBookIds = new StringBuilder();
+        long lastSequence = acknowledgedSequence;
+
+        Cursor changesCursor = bookDatabase.rawQuery(SQL_CHANGED_BOOKS,
+                new String[]{String.valueOf(acknowledgedSequence), String.valueOf(limit)});
+        try {
+            while (changesCursor.moveToNext()) {
+                ContentValues bookValues = new ContentValues();
+                readRow(changesCursor, bookValues);
+                lastSequence = bookValues.getAsLong(ChangeLogEntry.COLUMN_SEQUENCE);
+                changedBookIds.append(changedBookIds.length() == 0 ? "" : ",").append(bookValues.getAsLong(BookEntry._ID));
+                bookValues.remove(ChangeLogEntry.COLUMN_SEQUENCE);
+                bookValues.remove(BookEntry._ID);
+                changedBooks.add(bookValues);
+            }
+        } finally {
+            changesCursor.close();
+        }
+
+        // Send the stock counters of the changed books too, so the server can merge their quantities.
+        ArrayList<ContentValues> changedCounters = new ArrayList<>();
+        if (changedBookIds.length() != 0) {
+            Cursor countersCursor = bookDatabase.rawQuery(SQL_BOOK_COUNTERS + "(" + changedBookIds + ")", null);
+            try {
+                while (countersCursor.moveToNext()) {
+                    ContentValues counterValues = new ContentValues();
+                    readRow(countersCursor, counterValues);
+                    changedCounters.add(counterValues);
+                }
+            } finally {
+                countersCursor.close();
+            }
+        }
+
+        Bundle changes = new Bundle();
+        changes.putParcelableArrayList(BookContract.KEY_SYNC_BOOKS, changedBooks);
+        changes.putParcelableArrayList(BookContract.KEY_SYNC_COUNTERS, changedCounters);
+        changes.putLong(BookContract.KEY_SYNC_LAST_SEQUENCE, lastSequence);
+        return changes;
+    }
+
+    /*
+     The server has stored every change up to the given sequence number, so they can be
+     removed from the change log.
+    */
+    void acknowledge(long sequence) {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        bookDatabase.beginTransaction();
+        try {
+            bookDatabase.delete(ChangeLogEntry.TABLE_NAME, ChangeLogEntry.COLUMN_SEQUENCE + " <= ?",
+                    new String[]{String.valueOf(sequence)});
+            if (sequence > readLongState(bookDatabase, SyncStateEntry.ACKNOWLEDGED_SEQUENCE)) {
+                writeState(bookDatabase, SyncStateEntry.ACKNOWLEDGED_SEQUENCE, sequence);
+            }
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+    }
+
+    /*
+     Apply a batch of books sent by the server, inserting the ones that aren't known yet and
+     updating the rest, and then merge in the stock counters that came with them. Each batch
+     carries the server's sequence number, and a batch that has already been applied is
+     skipped, so applying the same batch twice is harmless. Return the number of books that
+     were written.
+     A book that has been changed here since the server last acknowledged it keeps its local
+     values, which are sent at the next sync, rather than losing the change, though its stock
+     counters are still merged. A book whose ISBN already belongs to another book in the
+     inventory is skipped and logged, as a scan of the barcode can only find one book.
+    */
+    int applyDeltas(List<ContentValues> serverBooks, List<ContentValues> serverCounters, long serverSequence) {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        Set<String> booksApplied = new HashSet<>();
+
+        bookDatabase.beginTransaction();
+        try {
+            if (serverSequence <= readLongState(bookDatabase, SyncStateEntry.SERVER_SEQUENCE)) {
+                return 0;
+            }
+
+            long lastLocalSequence = DatabaseUtils.longForQuery(bookDatabase,
+                    "SELECT IFNULL(MAX(" + ChangeLogEntry.COLUMN_SEQUENCE + "), 0) FROM " + ChangeLogEntry.TABLE_NAME, null);
+
+            for (ContentValues serverBook : serverBooks) {
+                ContentValues bookValues = syncedValues(serverBook);
+                String globalId = bookValues.getAsString(BookEntry.COLUMN_GLOBAL_ID);
+                if (globalId == null) {
+                    throw new IllegalArgumentException("Server book requires a global ID.");
+                }
+                if (bookValues.containsKey(BookEntry.COLUMN_BOOK_NAME)) {
+                    bookValues.put(BookEntry.COLUMN_FINGERPRINT, BookFingerprint.of(
+                            bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME),
+                            bookValues.getAsString(BookEntry.COLUMN_BOOK_AUTHORS)));
+                }
+
+                long bookId = findBookId(bookDatabase, globalId);
+                if (bookId != -1 && hasLocalChanges(bookDatabase, bookId, lastLocalSequence)) {
+                    Log.i(LOG_TAG, "Kept the unsynced local changes of book " + globalId + " over the server's");
+                    continue;
+                }
+                String isbnOwner = findIsbnOwner(bookDatabase, bookValues, globalId);
+                if (isbnOwner != null) {
+                    Log.w(LOG_TAG, "Skipped server book " + globalId + " as its ISBN belongs to book " + isbnOwner);
+                    continue;
+                }
+
+                if (bookId != -1) {
+                    bookDatabase.update(BookEntry.TABLE_NAME, bookValues,
+                            BookEntry._ID + "=?", new String[]{String.valueOf(bookId)});
+                } else {
+                    bookDatabase.insertOrThrow(BookEntry.TABLE_NAME, null, bookValues);
+                }
+                booksApplied.add(globalId);
+            }
+
+            // Gather the counters of each book together before merging them into the stored ones.
+            Map<String, PnCounter> serverStockCounters = new HashMap<>();
+            for (ContentValues counterValues : serverCounters) {
+                String globalId = counterValues.getAsString(BookEntry.COLUMN_GLOBAL_ID);
+                PnCounter stockCounter = serverStockCounters.get(globalId);
+                if (stockCounter == null) {
+                    stockCounter = new PnCounter();
+                    serverStockCounters.put(globalId, stockCounter);
+                }
+                stockCounter.mergeDevice(counterValues.getAsString(StockCounterEntry.COLUMN_DEVICE_ID),
+                        counterValues.getAsLong(StockCounterEntry.COLUMN_INCREMENTS),
+                        counterValues.getAsLong(StockCounterEntry.COLUMN_DECREMENTS));
+            }
+
+            for (Map.Entry<String, PnCounter> counterEntry : serverStockCounters.entrySet()) {
+                long bookId = findBookId(bookDatabase, counterEntry.getKey());
+                if (bookId != -1 && StockCounters.merge(bookDatabase, bookId, counterEntry.getValue())) {
+                    booksApplied.add(counterEntry.getKey());
+                }
+            }
+
+            /*
+             The triggers will have logged these writes as local changes. Remove them again, so
+             that the server's own changes aren't sent straight back to it.
+            */
+            bookDatabase.delete(ChangeLogEntry.TABLE_NAME, ChangeLogEntry.COLUMN_SEQUENCE + " > ?",
+                    new String[]{String.valueOf(lastLocalSequence)});
+            writeState(bookDatabase, SyncStateEntry.SERVER_SEQUENCE, serverSequence);
+            bookDatabase.setTransactionSuccessful();
+        } finally {
+            bookDatabase.endTransaction();
+        }
+
+        return booksApplied.size();
+    }
+
+    // Return the ID of the book with the given global ID, or -1 if there isn't one.
+    private static long findBookId(SQLiteDatabase bookDatabase, String globalId) {
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID},
+                BookEntry.COLUMN_GLOBAL_ID + "=?",
+                new String[]{globalId},
+                null,
+                null,
+                null);
+        try {
+            return bookCursor.moveToFirst() ? bookCursor.getLong(0) : -1;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Return whether a book has changes in the change log from before the given sequence number.
+    private static boolean hasLocalChanges(SQLiteDatabase bookDatabase, long bookId, long lastLocalSequence) {
+        return DatabaseUtils.queryNumEntries(bookDatabase, ChangeLogEntry.TABLE_NAME,
+                ChangeLogEntry.COLUMN_BOOK_ID + "=? AND " + ChangeLogEntry.COLUMN_SEQUENCE + " <= ?",
+                new String[]{String.valueOf(bookId), String.valueOf(lastLocalSequence)}) > 0;
+    }
+
+    /*
+     Return the global ID of another book in the inventory with the same ISBN as a book from
+     the server, or null if there isn't one. Deleted books don't count, and neither does a
+     book from the server that is deleted itself, as neither is in the ISBN index.
+    */
+    private static String findIsbnOwner(SQLiteDatabase bookDatabase, ContentValues bookValues, String globalId) {
+        String isbn = bookValues.getAsString(BookEntry.COLUMN_ISBN);
+        if (isbn == null || bookValues.get(BookEntry.COLUMN_DELETED_AT) != null) {
+            return null;
+        }
+
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry._ID, BookEntry.COLUMN_GLOBAL_ID},
+                BookEntry.COLUMN_ISBN + "=? AND " + BookEntry.COLUMN_DELETED_AT + " IS NULL AND " +
+                        BookEntry.COLUMN_GLOBAL_ID + " IS NOT ?",
+                new String[]{isbn, globalId},
+                null,
+                null,
+                null);
+        try {
+            if (!bookCursor.moveToFirst()) {
+                return null;
+            }
+            return bookCursor.isNull(1) ? bookCursor.getString(0) : bookCursor.getString(1);
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    String getDeviceId() {
+        return readState(databaseHelper.getReadableDatabase(), SyncStateEntry.DEVICE_ID);
+    }
+
+    // Return the device ID and the sequence numbers that have been synced so far.
+    Bundle getState() {
+        SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+
+        Bundle state = new Bundle();
+        state.putString(BookContract.KEY_SYNC_DEVICE_ID, readState(bookDatabase, SyncStateEntry.DEVICE_ID));
+        state.putLong(BookContract.KEY_SYNC_ACKNOWLEDGED_SEQUENCE,
+                readLongState(bookDatabase, SyncStateEntry.ACKNOWLEDGED_SEQUENCE));
+        state.putLong(BookContract.KEY_SYNC_SERVER_SEQUENCE,
+                readLongState(bookDatabase, SyncStateEntry.SERVER_SEQUENCE));
+        return state;
+    }
+
+    /*
+     Remove one chunk of the oldest entries from the change log. This is only used while sync
+     is switched off, to stop the log from growing without limit.
+    */
+    int trimChangeLog(int chunkSize) {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+        return bookDatabase.delete(ChangeLogEntry.TABLE_NAME,
+                ChangeLogEntry.COLUMN_SEQUENCE + " IN (SELECT " + ChangeLogEntry.COLUMN_SEQUENCE +
+                        " FROM " + ChangeLogEntry.TABLE_NAME +
+                        " ORDER BY " + ChangeLogEntry.COLUMN_SEQUENCE + " LIMIT " + chunkSize + ")",
+                null);
+    }
+
+    // Keep only the synced columns of a book from the server, so it can't write to any others.
+    private static ContentValues syncedValues(ContentValues serverBook) {
+        ContentValues bookValues = new ContentValues();
+        for (String key : serverBook.keySet()) {
+            if (SYNCED_COLUMNS.contains(key)) {
+                Object value = serverBook.get(key);
+                if (value == null) {
+                    bookValues.putNull(key);
+                } else if (value instanceof Number) {
+                    bookValues.put(key, ((Number) value).longValue());
+                } else {
+                    bookValues.put(key, value.toString());
+                }
+            }
+        }
+        return bookValues;
+    }
+
+    /*
+     Copy the current row of a cursor, keeping the type of each column, where
+     DatabaseUtils.cursorRowToContentValues would turn the numbers into strings.
+    */
+    private static void readRow(Cursor cursor, ContentValues rowValues) {
+        String[] columnNames = cursor.getColumnNames();
+        for (int i = 0; i < columnNames.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    rowValues.putNull(columnNames[i]);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    rowValues.put(columnNames[i], cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    rowValues.put(columnNames[i], cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    rowValues.put(columnNames[i], cursor.getBlob(i));
+                    break;
+                default:
+                    rowValues.put(columnNames[i], cursor.getString(i));
+                    break;
+            }
+        }
+    }
+
+    private static String readState(SQLiteDatabase bookDatabase, String name) {
+        Cursor stateCursor = bookDatabase.query(SyncStateEntry.TABLE_NAME,
+                new String[]{SyncStateEntry.COLUMN_VALUE},
+                SyncStateEntry.COLUMN_NAME + "=?",
+                new String[]{name},
+                null,
+                null,
+                null);
+        try {
+            return stateCursor.moveToFirst() ? stateCursor.getString(0) : null;
+        } finally {
+            stateCursor.close();
+        }
+    }
+
+    private static long readLongState(SQLiteDatabase bookDatabase, String name) {
+        String value = readState(bookDatabase, name);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private static void writeState(SQLiteDatabase bookDatabase, String name, long value) {
+        ContentValues stateValues = new ContentValues();
+        stateValues.put(SyncStateEntry.COLUMN_NAME, name);
+        stateValues.put(SyncStateEntry.COLUMN_VALUE, String.valueOf(value));
+        bookDatabase.insertWithOnConflict(SyncStateEntry.TABLE_NAME, null, stateValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Records every provider operation to a trace file while it is switched on, so that a workload
+ seen in a shop can be run again later against a fresh database with the replay load test. It
+ is off until it is asked for, and costs a single check per operation while it is off. The
+ trace is written in the compact format of WorkloadTrace to a file that is swapped for a new
+ one once it is large enough, keeping only the most recent files.
+*/
+class WorkloadRecorder {
+
+    private static final String LOG_TAG = WorkloadRecorder.class.getSimpleName();
+
+    // The largest size of each trace file, and the number of files kept.
+    private static final int MAX_FILE_BYTES = 1024 * 1024;
+    private static final int MAX_FILES = 8;
+
+    // The buffered records are written out after this many operations, so little is lost if the app is killed.
+    private static final int FLUSH_INTERVAL = 64;
+
+    private final File traceDirectory;
+    private final BookDbHelper databaseHelper;
+
+    private volatile boolean recording;
+
+    // The file being written, which is only used while holding the recorder's lock.
+    private WorkloadTrace.Writer traceWriter;
+    private int unflushedCount;
+
+    WorkloadRecorder(File traceDirectory, BookDbHelper databaseHelper) {
+        this.traceDirectory = traceDirectory;
+        this.databaseHelper = databaseHelper;
+    }
+
+    File getTraceDirectory() {
+        return traceDirectory;
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    // Start or stop recording. Stopping writes out everything that has been recorded so far.
+    synchronized void setRecording(boolean shouldRecord) {
+        if (shouldRecord == recording) {
+            return;
+        }
+        if (!shouldRecord) {
+            recording = false;
+            closeFile();
+            return;
+        }
+        recording = openFile();
+    }
+
+    void recordQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                     long startNanos, int outcome, int resultCount) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_QUERY, startNanos, outcome, resultCount)) {
+                    traceWriter.writeString(uri.toString());
+                    traceWriter.writeStringArray(projection);
+                    traceWriter.writeString(selection);
+                    traceWriter.writeArguments(selection, selectionArgs);
+                    traceWriter.writeString(sortOrder);
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    void recordInsert(Uri uri, ContentValues values, long startNanos, int outcome, int resultCount) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_INSERT, startNanos, outcome, resultCount)) {
+                    traceWriter.writeString(uri.toString());
+                    traceWriter.writeContentValues(values);
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    void recordBulkInsert(Uri uri, ContentValues[] valuesArray, long startNanos, int outcome, int resultCount) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_BULK_INSERT, startNanos, outcome, resultCount)) {
+                    traceWriter.writeString(uri.toString());
+                    traceWriter.writeVarLong(valuesArray.length);
+                    for (ContentValues values : valuesArray) {
+                        traceWriter.writeContentValues(values);
+                    }
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    void recordUpdate(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                      long startNanos, int outcome, int resultCount) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_UPDATE, startNanos, outcome, resultCount)) {
+                    traceWriter.writeString(uri.toString());
+                    traceWriter.writeContentValues(values);
+                    traceWriter.writeString(selection);
+                    traceWriter.writeArguments(selection, selectionArgs);
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    void recordDelete(Uri uri, String selection, String[] selectionArgs, long startNanos, int outcome, int resultCount) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_DELETE, startNanos, outcome, resultCount)) {
+                    traceWriter.writeString(uri.toString());
+                    traceWriter.writeString(selection);
+                    traceWriter.writeArguments(selection, selectionArgs);
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    void recordCall(String method, String arg, Bundle extras, long startNanos, int outcome) {
+        if (!recording) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                if (startRecord(WorkloadTrace.OPERATION_CALL, startNanos, outcome, 0)) {
+                    traceWriter.writeString(method);
+                    traceWriter.writeCallArgument(method, arg);
+                    traceWriter.writeBundle(extras);
+                    endRecord();
+                }
+            } catch (IOException e) {
+                stopAfterError(e);
+            }
+        }
+    }
+
+    /*
+     Write the start of a record, moving on to a new file first if the current one is full.
+     Return false if recording was stopped while the operation ran.
+    */
+    private boolean startRecord(int type, long startNanos, int outcome, int resultCount) throws IOException {
+        if (traceWriter == null) {
+            return false;
+        }
+        if (traceWriter.size() >= MAX_FILE_BYTES) {
+            closeFile();
+            if (!openFile()) {
+                recording = false;
+                return false;
+            }
+        }
+
+        // The operation's start is worked out from how long ago it started, as a wall clock time.
+        long durationNanos = System.nanoTime() - startNanos;
+        long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) - TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        traceWriter.writeOperationHeader(type, startMicros, TimeUnit.NANOSECONDS.toMicros(durationNanos), outcome, resultCount);
+        return true;
+    }
+
+    private void endRecord() throws IOException {
+        unflushedCount++;
+        if (unflushedCount >= FLUSH_INTERVAL) {
+            traceWriter.flush();
+            unflushedCount = 0;
+        }
+    }
+
+    /*
+     Start a new trace file, named by the time it was started, and delete the oldest files so
+     that no more than the limit are kept. The highest book ID is written in the header so that
+     a replay can create as many books before it starts. Return whether the file was opened.
+    */
+    private boolean openFile() {
+        if (!traceDirectory.isDirectory() && !traceDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the trace directory " + traceDirectory);
+            return false;
+        }
+        File[] oldFiles = WorkloadTrace.traceFiles(traceDirectory);
+        for (int i = 0; i <= oldFiles.length - MAX_FILES; i++) {
+            if (!oldFiles[i].delete()) {
+                Log.w(LOG_TAG, "Unable to delete the old trace file " + oldFiles[i]);
+            }
+        }
+
+        long startMillis = System.currentTimeMillis();
+        long highestBookId = DatabaseUtils.longForQuery(databaseHelper.getReadableDatabase(),
+                "SELECT IFNULL(MAX(" + BookEntry._ID + "), 0) FROM " + BookEntry.TABLE_NAME, null);
+        File traceFile = new File(traceDirectory, WorkloadTrace.FILE_PREFIX + startMillis + WorkloadTrace.FILE_SUFFIX);
+        try {
+            traceWriter = new WorkloadTrace.Writer(
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile))),
+                    startMillis, highestBookId);
+            unflushedCount = 0;
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to start the trace file " + traceFile, e);
+            traceWriter = null;
+            return false;
+        }
+    }
+
+    private void closeFile() {
+        if (traceWriter == null) {
+            return;
+        }
+        try {
+            traceWriter.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to finish the trace file", e);
+        }
+        traceWriter = null;
+    }
+
+    // A trace that can't be written is stopped, rather than failing the operations being recorded.
+    private void stopAfterError(IOException e) {
+        Log.e(LOG_TAG, "Stopped recording the workload", e);
+        recording = false;
+        closeFile();
+    }
+}
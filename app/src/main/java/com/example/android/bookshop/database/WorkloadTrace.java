@@ -0,0 +1,754 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ The binary format of the workload traces written by the provider's recorder, and a reader
+ that turns a trace back into operations that can be run again. Each trace file starts with a
+ header holding the time it was started and the highest book ID at that time, followed by one
+ record for each provider operation. Numbers are written as variable length integers, and each
+ URI, column, selection and key is written in full only the first time it appears in the file,
+ then referred to by its number, so a typical record takes a few dozen bytes.
+
+ Values are written by their shape unless they are numbers, so names, authors, suppliers and
+ phone numbers never reach the trace. Text is only kept in full for the columns and keys that
+ hold IDs and ISBNs, for the selection arguments compared with those columns, and for the
+ arguments of the calls that take an ID, an ISBN or a setting. Any other text only keeps its
+ length, whether it is all digits, and whether it starts or ends with a LIKE wildcard, and the
+ reader makes up text of the same shape in its place.
+*/
+public final class WorkloadTrace {
+
+    // The types of operation in a trace.
+    public static final int OPERATION_QUERY = 1;
+    public static final int OPERATION_INSERT = 2;
+    public static final int OPERATION_BULK_INSERT = 3;
+    public static final int OPERATION_UPDATE = 4;
+    public static final int OPERATION_DELETE = 5;
+    public static final int OPERATION_CALL = 6;
+
+    // How each operation ended.
+    public static final int OUTCOME_OK = 0;
+    public static final int OUTCOME_ERROR = 1;
+    public static final int OUTCOME_CANCELLED = 2;
+
+    static final String FILE_PREFIX = "workload-";
+    static final String FILE_SUFFIX = ".trace";
+
+    static final int MAGIC = 0x424b5452;
+
+    // Version 2 writes the argument of a call as a value, so that it can be shaped.
+    static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_RAW_CALL_ARGUMENT = 1;
+
+    // The tags that say how each value was written.
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_INT = 1;
+    private static final int VALUE_LONG = 2;
+    private static final int VALUE_FLOAT = 3;
+    private static final int VALUE_DOUBLE = 4;
+    private static final int VALUE_BOOLEAN = 5;
+    private static final int VALUE_TEXT = 6;
+    private static final int VALUE_TEXT_SHAPE = 7;
+    private static final int VALUE_BLOB_SHAPE = 8;
+    private static final int VALUE_INT_ARRAY = 9;
+    private static final int VALUE_LONG_ARRAY = 10;
+    private static final int VALUE_CONTENT_VALUES = 11;
+    private static final int VALUE_CONTENT_VALUES_LIST = 12;
+    private static final int VALUE_UNSUPPORTED = 13;
+
+    // Flags of a text shape, for the LIKE patterns of a search.
+    private static final int SHAPE_LEADING_WILDCARD = 1;
+    private static final int SHAPE_TRAILING_WILDCARD = 2;
+
+    // Flag of a text shape for text that was all digits, such as a phone number or a price typed as text.
+    private static final int SHAPE_DIGITS = 4;
+
+    // The columns and keys whose text is kept in full, as they only ever hold IDs and ISBNs.
+    private static final Set<String> KEPT_TEXT_KEYS = new HashSet<>(Arrays.asList(
+            BookContract.BookEntry._ID,
+            BookContract.BookEntry.COLUMN_ISBN,
+            BookContract.BookEntry.COLUMN_GLOBAL_ID,
+            BookContract.ChangeLogEntry.COLUMN_BOOK_ID,
+            BookContract.KEY_SALE_BOOK_ID));
+
+    // The calls whose argument is kept in full, as it is an ID, an ISBN or a setting.
+    private static final Set<String> KEPT_ARGUMENT_METHODS = new HashSet<>(Arrays.asList(
+            BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD,
+            BookContract.METHOD_SET_WORKLOAD_RECORDING,
+            BookContract.METHOD_SET_MAIN_THREAD_STRICT,
+            BookContract.METHOD_ACKNOWLEDGE_CHANGES,
+            BookContract.METHOD_SELL_BY_ISBN,
+            BookContract.METHOD_ADD_STOCK,
+            BookContract.METHOD_RUN_MAINTENANCE_STEP,
+            BookContract.METHOD_UPDATE_IF_VERSION));
+
+    /*
+     Finds the column that a selection argument is compared with, from the text of the
+     selection before its placeholder, such as "isbn" in "isbn = ?" or "books._id=?".
+    */
+    private static final Pattern ARGUMENT_COLUMN_PATTERN = Pattern.compile(
+            "(?:[A-Za-z_][A-Za-z0-9_]*\\.)?([A-Za-z_][A-Za-z0-9_]*)\\s*(?:==?|!=|<>|<=|>=|<|>|\\s(?:LIKE|GLOB|IS))\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /*
+     References to strings in the file's string table. A new string is written in full after
+     its reference, and the later references to it count up from the first reference number in
+     the order the strings were first written.
+    */
+    private static final int STRING_NULL = 0;
+    private static final int STRING_NEW = 1;
+    private static final int STRING_FIRST_REFERENCE = 2;
+
+    private WorkloadTrace() {
+    }
+
+    // One operation read back from a trace.
+    public static final class Operation {
+        public int type;
+
+        // When the operation started, in microseconds since the epoch, and how long it took.
+        public long startMicros;
+        public long durationMicros;
+
+        public int outcome;
+
+        // The rows returned or changed, or 0 for a call.
+        public int resultCount;
+
+        public Uri uri;
+        public String[] projection;
+        public String selection;
+        public String[] selectionArgs;
+        public String sortOrder;
+
+        // The values of an insert or update, and every row of a bulk insert.
+        public ContentValues[] values;
+
+        public String method;
+        public String arg;
+        public Bundle extras;
+
+        // False if some of the extras were of a type that isn't kept, so the call can't be run again.
+        public boolean replayable = true;
+    }
+
+    // Return the trace files in the given directory, oldest first, or the file itself if it isn't a directory.
+    public static File[] traceFiles(File traceLocation) {
+        if (!traceLocation.isDirectory()) {
+            return new File[]{traceLocation};
+        }
+        File[] files = traceLocation.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String fileName) {
+                return fileName.startsWith(FILE_PREFIX) && fileName.endsWith(FILE_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // The file names hold the time they were started, so they sort by name.
+        Arrays.sort(files);
+        return files;
+    }
+
+    /*
+     Reads the operations out of one trace file. A file that was cut short, for example when the
+     app was killed while recording, is read up to the last whole record.
+    */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream input;
+        private final List<String> strings = new ArrayList<>();
+        private final int formatVersion;
+        private final long startMillis;
+        private final long highestBookId;
+
+        private long lastStartMicros;
+
+        // Counts the made up strings, so that each one is different.
+        private long madeUpCount;
+
+        public Reader(File traceFile) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)));
+            if (input.readInt() != MAGIC) {
+                input.close();
+                throw new IOException("Not a workload trace: " + traceFile);
+            }
+            formatVersion = input.readByte();
+            if (formatVersion != FORMAT_VERSION && formatVersion != FORMAT_VERSION_RAW_CALL_ARGUMENT) {
+                input.close();
+                throw new IOException("Unknown version " + formatVersion + " of workload trace: " + traceFile);
+            }
+            startMillis = input.readLong();
+            highestBookId = readVarLong(input);
+            lastStartMicros = startMillis * 1000;
+        }
+
+        // The time the file was started, in milliseconds since the epoch.
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        // The highest book ID when the file was started, which the IDs in its URIs are up to.
+        public long getHighestBookId() {
+            return highestBookId;
+        }
+
+        // Return the next operation in the file, or null at the end of it.
+        public Operation next() throws IOException {
+            try {
+                int type = input.read();
+                if (type == -1) {
+                    return null;
+                }
+                Operation operation = new Operation();
+                operation.type = type;
+                lastStartMicros += readVarLong(input);
+                operation.startMicros = lastStartMicros;
+                operation.durationMicros = readVarLong(input);
+                operation.outcome = input.readByte();
+                operation.resultCount = (int) readVarLong(input);
+
+                switch (type) {
+                    case OPERATION_QUERY:
+                        operation.uri = Uri.parse(readString());
+                        operation.projection = readStringArray();
+                        operation.selection = readString();
+                        operation.selectionArgs = readArguments();
+                        operation.sortOrder = readString();
+                        break;
+                    case OPERATION_INSERT:
+                        operation.uri = Uri.parse(readString());
+                        operation.values = new ContentValues[]{readContentValues()};
+                        break;
+                    case OPERATION_BULK_INSERT:
+                        operation.uri = Uri.parse(readString());
+                        operation.values = new ContentValues[(int) readVarLong(input)];
+                        for (int row = 0; row < operation.values.length; row++) {
+                            operation.values[row] = readContentValues();
+                        }
+                        break;
+                    case OPERATION_UPDATE:
+                        operation.uri = Uri.parse(readString());
+                        operation.values = new ContentValues[]{readContentValues()};
+                        operation.selection = readString();
+                        operation.selectionArgs = readArguments();
+                        break;
+                    case OPERATION_DELETE:
+                        operation.uri = Uri.parse(readString());
+                        operation.selection = readString();
+                        operation.selectionArgs = readArguments();
+                        break;
+                    case OPERATION_CALL:
+                        operation.method = readString();
+                        if (formatVersion == FORMAT_VERSION_RAW_CALL_ARGUMENT) {
+                            operation.arg = readString();
+                        } else {
+                            Object argument = readValue(operation);
+                            operation.arg = argument == null ? null : String.valueOf(argument);
+                        }
+                        operation.extras = readBundle(operation);
+                        break;
+                    default:
+                        throw new IOException("Unknown operation in workload trace: " + type);
+                }
+                return operation;
+            } catch (EOFException e) {
+                // The last record was cut short.
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        private String readString() throws IOException {
+            int reference = (int) readVarLong(input);
+            if (reference == STRING_NULL) {
+                return null;
+            }
+            if (reference == STRING_NEW) {
+                String newString = input.readUTF();
+                strings.add(newString);
+                return newString;
+            }
+            return strings.get(reference - STRING_FIRST_REFERENCE);
+        }
+
+        private String[] readStringArray() throws IOException {
+            int length = (int) readVarLong(input) - 1;
+            if (length < 0) {
+                return null;
+            }
+            String[] array = new String[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = readString();
+            }
+            return array;
+        }
+
+        // Read selection arguments, which are written as values so that text only keeps its shape.
+        private String[] readArguments() throws IOException {
+            int length = (int) readVarLong(input) - 1;
+            if (length < 0) {
+                return null;
+            }
+            String[] arguments = new String[length];
+            for (int i = 0; i < length; i++) {
+                Object argument = readValue(null);
+                arguments[i] = argument == null ? null : String.valueOf(argument);
+            }
+            return arguments;
+        }
+
+        private ContentValues readContentValues() throws IOException {
+            int size = (int) readVarLong(input) - 1;
+            if (size < 0) {
+                return null;
+            }
+            ContentValues values = new ContentValues(size);
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                Object value = readValue(null);
+                if (value == null) {
+                    values.putNull(key);
+                } else if (value instanceof Integer) {
+                    values.put(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    values.put(key, (Long) value);
+                } else if (value instanceof Float) {
+                    values.put(key, (Float) value);
+                } else if (value instanceof Double) {
+                    values.put(key, (Double) value);
+                } else if (value instanceof Boolean) {
+                    values.put(key, (Boolean) value);
+                } else if (value instanceof byte[]) {
+                    values.put(key, (byte[]) value);
+                } else {
+                    values.put(key, String.valueOf(value));
+                }
+            }
+            return values;
+        }
+
+        private Bundle readBundle(Operation operation) throws IOException {
+            int size = (int) readVarLong(input) - 1;
+            if (size < 0) {
+                return null;
+            }
+            Bundle bundle = new Bundle();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                Object value = readValue(operation);
+                if (value == null) {
+                    bundle.putString(key, null);
+                } else if (value instanceof Integer) {
+                    bundle.putInt(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    bundle.putLong(key, (Long) value);
+                } else if (value instanceof Float) {
+                    bundle.putFloat(key, (Float) value);
+                } else if (value instanceof Double) {
+                    bundle.putDouble(key, (Double) value);
+                } else if (value instanceof Boolean) {
+                    bundle.putBoolean(key, (Boolean) value);
+                } else if (value instanceof int[]) {
+                    bundle.putIntArray(key, (int[]) value);
+                } else if (value instanceof long[]) {
+                    bundle.putLongArray(key, (long[]) value);
+                } else if (value instanceof byte[]) {
+                    bundle.putByteArray(key, (byte[]) value);
+                } else if (value instanceof ContentValues) {
+                    bundle.putParcelable(key, (ContentValues) value);
+                } else if (value instanceof ArrayList) {
+                    @SuppressWarnings("unchecked")
+                    ArrayList<ContentValues> valuesList = (ArrayList<ContentValues>) value;
+                    bundle.putParcelableArrayList(key, valuesList);
+                } else {
+                    bundle.putString(key, String.valueOf(value));
+                }
+            }
+            return bundle;
+        }
+
+        /*
+         Read one value. Values whose type wasn't kept come back as null, and mark the operation
+         as one that can't be run again.
+        */
+        private Object readValue(Operation operation) throws IOException {
+            int tag = input.readByte();
+            switch (tag) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_INT:
+                    return (int) readVarLong(input);
+                case VALUE_LONG:
+                    return readVarLong(input);
+                case VALUE_FLOAT:
+                    return input.readFloat();
+                case VALUE_DOUBLE:
+                    return input.readDouble();
+                case VALUE_BOOLEAN:
+                    return input.readBoolean();
+                case VALUE_TEXT:
+                    return readString();
+                case VALUE_TEXT_SHAPE:
+                    int textLength = (int) readVarLong(input);
+                    return madeUpText(textLength, input.readByte());
+                case VALUE_BLOB_SHAPE:
+                    return new byte[(int) readVarLong(input)];
+                case VALUE_INT_ARRAY:
+                    int[] intArray = new int[(int) readVarLong(input)];
+                    for (int i = 0; i < intArray.length; i++) {
+                        intArray[i] = (int) readVarLong(input);
+                    }
+                    return intArray;
+                case VALUE_LONG_ARRAY:
+                    long[] longArray = new long[(int) readVarLong(input)];
+                    for (int i = 0; i < longArray.length; i++) {
+                        longArray[i] = readVarLong(input);
+                    }
+                    return longArray;
+                case VALUE_CONTENT_VALUES:
+                    return readContentValues();
+                case VALUE_CONTENT_VALUES_LIST:
+                    int listSize = (int) readVarLong(input);
+                    ArrayList<ContentValues> valuesList = new ArrayList<>(listSize);
+                    for (int i = 0; i < listSize; i++) {
+                        valuesList.add(readContentValues());
+                    }
+                    return valuesList;
+                case VALUE_UNSUPPORTED:
+                    if (operation != null) {
+                        operation.replayable = false;
+                    }
+                    return null;
+                default:
+                    throw new IOException("Unknown value in workload trace: " + tag);
+            }
+        }
+
+        // Make up text of the given length, with the same wildcards as the original had.
+        private String madeUpText(int length, int shapeFlags) {
+            if ((shapeFlags & SHAPE_DIGITS) != 0) {
+                return madeUpDigits(length);
+            }
+            StringBuilder text = new StringBuilder(length);
+            boolean leadingWildcard = (shapeFlags & SHAPE_LEADING_WILDCARD) != 0 && length > 0;
+            boolean trailingWildcard = (shapeFlags & SHAPE_TRAILING_WILDCARD) != 0 && length > (leadingWildcard ? 1 : 0);
+            int bodyLength = length - (leadingWildcard ? 1 : 0) - (trailingWildcard ? 1 : 0);
+
+            // Letters only, so the made up text never looks like one of the numbers kept in full.
+            String seed = Long.toString(madeUpCount++, 26);
+            if (leadingWildcard) {
+                text.append('%');
+            }
+            for (int i = 0; i < bodyLength; i++) {
+                char digit = seed.charAt(i % seed.length());
+                text.append((char) ('a' + Character.digit(digit, 26)));
+            }
+            if (trailingWildcard) {
+                text.append('%');
+            }
+            return text.toString();
+        }
+
+        // Make up digits of the given length, which are different each time they are made up.
+        private String madeUpDigits(int length) {
+            StringBuilder text = new StringBuilder(length);
+            String seed = Long.toString(madeUpCount++);
+            for (int i = 0; i < length; i++) {
+                text.append(seed.charAt(i % seed.length()));
+            }
+            return text.toString();
+        }
+    }
+
+    /*
+     Writes the records of one trace file. It isn't safe to use from several threads at once,
+     so the recorder only uses it while holding its lock.
+    */
+    static final class Writer {
+
+        private final DataOutputStream output;
+        private final Map<String, Integer> stringReferences = new HashMap<>();
+        private long lastStartMicros;
+
+        Writer(DataOutputStream output, long startMillis, long highestBookId) throws IOException {
+            this.output = output;
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(startMillis);
+            writeVarLong(output, highestBookId);
+            lastStartMicros = startMillis * 1000;
+        }
+
+        // The number of bytes written to the file so far.
+        int size() {
+            return output.size();
+        }
+
+        void writeOperationHeader(int type, long startMicros, long durationMicros, int outcome, int resultCount)
+                throws IOException {
+            output.writeByte(type);
+            writeVarLong(output, startMicros - lastStartMicros);
+            lastStartMicros = startMicros;
+            writeVarLong(output, durationMicros);
+            output.writeByte(outcome);
+            writeVarLong(output, resultCount);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(output, STRING_NULL);
+                return;
+            }
+            Integer reference = stringReferences.get(value);
+            if (reference != null) {
+                writeVarLong(output, STRING_FIRST_REFERENCE + reference);
+                return;
+            }
+            stringReferences.put(value, stringReferences.size());
+            writeVarLong(output, STRING_NEW);
+            output.writeUTF(value);
+        }
+
+        // Write an array of strings that are kept in full, such as the columns of a projection.
+        void writeStringArray(String[] array) throws IOException {
+            if (array == null) {
+                writeVarLong(output, 0);
+                return;
+            }
+            writeVarLong(output, array.length + 1);
+            for (String value : array) {
+                writeString(value);
+            }
+        }
+
+        /*
+         Write selection arguments by their shapes, as they often hold what was typed. Only the
+         arguments compared with an ID or ISBN column in the selection are kept in full.
+        */
+        void writeArguments(String selection, String[] arguments) throws IOException {
+            if (arguments == null) {
+                writeVarLong(output, 0);
+                return;
+            }
+            String[] argumentColumns = argumentColumns(selection, arguments.length);
+            writeVarLong(output, arguments.length + 1);
+            for (int i = 0; i < arguments.length; i++) {
+                writeValue(arguments[i], KEPT_TEXT_KEYS.contains(argumentColumns[i]));
+            }
+        }
+
+        // Write the argument of a call, which is only kept in full for the calls known to take an ID, an ISBN or a setting.
+        void writeCallArgument(String method, String argument) throws IOException {
+            writeValue(argument, KEPT_ARGUMENT_METHODS.contains(method));
+        }
+
+        void writeContentValues(ContentValues values) throws IOException {
+            if (values == null) {
+                writeVarLong(output, 0);
+                return;
+            }
+            writeVarLong(output, values.size() + 1);
+            for (Map.Entry<String, Object> entry : values.valueSet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue(), KEPT_TEXT_KEYS.contains(entry.getKey()));
+            }
+        }
+
+        void writeBundle(Bundle bundle) throws IOException {
+            if (bundle == null) {
+                writeVarLong(output, 0);
+                return;
+            }
+            writeVarLong(output, bundle.size() + 1);
+            for (String key : bundle.keySet()) {
+                writeString(key);
+                writeValue(bundle.get(key), KEPT_TEXT_KEYS.contains(key));
+            }
+        }
+
+        void writeVarLong(long value) throws IOException {
+            WorkloadTrace.writeVarLong(output, value);
+        }
+
+        void flush() throws IOException {
+            output.flush();
+        }
+
+        void close() throws IOException {
+            output.close();
+        }
+
+        // Write a value, keeping it in full if it is text that is known to hold an ID, an ISBN or a setting.
+        private void writeValue(Object value, boolean keepText) throws IOException {
+            if (value == null) {
+                output.writeByte(VALUE_NULL);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                output.writeByte(VALUE_INT);
+                writeVarLong(output, ((Number) value).longValue());
+            } else if (value instanceof Long) {
+                output.writeByte(VALUE_LONG);
+                writeVarLong(output, (Long) value);
+            } else if (value instanceof Float) {
+                output.writeByte(VALUE_FLOAT);
+                output.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                output.writeByte(VALUE_DOUBLE);
+                output.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte(VALUE_BOOLEAN);
+                output.writeBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                writeText((String) value, keepText);
+            } else if (value instanceof byte[]) {
+                output.writeByte(VALUE_BLOB_SHAPE);
+                writeVarLong(output, ((byte[]) value).length);
+            } else if (value instanceof int[]) {
+                output.writeByte(VALUE_INT_ARRAY);
+                int[] intArray = (int[]) value;
+                writeVarLong(output, intArray.length);
+                for (int element : intArray) {
+                    writeVarLong(output, element);
+                }
+            } else if (value instanceof long[]) {
+                output.writeByte(VALUE_LONG_ARRAY);
+                long[] longArray = (long[]) value;
+                writeVarLong(output, longArray.length);
+                for (long element : longArray) {
+                    writeVarLong(output, element);
+                }
+            } else if (value instanceof ContentValues) {
+                output.writeByte(VALUE_CONTENT_VALUES);
+                writeContentValues((ContentValues) value);
+            } else if (isContentValuesList(value)) {
+                output.writeByte(VALUE_CONTENT_VALUES_LIST);
+                List<?> valuesList = (List<?>) value;
+                writeVarLong(output, valuesList.size());
+                for (Object element : valuesList) {
+                    writeContentValues((ContentValues) element);
+                }
+            } else {
+                output.writeByte(VALUE_UNSUPPORTED);
+            }
+        }
+
+        // Keep text in full only if asked to. Otherwise keep its length, whether it is all digits, and its wildcards.
+        private void writeText(String text, boolean keepText) throws IOException {
+            if (keepText) {
+                output.writeByte(VALUE_TEXT);
+                writeString(text);
+                return;
+            }
+            int shapeFlags = isDigits(text) ? SHAPE_DIGITS : 0;
+            if (text.startsWith("%")) {
+                shapeFlags |= SHAPE_LEADING_WILDCARD;
+            }
+            if (text.length() > 1 && text.endsWith("%")) {
+                shapeFlags |= SHAPE_TRAILING_WILDCARD;
+            }
+            output.writeByte(VALUE_TEXT_SHAPE);
+            writeVarLong(output, text.length());
+            output.writeByte(shapeFlags);
+        }
+
+        private static boolean isDigits(String text) {
+            if (text.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (!Character.isDigit(text.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+         Return the column that each of the given number of placeholders in the selection is
+         compared with, in lower case, or null where it can't be told.
+        */
+        private static String[] argumentColumns(String selection, int argumentCount) {
+            String[] columns = new String[argumentCount];
+            if (selection == null) {
+                return columns;
+            }
+            int argument = 0;
+            for (int i = 0; i < selection.length() && argument < argumentCount; i++) {
+                if (selection.charAt(i) != '?') {
+                    continue;
+                }
+                Matcher columnMatcher = ARGUMENT_COLUMN_PATTERN.matcher(selection.substring(0, i));
+                if (columnMatcher.find()) {
+                    columns[argument] = columnMatcher.group(1).toLowerCase(Locale.ROOT);
+                }
+                argument++;
+            }
+            return columns;
+        }
+
+        private static boolean isContentValuesList(Object value) {
+            if (!(value instanceof List)) {
+                return false;
+            }
+            for (Object element : (List<?>) value) {
+                if (element != null && !(element instanceof ContentValues)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     Write a number in as few bytes as it needs, seven bits to a byte. Negative numbers are
+     zigzag encoded first, so that small negative numbers stay small too.
+    */
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            output.writeByte((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        output.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int nextByte = input.readUnsignedByte();
+            zigzag |= (long) (nextByte & 0x7f) << shift;
+            if ((nextByte & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed number in workload trace.");
+    }
+}
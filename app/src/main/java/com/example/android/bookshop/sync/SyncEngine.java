@@ -0,0 +1,237 @@
+package com.example.android.bookshop.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ Sends the books that have changed on this device to the head office server and applies the
+ changes that the server sends back. Each exchange is a single gzipped JSON POST:
+
+   request:  {"device_id": "...", "last_sequence": 42, "server_sequence": 7, "books": [...], "counters": [...]}
+   response: {"acknowledged_sequence": 42, "server_sequence": 9, "books": [...], "counters": [...]}
+
+ The server acknowledges the local changes it has stored, and replies with the books that
+ have changed at head office since the server sequence number the device last applied. The
+ quantities travel as the stock counters of each device, which are merged rather than
+ overwritten, so sales made on different tills all count. Every
+ step can be repeated safely, so a sync that fails part way through is simply run again.
+*/
+public class SyncEngine {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final String JSON_DEVICE_ID = "device_id";
+    private static final String JSON_LAST_SEQUENCE = "last_sequence";
+    private static final String JSON_ACKNOWLEDGED_SEQUENCE = "acknowledged_sequence";
+    private static final String JSON_SERVER_SEQUENCE = "server_sequence";
+    private static final String JSON_BOOKS = "books";
+    private static final String JSON_COUNTERS = "counters";
+
+    private final ContentResolver contentResolver;
+    private final URL endpoint;
+    private final int batchSize;
+
+    public SyncEngine(ContentResolver contentResolver, URL endpoint) {
+        this(contentResolver, endpoint, DEFAULT_BATCH_SIZE);
+    }
+
+    public SyncEngine(ContentResolver contentResolver, URL endpoint, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Sync batch size must be positive: " + batchSize);
+        }
+        this.contentResolver = contentResolver;
+        this.endpoint = endpoint;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     Exchange batches with the server until every local change has been sent. There is always
+     at least one exchange, so that changes from the server are picked up even when nothing
+     has changed locally.
+    */
+    public Result sync() throws IOException {
+        Bundle syncState = callProvider(BookContract.METHOD_SYNC_STATE, null, null);
+        String deviceId = syncState.getString(BookContract.KEY_SYNC_DEVICE_ID);
+        long serverSequence = syncState.getLong(BookContract.KEY_SYNC_SERVER_SEQUENCE);
+
+        Result result = new Result();
+        boolean moreChanges = true;
+        while (moreChanges) {
+            Bundle limitExtras = new Bundle();
+            limitExtras.putInt(BookContract.KEY_SYNC_LIMIT, batchSize);
+            Bundle changes = callProvider(BookContract.METHOD_GET_CHANGES, null, limitExtras);
+            ArrayList<ContentValues> changedBooks = changes.getParcelableArrayList(BookContract.KEY_SYNC_BOOKS);
+            ArrayList<ContentValues> changedCounters = changes.getParcelableArrayList(BookContract.KEY_SYNC_COUNTERS);
+            long lastSequence = changes.getLong(BookContract.KEY_SYNC_LAST_SEQUENCE);
+
+            try {
+                JSONObject request = new JSONObject();
+                request.put(JSON_DEVICE_ID, deviceId);
+                request.put(JSON_LAST_SEQUENCE, lastSequence);
+                request.put(JSON_SERVER_SEQUENCE, serverSequence);
+                request.put(JSON_BOOKS, toJson(changedBooks));
+                request.put(JSON_COUNTERS, toJson(changedCounters));
+
+                JSONObject response = post(request);
+
+                // The server may acknowledge less than it was sent, in which case the rest is sent again.
+                long acknowledgedSequence = response.optLong(JSON_ACKNOWLEDGED_SEQUENCE, 0);
+                if (acknowledgedSequence > 0) {
+                    callProvider(BookContract.METHOD_ACKNOWLEDGE_CHANGES, String.valueOf(acknowledgedSequence), null);
+                }
+                result.booksSent += changedBooks.size();
+
+                long newServerSequence = response.optLong(JSON_SERVER_SEQUENCE, serverSequence);
+                if (newServerSequence > serverSequence) {
+                    Bundle deltaExtras = new Bundle();
+                    deltaExtras.putParcelableArrayList(BookContract.KEY_SYNC_BOOKS,
+                            fromJson(response.optJSONArray(JSON_BOOKS)));
+                    deltaExtras.putParcelableArrayList(BookContract.KEY_SYNC_COUNTERS,
+                            fromJson(response.optJSONArray(JSON_COUNTERS)));
+                    deltaExtras.putLong(BookContract.KEY_SYNC_SERVER_SEQUENCE, newServerSequence);
+                    Bundle applied = callProvider(BookContract.METHOD_APPLY_SYNC_DELTAS, null, deltaExtras);
+                    result.booksReceived += applied.getInt(BookContract.KEY_SYNC_APPLIED);
+                    serverSequence = newServerSequence;
+                }
+
+                moreChanges = changedBooks.size() == batchSize && acknowledgedSequence >= lastSequence;
+            } catch (JSONException e) {
+                throw new IOException("Malformed sync message", e);
+            }
+        }
+
+        return result;
+    }
+
+    private Bundle callProvider(String method, String arg, Bundle extras) throws IOException {
+        Bundle result = contentResolver.call(BookEntry.CONTENT_URI, method, arg, extras);
+        if (result == null) {
+            throw new IOException("Book provider is not available for " + method);
+        }
+        return result;
+    }
+
+    // Post a gzipped JSON request to the endpoint and read its JSON response.
+    private JSONObject post(JSONObject request) throws IOException, JSONException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            OutputStream requestStream = new GZIPOutputStream(connection.getOutputStream());
+            try {
+                requestStream.write(request.toString().getBytes(UTF_8));
+            } finally {
+                requestStream.close();
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Sync server returned HTTP " + responseCode);
+            }
+
+            InputStream responseStream = connection.getInputStream();
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+                responseStream = new GZIPInputStream(responseStream);
+            }
+            try {
+                return new JSONObject(readFully(responseStream));
+            } finally {
+                responseStream.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    private static JSONArray toJson(ArrayList<ContentValues> rows) throws JSONException {
+        JSONArray rowsJson = new JSONArray();
+        for (ContentValues rowValues : rows) {
+            JSONObject rowJson = new JSONObject();
+            for (String key : rowValues.keySet()) {
+                Object value = rowValues.get(key);
+                rowJson.put(key, value == null ? JSONObject.NULL : value);
+            }
+            rowsJson.put(rowJson);
+        }
+        return rowsJson;
+    }
+
+    // Turn the server's books or counters back into ContentValues. The provider decides which keys it accepts.
+    private static ArrayList<ContentValues> fromJson(JSONArray rowsJson) throws JSONException {
+        ArrayList<ContentValues> rows = new ArrayList<>();
+        if (rowsJson == null) {
+            return rows;
+        }
+
+        for (int i = 0; i < rowsJson.length(); i++) {
+            JSONObject rowJson = rowsJson.getJSONObject(i);
+            ContentValues rowValues = new ContentValues();
+            JSONArray keys = rowJson.names();
+            for (int k = 0; keys != null && k < keys.length(); k++) {
+                String key = keys.getString(k);
+                Object value = rowJson.get(key);
+                if (value == JSONObject.NULL) {
+                    rowValues.putNull(key);
+                } else if (value instanceof Number) {
+                    rowValues.put(key, ((Number) value).longValue());
+                } else {
+                    rowValues.put(key, value.toString());
+                }
+            }
+            rows.add(rowValues);
+        }
+        return rows;
+    }
+
+    // The number of books sent to and received from the server during one sync.
+    public static class Result {
+        int booksSent;
+        int booksReceived;
+
+        public int getBooksSent() {
+            return booksSent;
+        }
+
+        public int getBooksReceived() {
+            return booksReceived;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.android.bookshop.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.bookshop.R;
+
+import java.io.IOException;
+import java.net.URL;
+
+public class SyncJobService extends JobService {
+
+    public final String LOG_TAG = SyncJobService.class.getSimpleName();
+
+    private static final int SYNC_JOB_ID = 101;
+
+    // Send changes to head office every hour while the device has a network connection.
+    private static final long SYNC_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    /*
+     Schedule the periodic sync job if a sync endpoint has been configured and the job hasn't
+     been scheduled already. This is safe to call every time the app starts.
+    */
+    public static void schedule(Context context) {
+        if (TextUtils.isEmpty(context.getString(R.string.sync_endpoint))) {
+            return;
+        }
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == SYNC_JOB_ID) {
+                return;
+            }
+        }
+
+        JobInfo syncJob = new JobInfo.Builder(SYNC_JOB_ID, new ComponentName(context, SyncJobService.class))
+                .setPeriodic(SYNC_INTERVAL_MILLIS)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPersisted(false)
+                .build();
+        jobScheduler.schedule(syncJob);
+    }
+
+    // Job services are started on the main thread, so run the sync on a separate thread.
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean retry = false;
+                try {
+                    SyncEngine syncEngine = new SyncEngine(getContentResolver(), new URL(getString(R.string.sync_endpoint)));
+                    SyncEngine.Result result = syncEngine.sync();
+                    Log.v(LOG_TAG, result.getBooksSent() + " books sent and " + result.getBooksReceived() + " books received.");
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Sync with head office failed.", e);
+                    retry = true;
+                }
+                jobFinished(jobParameters, retry);
+            }
+        });
+        syncThread.start();
+
+        return true;
+    }
+
+    /*
+     A sync can be cut off at any point without harm, as every step of it is safe to repeat,
+     so let the thread carry on and ask for the job to be run again later.
+    */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        return true;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.bookshop.userinterface;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.KeyEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Picks out the barcodes typed by a keyboard wedge scanner from the key events of an activity.
+ A scanner types the digits of a barcode much faster than anyone can type by hand and ends
+ them with the enter key, so only a fast run of digits followed by enter is taken as a scan.
+ The keys of a run are held back while it could still be a scan, and handed back to the
+ activity in order as soon as it can't be, so digits typed by hand still reach the search box
+ a moment later. Any other key events are left for the activity to handle as normal.
+*/
+class BarcodeWedgeReader {
+
+    // The longest gap between two keys of the same scan. People type far more slowly than this.
+    private static final long MAX_KEY_GAP_MILLIS = 50;
+
+    // The shortest barcode that is accepted, which is an EAN-8.
+    private static final int MIN_BARCODE_LENGTH = 8;
+
+    private static final int MAX_BARCODE_LENGTH = 13;
+
+    interface OnBarcodeScannedListener {
+        void onBarcodeScanned(String barcode);
+    }
+
+    // Handles the key events that were held back and turned out not to be part of a scan.
+    interface KeyEventTarget {
+        void dispatchHeldKeyEvent(KeyEvent event);
+    }
+
+    private final OnBarcodeScannedListener scannedListener;
+    private final KeyEventTarget keyEventTarget;
+    private final StringBuilder barcode = new StringBuilder();
+    private long lastKeyTime;
+
+    // The key events of the run so far, which are handed back if it isn't a scan.
+    private final List<KeyEvent> heldEvents = new ArrayList<>();
+
+    // Set once a scan ends, so that the release of its enter key is swallowed too.
+    private boolean scanEnded;
+
+    // Hands the held keys back if no other key arrives in time for the run to be a scan.
+    private final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+    private final Runnable releaseHeldEvents = new Runnable() {
+        @Override
+        public void run() {
+            releaseHeldEvents();
+        }
+    };
+
+    BarcodeWedgeReader(OnBarcodeScannedListener scannedListener, KeyEventTarget keyEventTarget) {
+        this.scannedListener = scannedListener;
+        this.keyEventTarget = keyEventTarget;
+    }
+
+    /*
+     Pass every key event of the activity through here first, on the main thread. Return true if
+     the event was taken, either as part of a scan or to be handed back later, in which case it
+     shouldn't be handled anywhere else now.
+    */
+    boolean onKeyEvent(KeyEvent event) {
+        int keyCode = event.getKeyCode();
+        boolean isDigit = keyCode >= KeyEvent.KEYCODE_0 && keyCode <= KeyEvent.KEYCODE_9;
+        boolean isDown = event.getAction() == KeyEvent.ACTION_DOWN;
+        boolean endsWithCheckDigitX = barcode.length() == 10 && barcode.charAt(9) == 'X';
+
+        // The X of an ISBN-10 can only be its tenth character, and its release comes once it has been added.
+        boolean isCheckDigitX = keyCode == KeyEvent.KEYCODE_X && (isDown ? barcode.length() == 9 : endsWithCheckDigitX);
+        boolean isEnter = keyCode == KeyEvent.KEYCODE_ENTER || keyCode == KeyEvent.KEYCODE_NUMPAD_ENTER;
+
+        // A scanner types the X of an ISBN with the shift key, which is held back along with the run.
+        if (KeyEvent.isModifierKey(keyCode) && !heldEvents.isEmpty()) {
+            holdEvent(event);
+            return true;
+        }
+        if (!isDigit && !isCheckDigitX && !isEnter) {
+            releaseHeldEvents();
+            return false;
+        }
+
+        // Only the key presses count, but the releases of a run are held back along with them.
+        if (!isDown) {
+            if (isEnter) {
+                boolean endOfScan = scanEnded;
+                scanEnded = false;
+                return endOfScan;
+            }
+            if (heldEvents.isEmpty()) {
+                return false;
+            }
+            holdEvent(event);
+            return true;
+        }
+
+        long keyTime = event.getEventTime();
+        if (!heldEvents.isEmpty() && keyTime - lastKeyTime > MAX_KEY_GAP_MILLIS) {
+            releaseHeldEvents();
+            if (isCheckDigitX) {
+                // An X can't start a run, so a late one is typed rather than scanned.
+                return false;
+            }
+        }
+        lastKeyTime = keyTime;
+
+        if (isEnter) {
+            if (barcode.length() < MIN_BARCODE_LENGTH) {
+                releaseHeldEvents();
+                return false;
+            }
+
+            // The run was a scan, so its keys are dropped rather than handed back.
+            String scannedBarcode = barcode.toString();
+            clearRun();
+            scanEnded = true;
+            scannedListener.onBarcodeScanned(scannedBarcode);
+            return true;
+        }
+
+        // Nothing can follow the X of an ISBN-10, nor the last digit of the longest barcode.
+        if (barcode.length() == MAX_BARCODE_LENGTH || endsWithCheckDigitX) {
+            releaseHeldEvents();
+            return false;
+        }
+
+        barcode.append(isDigit ? (char) ('0' + keyCode - KeyEvent.KEYCODE_0) : 'X');
+        holdEvent(event);
+        return true;
+    }
+
+    // Forget any held keys without handing them back, for when the activity is no longer shown.
+    void cancel() {
+        clearRun();
+        scanEnded = false;
+    }
+
+    private void holdEvent(KeyEvent event) {
+        heldEvents.add(event);
+        timeoutHandler.removeCallbacks(releaseHeldEvents);
+        timeoutHandler.postDelayed(releaseHeldEvents, MAX_KEY_GAP_MILLIS);
+    }
+
+    // Hand the held keys back to the activity in the order they were typed, as the run wasn't a scan.
+    private void releaseHeldEvents() {
+        List<KeyEvent> events = new ArrayList<>(heldEvents);
+        clearRun();
+        for (KeyEvent event : events) {
+            keyEventTarget.dispatchHeldKeyEvent(event);
+        }
+    }
+
+    private void clearRun() {
+        timeoutHandler.removeCallbacks(releaseHeldEvents);
+        heldEvents.clear();
+        barcode.setLength(0);
+    }
+}
@@ -1,39 +1,64 @@
 package com.example.android.bookshop.userinterface;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
-import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CursorAdapter;
 import android.widget.ImageButton;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 
 import com.example.android.bookshop.R;
+import com.example.android.bookshop.core.PriceFormat;
 import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.SectionEntry;
 
-import java.util.Locale;
+import java.util.Arrays;
 
-public class BookCursorAdapter extends CursorAdapter {
+public class BookCursorAdapter extends CursorAdapter implements SectionIndexer {
 
     private Context globalContext;
 
+    // Holds the rows inflated in the background before the list was first shown.
+    private final ViewPool viewPool;
+
     private final int SELL_UNIT_ID = R.string.sell_button_id_tag;
-    private final int SELL_UNIT_QUANTITY = R.string.sell_button_quantity_tag;
 
-    BookCursorAdapter(Context context, Cursor cursor) {
+    // Sells a unit of a book when its sell button is clicked.
+    interface OnSellUnitListener {
+        void onSellUnit(long bookId);
+    }
+
+    private final OnSellUnitListener sellUnitListener;
+
+    /*
+     The first letters shown by the fast scroller and the position in the list where each one
+     starts, which are loaded from the provider rather than found by walking the cursor.
+    */
+    private String[] sectionNames = new String[0];
+    private int[] sectionPositions = new int[0];
+
+    /*
+     Set while the list shows the snapshot from the last run, whose quantities may be out of
+     date, so that nothing can be sold from it until the real rows arrive.
+    */
+    private boolean showingSnapshot;
+
+    BookCursorAdapter(Context context, Cursor cursor, ViewPool viewPool, OnSellUnitListener sellUnitListener) {
         super(context, cursor, 0);
         this.globalContext = context;
+        this.viewPool = viewPool;
+        this.sellUnitListener = sellUnitListener;
     }
 
-    // Make a new blank list item view. No data is bound to the views yet.
+    /*
+     Make a new blank list item view, taking one of the rows that were inflated in the
+     background if there are any left. No data is bound to the views yet.
+    */
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.book_list_item, parent, false);
+        return viewPool.obtain(R.layout.book_list_item, parent);
     }
 
     // Bind the book data (in the current row pointed to by cursor) to the given list item layout.
@@ -65,63 +90,79 @@ public class BookCursorAdapter extends CursorAdapter {
             bookAuthors.setText(globalContext.getString(R.string.unknown_author));
         }
 
-        bookPrice.setText(convertPenceToPounds(price));
+        bookPrice.setText(PriceFormat.convertPenceToPounds(price));
         bookQuantity.setText(String.valueOf(quantity));
 
         /*
-         Set tags for each sell unit button to store the current cursor row ID and the current
-         quantity. Then add a click listener to it to reduce the quantity value for that item.
+         Set a tag on each sell unit button to store the current cursor row ID. Then add a click
+         listener to it to sell one unit of that book. Only the ID is kept, as the quantity shown
+         can be out of date by the time the button is clicked, so the sale is made as a change
+         of one unit by the provider, which checks the stock itself.
         */
-        sellUnit.setTag(SELL_UNIT_ID, currentCursorRow.getInt(currentCursorRow.getColumnIndexOrThrow(BookEntry._ID)));
-        sellUnit.setTag(SELL_UNIT_QUANTITY, currentCursorRow.getInt(currentCursorRow.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_QUANTITY)));
+        sellUnit.setTag(SELL_UNIT_ID, currentCursorRow.getLong(currentCursorRow.getColumnIndexOrThrow(BookEntry._ID)));
 
+        sellUnit.setEnabled(!showingSnapshot);
         sellUnit.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View clickedView) {
-                // Pass the clicked view to the method that can reduce the item's quantity.
-                decreaseCount(clickedView);
+                sellUnitListener.onSellUnit((long) clickedView.getTag(SELL_UNIT_ID));
             }
         });
     }
 
-    // Convert pence to pounds and then format it to show 2 decimal places.
-    private String convertPenceToPounds(int amountInPence) {
-        float amountInPounds = (float) amountInPence / 100;
-        return "£" + String.format(Locale.ENGLISH, "%.2f", amountInPounds);
+    // Set whether the cursor is the snapshot of the list, which turns the sell buttons off while it is shown.
+    void setShowingSnapshot(boolean isSnapshot) {
+        if (showingSnapshot != isSnapshot) {
+            showingSnapshot = isSnapshot;
+            notifyDataSetChanged();
+        }
     }
 
-    // Decrease the quantity count by one in the selected list item.
-    private void decreaseCount(View clickedView) {
-        /*
-         Retrieve the tags of the clicked view that indicate which book's quantity should
-         be reduced and its current value.
-        */
-        int bookItemId = (int) clickedView.getTag(SELL_UNIT_ID);
-        int currentQuantity = (int) clickedView.getTag(SELL_UNIT_QUANTITY);
-
-        // Check that the current quantity is above 0 so that it can be reduced.
-        if (currentQuantity > 0) {
-            /*
-             If it is, update the quantity of the selected book in the database by storing
-             the new quantity value, creating the row URI and then calling the ContentProvider.
-            */
-            ContentValues newQuantityValue = new ContentValues();
-            newQuantityValue.put(BookEntry.COLUMN_BOOK_QUANTITY, currentQuantity - 1);
-            Uri updateUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookItemId);
-
-            int rowsAffected = globalContext.getContentResolver().update(updateUri, newQuantityValue, null, null);
-
-            // If no rows were affected, then there was an error with the update.
-            if (rowsAffected == 0) {
-                Log.e(this.getClass().getSimpleName(), "Error in updating the quantity.");
-            } else {
-                /*
-                 Otherwise, the update was successful and we can notify the data set that
-                 values have changed. The tag of the clicked view is also updated.
-                */
-                notifyDataSetChanged();
-                clickedView.setTag(SELL_UNIT_QUANTITY, currentQuantity - 1);
+    /*
+     Replace the sections with the ones in the given cursor, which is left open for its loader
+     to close. The list is told about the change so that the fast scroller reads them again.
+    */
+    void swapSections(Cursor sectionCursor) {
+        int sectionCount = sectionCursor == null ? 0 : sectionCursor.getCount();
+        sectionNames = new String[sectionCount];
+        sectionPositions = new int[sectionCount];
+        if (sectionCursor != null) {
+            int sectionIndex = sectionCursor.getColumnIndexOrThrow(SectionEntry.COLUMN_SECTION);
+            int positionIndex = sectionCursor.getColumnIndexOrThrow(SectionEntry.COLUMN_FIRST_POSITION);
+            sectionCursor.moveToPosition(-1);
+            for (int section = 0; sectionCursor.moveToNext(); section++) {
+                sectionNames[section] = sectionCursor.getString(sectionIndex);
+                sectionPositions[section] = sectionCursor.getInt(positionIndex);
             }
         }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public Object[] getSections() {
+        return sectionNames;
+    }
+
+    /*
+     The sections and the books are loaded separately, so for a moment after a change they can
+     disagree. Keep the positions inside the list until both have caught up.
+    */
+    @Override
+    public int getPositionForSection(int section) {
+        if (sectionPositions.length == 0) {
+            return 0;
+        }
+        int position = sectionPositions[Math.max(0, Math.min(section, sectionPositions.length - 1))];
+        return Math.max(0, Math.min(position, getCount() - 1));
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        int section = Arrays.binarySearch(sectionPositions, position);
+        if (section < 0) {
+            // The position is inside the section before the one it would be inserted at.
+            section = -section - 2;
+        }
+        return Math.max(0, section);
     }
-}
\ No newline at end of file
+}
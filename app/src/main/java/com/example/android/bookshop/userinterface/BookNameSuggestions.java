@@ -0,0 +1,253 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.bookshop.core.PrefixIndex;
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Prefix indexes over the authors and supplier names of the books in the inventory, which give
+ the editor its suggestions as each key is typed. They are built on a background thread the
+ first time they are needed, then kept up to date from the provider's change notifications
+ while an editor is open: a change to one book only reads that book again, and a change to the
+ whole list only touches the names of the books whose values have changed. The notifications
+ that arrive close together, such as those of a run of sales, are read in one go, and while no
+ editor is open they aren't listened to at all. The next editor to open catches up with a
+ single read of the list.
+*/
+final class BookNameSuggestions {
+
+    private static final String[] PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_AUTHORS,
+            BookEntry.COLUMN_SUPPLIER_NAME};
+
+    // How long to wait after a change for any others before reading them.
+    private static final long REFRESH_DELAY_MILLIS = 300;
+
+    private static BookNameSuggestions instance;
+
+    // The number of editors using the suggestions, which are only kept up to date while there are any.
+    private static int userCount;
+
+    private final ContentResolver contentResolver;
+    private final PrefixIndex authorsIndex = new PrefixIndex();
+    private final PrefixIndex supplierIndex = new PrefixIndex();
+
+    // The authors and supplier name currently indexed for each book, only used on the update thread.
+    private final Map<Long, String[]> indexedBooks = new HashMap<>();
+
+    // All reads of the provider happen on this thread, one after another, in the order of the changes.
+    private final ScheduledExecutorService updateExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /*
+     The changes waiting to be read: the IDs of single books, or the whole list. A refresh is
+     scheduled when the first of them arrives and reads all of them. Only used while holding
+     the lock on the pending books.
+    */
+    private final Set<Long> pendingBookIds = new HashSet<>();
+    private boolean listChangePending;
+    private boolean refreshScheduled;
+
+    private final ContentObserver changeObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri changedUri) {
+            onBooksChanged(changedUri);
+        }
+    };
+
+    private BookNameSuggestions(Context context) {
+        contentResolver = context.getContentResolver();
+    }
+
+    /*
+     Return the suggestions for the app, building them in the background the first time, and
+     keep them up to date until release is called. Each call must be matched by a release.
+    */
+    static synchronized BookNameSuggestions acquire(Context context) {
+        if (instance == null) {
+            instance = new BookNameSuggestions(context.getApplicationContext());
+        }
+        if (userCount++ == 0) {
+            instance.start();
+        }
+        return instance;
+    }
+
+    // Stop keeping the suggestions up to date once the last editor using them has finished.
+    static synchronized void release() {
+        if (userCount > 0 && --userCount == 0) {
+            instance.stop();
+        }
+    }
+
+    PrefixIndex getAuthorsIndex() {
+        return authorsIndex;
+    }
+
+    PrefixIndex getSupplierIndex() {
+        return supplierIndex;
+    }
+
+    // Listen for changes, and read the whole list to catch up with any missed while no one was listening.
+    private void start() {
+        contentResolver.registerContentObserver(BookEntry.CONTENT_URI, true, changeObserver);
+        onBooksChanged(null);
+    }
+
+    private void stop() {
+        contentResolver.unregisterContentObserver(changeObserver);
+        synchronized (pendingBookIds) {
+            pendingBookIds.clear();
+            listChangePending = false;
+        }
+    }
+
+    /*
+     Note a change to a single book, or to the whole list if the URI is null or books, and
+     schedule a refresh if there isn't one waiting. Changes to the other paths below books,
+     such as the history and the sections, can't change a name and are ignored.
+    */
+    private void onBooksChanged(Uri changedUri) {
+        synchronized (pendingBookIds) {
+            if (changedUri != null && isSingleBookUri(changedUri)) {
+                pendingBookIds.add(ContentUris.parseId(changedUri));
+            } else if (changedUri == null || isBooksUri(changedUri)) {
+                listChangePending = true;
+            } else {
+                return;
+            }
+
+            if (refreshScheduled) {
+                return;
+            }
+            refreshScheduled = true;
+        }
+
+        updateExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshPending();
+            }
+        }, REFRESH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Read all the changes noted since the refresh was scheduled.
+    private void refreshPending() {
+        Long[] bookIds;
+        boolean listChanged;
+        synchronized (pendingBookIds) {
+            refreshScheduled = false;
+            listChanged = listChangePending;
+            listChangePending = false;
+            bookIds = pendingBookIds.toArray(new Long[pendingBookIds.size()]);
+            pendingBookIds.clear();
+        }
+
+        if (listChanged) {
+            refresh(null);
+            return;
+        }
+        for (Long bookId : bookIds) {
+            refresh(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId));
+        }
+    }
+
+    // Read the changed book, or every book if the change wasn't to a single one, and update the indexes.
+    private void refresh(Uri changedUri) {
+        if (changedUri != null && isSingleBookUri(changedUri)) {
+            long bookId = ContentUris.parseId(changedUri);
+            Cursor bookCursor = contentResolver.query(changedUri, PROJECTION, null, null, null);
+            String[] newValues = null;
+            if (bookCursor != null) {
+                try {
+                    if (bookCursor.moveToFirst()) {
+                        newValues = readValues(bookCursor);
+                    }
+                } finally {
+                    bookCursor.close();
+                }
+            }
+            updateBook(bookId, newValues);
+            return;
+        }
+
+        Cursor booksCursor = contentResolver.query(BookEntry.CONTENT_URI, PROJECTION, null, null, null);
+        if (booksCursor == null) {
+            return;
+        }
+
+        Map<Long, String[]> currentBooks = new HashMap<>();
+        try {
+            while (booksCursor.moveToNext()) {
+                currentBooks.put(booksCursor.getLong(0), readValues(booksCursor));
+            }
+        } finally {
+            booksCursor.close();
+        }
+
+        // Remove the books that have gone, then add or update the rest.
+        for (Long bookId : indexedBooks.keySet().toArray(new Long[indexedBooks.size()])) {
+            if (!currentBooks.containsKey(bookId)) {
+                updateBook(bookId, null);
+            }
+        }
+        for (Map.Entry<Long, String[]> book : currentBooks.entrySet()) {
+            updateBook(book.getKey(), book.getValue());
+        }
+    }
+
+    // Replace the indexed names of a book with its new ones, or remove them if it has been deleted.
+    private void updateBook(long bookId, String[] newValues) {
+        String[] oldValues = newValues == null ? indexedBooks.remove(bookId) : indexedBooks.put(bookId, newValues);
+        if (oldValues != null && newValues != null
+                && equal(oldValues[0], newValues[0]) && equal(oldValues[1], newValues[1])) {
+            return;
+        }
+
+        if (oldValues != null) {
+            authorsIndex.remove(oldValues[0]);
+            supplierIndex.remove(oldValues[1]);
+        }
+        if (newValues != null) {
+            authorsIndex.add(newValues[0]);
+            supplierIndex.add(newValues[1]);
+        }
+    }
+
+    private static String[] readValues(Cursor bookCursor) {
+        return new String[]{bookCursor.getString(1), bookCursor.getString(2)};
+    }
+
+    private static boolean isBooksUri(Uri changedUri) {
+        List<String> segments = changedUri.getPathSegments();
+        return segments.size() == 1 && BookContract.PATH_BOOKS.equals(segments.get(0));
+    }
+
+    // Check whether the URI is books/# rather than the whole list or another path below it.
+    private static boolean isSingleBookUri(Uri changedUri) {
+        List<String> segments = changedUri.getPathSegments();
+        return segments.size() == 2 && BookContract.PATH_BOOKS.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1));
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+/*
+ A save from the editor and how it went. Saving a book can take several round trips to the
+ provider, to look for a duplicate before a new book is added, or to merge the changes to an
+ existing book with the ones someone else made in the meantime and send them again, so the
+ editor runs it on a background thread and only acts on the result once it is back on the UI
+ thread.
+*/
+final class BookSave {
+
+    // The number of times a save is sent again after merging it with changes made by someone else.
+    static final int MAX_SAVE_ATTEMPTS = 3;
+
+    // The new book was added.
+    static final int ADDED = 0;
+    // The new book could not be added.
+    static final int NOT_ADDED = 1;
+    // The changes to the existing book were written.
+    static final int SAVED = 2;
+    // The existing book was deleted before the changes could be written.
+    static final int FAILED = 3;
+    // A book with the same name and authors is already in the inventory.
+    static final int DUPLICATE = 4;
+    // The ISBN of the changes is already used by another book.
+    static final int ISBN_IN_USE = 5;
+    // Copies were sold in the meantime, so there aren't enough left to remove.
+    static final int NOT_ENOUGH_STOCK = 6;
+    // Someone else changed the same values, so the user has to choose which ones to keep.
+    static final int CONFLICT = 7;
+    // The book kept changing while the changes were merged, and they were never written.
+    static final int GAVE_UP = 8;
+
+    final int result;
+
+    // The values being saved that differ from the book's, which for a new book are all of them.
+    final ContentValues changedValues;
+
+    // The change in quantity being saved.
+    final int quantityChange;
+
+    // The book's values and version as they were when the save finished, or null if it didn't need them.
+    final ContentValues currentValues;
+
+    // The book that is already in the inventory, for a duplicate.
+    final Bundle duplicateBook;
+
+    private BookSave(int result, ContentValues changedValues, int quantityChange, ContentValues currentValues,
+                     Bundle duplicateBook) {
+        this.result = result;
+        this.changedValues = changedValues;
+        this.quantityChange = quantityChange;
+        this.currentValues = currentValues;
+        this.duplicateBook = duplicateBook;
+    }
+
+    private static BookSave of(int result) {
+        return new BookSave(result, null, 0, null, null);
+    }
+
+    /*
+     Add a new book to the inventory. If duplicates are checked for and the same book is
+     already there, nothing is added and the book that is there is returned instead, as most
+     likely this is a restock.
+    */
+    static BookSave insert(ContentResolver contentResolver, ContentValues bookDetails, boolean checkDuplicates) {
+        if (checkDuplicates) {
+            Bundle bookExtras = new Bundle();
+            bookExtras.putString(BookEntry.COLUMN_BOOK_NAME, bookDetails.getAsString(BookEntry.COLUMN_BOOK_NAME));
+            bookExtras.putString(BookEntry.COLUMN_BOOK_AUTHORS, bookDetails.getAsString(BookEntry.COLUMN_BOOK_AUTHORS));
+
+            Bundle duplicateBook = contentResolver.call(BookEntry.CONTENT_URI,
+                    BookContract.METHOD_FIND_DUPLICATE, null, bookExtras);
+            if (duplicateBook != null && duplicateBook.containsKey(BookContract.KEY_DUPLICATE_BOOK_ID)) {
+                return new BookSave(DUPLICATE, bookDetails, 0, null, duplicateBook);
+            }
+        }
+
+        Uri newUri;
+        try {
+            newUri = contentResolver.insert(BookEntry.CONTENT_URI, bookDetails);
+        } catch (SQLiteConstraintException e) {
+            return of(ISBN_IN_USE);
+        }
+        return of(newUri == null ? NOT_ADDED : ADDED);
+    }
+
+    // Add the given number of copies to a book that is already in the inventory.
+    static BookSave addStock(ContentResolver contentResolver, long bookId, int addedQuantity) {
+        Bundle stockExtras = new Bundle();
+        stockExtras.putInt(BookContract.KEY_ADD_STOCK_QUANTITY, addedQuantity);
+
+        Bundle result = contentResolver.call(BookEntry.CONTENT_URI,
+                BookContract.METHOD_ADD_STOCK, String.valueOf(bookId), stockExtras);
+        // An empty result means the book was deleted while the dialog was open.
+        return of(result == null || !result.containsKey(BookContract.KEY_DUPLICATE_QUANTITY) ? FAILED : SAVED);
+    }
+
+    /*
+     Save the changes made to an existing book. Only the values that differ from the ones that
+     were loaded are sent, with the quantity sent as the number of units added or removed, and
+     they are only written if nobody else has changed the book since it was loaded. If someone
+     has, such as a sale from the list, changes to different values are merged and sent again,
+     and changes to the same values are handed back for the user to choose between.
+    */
+    static BookSave update(ContentResolver contentResolver, long bookId, ContentValues loadedValues,
+                           ContentValues bookDetails) {
+        ContentValues changedValues = new ContentValues(bookDetails);
+        changedValues.remove(BookEntry.COLUMN_BOOK_QUANTITY);
+        for (String column : bookDetails.keySet()) {
+            if (sameValue(bookDetails.get(column), loadedValues.get(column))) {
+                changedValues.remove(column);
+            }
+        }
+        int quantityChange = bookDetails.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY)
+                - loadedValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        // The values the changes are based on, which move on to the current ones each time they are merged.
+        ContentValues baseValues = loadedValues;
+        for (int attempt = 0; attempt < MAX_SAVE_ATTEMPTS; attempt++) {
+            Bundle updateExtras = new Bundle();
+            updateExtras.putParcelable(BookContract.KEY_UPDATE_VALUES, changedValues);
+            updateExtras.putLong(BookContract.KEY_UPDATE_VERSION, baseValues.getAsLong(BookEntry.COLUMN_VERSION));
+            updateExtras.putInt(BookContract.KEY_UPDATE_QUANTITY_CHANGE, quantityChange);
+
+            Bundle result;
+            try {
+                result = contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_UPDATE_IF_VERSION,
+                        String.valueOf(bookId), updateExtras);
+            } catch (SQLiteConstraintException e) {
+                // The only unique value that the user can change is the ISBN.
+                return of(ISBN_IN_USE);
+            }
+            if (result == null) {
+                return of(FAILED);
+            }
+
+            ContentValues currentValues = result.getParcelable(BookContract.KEY_UPDATE_CURRENT_VALUES);
+            switch (result.getInt(BookContract.KEY_UPDATE_RESULT)) {
+                case BookContract.UPDATE_SAVED:
+                    return of(SAVED);
+                case BookContract.UPDATE_DELETED:
+                    return of(FAILED);
+                case BookContract.UPDATE_NOT_ENOUGH_STOCK:
+                    return new BookSave(NOT_ENOUGH_STOCK, changedValues, quantityChange, currentValues, null);
+                default:
+                    if (changedBySomeoneElse(baseValues, currentValues, changedValues)) {
+                        return new BookSave(CONFLICT, changedValues, quantityChange, currentValues, null);
+                    }
+                    baseValues = currentValues;
+                    break;
+            }
+        }
+
+        return new BookSave(GAVE_UP, changedValues, quantityChange, baseValues, null);
+    }
+
+    // Check whether any of the changed values have also been changed by someone else since the base values.
+    private static boolean changedBySomeoneElse(ContentValues baseValues, ContentValues currentValues,
+                                                ContentValues changedValues) {
+        for (String column : changedValues.keySet()) {
+            if (!sameValue(currentValues.get(column), baseValues.get(column))
+                    && !sameValue(currentValues.get(column), changedValues.get(column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Compare two values from ContentValues, which may hold the same number as different types.
+    private static boolean sameValue(Object firstValue, Object secondValue) {
+        if (firstValue == null || secondValue == null) {
+            return firstValue == secondValue;
+        }
+        return String.valueOf(firstValue).equals(String.valueOf(secondValue));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.bookshop.userinterface;
+
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ The books that a customer is buying, and how many of each, kept in the order they were added.
+ Nothing is sold until the whole basket is checked out in one provider call.
+*/
+class CheckoutBasket {
+
+    private final LinkedHashMap<Long, Integer> lines = new LinkedHashMap<>();
+
+    // Add one unit of a book to the basket.
+    void add(long bookId) {
+        Integer quantity = lines.get(bookId);
+        lines.put(bookId, quantity == null ? 1 : quantity + 1);
+    }
+
+    void clear() {
+        lines.clear();
+    }
+
+    boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    // Return the total number of units in the basket.
+    int getUnitCount() {
+        int unitCount = 0;
+        for (int quantity : lines.values()) {
+            unitCount += quantity;
+        }
+        return unitCount;
+    }
+
+    /*
+     Write the basket into a Bundle in the form that the checkout method takes, which is also
+     used to keep the basket across configuration changes.
+    */
+    Bundle toBundle() {
+        long[] bookIds = new long[lines.size()];
+        int[] quantities = new int[lines.size()];
+        int line = 0;
+        for (Map.Entry<Long, Integer> basketLine : lines.entrySet()) {
+            bookIds[line] = basketLine.getKey();
+            quantities[line] = basketLine.getValue();
+            line++;
+        }
+
+        Bundle basketBundle = new Bundle();
+        basketBundle.putLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS, bookIds);
+        basketBundle.putIntArray(BookContract.KEY_CHECKOUT_QUANTITIES, quantities);
+        return basketBundle;
+    }
+
+    // Replace the contents of the basket with the lines stored in a Bundle.
+    void restore(Bundle basketBundle) {
+        lines.clear();
+        long[] bookIds = basketBundle.getLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS);
+        int[] quantities = basketBundle.getIntArray(BookContract.KEY_CHECKOUT_QUANTITIES);
+        if (bookIds == null || quantities == null) {
+            return;
+        }
+
+        for (int line = 0; line < bookIds.length && line < quantities.length; line++) {
+            lines.put(bookIds[line], quantities[line]);
+        }
+    }
+}
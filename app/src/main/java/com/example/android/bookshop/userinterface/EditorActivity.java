@@ -1,14 +1,14 @@
 package com.example.android.bookshop.userinterface;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
@@ -19,8 +19,8 @@ import android.view.Gravity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
@@ -28,32 +28,69 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.bookshop.R;
+import com.example.android.bookshop.core.BookValidator;
+import com.example.android.bookshop.core.PriceFormat;
+import com.example.android.bookshop.database.BookContract;
 import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.LiveQuery;
 
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.lang.ref.WeakReference;
+
+public class EditorActivity extends AppCompatActivity implements LiveQuery.Observer {
+
+    // Result extra that tells the calling activity the book was deleted, so it can offer an undo.
+    public static final String EXTRA_BOOK_DELETED = "book_deleted";
 
     private EditText bookNameEdit;
-    private EditText bookAuthorsEdit;
+    private AutoCompleteTextView bookAuthorsEdit;
     private EditText bookPagesEdit;
+    private EditText bookIsbnEdit;
     private EditText bookPriceEdit;
     private EditText bookQuantityEdit;
     private TextView bookQuantityText;
     private EditText changeQuantityEdit;
-    private EditText bookSupplierName;
+    private AutoCompleteTextView bookSupplierName;
     private EditText bookSupplierNumber;
 
     // Content URI for the existing book (this will be null if it's a new book).
     private Uri currentBookUri;
 
+    // Keys used to keep the loaded book and the quantity on screen across configuration changes.
+    private static final String STATE_LOADED_VALUES = "loaded_values";
+    private static final String STATE_QUANTITY = "quantity";
+
+    /*
+     The values and version of the existing book as they were when the editor loaded it, which
+     the changes on screen are based on. This is null until the book has been loaded.
+    */
+    private ContentValues loadedValues;
+
+    // The live query of the existing book, which is null for a new book.
+    private LiveQuery bookQuery;
+
+    // Whether a save is running in the background, so that it isn't sent a second time.
+    private boolean saveInProgress;
+
+    /*
+     The toast's view is inflated in the background when the editor opens, and the toast is
+     then shown again with new text each time, rather than inflating a new one for every message.
+    */
+    private ViewPool toastViewPool;
+    private Toast customToast;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_editor);
 
+        toastViewPool = new ViewPool(this);
+        toastViewPool.warm(R.layout.custom_toast, null, 1);
+
         // Find all the relevant views that we will need to read user input from.
         bookNameEdit = findViewById(R.id.edit_book_name);
         bookAuthorsEdit = findViewById(R.id.edit_book_authors);
         bookPagesEdit = findViewById(R.id.edit_book_pages);
+        bookIsbnEdit = findViewById(R.id.edit_book_isbn);
 
         bookPriceEdit = findViewById(R.id.edit_book_price);
         bookQuantityEdit = findViewById(R.id.edit_book_quantity);
@@ -66,6 +103,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         bookSupplierNumber = findViewById(R.id.edit_supplier_number);
         ImageButton callSupplierButton = findViewById(R.id.call_supplier);
 
+        /*
+         Suggest the authors and supplier names already in the inventory as they are typed, so
+         that they don't have to be typed out in full and are spelt the same way each time.
+        */
+        BookNameSuggestions nameSuggestions = BookNameSuggestions.acquire(this);
+        bookAuthorsEdit.setAdapter(new NameSuggestionAdapter(this, nameSuggestions.getAuthorsIndex()));
+        bookSupplierName.setAdapter(new NameSuggestionAdapter(this, nameSuggestions.getSupplierIndex()));
+
         /*
          Add a TextWatcher to the price EditText field to prevent more than two decimal places
          from being added. Solution adapted from the one given by Apoleo at:
@@ -92,7 +137,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 }
 
                 // Check that the price is in a valid format.
-                String checkedText = checkPriceFormat(oldPrice, newPrice, 4, 2);
+                String checkedText = PriceFormat.checkPriceFormat(oldPrice, newPrice, 4, 2);
 
                 // If the checked String is different to the initial String, use the
                 // checked String to set the text and move the text cursor to the end.
@@ -129,7 +174,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                      for the correct number of decimal places using the appropriate method.
                     */
                     String priceFormatText = "£" + priceEditor.getText().toString().trim();
-                    priceEditor.setText(alterPriceDecimalCount(priceFormatText));
+                    priceEditor.setText(PriceFormat.alterPriceDecimalCount(priceFormatText));
                 }
             }
         });
@@ -265,95 +310,33 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             });
 
             /*
-             Initialize a loader to read the book data from the database and display the
+             Start a live query to read the book data from the database and display the
              current values in the editor.
             */
-            getLoaderManager().initLoader(0, null, this);
-        }
-    }
-
-    /*
-     Modified solution from Apoleo at:
-     https://stackoverflow.com/questions/5357455/limit-decimal-places-in-android-edittext.
-    */
-    public String checkPriceFormat(String stringBeforeChange, String stringAfterChange, int maxBeforePoint, int maxDecimal) {
-        // If the first character in the String is a decimal point, add a zero to the beginning.
-        if (stringAfterChange.charAt(0) == '.') {
-            stringAfterChange = "0" + stringAfterChange;
-        }
+            startBookQuery();
 
-        int maxIndex = stringAfterChange.length();
-        boolean cursorAfterPoint = false;
-        int aboveDecimal = 0, belowDecimal = 0;
-        StringBuilder finalString = new StringBuilder("");
-
-        /*
-         Check that the character count before and after the decimal point is within the set limits.
-        */
-        for (int i = 0; i < maxIndex; i++) {
-            char currentChar = stringAfterChange.charAt(i);
-
-            /*
-             If the current character is not a point and the point hasn't been reached yet,
-             add one to the above decimal count.
-            */
-            if (currentChar != '.' && !cursorAfterPoint) {
-                aboveDecimal++;
-
-                /*
-                 If the above decimal count exceeds the limit, ignore the price change and return
-                 its previous state.
-                */
-                if (aboveDecimal > maxBeforePoint) {
-                    return stringBeforeChange;
-                }
-            } else if (currentChar == '.') {
-                // When the point is reached, flip the boolean indicating this.
-                cursorAfterPoint = true;
-            } else {
-                // If the current character is after the point, add one to the below decimal count.
-                belowDecimal++;
-                /*
-                 If the below decimal count exceeds the limit, ignore the price change and return
-                 its previous state.
-                */
-                if (belowDecimal > maxDecimal) {
-                    return stringBeforeChange;
-                }
+            // Carry on from the same loaded book, so a rotation doesn't lose track of what has changed.
+            if (savedInstanceState != null) {
+                loadedValues = savedInstanceState.getParcelable(STATE_LOADED_VALUES);
+                bookQuantityText.setText(savedInstanceState.getString(STATE_QUANTITY));
             }
-
-            // Add any accepted characters to the output string.
-            finalString.append(currentChar);
         }
-
-        return finalString.toString();
     }
 
-    /*
-     Add any additional zeros to the end of a price String if needed to ensure 2 decimal places.
-     Do this by counting the number of characters after the point and then adjusting accordingly.
-    */
-    private String alterPriceDecimalCount(String priceFormatText) {
-        boolean afterPoint = false;
-        int belowPoint = 0;
-
-        for (int i = 0; i < priceFormatText.length(); i++) {
-            if (afterPoint) {
-                belowPoint++;
-            }
-
-            if (priceFormatText.charAt(i) == '.') {
-                afterPoint = true;
-            }
-        }
-
-        if (belowPoint == 0) {
-            return priceFormatText + "00";
-        } else if (belowPoint == 1) {
-            return priceFormatText + "0";
+    @Override
+    protected void onDestroy() {
+        if (bookQuery != null) {
+            bookQuery.cancel();
         }
+        BookNameSuggestions.release();
+        super.onDestroy();
+    }
 
-        return priceFormatText;
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_LOADED_VALUES, loadedValues);
+        outState.putString(STATE_QUANTITY, bookQuantityText.getText().toString());
     }
 
     private int alterStockValue(int currentValue, int amountToAlterBy, boolean toAdd) {
@@ -430,10 +413,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     // Save a new book into the database.
     private void saveBook() {
+        if (saveInProgress) {
+            return;
+        }
+
         // Read from the input fields.
         String nameText = bookNameEdit.getText().toString().trim();
         String authorsText = bookAuthorsEdit.getText().toString().trim();
         String pagesText = bookPagesEdit.getText().toString().trim();
+        String isbnText = bookIsbnEdit.getText().toString().trim();
         String priceDecimalText = bookPriceEdit.getText().toString();
 
         /*
@@ -471,11 +459,21 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
          currency symbol from the String.
         */
         float priceDecimal = Float.parseFloat(priceDecimalText.substring(1));
-        int priceUnits = (int) (priceDecimal * 100);
+        int priceUnits = Math.round(priceDecimal * 100);
 
         // Convert the quantity String into an integer value.
         int quantityValue = Integer.parseInt(quantityText);
 
+        // The ISBN is optional, but if one has been entered it must be a valid barcode number.
+        if (!TextUtils.isEmpty(isbnText)) {
+            try {
+                BookValidator.checkIsbn(isbnText);
+            } catch (IllegalArgumentException e) {
+                createCustomToast(getString(R.string.editor_invalid_isbn));
+                return;
+            }
+        }
+
         // Store the input values using the database column name keys.
         ContentValues bookDetails = new ContentValues();
         bookDetails.put(BookEntry.COLUMN_BOOK_NAME, nameText);
@@ -485,45 +483,144 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         bookDetails.put(BookEntry.COLUMN_BOOK_QUANTITY, quantityValue);
         bookDetails.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierNameText);
         bookDetails.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierNumberText);
+        if (TextUtils.isEmpty(isbnText)) {
+            bookDetails.putNull(BookEntry.COLUMN_ISBN);
+        } else {
+            bookDetails.put(BookEntry.COLUMN_ISBN, isbnText);
+        }
 
-        // If we are saving a new book, use the insert method from the content provider.
+        /*
+         Save the book on a background thread, as it can take several round trips to the
+         provider. A new book is checked for a duplicate first, and the changes to an existing
+         book are only sent once it has been loaded, as they are based on the loaded values.
+        */
         if (currentBookUri == null) {
-            // Return the content URI for the new book after inserting it into the database.
-            Uri newUri = getContentResolver().insert(BookEntry.CONTENT_URI, bookDetails);
+            saveInProgress = true;
+            new SaveBookTask(this, bookDetails, true).execute();
+        } else if (loadedValues != null) {
+            saveInProgress = true;
+            new SaveBookTask(this, ContentUris.parseId(currentBookUri), loadedValues, bookDetails).execute();
+        }
+    }
 
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                createCustomToast(getString(R.string.editor_insert_book_failed));
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
+    /*
+     Act on how a save went once it is back on the UI thread. The editor closes once the book
+     has been saved, or can't be, and stays open when the changes have to be looked at again.
+    */
+    private void showSaveResult(BookSave save) {
+        saveInProgress = false;
+        switch (save.result) {
+            case BookSave.ADDED:
                 createCustomToast(getString(R.string.editor_insert_book_successful));
+                finish();
+                break;
+            case BookSave.NOT_ADDED:
+                createCustomToast(getString(R.string.editor_insert_book_failed));
+                finish();
+                break;
+            case BookSave.SAVED:
+                createCustomToast(getString(R.string.editor_update_book_successful));
+                finish();
+                break;
+            case BookSave.FAILED:
+                createCustomToast(getString(R.string.editor_update_book_failed));
+                finish();
+                break;
+            case BookSave.DUPLICATE:
+                showDuplicateBookDialog(save.duplicateBook, save.changedValues);
+                break;
+            case BookSave.ISBN_IN_USE:
+                createCustomToast(getString(R.string.editor_isbn_in_use));
+                break;
+            case BookSave.NOT_ENOUGH_STOCK:
+                // Copies were sold in the meantime, so keep the other changes but not the removal.
+                rebaseChanges(save.currentValues, save.changedValues, 0);
+                createCustomToast(getString(R.string.editor_stock_changed,
+                        save.currentValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY)));
+                break;
+            case BookSave.CONFLICT:
+                // Both sides changed the same value, so let the user pick which one to keep.
+                showBookChangedDialog(save.currentValues, save.changedValues, save.quantityChange);
+                break;
+            default:
+                rebaseChanges(save.currentValues, save.changedValues, save.quantityChange);
+                createCustomToast(getString(R.string.editor_update_book_failed));
+                break;
+        }
+    }
+
+    /*
+     Move the editor on to the book's current values, keeping the user's changes on top of them
+     and the change in quantity, so that the next save is based on the current version.
+    */
+    private void rebaseChanges(ContentValues currentValues, ContentValues changedValues, int quantityChange) {
+        ContentValues mergedValues = new ContentValues(currentValues);
+        mergedValues.putAll(changedValues);
+        mergedValues.put(BookEntry.COLUMN_BOOK_QUANTITY,
+                currentValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY) + quantityChange);
+        loadedValues = currentValues;
+        showBookValues(mergedValues);
+    }
+
+    /*
+     Tell the user that the book was changed while they were editing it, and let them save
+     their changes over the other ones or see the book's current values instead.
+    */
+    private void showBookChangedDialog(final ContentValues currentValues, final ContentValues changedValues,
+                                       final int quantityChange) {
+        AlertDialog.Builder bookChangedBuilder = new AlertDialog.Builder(this);
+        bookChangedBuilder.setMessage(R.string.editor_book_changed_dialog_msg);
+        bookChangedBuilder.setPositiveButton(R.string.editor_keep_my_changes, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface bookChangedDialog, int id) {
+                rebaseChanges(currentValues, changedValues, quantityChange);
+                saveBook();
             }
-        } else {
-            /*
-             Otherwise this is an EXISTING book, so update the book with the content URI
-             'currentBookUri' and pass in the new ContentValues. Pass in null for the selection
-             and selection args because currentBookUri will already identify the correct row
-             in the database that we want to modify.
-            */
-            int rowsAffected = getContentResolver().update(currentBookUri, bookDetails, null, null);
+        });
 
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                createCustomToast(getString(R.string.editor_update_book_failed));
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                createCustomToast(getString(R.string.editor_update_book_successful));
+        bookChangedBuilder.setNegativeButton(R.string.editor_show_latest, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface bookChangedDialog, int id) {
+                rebaseChanges(currentValues, new ContentValues(), 0);
             }
-        }
+        });
 
-        // End the activity if the save method reaches its end.
-        finish();
+        AlertDialog bookChangedDialog = bookChangedBuilder.create();
+        bookChangedDialog.show();
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    /*
+     Ask the user whether to add the new copies to the book that is already in the inventory,
+     or to keep the new book as a separate one.
+    */
+    private void showDuplicateBookDialog(final Bundle duplicateBook, final ContentValues bookDetails) {
+        final int addedQuantity = bookDetails.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        AlertDialog.Builder duplicateBookBuilder = new AlertDialog.Builder(this);
+        duplicateBookBuilder.setMessage(getString(R.string.duplicate_dialog_msg,
+                duplicateBook.getString(BookContract.KEY_DUPLICATE_BOOK_NAME),
+                duplicateBook.getInt(BookContract.KEY_DUPLICATE_QUANTITY),
+                addedQuantity));
+        duplicateBookBuilder.setPositiveButton(R.string.duplicate_add_stock, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface duplicateDialog, int id) {
+                saveInProgress = true;
+                new AddStockTask(EditorActivity.this, duplicateBook.getLong(BookContract.KEY_DUPLICATE_BOOK_ID),
+                        addedQuantity).execute();
+            }
+        });
+
+        duplicateBookBuilder.setNegativeButton(R.string.duplicate_keep_separate, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface duplicateDialog, int id) {
+                saveInProgress = true;
+                new SaveBookTask(EditorActivity.this, bookDetails, false).execute();
+            }
+        });
+
+        // Create and show the AlertDialog.
+        AlertDialog duplicateBookDialog = duplicateBookBuilder.create();
+        duplicateBookDialog.show();
+    }
+
+    // Read the existing book in the background, and again whenever it changes.
+    private void startBookQuery() {
         /*
          Since the editor shows all book attributes, create a projection array that contains
          all the columns from the book table.
@@ -533,10 +630,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 BookEntry.COLUMN_BOOK_NAME,
                 BookEntry.COLUMN_BOOK_AUTHORS,
                 BookEntry.COLUMN_BOOK_PAGES,
+                BookEntry.COLUMN_ISBN,
                 BookEntry.COLUMN_BOOK_PRICE,
                 BookEntry.COLUMN_BOOK_QUANTITY,
                 BookEntry.COLUMN_SUPPLIER_NAME,
-                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                BookEntry.COLUMN_VERSION
         };
 
         /*
@@ -544,99 +643,100 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
          URI for the current book and the projection array to indicate which columns to include
          in the return cursor.
         */
-        return new CursorLoader(this,
+        bookQuery = LiveQuery.start(this,
                 currentBookUri,
                 projection,
                 null,
                 null,
-                null);
+                null,
+                this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    public void onQueryResult(LiveQuery liveQuery, Cursor cursor) {
         // Bail early if the cursor is null or if there is less than 1 row in the cursor.
         if (cursor == null || cursor.getCount() < 1) {
             return;
         }
 
+        /*
+         Only fill in the fields the first time the book is loaded. The live query reads the
+         book again whenever it changes, such as when a copy is sold from the list, but the
+         changes on screen are based on the first load, and a save sends them along with its
+         version.
+        */
+        if (loadedValues != null) {
+            return;
+        }
+
         /*
          Proceed with moving to the first row of the cursor and reading data from it
          (This should be the only row in the cursor).
         */
         if (cursor.moveToFirst()) {
-            // Find the the column index of the book attributes that we're interested in.
-            int nameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME);
-            int authorsColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHORS);
-            int pagesColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PAGES);
-            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
-            int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
-            int supplierNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME);
-            int supplierNumberColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column indices.
-            String name = cursor.getString(nameColumnIndex);
-            String authors = cursor.getString(authorsColumnIndex);
-            int pages = cursor.getInt(pagesColumnIndex);
-            int price = cursor.getInt(priceColumnIndex);
-            int quantity = cursor.getInt(quantityColumnIndex);
-            String supplierName = cursor.getString(supplierNameColumnIndex);
-            String supplierNumber = cursor.getString(supplierNumberColumnIndex);
-
-            // Update the views on the screen with the values from the database.
-            bookNameEdit.setText(name);
-
-            // Update the author(s) EditText field if the String from the database isn't empty.
-            if (!authors.isEmpty()) {
-                bookAuthorsEdit.setText(authors);
-            }
+            // Extract out the values from the Cursor, using the column names as their keys.
+            ContentValues bookValues = new ContentValues();
+            bookValues.put(BookEntry.COLUMN_BOOK_NAME, cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_NAME)));
+            bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHORS)));
+            bookValues.put(BookEntry.COLUMN_BOOK_PAGES, cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PAGES)));
+            bookValues.put(BookEntry.COLUMN_ISBN, cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_ISBN)));
+            bookValues.put(BookEntry.COLUMN_BOOK_PRICE, cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE)));
+            bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY)));
+            bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME)));
+            bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                    cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)));
+            bookValues.put(BookEntry.COLUMN_VERSION, cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_VERSION)));
+
+            loadedValues = bookValues;
+            showBookValues(bookValues);
+        }
+    }
 
-            /*
-             If the stored pages value is greater than the default (0), show it in the
-             relevant EditText view. Otherwise, keep it clear.
-            */
-            if (pages > 0) {
-                bookPagesEdit.setText(String.valueOf(pages));
-            }
+    // Update the views on the screen with the given values of the book.
+    private void showBookValues(ContentValues bookValues) {
+        String name = bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME);
+        String authors = bookValues.getAsString(BookEntry.COLUMN_BOOK_AUTHORS);
+        int pages = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PAGES);
+        String isbn = bookValues.getAsString(BookEntry.COLUMN_ISBN);
+        int price = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
+        int quantity = bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY);
+        String supplierName = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
+        String supplierNumber = bookValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
 
-            /*
-             Convert the price in integer units to a decimal format with a currency symbol
-             and the correct number of decimal places.
-            */
-            float priceInDecimal = ((float) price) / 100;
-            String priceText = "£" + String.valueOf(priceInDecimal);
-            bookPriceEdit.setText(alterPriceDecimalCount(priceText));
+        bookNameEdit.setText(name);
 
-            /*
-             Set the EditText quantity field contents if it is shown. If not, set the TextView
-             instead.
-            */
-            if (bookQuantityEdit.isShown()) {
-                bookQuantityEdit.setText(String.valueOf(quantity));
-            } else {
-                bookQuantityText.setText(String.valueOf(quantity));
-            }
+        // Update the author(s) EditText field if the String from the database isn't empty.
+        bookAuthorsEdit.setText(authors == null ? "" : authors, false);
 
-            bookSupplierName.setText(supplierName);
-            bookSupplierNumber.setText(supplierNumber);
-        }
-    }
+        /*
+         If the stored pages value is greater than the default (0), show it in the
+         relevant EditText view. Otherwise, keep it clear.
+        */
+        bookPagesEdit.setText(pages > 0 ? String.valueOf(pages) : "");
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // If the loader is invalidated, clear out all the data from the input fields.
-        bookNameEdit.setText("");
-        bookAuthorsEdit.setText("");
-        bookPagesEdit.setText("");
-        bookPriceEdit.setText("");
+        // The ISBN is optional, so it may be null.
+        bookIsbnEdit.setText(isbn == null ? "" : isbn);
+
+        /*
+         Convert the price in integer units to a decimal format with a currency symbol
+         and the correct number of decimal places.
+        */
+        float priceInDecimal = ((float) price) / 100;
+        String priceText = "£" + String.valueOf(priceInDecimal);
+        bookPriceEdit.setText(PriceFormat.alterPriceDecimalCount(priceText));
 
+        /*
+         Set the EditText quantity field contents if it is shown. If not, set the TextView
+         instead.
+        */
         if (bookQuantityEdit.isShown()) {
-            bookQuantityEdit.setText("");
+            bookQuantityEdit.setText(String.valueOf(quantity));
         } else {
-            bookQuantityText.setText("");
+            bookQuantityText.setText(String.valueOf(quantity));
         }
 
-        bookSupplierName.setText("");
-        bookSupplierNumber.setText("");
+        bookSupplierName.setText(supplierName, false);
+        bookSupplierNumber.setText(supplierNumber);
     }
 
     private void showUnsavedChangesDialog(DialogInterface.OnClickListener discardButtonClickListener) {
@@ -729,8 +829,15 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 // If no rows were deleted, then there was an error with the delete.
                 createCustomToast(getString(R.string.editor_delete_book_failed));
             } else {
-                // Otherwise, the delete was successful.
+                /*
+                 Otherwise, the delete was successful. Let the calling activity know about it
+                 so that it can offer to undo the deletion.
+                */
                 createCustomToast(getString(R.string.editor_delete_book_successful));
+
+                Intent deletedResult = new Intent();
+                deletedResult.putExtra(EXTRA_BOOK_DELETED, true);
+                setResult(RESULT_OK, deletedResult);
             }
 
             // Close the activity.
@@ -740,20 +847,98 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     // Method to create a toast message with a custom background and text colour.
     public void createCustomToast(String toastText) {
-        // Inflate the custom layout file for the Toast message.
-        View toastView = getLayoutInflater().inflate(R.layout.custom_toast, (ViewGroup) findViewById(R.id.custom_toast_container));
+        // Set up the toast the first time, with the custom layout for the Toast message.
+        if (customToast == null) {
+            customToast = new Toast(getApplicationContext());
+            customToast.setGravity(Gravity.BOTTOM, 0, 50);
+            customToast.setDuration(Toast.LENGTH_LONG);
+            customToast.setView(toastViewPool.obtain(R.layout.custom_toast, null));
+        }
 
         // Get the TextView in the toast layout and set its contents.
-        TextView toastTextView = toastView.findViewById(R.id.toast_text);
+        TextView toastTextView = customToast.getView().findViewById(R.id.toast_text);
         toastTextView.setText(toastText);
 
-        // Set the parameters of the toast message.
-        Toast customToast = new Toast(getApplicationContext());
-        customToast.setGravity(Gravity.BOTTOM, 0, 50);
-        customToast.setDuration(Toast.LENGTH_LONG);
-        customToast.setView(toastView);
-
-        // Show the toast message.
+        /*
+         Show the toast message. If it is still showing, it stays up with the new text rather
+         than the messages queueing up one after another.
+        */
         customToast.show();
     }
-}
\ No newline at end of file
+
+    // Task to save the book without blocking the UI, as it can take several round trips to the provider.
+    private static class SaveBookTask extends AsyncTask<Void, Void, BookSave> {
+
+        private final WeakReference<EditorActivity> activityReference;
+        private final ContentResolver contentResolver;
+        private final long bookId;
+        private final ContentValues loadedValues;
+        private final ContentValues bookDetails;
+        private final boolean checkDuplicates;
+
+        // Add a new book, first looking for a duplicate of it if asked to.
+        SaveBookTask(EditorActivity activity, ContentValues bookDetails, boolean checkDuplicates) {
+            this(activity, -1, null, bookDetails, checkDuplicates);
+        }
+
+        // Save the changes to an existing book, based on the values it was loaded with.
+        SaveBookTask(EditorActivity activity, long bookId, ContentValues loadedValues, ContentValues bookDetails) {
+            this(activity, bookId, loadedValues, bookDetails, false);
+        }
+
+        private SaveBookTask(EditorActivity activity, long bookId, ContentValues loadedValues,
+                             ContentValues bookDetails, boolean checkDuplicates) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+            this.bookId = bookId;
+            this.loadedValues = loadedValues;
+            this.bookDetails = bookDetails;
+            this.checkDuplicates = checkDuplicates;
+        }
+
+        @Override
+        protected BookSave doInBackground(Void... voids) {
+            if (loadedValues == null) {
+                return BookSave.insert(contentResolver, bookDetails, checkDuplicates);
+            }
+            return BookSave.update(contentResolver, bookId, loadedValues, bookDetails);
+        }
+
+        @Override
+        protected void onPostExecute(BookSave save) {
+            EditorActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing()) {
+                activity.showSaveResult(save);
+            }
+        }
+    }
+
+    // Task to add the new copies to the book that is already in the inventory without blocking the UI.
+    private static class AddStockTask extends AsyncTask<Void, Void, BookSave> {
+
+        private final WeakReference<EditorActivity> activityReference;
+        private final ContentResolver contentResolver;
+        private final long bookId;
+        private final int addedQuantity;
+
+        AddStockTask(EditorActivity activity, long bookId, int addedQuantity) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+            this.bookId = bookId;
+            this.addedQuantity = addedQuantity;
+        }
+
+        @Override
+        protected BookSave doInBackground(Void... voids) {
+            return BookSave.addStock(contentResolver, bookId, addedQuantity);
+        }
+
+        @Override
+        protected void onPostExecute(BookSave save) {
+            EditorActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing()) {
+                activity.showSaveResult(save);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.bookshop.userinterface;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Measures the frames drawn while something is moving, such as the list while it is scrolled,
+ and logs how many of them missed their slot. A frame is janky when it starts more than half a
+ frame late, which means at least one refresh of the screen showed the previous frame again.
+ Only the frame times are read, so watching costs one callback per frame and nothing when idle.
+*/
+final class FrameJankMonitor implements Choreographer.FrameCallback {
+
+    private static final String LOG_TAG = FrameJankMonitor.class.getSimpleName();
+
+    private final String name;
+    private final long frameIntervalNanos;
+
+    private boolean watching;
+    private long lastFrameNanos;
+    private int frameCount;
+    private int jankyFrameCount;
+    private int droppedFrameCount;
+    private long worstFrameNanos;
+
+    // Name the monitor for the logs, and give it the screen's refresh rate in frames per second.
+    FrameJankMonitor(String name, float refreshRate) {
+        this.name = name;
+        this.frameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+    }
+
+    // Start counting frames, unless the monitor is already watching. This must be called on the main thread.
+    void start() {
+        if (watching) {
+            return;
+        }
+        watching = true;
+        lastFrameNanos = 0;
+        frameCount = 0;
+        jankyFrameCount = 0;
+        droppedFrameCount = 0;
+        worstFrameNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    // Stop counting and log the frames seen since the monitor started.
+    void stop() {
+        if (!watching) {
+            return;
+        }
+        watching = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (frameCount > 0) {
+            Log.i(LOG_TAG, String.format(Locale.ENGLISH, "%s: %d frames, %d janky (%.1f%%), %d dropped, worst %.1f ms",
+                    name, frameCount, jankyFrameCount, 100f * jankyFrameCount / frameCount, droppedFrameCount,
+                    worstFrameNanos / 1e6));
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!watching) {
+            return;
+        }
+
+        // The first frame only gives the time that the next one is measured from.
+        if (lastFrameNanos != 0) {
+            long frameNanos = frameTimeNanos - lastFrameNanos;
+            frameCount++;
+            worstFrameNanos = Math.max(worstFrameNanos, frameNanos);
+            if (frameNanos > frameIntervalNanos + frameIntervalNanos / 2) {
+                jankyFrameCount++;
+                droppedFrameCount += (int) ((frameNanos + frameIntervalNanos / 2) / frameIntervalNanos) - 1;
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
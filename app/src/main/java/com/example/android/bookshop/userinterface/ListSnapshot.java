@@ -0,0 +1,160 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ A small binary copy of the first screen of the book list, which is shown on a cold start
+ before the database has been opened and the loader has finished. It is written in the
+ background whenever the full list changes, and replaced by the real cursor as soon as that
+ arrives. The file starts with a version number, so an old format is ignored rather than read.
+*/
+class ListSnapshot {
+
+    private static final String LOG_TAG = ListSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "book_list_snapshot.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    // The number of rows kept, which is more than fit on the screen of any phone.
+    private static final int MAX_ROWS = 24;
+
+    // The columns of the book list, in the order they are stored in the file.
+    static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHORS,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    private final AtomicFile snapshotFile;
+
+    // The bytes that were last written or read, so that an unchanged list isn't written again.
+    private byte[] lastSnapshot;
+
+    ListSnapshot(Context context) {
+        snapshotFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /*
+     Read the snapshot into a cursor with the same columns as the book list. Return null if
+     there isn't one or it can't be read. This runs on the main thread, as the file is small
+     and the point is to show the rows before anything else is ready.
+    */
+    Cursor read() {
+        byte[] snapshotBytes;
+        try {
+            snapshotBytes = snapshotFile.readFully();
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            DataInputStream snapshotInput = new DataInputStream(new ByteArrayInputStream(snapshotBytes));
+            if (snapshotInput.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            int rowCount = snapshotInput.readInt();
+            MatrixCursor snapshotCursor = new MatrixCursor(COLUMNS, rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                long bookId = snapshotInput.readLong();
+                String name = snapshotInput.readUTF();
+                String authors = snapshotInput.readBoolean() ? snapshotInput.readUTF() : null;
+                int price = snapshotInput.readInt();
+                int quantity = snapshotInput.readInt();
+                snapshotCursor.addRow(new Object[]{bookId, name, authors, price, quantity});
+            }
+
+            lastSnapshot = snapshotBytes;
+            return snapshotCursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable book list snapshot.", e);
+            return null;
+        }
+    }
+
+    /*
+     Copy the first rows of the list cursor and write them to the file in the background. The
+     rows are copied on the calling thread, as the cursor belongs to the adapter, but that only
+     touches the first screen of rows.
+    */
+    void write(Cursor listCursor) {
+        final byte[] snapshotBytes;
+        try {
+            snapshotBytes = encode(listCursor);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not encode book list snapshot.", e);
+            return;
+        }
+
+        if (Arrays.equals(snapshotBytes, lastSnapshot)) {
+            return;
+        }
+        lastSnapshot = snapshotBytes;
+
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                FileOutputStream snapshotOutput = null;
+                try {
+                    snapshotOutput = snapshotFile.startWrite();
+                    snapshotOutput.write(snapshotBytes);
+                    snapshotFile.finishWrite(snapshotOutput);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Could not write book list snapshot.", e);
+                    if (snapshotOutput != null) {
+                        snapshotFile.failWrite(snapshotOutput);
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[] encode(Cursor listCursor) throws IOException {
+        int idIndex = listCursor.getColumnIndexOrThrow(BookEntry._ID);
+        int nameIndex = listCursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_NAME);
+        int authorsIndex = listCursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_AUTHORS);
+        int priceIndex = listCursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_PRICE);
+        int quantityIndex = listCursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        int rowCount = Math.min(listCursor.getCount(), MAX_ROWS);
+        ByteArrayOutputStream snapshotBytes = new ByteArrayOutputStream();
+        DataOutputStream snapshotOutput = new DataOutputStream(snapshotBytes);
+        snapshotOutput.writeInt(FORMAT_VERSION);
+        snapshotOutput.writeInt(rowCount);
+
+        // Leave the cursor where it was, as the adapter moves it itself.
+        int originalPosition = listCursor.getPosition();
+        for (int i = 0; i < rowCount && listCursor.moveToPosition(i); i++) {
+            snapshotOutput.writeLong(listCursor.getLong(idIndex));
+            snapshotOutput.writeUTF(listCursor.getString(nameIndex));
+            String authors = listCursor.getString(authorsIndex);
+            snapshotOutput.writeBoolean(authors != null);
+            if (authors != null) {
+                snapshotOutput.writeUTF(authors);
+            }
+            snapshotOutput.writeInt(listCursor.getInt(priceIndex));
+            snapshotOutput.writeInt(listCursor.getInt(quantityIndex));
+        }
+        listCursor.moveToPosition(originalPosition);
+
+        snapshotOutput.flush();
+        return snapshotBytes.toByteArray();
+    }
+}
@@ -1,33 +1,113 @@
 package com.example.android.bookshop.userinterface;
 
-import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.CursorLoader;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 
 import com.example.android.bookshop.R;
+import com.example.android.bookshop.database.BookContract;
 import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.SectionEntry;
+import com.example.android.bookshop.database.BookMaintenanceJobService;
+import com.example.android.bookshop.database.BookPurgeJobService;
+import com.example.android.bookshop.database.LiveQuery;
+import com.example.android.bookshop.sync.SyncJobService;
 
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.lang.ref.WeakReference;
+
+public class MainActivity extends AppCompatActivity implements LiveQuery.Observer {
 
     public final String LOG_TAG = MainActivity.class.getSimpleName();
 
-    private static final int BOOK_LOADER = 0;
+    private static final int EDIT_BOOK_REQUEST = 1;
+
+    // About a screen of list rows on a till, which are inflated in the background at startup.
+    private static final int LIST_ITEM_WARM_COUNT = 12;
+
+    // Key used to keep the checkout basket across configuration changes.
+    private static final String STATE_BASKET = "basket";
+
+    // Key used to keep the search text across configuration changes.
+    private static final String STATE_SEARCH = "search";
+
+    /*
+     How long to wait after the last key press before searching, so that fast typing only
+     starts one query rather than one for every letter.
+    */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 250;
+
+    // Search the names and authors for the typed text, which has its wildcards escaped.
+    private static final String SEARCH_SELECTION =
+            BookEntry.COLUMN_BOOK_NAME + " LIKE ? ESCAPE '\\' OR " +
+                    BookEntry.COLUMN_BOOK_AUTHORS + " LIKE ? ESCAPE '\\'";
     private BookCursorAdapter bookListAdapter;
 
+    /*
+     The live queries of the list and its sections for the current search text, and the query
+     whose cursor the adapter is showing. After the search text changes, the old list stays on
+     screen until the new query has its first result, as its cursor can only be closed then.
+    */
+    private LiveQuery bookQuery;
+    private LiveQuery shownBookQuery;
+    private LiveQuery sectionQuery;
+    private ListView bookList;
+
+    // Handler used to run deletes on a background thread.
+    private AsyncQueryHandler bookQueryHandler;
+
+    // Reads the barcodes typed by a keyboard wedge scanner, so that a scan sells the book.
+    private BarcodeWedgeReader barcodeReader;
+
+    // The books collected for the current customer, which are all sold together at checkout.
+    private final CheckoutBasket checkoutBasket = new CheckoutBasket();
+
+    /*
+     The first screen of the list from the last run, which is shown until the query's cursor
+     arrives, and the times used to measure how long the list takes to appear on a cold start.
+    */
+    private ListSnapshot listSnapshot;
+    private long createdAtMillis;
+    private long snapshotShownMillis = -1;
+    private boolean firstLoadFinished;
+
+    // Counts the frames that miss their slot while the list is being scrolled.
+    private FrameJankMonitor scrollJankMonitor;
+
+    // The text in the search box, which the list is filtered by once typing has paused.
+    private String searchText = "";
+    private final Handler searchHandler = new Handler();
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            /*
+             Starting the queries again cancels the ones that are still running for the old text,
+             which cancels them in the provider, so only the results for the latest text are shown.
+            */
+            startQueries();
+        }
+    };
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createdAtMillis = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
@@ -35,7 +115,7 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
          Find the ListView to populate and set its empty view so that it only shows when the
          list has 0 items.
         */
-        ListView bookList = findViewById(R.id.books_list_view);
+        bookList = findViewById(R.id.books_list_view);
         View emptyView = findViewById(R.id.empty_view);
         bookList.setEmptyView(emptyView);
 
@@ -43,9 +123,63 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
          Instantiate the cursor adapter using the returned cursor from the database query
          and attach it to the ListView.
         */
-        bookListAdapter = new BookCursorAdapter(this, null);
+        ViewPool listItemPool = new ViewPool(this);
+        listItemPool.warm(R.layout.book_list_item, bookList, LIST_ITEM_WARM_COUNT);
+        bookListAdapter = new BookCursorAdapter(this, null, listItemPool, new BookCursorAdapter.OnSellUnitListener() {
+            @Override
+            public void onSellUnit(long bookId) {
+                new SellUnitTask(MainActivity.this).execute(bookId);
+            }
+        });
         bookList.setAdapter(bookListAdapter);
 
+        // The adapter gives the fast scroller the first letters of the names to jump between.
+        bookList.setFastScrollEnabled(true);
+
+        // Log the jank of each scroll, from when the list starts moving until it comes to rest.
+        scrollJankMonitor = new FrameJankMonitor("List scroll", getWindowManager().getDefaultDisplay().getRefreshRate());
+        bookList.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    scrollJankMonitor.stop();
+                } else {
+                    scrollJankMonitor.start();
+                }
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            }
+        });
+
+        // Log when the first frame is drawn, which is what the user is waiting for on a cold start.
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.i(LOG_TAG, "Startup: first frame after " + (SystemClock.uptimeMillis() - createdAtMillis) + " ms");
+                return true;
+            }
+        });
+
+        /*
+         On a cold start, show the snapshot of the list from the last run straight away, rather
+         than the empty view, while the database is opened and the query runs. The query's
+         cursor replaces it in place, as the rows keep the same IDs. Its quantities may be out of
+         date, so its books can't be sold from the list until then.
+        */
+        listSnapshot = new ListSnapshot(this);
+        if (savedInstanceState == null) {
+            Cursor snapshotCursor = listSnapshot.read();
+            if (snapshotCursor != null) {
+                bookListAdapter.swapCursor(snapshotCursor);
+                bookListAdapter.setShowingSnapshot(true);
+                snapshotShownMillis = SystemClock.uptimeMillis() - createdAtMillis;
+            }
+        }
+
         /*
          Item click listener to open up the details screen for the selected book so that it
          can be edited.
@@ -64,21 +198,219 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 // Set the URI on the data field of the intent.
                 editBookIntent.setData(currentBookUri);
 
-                startActivity(editBookIntent);
+                // Start the editor for a result, so that a deletion in it can be undone from here.
+                startActivityForResult(editBookIntent, EDIT_BOOK_REQUEST);
             }
         });
 
-        // Start the loader.
-        getLoaderManager().initLoader(BOOK_LOADER, null, this);
+        // Long clicking a book adds one unit of it to the checkout basket.
+        bookList.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> adapterView, View view, int position, long id) {
+                checkoutBasket.add(id);
+                invalidateOptionsMenu();
+                Snackbar.make(bookList, getString(R.string.basket_added, checkoutBasket.getUnitCount()),
+                        Snackbar.LENGTH_SHORT).show();
+                return true;
+            }
+        });
+
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_BASKET)) {
+            checkoutBasket.restore(savedInstanceState.getBundle(STATE_BASKET));
+        }
+        if (savedInstanceState != null) {
+            searchText = savedInstanceState.getString(STATE_SEARCH, "");
+        }
+
+        /*
+         Create the handler that will perform the delete calls off the main thread. Once a delete
+         has finished, give the user the chance to undo it.
+        */
+        bookQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onDeleteComplete(int token, Object cookie, int rowsDeleted) {
+                Log.v(LOG_TAG, rowsDeleted + " rows deleted from pet database.");
+                if (rowsDeleted > 0) {
+                    showUndoDeleteSnackbar(getString(R.string.books_deleted, rowsDeleted));
+                }
+            }
+        };
+
+        /*
+         Sell one unit of a book whenever its barcode is scanned. Keys that the reader held back
+         but weren't a scan, such as digits typed into the search box, are handed on as normal.
+        */
+        barcodeReader = new BarcodeWedgeReader(new BarcodeWedgeReader.OnBarcodeScannedListener() {
+            @Override
+            public void onBarcodeScanned(String barcode) {
+                new SellByIsbnTask(MainActivity.this).execute(barcode);
+            }
+        }, new BarcodeWedgeReader.KeyEventTarget() {
+            @Override
+            public void dispatchHeldKeyEvent(KeyEvent event) {
+                MainActivity.super.dispatchKeyEvent(event);
+            }
+        });
+
+        // Start the live queries for the list and its sections.
+        startQueries();
+
+        // Make sure that the deleted books are purged from the database in the background.
+        BookPurgeJobService.schedule(this);
+        BookMaintenanceJobService.schedule(this);
+        SyncJobService.schedule(this);
+    }
+
+    // If a book was deleted from the editor, give the user the chance to undo it.
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        if (requestCode == EDIT_BOOK_REQUEST && resultCode == RESULT_OK && data != null
+                && data.getBooleanExtra(EditorActivity.EXTRA_BOOK_DELETED, false)) {
+            showUndoDeleteSnackbar(getString(R.string.editor_delete_book_successful));
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBundle(STATE_BASKET, checkoutBasket.toBundle());
+        outState.putString(STATE_SEARCH, searchText);
+    }
+
+    @Override
+    protected void onDestroy() {
+        searchHandler.removeCallbacks(searchRunnable);
+        scrollJankMonitor.stop();
+        barcodeReader.cancel();
+
+        // Let go of the list's cursor before the live queries close it.
+        bookListAdapter.swapCursor(null);
+        bookListAdapter.swapSections(null);
+        if (shownBookQuery != null && shownBookQuery != bookQuery) {
+            shownBookQuery.cancel();
+        }
+        bookQuery.cancel();
+        sectionQuery.cancel();
+        super.onDestroy();
+    }
+
+    // Give the barcode reader the first look at every key, as the scanner types like a keyboard.
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        return barcodeReader.onKeyEvent(event) || super.dispatchKeyEvent(event);
+    }
+
+    /*
+     Empty the basket once it has been sold. If a book was short of stock nothing was sold, so
+     keep the basket as it is for the user to change.
+    */
+    private void showCheckoutResult(Bundle checkoutResult) {
+        String message;
+        if (checkoutResult.getBoolean(BookContract.KEY_CHECKOUT_COMPLETE)) {
+            checkoutBasket.clear();
+            invalidateOptionsMenu();
+            message = getString(R.string.basket_checked_out, checkoutResult.getInt(BookContract.KEY_CHECKOUT_UNITS_SOLD));
+        } else {
+            String shortBookName = checkoutResult.getString(BookContract.KEY_CHECKOUT_SHORT_BOOK_NAME);
+            message = shortBookName == null
+                    ? getString(R.string.basket_book_missing)
+                    : getString(R.string.basket_short_of_stock, shortBookName);
+        }
+        Snackbar.make(bookList, message, Snackbar.LENGTH_LONG).show();
+    }
+
+    // Tell the user if a book sold from the list had run out, as the list updates itself after a sale.
+    private void showSellUnitResult(Bundle saleResult) {
+        String shortBookName = saleResult.getString(BookContract.KEY_CHECKOUT_SHORT_BOOK_NAME);
+        if (!saleResult.getBoolean(BookContract.KEY_CHECKOUT_COMPLETE) && shortBookName != null) {
+            Snackbar.make(bookList, getString(R.string.scan_out_of_stock, shortBookName), Snackbar.LENGTH_SHORT).show();
+        }
+    }
+
+    // Tell the user how many duplicate books were merged.
+    private void showMergeResult(Bundle mergeResult) {
+        Snackbar.make(bookList,
+                getString(R.string.duplicates_merged, mergeResult.getInt(BookContract.KEY_DUPLICATES_MERGED)),
+                Snackbar.LENGTH_LONG).show();
+    }
+
+    // Tell the user what happened to a scanned book.
+    private void showScanResult(String barcode, Bundle saleResult) {
+        String message;
+        switch (saleResult.getInt(BookContract.KEY_SALE_RESULT)) {
+            case BookContract.SALE_SOLD:
+                message = getString(R.string.scan_sold,
+                        saleResult.getString(BookContract.KEY_SALE_BOOK_NAME),
+                        saleResult.getInt(BookContract.KEY_SALE_QUANTITY));
+                break;
+            case BookContract.SALE_OUT_OF_STOCK:
+                message = getString(R.string.scan_out_of_stock, saleResult.getString(BookContract.KEY_SALE_BOOK_NAME));
+                break;
+            default:
+                message = getString(R.string.scan_unknown_barcode, barcode);
+                break;
+        }
+        Snackbar.make(bookList, message, Snackbar.LENGTH_SHORT).show();
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu appBarMenu) {
         // Inflate the menu options for the app bar.
         getMenuInflater().inflate(R.menu.menu_main, appBarMenu);
+
+        // Filter the list as the search text changes, once typing has paused.
+        MenuItem searchItem = appBarMenu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (!searchText.isEmpty()) {
+            searchItem.expandActionView();
+            searchView.setQuery(searchText, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Search straight away rather than waiting for the pause.
+                searchHandler.removeCallbacks(searchRunnable);
+                if (updateSearchText(query)) {
+                    searchRunnable.run();
+                }
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if (updateSearchText(newText)) {
+                    searchHandler.removeCallbacks(searchRunnable);
+                    searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                }
+                return true;
+            }
+        });
+        return true;
+    }
+
+    // Keep the new search text, and return whether it is different from the last one.
+    private boolean updateSearchText(String newText) {
+        String trimmedText = newText == null ? "" : newText.trim();
+        if (trimmedText.equals(searchText)) {
+            return false;
+        }
+        searchText = trimmedText;
         return true;
     }
 
+    // Only show the basket actions while there is something in the basket.
+    @Override
+    public boolean onPrepareOptionsMenu(Menu appBarMenu) {
+        MenuItem checkoutItem = appBarMenu.findItem(R.id.action_checkout_basket);
+        checkoutItem.setVisible(!checkoutBasket.isEmpty());
+        checkoutItem.setTitle(getString(R.string.action_checkout_basket, checkoutBasket.getUnitCount()));
+        appBarMenu.findItem(R.id.action_clear_basket).setVisible(!checkoutBasket.isEmpty());
+        return super.onPrepareOptionsMenu(appBarMenu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -91,52 +423,259 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             case R.id.action_delete_all_entries:
                 deleteAllPets();
                 return true;
+            // Sell everything in the basket in a single transaction.
+            case R.id.action_checkout_basket:
+                new CheckoutTask(this).execute(checkoutBasket.toBundle());
+                return true;
+            case R.id.action_clear_basket:
+                checkoutBasket.clear();
+                invalidateOptionsMenu();
+                return true;
+            case R.id.action_reports:
+                startActivity(new Intent(MainActivity.this, ReportActivity.class));
+                return true;
+            // Merge every set of duplicate books into one, in the background.
+            case R.id.action_merge_duplicates:
+                new MergeDuplicatesTask(this).execute();
+                return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    /*
+     Start the live queries of the list and its sections for the current search text, in place
+     of any that were running for the old text.
+    */
+    private void startQueries() {
         /*
          Define the projection array to return only the columns we want to display for each
          item in our list.
         */
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_NAME,
-                BookEntry.COLUMN_BOOK_AUTHORS,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY
-        };
+        String[] projection = ListSnapshot.COLUMNS;
 
-        // This loader will execute the ContentProvider's query method on a background thread.
-        return new CursorLoader(this,
-                BookEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null
-        );
+        // Only show the books whose name or authors contain the search text, if there is any.
+        String selection = null;
+        String[] selectionArgs = null;
+        if (!searchText.isEmpty()) {
+            String pattern = "%" + escapeLikeWildcards(searchText) + "%";
+            selection = SEARCH_SELECTION;
+            selectionArgs = new String[]{pattern, pattern};
+        }
+
+        // A query for older text that hasn't shown anything yet is no longer needed at all.
+        if (bookQuery != null && bookQuery != shownBookQuery) {
+            bookQuery.cancel();
+        }
+        bookQuery = LiveQuery.start(this, BookEntry.CONTENT_URI, projection, selection, selectionArgs,
+                BookEntry.SORT_BY_NAME, this);
+
+        // The sections are counted over the same books, so their positions match the list.
+        if (sectionQuery != null) {
+            sectionQuery.cancel();
+        }
+        sectionQuery = LiveQuery.start(this, SectionEntry.CONTENT_URI, null, selection, selectionArgs, null, this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+    public void onQueryResult(LiveQuery liveQuery, Cursor cursor) {
+        // The adapter copies the sections out of the cursor, so it doesn't need to keep it.
+        if (liveQuery == sectionQuery) {
+            bookListAdapter.swapSections(cursor);
+            return;
+        }
+
         /*
          Update the adapter with the new cursor so that it can display the current state of
-         the database.
+         the database. Once it shows the results of a new search, the query of the old one can
+         be cancelled, which closes its cursor.
         */
         bookListAdapter.swapCursor(cursor);
+        bookListAdapter.setShowingSnapshot(false);
+        if (shownBookQuery != liveQuery) {
+            if (shownBookQuery != null) {
+                shownBookQuery.cancel();
+            }
+            shownBookQuery = liveQuery;
+        }
+
+        /*
+         Log how long the list took to appear, from the snapshot and from the database, so that
+         cold starts with and without a snapshot can be compared.
+        */
+        if (!firstLoadFinished) {
+            firstLoadFinished = true;
+            long loadedMillis = SystemClock.uptimeMillis() - createdAtMillis;
+            if (snapshotShownMillis >= 0) {
+                Log.i(LOG_TAG, "Startup: snapshot shown after " + snapshotShownMillis + " ms, list loaded after " + loadedMillis + " ms");
+            } else {
+                Log.i(LOG_TAG, "Startup: no snapshot, list loaded after " + loadedMillis + " ms");
+            }
+        }
+
+        // Keep the snapshot up to date with the full list, but not with search results.
+        if (liveQuery.getSelection() == null) {
+            listSnapshot.write(cursor);
+        }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        bookListAdapter.swapCursor(null);
+    // Escape the characters that LIKE treats as wildcards, so that the text is matched as it was typed.
+    private static String escapeLikeWildcards(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
-    // Helper method to delete all pets in the database.
+    // Helper method to delete all pets in the database on a background thread.
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
-        Log.v(LOG_TAG, rowsDeleted + " rows deleted from pet database.");
+        bookQueryHandler.startDelete(0, null, BookEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+     Show a Snackbar for the length of the undo window with an action that restores the books
+     removed by the last delete.
+    */
+    private void showUndoDeleteSnackbar(String message) {
+        Snackbar undoSnackbar = Snackbar.make(bookList, message, (int) BookContract.UNDO_WINDOW_MILLIS);
+        undoSnackbar.setAction(R.string.undo, new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                new UndoDeleteTask(getContentResolver()).execute();
+            }
+        });
+        undoSnackbar.show();
+    }
+
+    // Task to ask the provider to restore the last deleted books without blocking the UI.
+    private static class UndoDeleteTask extends AsyncTask<Void, Void, Void> {
+
+        private final ContentResolver contentResolver;
+
+        UndoDeleteTask(ContentResolver contentResolver) {
+            this.contentResolver = contentResolver;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_UNDO_DELETE, null, null);
+            return null;
+        }
+    }
+
+    /*
+     Task to sell a scanned book without blocking the UI. The provider finds the book, checks
+     its stock and sells it in a single call.
+    */
+    private static class SellByIsbnTask extends AsyncTask<String, Void, Bundle> {
+
+        private final WeakReference<MainActivity> activityReference;
+        private final ContentResolver contentResolver;
+        private String barcode;
+
+        SellByIsbnTask(MainActivity activity) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected Bundle doInBackground(String... barcodes) {
+            barcode = barcodes[0];
+            try {
+                return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_SELL_BY_ISBN, barcode, null);
+            } catch (IllegalArgumentException e) {
+                // The scan wasn't a barcode the provider accepts, so treat it as an unknown one.
+                Bundle unknownResult = new Bundle();
+                unknownResult.putInt(BookContract.KEY_SALE_RESULT, BookContract.SALE_UNKNOWN_ISBN);
+                return unknownResult;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bundle saleResult) {
+            MainActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing() && saleResult != null) {
+                activity.showScanResult(barcode, saleResult);
+            }
+        }
+    }
+
+    /*
+     Task to sell one unit of a book from the list without blocking the UI. It is checked out
+     as a basket of one, so the provider takes the unit off the current quantity and checks the
+     stock in the same transaction, rather than writing the quantity the list showed.
+    */
+    private static class SellUnitTask extends AsyncTask<Long, Void, Bundle> {
+
+        private final WeakReference<MainActivity> activityReference;
+        private final ContentResolver contentResolver;
+
+        SellUnitTask(MainActivity activity) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected Bundle doInBackground(Long... bookIds) {
+            Bundle basket = new Bundle();
+            basket.putLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS, new long[]{bookIds[0]});
+            basket.putIntArray(BookContract.KEY_CHECKOUT_QUANTITIES, new int[]{1});
+            return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_CHECKOUT, null, basket);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle saleResult) {
+            MainActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing() && saleResult != null) {
+                activity.showSellUnitResult(saleResult);
+            }
+        }
+    }
+
+    // Task to check out the basket without blocking the UI.
+    private static class CheckoutTask extends AsyncTask<Bundle, Void, Bundle> {
+
+        private final WeakReference<MainActivity> activityReference;
+        private final ContentResolver contentResolver;
+
+        CheckoutTask(MainActivity activity) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected Bundle doInBackground(Bundle... baskets) {
+            return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_CHECKOUT, null, baskets[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle checkoutResult) {
+            MainActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing() && checkoutResult != null) {
+                activity.showCheckoutResult(checkoutResult);
+            }
+        }
+    }
+
+    // Task to merge the duplicate books without blocking the UI, which can take a while for a large inventory.
+    private static class MergeDuplicatesTask extends AsyncTask<Void, Void, Bundle> {
+
+        private final WeakReference<MainActivity> activityReference;
+        private final ContentResolver contentResolver;
+
+        MergeDuplicatesTask(MainActivity activity) {
+            activityReference = new WeakReference<>(activity);
+            contentResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... voids) {
+            return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_MERGE_DUPLICATES, null, null);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle mergeResult) {
+            MainActivity activity = activityReference.get();
+            if (activity != null && !activity.isFinishing() && mergeResult != null) {
+                activity.showMergeResult(mergeResult);
+            }
+        }
     }
-}
\ No newline at end of file
+}
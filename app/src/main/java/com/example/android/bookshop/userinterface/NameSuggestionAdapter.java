@@ -0,0 +1,57 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import com.example.android.bookshop.core.PrefixIndex;
+
+import java.util.List;
+
+/*
+ Suggests the names in a prefix index that start with the text typed into an auto complete
+ field. The index is searched on the filter's background thread, so typing never waits for it.
+*/
+class NameSuggestionAdapter extends ArrayAdapter<String> {
+
+    // The most suggestions that are shown below the field at once.
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final PrefixIndex nameIndex;
+
+    private final Filter prefixFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence prefix) {
+            FilterResults results = new FilterResults();
+            if (prefix != null) {
+                List<String> suggestions = nameIndex.suggest(prefix.toString(), MAX_SUGGESTIONS);
+                results.values = suggestions;
+                results.count = suggestions.size();
+            }
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence prefix, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            if (results.count > 0) {
+                addAll((List<String>) results.values);
+            }
+            notifyDataSetChanged();
+        }
+    };
+
+    NameSuggestionAdapter(Context context, PrefixIndex nameIndex) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        this.nameIndex = nameIndex;
+    }
+
+    @NonNull
+    @Override
+    public Filter getFilter() {
+        return prefixFilter;
+    }
+}
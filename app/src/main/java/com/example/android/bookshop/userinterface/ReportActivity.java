@@ -0,0 +1,98 @@
+package com.example.android.bookshop.userinterface;
+
+import android.app.LoaderManager;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import android.widget.Spinner;
+
+import com.example.android.bookshop.R;
+import com.example.android.bookshop.database.BookContract.ReportEntry;
+
+/*
+ Shows the inventory reports, one at a time, picked from the spinner at the top. Each report is
+ worked out by the provider with a single grouped query, and the loader reloads it whenever a
+ book changes, so the totals on screen are always current.
+*/
+public class ReportActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int REPORT_LOADER = 0;
+
+    // Key used to pass the name of the report to the loader.
+    private static final String ARG_REPORT = "report";
+
+    // The reports, in the same order as their names in the spinner.
+    private static final String[] REPORT_NAMES = {
+            ReportEntry.REPORT_SUPPLIER_STOCK,
+            ReportEntry.REPORT_AUTHOR_UNITS,
+            ReportEntry.REPORT_PRICE_BANDS};
+
+    private ReportCursorAdapter reportAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_report);
+
+        ListView reportList = findViewById(R.id.report_list_view);
+        reportList.setEmptyView(findViewById(R.id.report_empty_view));
+        reportAdapter = new ReportCursorAdapter(this);
+        reportList.setAdapter(reportAdapter);
+
+        /*
+         The spinner calls back with its current report once it is laid out, including after a
+         rotation, which starts the loader or reconnects to the one that is already running.
+        */
+        Spinner reportSpinner = findViewById(R.id.report_spinner);
+        reportSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                showReport(REPORT_NAMES[position]);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+    }
+
+    // Load the named report, unless it is the one already loaded.
+    private void showReport(String reportName) {
+        Bundle reportArgs = new Bundle();
+        reportArgs.putString(ARG_REPORT, reportName);
+
+        Loader<Cursor> reportLoader = getLoaderManager().getLoader(REPORT_LOADER);
+        if (reportLoader != null && ((CursorLoader) reportLoader).getUri().equals(ReportEntry.buildReportUri(reportName))) {
+            getLoaderManager().initLoader(REPORT_LOADER, reportArgs, this);
+        } else {
+            getLoaderManager().restartLoader(REPORT_LOADER, reportArgs, this);
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        return new CursorLoader(this,
+                ReportEntry.buildReportUri(bundle.getString(ARG_REPORT)),
+                null,
+                null,
+                null,
+                null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // The group column is written out differently for each report.
+        reportAdapter.setReportName(((CursorLoader) loader).getUri().getLastPathSegment());
+        reportAdapter.swapCursor(cursor);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        reportAdapter.swapCursor(null);
+    }
+}
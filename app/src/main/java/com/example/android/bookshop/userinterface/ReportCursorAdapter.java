@@ -0,0 +1,60 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CursorAdapter;
+import android.widget.TextView;
+
+import com.example.android.bookshop.R;
+import com.example.android.bookshop.core.PriceFormat;
+import com.example.android.bookshop.database.BookContract.ReportEntry;
+
+// Shows one group of an inventory report in each list item, with its totals.
+class ReportCursorAdapter extends CursorAdapter {
+
+    // The report being shown, which decides how the group is written out.
+    private String reportName = ReportEntry.REPORT_SUPPLIER_STOCK;
+
+    ReportCursorAdapter(Context context) {
+        super(context, null, 0);
+    }
+
+    void setReportName(String reportName) {
+        this.reportName = reportName;
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        return LayoutInflater.from(context).inflate(R.layout.report_list_item, parent, false);
+    }
+
+    @Override
+    public void bindView(View reportListItem, Context context, Cursor reportCursor) {
+        TextView groupText = reportListItem.findViewById(R.id.report_group);
+        TextView countsText = reportListItem.findViewById(R.id.report_counts);
+        TextView stockValueText = reportListItem.findViewById(R.id.report_stock_value);
+
+        int groupIndex = reportCursor.getColumnIndexOrThrow(ReportEntry.COLUMN_GROUP);
+        int titles = reportCursor.getInt(reportCursor.getColumnIndexOrThrow(ReportEntry.COLUMN_TITLES));
+        long units = reportCursor.getLong(reportCursor.getColumnIndexOrThrow(ReportEntry.COLUMN_UNITS));
+        long stockValue = reportCursor.getLong(reportCursor.getColumnIndexOrThrow(ReportEntry.COLUMN_STOCK_VALUE));
+
+        if (ReportEntry.REPORT_PRICE_BANDS.equals(reportName)) {
+            // Show the band as the range of prices in it, for example "£5.00 to £9.99".
+            long bandFloor = reportCursor.getLong(groupIndex);
+            groupText.setText(context.getString(R.string.report_price_band,
+                    PriceFormat.convertPenceToPounds(bandFloor),
+                    PriceFormat.convertPenceToPounds(bandFloor + ReportEntry.PRICE_BAND_WIDTH - 1)));
+        } else {
+            // Books without authors are grouped together under the unknown author text.
+            String group = reportCursor.getString(groupIndex);
+            groupText.setText(group == null || group.isEmpty() ? context.getString(R.string.unknown_author) : group);
+        }
+
+        countsText.setText(context.getString(R.string.report_counts, titles, units));
+        stockValueText.setText(PriceFormat.convertPenceToPounds(stockValue));
+    }
+}
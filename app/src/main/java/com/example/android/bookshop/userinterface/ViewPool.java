@@ -0,0 +1,86 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.AsyncLayoutInflater;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayDeque;
+
+/*
+ Views inflated ahead of time on a background thread, so that the first rows of the list and
+ the editor's toast don't have to be inflated on the main thread while the screen is busy
+ drawing. A view taken from the pool is handed over for good, and once the pool of a layout is
+ empty, its views are inflated on the main thread as before. The layouts are inflated without
+ the AppCompat widget substitutions, which the pooled layouts don't rely on.
+*/
+final class ViewPool {
+
+    private static final String LOG_TAG = ViewPool.class.getSimpleName();
+
+    private final LayoutInflater layoutInflater;
+    private final AsyncLayoutInflater asyncInflater;
+
+    // The views that are ready to use, for each layout.
+    private final SparseArray<ArrayDeque<View>> pooledViews = new SparseArray<>();
+
+    // How many views were taken from the pool and how many had to be inflated on the main thread.
+    private int hitCount;
+    private int missCount;
+
+    ViewPool(Context context) {
+        layoutInflater = LayoutInflater.from(context);
+        asyncInflater = new AsyncLayoutInflater(context);
+    }
+
+    /*
+     Inflate the given number of views of a layout in the background and add them to the pool.
+     They are inflated one after another, as the background inflater's queue is short and the
+     main thread would wait for room in it. This must be called on the main thread.
+    */
+    void warm(final int layoutId, @Nullable final ViewGroup parent, final int viewCount) {
+        if (viewCount <= 0) {
+            return;
+        }
+        asyncInflater.inflate(layoutId, parent, new AsyncLayoutInflater.OnInflateFinishedListener() {
+            @Override
+            public void onInflateFinished(@NonNull View view, int resid, @Nullable ViewGroup parent) {
+                viewsOf(layoutId).add(view);
+                warm(layoutId, parent, viewCount - 1);
+            }
+        });
+    }
+
+    /*
+     Return a view of the layout from the pool, or inflate one now if the pool has run out. The
+     view isn't attached to the parent, which is only used for its layout parameters.
+    */
+    View obtain(int layoutId, @Nullable ViewGroup parent) {
+        View pooledView = viewsOf(layoutId).poll();
+        if (pooledView != null) {
+            hitCount++;
+            return pooledView;
+        }
+
+        // Note when the pool first runs out, to show whether it was warmed with enough views.
+        missCount++;
+        if (missCount == 1) {
+            Log.i(LOG_TAG, "Pool ran out after " + hitCount + " views, inflating on the main thread");
+        }
+        return layoutInflater.inflate(layoutId, parent, false);
+    }
+
+    private ArrayDeque<View> viewsOf(int layoutId) {
+        ArrayDeque<View> views = pooledViews.get(layoutId);
+        if (views == null) {
+            views = new ArrayDeque<>();
+            pooledViews.put(layoutId, views);
+        }
+        return views;
+    }
+}
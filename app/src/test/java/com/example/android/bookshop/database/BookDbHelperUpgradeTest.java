@@ -0,0 +1,144 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.bookshop.core.BookFingerprint;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ChangeLogEntry;
+import com.example.android.bookshop.database.BookContract.HistoryEntry;
+import com.example.android.bookshop.database.BookContract.StockCounterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database made by the first version of the app, and checks that its books are kept
+ * and end up just as they would be if they had been added to a new database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookDbHelperUpgradeTest {
+
+    // The book table of the first version of the app.
+    private static final String SQL_CREATE_VERSION_1 =
+            "CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, authors TEXT," +
+                    " pages INTEGER NOT NULL DEFAULT 0, price INTEGER NOT NULL, quantity INTEGER NOT NULL DEFAULT 0," +
+                    " supplier_name TEXT NOT NULL, supplier_phone_number TEXT NOT NULL);";
+
+    private BookDbHelper databaseHelper;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        File databaseFile = context.getDatabasePath("bookshop.db");
+        databaseFile.getParentFile().mkdirs();
+
+        SQLiteDatabase oldDatabase = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+        oldDatabase.execSQL(SQL_CREATE_VERSION_1);
+        oldDatabase.insert("books", null, book("Emma", "Jane Austen", 799, 4));
+        oldDatabase.insert("books", null, book("Middlemarch", "George Eliot", 999, 0));
+        oldDatabase.setVersion(1);
+        oldDatabase.close();
+
+        databaseHelper = new BookDbHelper(context);
+    }
+
+    @After
+    public void tearDown() {
+        databaseHelper.close();
+    }
+
+    @Test
+    public void keepsBooksAndFillsInNewColumns() {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+
+        Cursor bookCursor = bookDatabase.query(BookEntry.TABLE_NAME,
+                new String[]{BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_AUTHORS, BookEntry.COLUMN_GLOBAL_ID,
+                        BookEntry.COLUMN_FINGERPRINT, BookEntry.COLUMN_VERSION, BookEntry.COLUMN_DELETED_AT},
+                null, null, null, null, BookEntry._ID);
+        try {
+            assertEquals(2, bookCursor.getCount());
+            while (bookCursor.moveToNext()) {
+                assertNotNull(bookCursor.getString(2));
+                assertEquals(BookFingerprint.of(bookCursor.getString(0), bookCursor.getString(1)), bookCursor.getString(3));
+                assertEquals(0, bookCursor.getLong(4));
+                assertTrue(bookCursor.isNull(5));
+            }
+        } finally {
+            bookCursor.close();
+        }
+
+        // Every book is waiting for the first sync, and starts its history.
+        assertEquals(2, DatabaseUtils.queryNumEntries(bookDatabase, ChangeLogEntry.TABLE_NAME));
+        assertEquals(2, DatabaseUtils.queryNumEntries(bookDatabase, HistoryEntry.TABLE_NAME));
+
+        // The stock that was there is counted as this device's, and a book with none has no counter.
+        assertEquals(1, DatabaseUtils.queryNumEntries(bookDatabase, StockCounterEntry.TABLE_NAME));
+        assertEquals(4, DatabaseUtils.longForQuery(bookDatabase,
+                "SELECT " + StockCounterEntry.COLUMN_INCREMENTS + " FROM " + StockCounterEntry.TABLE_NAME, null));
+    }
+
+    @Test
+    public void leavesTheAutoVacuumConversionToTheMaintenance() {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+
+        // Opening the upgraded database doesn't rebuild the file.
+        assertEquals(0, DatabaseUtils.longForQuery(bookDatabase, "PRAGMA auto_vacuum", null));
+
+        DatabaseMaintenance maintenance = new DatabaseMaintenance(databaseHelper);
+        Bundle stepResult = maintenance.runStep(BookContract.MAINTENANCE_STEP_CONVERT_AUTO_VACUUM);
+        assertEquals("converted", stepResult.getString(BookContract.KEY_MAINTENANCE_RESULT));
+        assertEquals(BookContract.MAINTENANCE_STEP_INCREMENTAL_VACUUM,
+                stepResult.getString(BookContract.KEY_MAINTENANCE_NEXT_STEP));
+        assertEquals(BookDbHelper.AUTO_VACUUM_INCREMENTAL, DatabaseUtils.longForQuery(bookDatabase, "PRAGMA auto_vacuum", null));
+        assertEquals(2, DatabaseUtils.queryNumEntries(bookDatabase, BookEntry.TABLE_NAME));
+
+        // It is only converted the once.
+        stepResult = maintenance.runStep(BookContract.MAINTENANCE_STEP_CONVERT_AUTO_VACUUM);
+        assertEquals("already incremental", stepResult.getString(BookContract.KEY_MAINTENANCE_RESULT));
+    }
+
+    @Test
+    public void upgradedTriggersRecordChanges() {
+        SQLiteDatabase bookDatabase = databaseHelper.getWritableDatabase();
+
+        ContentValues quantityValues = new ContentValues();
+        quantityValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        bookDatabase.update(BookEntry.TABLE_NAME, quantityValues, BookEntry.COLUMN_BOOK_NAME + "=?", new String[]{"Emma"});
+
+        // The update is logged once, and not again for the version trigger's own update.
+        assertEquals(1, DatabaseUtils.longForQuery(bookDatabase,
+                "SELECT " + BookEntry.COLUMN_VERSION + " FROM " + BookEntry.TABLE_NAME +
+                        " WHERE " + BookEntry.COLUMN_BOOK_NAME + "='Emma'", null));
+        assertEquals(3, DatabaseUtils.queryNumEntries(bookDatabase, ChangeLogEntry.TABLE_NAME));
+        assertEquals(3, DatabaseUtils.queryNumEntries(bookDatabase, HistoryEntry.TABLE_NAME));
+    }
+
+    private static ContentValues book(String name, String authors, int price, int quantity) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put("name", name);
+        bookValues.put("authors", authors);
+        bookValues.put("pages", 100);
+        bookValues.put("price", price);
+        bookValues.put("quantity", quantity);
+        bookValues.put("supplier_name", "Supplier");
+        bookValues.put("supplier_phone_number", "02079460000");
+        return bookValues;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reprices books with prices either side of a pound boundary under each kind of rule, and checks
+ * that a dry run counts and samples exactly the books that a real run then changes, and that a
+ * book whose price wouldn't change isn't written at all.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BulkRepricerTest {
+
+    private static final int[] PRICES = {0, 1249, 1250, 1234, 1299};
+
+    private ContentResolver contentResolver;
+    private long[] bookIds;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                bookIds = new long[PRICES.length];
+                for (int i = 0; i < PRICES.length; i++) {
+                    bookIds[i] = ContentUris.parseId(contentResolver.insert(BookEntry.CONTENT_URI, book("Book " + i, PRICES[i])));
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void repricesByAPercentage() throws Exception {
+        Bundle rule = new Bundle();
+        rule.putDouble(BookContract.KEY_REPRICE_PERCENT, 10);
+
+        // A free book stays free.
+        checkReprice(rule, new int[]{0, 1374, 1375, 1357, 1429});
+    }
+
+    @Test
+    public void repricesByAChangeInPence() throws Exception {
+        Bundle rule = new Bundle();
+        rule.putInt(BookContract.KEY_REPRICE_DELTA, -1250);
+
+        // No price goes below nothing, and a free book isn't touched.
+        checkReprice(rule, new int[]{0, 0, 0, 0, 49});
+    }
+
+    @Test
+    public void roundsToTheNearest99Pence() throws Exception {
+        Bundle rule = new Bundle();
+        rule.putBoolean(BookContract.KEY_REPRICE_ROUND_TO_99, true);
+
+        // A price that already ends in 99 pence isn't touched.
+        checkReprice(rule, new int[]{99, 1299, 1299, 1199, 1299});
+    }
+
+    /*
+     Preview the rule with a dry run, then run it, and check both against the expected new
+     price of each book.
+    */
+    private void checkReprice(final Bundle rule, final int[] expectedPrices) throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                long[] versionsBefore = new long[bookIds.length];
+                int expectedCount = 0;
+                for (int i = 0; i < bookIds.length; i++) {
+                    versionsBefore[i] = version(bookIds[i]);
+                    if (expectedPrices[i] != PRICES[i]) {
+                        expectedCount++;
+                    }
+                }
+
+                Bundle dryRun = new Bundle(rule);
+                dryRun.putBoolean(BookContract.KEY_REPRICE_DRY_RUN, true);
+                Bundle dryRunResult = reprice(dryRun);
+                assertEquals(expectedCount, dryRunResult.getInt(BookContract.KEY_REPRICE_COUNT));
+
+                // Every book that would change is in the sample, with the price it would change to.
+                List<ContentValues> sample = dryRunResult.getParcelableArrayList(BookContract.KEY_REPRICE_SAMPLE);
+                assertEquals(expectedCount, sample.size());
+                for (ContentValues sampleValues : sample) {
+                    int book = indexOf(sampleValues.getAsLong(BookEntry._ID));
+                    assertEquals(PRICES[book], (int) sampleValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
+                    assertEquals(expectedPrices[book], (int) sampleValues.getAsInteger(BookContract.KEY_REPRICE_NEW_PRICE));
+                }
+
+                // The dry run doesn't write anything.
+                for (int i = 0; i < bookIds.length; i++) {
+                    assertEquals(PRICES[i], price(bookIds[i]));
+                    assertEquals(versionsBefore[i], version(bookIds[i]));
+                }
+
+                assertEquals(expectedCount, reprice(rule).getInt(BookContract.KEY_REPRICE_COUNT));
+
+                // Only the books in the sample were written, and they took the price it showed.
+                for (int i = 0; i < bookIds.length; i++) {
+                    assertEquals(expectedPrices[i], price(bookIds[i]));
+                    assertEquals(expectedPrices[i] == PRICES[i] ? versionsBefore[i] : versionsBefore[i] + 1,
+                            version(bookIds[i]));
+                }
+                return null;
+            }
+        });
+    }
+
+    private Bundle reprice(Bundle rule) {
+        return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_REPRICE, null, rule);
+    }
+
+    private int indexOf(long bookId) {
+        for (int i = 0; i < bookIds.length; i++) {
+            if (bookIds[i] == bookId) {
+                return i;
+            }
+        }
+        throw new AssertionError("Unknown book in the sample: " + bookId);
+    }
+
+    private int price(long bookId) {
+        return (int) readLong(bookId, BookEntry.COLUMN_BOOK_PRICE);
+    }
+
+    private long version(long bookId) {
+        return readLong(bookId, BookEntry.COLUMN_VERSION);
+    }
+
+    private long readLong(long bookId, String column) {
+        Cursor bookCursor = contentResolver.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                new String[]{column}, null, null, null);
+        try {
+            bookCursor.moveToFirst();
+            return bookCursor.getLong(0);
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    private static ContentValues book(String name, int price) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+        return bookValues;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ChangeLogEntry;
+import com.example.android.bookshop.database.BookContract.HistoryEntry;
+import com.example.android.bookshop.database.BookContract.StockCounterEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a basket is sold as a whole or not at all: when one of its lines is short of
+ * stock, none of the books, stock counters, change log or history are touched by the others.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class CheckoutTest {
+
+    private static final String[] CHECKED_TABLES = {
+            BookEntry.TABLE_NAME,
+            StockCounterEntry.TABLE_NAME,
+            ChangeLogEntry.TABLE_NAME,
+            HistoryEntry.TABLE_NAME};
+
+    private ContentResolver contentResolver;
+    private long[] bookIds;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                bookIds = new long[]{
+                        ContentUris.parseId(contentResolver.insert(BookEntry.CONTENT_URI, book("Emma", 5))),
+                        ContentUris.parseId(contentResolver.insert(BookEntry.CONTENT_URI, book("Middlemarch", 1))),
+                        ContentUris.parseId(contentResolver.insert(BookEntry.CONTENT_URI, book("Persuasion", 4)))};
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void sellsNothingWhenALineIsShort() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                List<String> rowsBefore = readCheckedTables();
+
+                // The first line can be sold, but the second asks for more copies than there are.
+                Bundle checkoutResult = checkout(new int[]{2, 3, 1});
+
+                assertFalse(checkoutResult.getBoolean(BookContract.KEY_CHECKOUT_COMPLETE));
+                assertEquals(bookIds[1], checkoutResult.getLong(BookContract.KEY_CHECKOUT_SHORT_BOOK_ID));
+                assertEquals("Middlemarch", checkoutResult.getString(BookContract.KEY_CHECKOUT_SHORT_BOOK_NAME));
+                assertEquals(rowsBefore, readCheckedTables());
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void sellsEveryLineWhenThereIsEnoughStock() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                Bundle checkoutResult = checkout(new int[]{2, 1, 1});
+
+                assertTrue(checkoutResult.getBoolean(BookContract.KEY_CHECKOUT_COMPLETE));
+                assertEquals(4, checkoutResult.getInt(BookContract.KEY_CHECKOUT_UNITS_SOLD));
+                assertEquals(3, quantity(bookIds[0]));
+                assertEquals(0, quantity(bookIds[1]));
+                assertEquals(3, quantity(bookIds[2]));
+                return null;
+            }
+        });
+    }
+
+    private Bundle checkout(int[] quantities) {
+        Bundle basket = new Bundle();
+        basket.putLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS, bookIds);
+        basket.putIntArray(BookContract.KEY_CHECKOUT_QUANTITIES, quantities);
+        return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_CHECKOUT, null, basket);
+    }
+
+    private int quantity(long bookId) {
+        Cursor bookCursor = contentResolver.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookId),
+                new String[]{BookEntry.COLUMN_BOOK_QUANTITY}, null, null, null);
+        try {
+            bookCursor.moveToFirst();
+            return bookCursor.getInt(0);
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // Read every row of the tables a sale writes to, through a helper of its own.
+    private static List<String> readCheckedTables() {
+        List<String> rows = new ArrayList<>();
+        BookDbHelper databaseHelper = new BookDbHelper(RuntimeEnvironment.application);
+        try {
+            SQLiteDatabase bookDatabase = databaseHelper.getReadableDatabase();
+            for (String table : CHECKED_TABLES) {
+                Cursor tableCursor = bookDatabase.query(table, null, null, null, null, null, "rowid");
+                try {
+                    while (tableCursor.moveToNext()) {
+                        StringBuilder row = new StringBuilder(table);
+                        for (int column = 0; column < tableCursor.getColumnCount(); column++) {
+                            row.append('|').append(tableCursor.getString(column));
+                        }
+                        rows.add(row.toString());
+                    }
+                } finally {
+                    tableCursor.close();
+                }
+            }
+        } finally {
+            databaseHelper.close();
+        }
+        return rows;
+    }
+
+    private static ContentValues book(String name, int quantity) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+        return bookValues;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ReportEntry;
+import com.example.android.bookshop.database.BookContract.SectionEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a report, or the list's sections, opened again without a write in between comes
+ * from the cache however many groups it has, and is worked out again after a write.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class InventoryReportsTest {
+
+    // More suppliers than a search result of the list is cached with.
+    private static final int SUPPLIER_COUNT = 600;
+
+    private ContentResolver contentResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues[] books = new ContentValues[SUPPLIER_COUNT];
+                for (int i = 0; i < SUPPLIER_COUNT; i++) {
+                    books[i] = book((char) ('A' + i % 26) + " book " + i, "Supplier " + i);
+                }
+                assertEquals(SUPPLIER_COUNT, contentResolver.bulkInsert(BookEntry.CONTENT_URI, books));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void reopensALargeReportFromTheCache() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                Uri reportUri = ReportEntry.buildReportUri(ReportEntry.REPORT_SUPPLIER_STOCK);
+                assertEquals(SUPPLIER_COUNT, countRows(reportUri));
+
+                // Remove the books behind the provider's back, so only a cached report still has them.
+                deleteBooksDirectly();
+                assertEquals(SUPPLIER_COUNT, countRows(reportUri));
+
+                // A write through the provider moves the generation on, so the report is worked out again.
+                contentResolver.insert(BookEntry.CONTENT_URI, book("New book", "New supplier"));
+                assertEquals(1, countRows(reportUri));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void reopensTheSectionsFromTheCache() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertEquals(26, countRows(SectionEntry.CONTENT_URI));
+
+                deleteBooksDirectly();
+                assertEquals(26, countRows(SectionEntry.CONTENT_URI));
+                return null;
+            }
+        });
+    }
+
+    private int countRows(Uri uri) {
+        Cursor rowCursor = contentResolver.query(uri, null, null, null, null);
+        try {
+            return rowCursor.getCount();
+        } finally {
+            rowCursor.close();
+        }
+    }
+
+    // Delete every book through a helper of its own, which the provider's data generation doesn't see.
+    private static void deleteBooksDirectly() {
+        BookDbHelper databaseHelper = new BookDbHelper(RuntimeEnvironment.application);
+        try {
+            databaseHelper.getWritableDatabase().delete(BookEntry.TABLE_NAME, null, null);
+        } finally {
+            databaseHelper.close();
+        }
+    }
+
+    private static ContentValues book(String name, String supplierName) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+        return bookValues;
+    }
+}
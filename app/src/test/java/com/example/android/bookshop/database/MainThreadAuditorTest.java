@@ -0,0 +1,141 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.bookshop.BuildConfig;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the provider notes the calls that arrive on the main thread in debug builds.
+ * Robolectric runs each test on the main thread, so the test methods themselves are the call sites.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class MainThreadAuditorTest {
+
+    private ContentResolver contentResolver;
+
+    @Before
+    public void setUp() {
+        assumeTrue(BuildConfig.DEBUG);
+
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        // These tests call the provider on the main thread on purpose, so strict mode starts off even when the suite turns it on.
+        contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_SET_MAIN_THREAD_STRICT, "false", null);
+    }
+
+    @After
+    public void tearDown() {
+        if (contentResolver != null) {
+            contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_SET_MAIN_THREAD_STRICT, "false", null);
+        }
+    }
+
+    @Test
+    public void recordsMainThreadCallsByCallSite() {
+        for (int i = 0; i < 3; i++) {
+            queryBooks();
+        }
+        contentResolver.insert(BookEntry.CONTENT_URI, book("Main thread book"));
+
+        Bundle callSites = mainThreadCallSites();
+        assertEquals(2, callSites.size());
+
+        Bundle queryCalls = callSiteOf(callSites, "MainThreadAuditorTest.queryBooks");
+        assertEquals(3, queryCalls.getLong(BookContract.KEY_MAIN_THREAD_COUNT));
+        assertEquals(Arrays.asList("query books"),
+                Arrays.asList(queryCalls.getStringArray(BookContract.KEY_MAIN_THREAD_OPERATIONS)));
+        assertTrue(queryCalls.getLong(BookContract.KEY_MAIN_THREAD_MAX_NANOS) > 0);
+
+        Bundle insertCalls = callSiteOf(callSites, "MainThreadAuditorTest.recordsMainThreadCallsByCallSite");
+        assertEquals(1, insertCalls.getLong(BookContract.KEY_MAIN_THREAD_COUNT));
+    }
+
+    @Test
+    public void ignoresBackgroundCalls() throws InterruptedException {
+        Thread backgroundThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                contentResolver.insert(BookEntry.CONTENT_URI, book("Background book"));
+                queryBooks();
+            }
+        });
+        backgroundThread.start();
+        backgroundThread.join();
+
+        assertEquals(0, mainThreadCallSites().size());
+    }
+
+    @Test
+    public void strictModeRefusesMainThreadCalls() {
+        contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_SET_MAIN_THREAD_STRICT, "true", null);
+
+        try {
+            contentResolver.insert(BookEntry.CONTENT_URI, book("Refused book"));
+            fail("An insert on the main thread should fail in strict mode");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("MainThreadAuditorTest.strictModeRefusesMainThreadCalls"));
+        }
+
+        // The refused insert never reached the database.
+        contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_SET_MAIN_THREAD_STRICT, "false", null);
+        Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(0, bookCursor.getCount());
+        bookCursor.close();
+    }
+
+    private void queryBooks() {
+        Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI, null, null, null, null);
+        if (bookCursor != null) {
+            bookCursor.close();
+        }
+    }
+
+    private Bundle mainThreadCallSites() {
+        Bundle audit = contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_MAIN_THREAD_CALLS, null, null);
+        return audit.getBundle(BookContract.KEY_MAIN_THREAD_CALL_SITES);
+    }
+
+    // Return the calls of the call site in the given method, failing if there isn't one.
+    private static Bundle callSiteOf(Bundle callSites, String method) {
+        for (String callSite : callSites.keySet()) {
+            if (callSite.startsWith("database." + method + ":")) {
+                return callSites.getBundle(callSite);
+            }
+        }
+        throw new AssertionError("No call site in " + method + " among " + callSites.keySet());
+    }
+
+    private static ContentValues book(String name) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+        return bookValues;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.bookshop.database;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the body of a test on a background thread, as the app calls the provider, so that the
+ * provider's strict main thread check lets its calls through. Failures are thrown on as they
+ * were thrown in the body.
+ */
+public final class ProviderThread {
+
+    private ProviderThread() {
+    }
+
+    public static void run(Callable<Void> testBody) throws Exception {
+        ExecutorService providerExecutor = Executors.newSingleThreadExecutor();
+        try {
+            providerExecutor.submit(testBody).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            providerExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.bookshop.database;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the whole book list is served again from the cache while nothing has been written,
+ * however many books there are, and that large searches are left to SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class QueryResultCacheTest {
+
+    // More books than a search result is cached with.
+    private static final int BOOK_COUNT = 600;
+
+    private static final String[] LIST_PROJECTION = {BookEntry._ID, BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_QUANTITY};
+
+    private ContentResolver contentResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues[] books = new ContentValues[BOOK_COUNT];
+                for (int i = 0; i < BOOK_COUNT; i++) {
+                    books[i] = book("Book " + i);
+                }
+                assertEquals(BOOK_COUNT, contentResolver.bulkInsert(BookEntry.CONTENT_URI, books));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void servesTheWholeListFromTheCache() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertEquals(BOOK_COUNT, countBooks(null, null));
+                long hitsBefore = metric(BookContract.KEY_METRICS_CACHE_HITS);
+
+                // Remove the books behind the provider's back, so only a result that didn't come from SQLite still has them.
+                deleteBooksDirectly();
+
+                assertEquals(BOOK_COUNT, countBooks(null, null));
+                assertEquals(hitsBefore + 1, metric(BookContract.KEY_METRICS_CACHE_HITS));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void runsLargeSearchesAgain() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                String selection = BookEntry.COLUMN_BOOK_NAME + " LIKE ?";
+                String[] selectionArgs = {"Book%"};
+                assertEquals(BOOK_COUNT, countBooks(selection, selectionArgs));
+                long hitsBefore = metric(BookContract.KEY_METRICS_CACHE_HITS);
+
+                deleteBooksDirectly();
+
+                assertEquals(0, countBooks(selection, selectionArgs));
+                assertEquals(hitsBefore, metric(BookContract.KEY_METRICS_CACHE_HITS));
+                return null;
+            }
+        });
+    }
+
+    private int countBooks(String selection, String[] selectionArgs) {
+        Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI, LIST_PROJECTION, selection, selectionArgs,
+                BookEntry.SORT_BY_NAME);
+        try {
+            return bookCursor.getCount();
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    private long metric(String key) {
+        return contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_METRICS, null, null).getLong(key);
+    }
+
+    // Delete every book through a helper of its own, which the provider's data generation doesn't see.
+    private static void deleteBooksDirectly() {
+        BookDbHelper databaseHelper = new BookDbHelper(RuntimeEnvironment.application);
+        try {
+            databaseHelper.getWritableDatabase().delete(BookEntry.TABLE_NAME, null, null);
+        } finally {
+            databaseHelper.close();
+        }
+    }
+
+    private static ContentValues book(String name) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 3);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+        return bookValues;
+    }
+}
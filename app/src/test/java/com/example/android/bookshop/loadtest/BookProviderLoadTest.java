@@ -0,0 +1,261 @@
+package com.example.android.bookshop.loadtest;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookContract.ReportEntry;
+import com.example.android.bookshop.database.BookContract.SectionEntry;
+import com.example.android.bookshop.database.BookProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load test that runs a mixed till workload through the ContentResolver against a real SQLite
+ * database, at several catalogue sizes. It is skipped unless it is asked for, for example:
+ * <p>
+ * ./gradlew :app:testDebugUnitTest --tests '*BookProviderLoadTest' -Dbookshop.loadtest=true
+ * -Dbookshop.loadtest.sizes=10000,100000,1000000 -Dbookshop.loadtest.threads=4
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookProviderLoadTest {
+
+    private static final String[] LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHORS,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY
+    };
+
+    /*
+     The share of the workload, out of 100, taken up by each type of operation. Whatever is left
+     over loads the whole list, as the main screen does.
+    */
+    private static final int QUERY_WEIGHT = 55;
+    private static final int SELL_WEIGHT = 25;
+    private static final int UPDATE_WEIGHT = 12;
+    private static final int INSERT_WEIGHT = 6;
+
+    private final int[] catalogueSizes = parseSizes(System.getProperty("bookshop.loadtest.sizes", "10000,100000,1000000"));
+    private final int threadCount = Integer.getInteger("bookshop.loadtest.threads", 4);
+    private final int operationsPerThread = Integer.getInteger("bookshop.loadtest.operations", 5000);
+    private final long seed = Long.getLong("bookshop.loadtest.seed", 42);
+
+    private ContentResolver contentResolver;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("bookshop.loadtest"));
+
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    /*
+     Grow the catalogue to each size in turn and run the same mixed workload against it. The
+     catalogue is grown rather than rebuilt, so the books at each size are always the same.
+    */
+    @Test
+    public void mixedWorkload() throws Exception {
+        // The app calls the provider from background threads, so the setup and timings run on one too.
+        ExecutorService driverExecutor = Executors.newSingleThreadExecutor();
+        try {
+            driverExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    growAndRunWorkload();
+                    return null;
+                }
+            }).get();
+        } finally {
+            driverExecutor.shutdown();
+        }
+    }
+
+    private void growAndRunWorkload() throws Exception {
+        SyntheticCatalogue catalogue = new SyntheticCatalogue(seed);
+        AtomicInteger bookCount = new AtomicInteger();
+
+        for (int catalogueSize : catalogueSizes) {
+            long populateStart = System.nanoTime();
+            catalogue.populate(contentResolver, catalogueSize - bookCount.get());
+            bookCount.set(catalogueSize);
+            System.out.println(String.format(Locale.ENGLISH, "Catalogue of %d books populated in %d ms",
+                    catalogueSize, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - populateStart)));
+
+            runWorkload(bookCount);
+            timeReports();
+            timeSections();
+        }
+    }
+
+    // Run the workload on every thread at once and print the results for each operation type.
+    private void runWorkload(final AtomicInteger bookCount) throws Exception {
+        final LatencyRecorder queryLatency = new LatencyRecorder("query");
+        final LatencyRecorder listLatency = new LatencyRecorder("list");
+        final LatencyRecorder sellLatency = new LatencyRecorder("sell");
+        final LatencyRecorder updateLatency = new LatencyRecorder("update");
+        final LatencyRecorder insertLatency = new LatencyRecorder("insert");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> workers = new ArrayList<>();
+
+        /*
+         The seeds and the range of books picked from are fixed before any worker starts, so that
+         each worker's sequence of operations doesn't depend on how far the others have got with
+         their inserts. The books they insert are still counted towards the next catalogue size.
+        */
+        final int startingBookCount = bookCount.get();
+
+        long workloadStart = System.nanoTime();
+        for (int thread = 0; thread < threadCount; thread++) {
+            // Give every worker its own random sequence, so the workload doesn't depend on timing.
+            final SyntheticCatalogue workerCatalogue = new SyntheticCatalogue(seed + startingBookCount + thread + 1);
+
+            workers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        int operation = workerCatalogue.nextInt(100);
+                        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                                1 + workerCatalogue.nextInt(startingBookCount));
+
+                        long start = System.nanoTime();
+                        if (operation < QUERY_WEIGHT) {
+                            queryBook(bookUri);
+                            queryLatency.record(System.nanoTime() - start);
+                        } else if (operation < QUERY_WEIGHT + SELL_WEIGHT) {
+                            sellBook(bookUri);
+                            sellLatency.record(System.nanoTime() - start);
+                        } else if (operation < QUERY_WEIGHT + SELL_WEIGHT + UPDATE_WEIGHT) {
+                            ContentValues priceValues = new ContentValues();
+                            priceValues.put(BookEntry.COLUMN_BOOK_PRICE, 199 + workerCatalogue.nextInt(4800));
+                            contentResolver.update(bookUri, priceValues, null, null);
+                            updateLatency.record(System.nanoTime() - start);
+                        } else if (operation < QUERY_WEIGHT + SELL_WEIGHT + UPDATE_WEIGHT + INSERT_WEIGHT) {
+                            contentResolver.insert(BookEntry.CONTENT_URI, workerCatalogue.nextBook());
+                            bookCount.incrementAndGet();
+                            insertLatency.record(System.nanoTime() - start);
+                        } else {
+                            queryList();
+                            listLatency.record(System.nanoTime() - start);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - workloadStart;
+        executor.shutdown();
+
+        System.out.println(String.format(Locale.ENGLISH, "%d threads, %d operations in %d ms (%.1f ops/s)",
+                threadCount,
+                threadCount * operationsPerThread,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                threadCount * operationsPerThread / (elapsedNanos / 1e9)));
+        for (LatencyRecorder recorder : new LatencyRecorder[]{queryLatency, listLatency, sellLatency, updateLatency, insertLatency}) {
+            System.out.println(recorder.summary(elapsedNanos));
+        }
+
+        assertEquals(threadCount * operationsPerThread, queryLatency.getCount() + listLatency.getCount()
+                + sellLatency.getCount() + updateLatency.getCount() + insertLatency.getCount());
+    }
+
+    /*
+     Run each inventory report twice: once straight after the workload's writes, when it has to
+     be worked out from its index, and once more, when it should come from the cache.
+    */
+    private void timeReports() {
+        String[] reportNames = {ReportEntry.REPORT_SUPPLIER_STOCK, ReportEntry.REPORT_AUTHOR_UNITS, ReportEntry.REPORT_PRICE_BANDS};
+        for (String reportName : reportNames) {
+            Uri reportUri = ReportEntry.buildReportUri(reportName);
+            long coldNanos = timeQuery(reportUri);
+            long cachedNanos = timeQuery(reportUri);
+            System.out.println(String.format(Locale.ENGLISH, "Report %s: %d us, %d us cached",
+                    reportName, TimeUnit.NANOSECONDS.toMicros(coldNanos), TimeUnit.NANOSECONDS.toMicros(cachedNanos)));
+        }
+    }
+
+    // Time counting the sections of the list for the fast scroller, cold and then from the cache.
+    private void timeSections() {
+        long coldNanos = timeQuery(SectionEntry.CONTENT_URI);
+        long cachedNanos = timeQuery(SectionEntry.CONTENT_URI);
+        System.out.println(String.format(Locale.ENGLISH, "Sections: %d us, %d us cached",
+                TimeUnit.NANOSECONDS.toMicros(coldNanos), TimeUnit.NANOSECONDS.toMicros(cachedNanos)));
+    }
+
+    // Return how long a query takes to run in full.
+    private long timeQuery(Uri queryUri) {
+        long start = System.nanoTime();
+        Cursor queryCursor = contentResolver.query(queryUri, null, null, null, null);
+        if (queryCursor != null) {
+            queryCursor.getCount();
+            queryCursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Load a single book, as the editor does when it opens.
+    private void queryBook(Uri bookUri) {
+        Cursor bookCursor = contentResolver.query(bookUri, null, null, null, null);
+        if (bookCursor != null) {
+            bookCursor.moveToFirst();
+            bookCursor.close();
+        }
+    }
+
+    // Load the whole list, as the main screen does. Counting the rows makes the query run in full.
+    private void queryList() {
+        Cursor listCursor = contentResolver.query(BookEntry.CONTENT_URI, LIST_PROJECTION, null, null, BookEntry.SORT_BY_NAME);
+        if (listCursor != null) {
+            listCursor.getCount();
+            listCursor.close();
+        }
+    }
+
+    // Sell one unit of a book as the list does, as a checkout of a single unit.
+    private void sellBook(Uri bookUri) {
+        Bundle basket = new Bundle();
+        basket.putLongArray(BookContract.KEY_CHECKOUT_BOOK_IDS, new long[]{ContentUris.parseId(bookUri)});
+        basket.putIntArray(BookContract.KEY_CHECKOUT_QUANTITIES, new int[]{1});
+        contentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_CHECKOUT, null, basket);
+    }
+
+    private static int[] parseSizes(String sizesText) {
+        String[] sizeParts = sizesText.split(",");
+        int[] sizes = new int[sizeParts.length];
+        for (int i = 0; i < sizeParts.length; i++) {
+            sizes[i] = Integer.parseInt(sizeParts[i].trim());
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.bookshop.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ Records the latency of every run of one type of operation, so that the percentiles can be
+ worked out exactly once the load test has finished. Safe to use from several threads.
+*/
+public class LatencyRecorder {
+
+    private final String operationName;
+    private long[] latenciesNanos = new long[1024];
+    private int count;
+
+    public LatencyRecorder(String operationName) {
+        this.operationName = operationName;
+    }
+
+    public synchronized void record(long latencyNanos) {
+        if (count == latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+        }
+        latenciesNanos[count++] = latencyNanos;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /*
+     Return the latency in nanoseconds that the given fraction of the operations completed
+     within, using the nearest rank method.
+    */
+    public synchronized long percentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long[] sortedLatencies = Arrays.copyOf(latenciesNanos, count);
+        Arrays.sort(sortedLatencies);
+        int rank = (int) Math.ceil(fraction * count);
+        return sortedLatencies[Math.max(rank, 1) - 1];
+    }
+
+    // Summarise the throughput and latency percentiles over the given run time as one line.
+    public String summary(long elapsedNanos) {
+        double opsPerSecond = getCount() / (elapsedNanos / 1e9);
+        return String.format(Locale.ENGLISH, "%-8s %8d ops %10.1f ops/s   p50 %8.3f ms   p95 %8.3f ms   p99 %8.3f ms",
+                operationName,
+                getCount(),
+                opsPerSecond,
+                percentile(0.50) / 1e6,
+                percentile(0.95) / 1e6,
+                percentile(0.99) / 1e6);
+    }
+}
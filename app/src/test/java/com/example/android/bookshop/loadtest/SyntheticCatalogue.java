@@ -0,0 +1,104 @@
+package com.example.android.bookshop.loadtest;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.bookshop.database.BookContract.BookEntry;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ Generates a catalogue of made up books. The same seed always produces the same books, so
+ that runs at the same catalogue size can be compared with each other.
+*/
+public class SyntheticCatalogue {
+
+    private static final String[] TITLE_WORDS = {
+            "Silent", "River", "Garden", "Shadow", "Winter", "Glass", "Empire", "Stone", "Letters",
+            "Island", "Night", "Harbour", "Crown", "Memory", "Paper", "Journey", "Fire", "Ocean",
+            "Orchard", "Lantern", "Clockwork", "Northern", "Hidden", "Golden", "Last", "Broken"
+    };
+
+    private static final String[] FIRST_NAMES = {
+            "Ada", "Ben", "Clara", "David", "Eve", "Frank", "Grace", "Harry", "Iris", "Jack",
+            "Kate", "Liam", "Maya", "Noah", "Olive", "Peter", "Rosa", "Sam", "Tara", "Will"
+    };
+
+    private static final String[] LAST_NAMES = {
+            "Adams", "Brown", "Clarke", "Dawson", "Evans", "Fisher", "Green", "Hughes", "Irving",
+            "Jones", "King", "Lewis", "Morgan", "Norris", "Owen", "Parker", "Reed", "Smith"
+    };
+
+    private static final int SUPPLIER_COUNT = 40;
+
+    // The number of books inserted in each bulk insert transaction.
+    private static final int INSERT_BATCH_SIZE = 5000;
+
+    private final Random random;
+
+    public SyntheticCatalogue(long seed) {
+        random = new Random(seed);
+    }
+
+    /*
+     Insert the given number of books through the content resolver in large batches. The load
+     test picks books by ID, so a batch that isn't inserted in full fails the run rather than
+     leaving gaps, or looping for ever if nothing can be inserted at all.
+    */
+    public void populate(ContentResolver contentResolver, int catalogueSize) {
+        int booksInserted = 0;
+        while (booksInserted < catalogueSize) {
+            ContentValues[] bookBatch = new ContentValues[Math.min(INSERT_BATCH_SIZE, catalogueSize - booksInserted)];
+            for (int i = 0; i < bookBatch.length; i++) {
+                bookBatch[i] = nextBook();
+            }
+
+            int batchInserted = contentResolver.bulkInsert(BookEntry.CONTENT_URI, bookBatch);
+            if (batchInserted != bookBatch.length) {
+                throw new IllegalStateException("Only " + batchInserted + " of a batch of " + bookBatch.length
+                        + " books were inserted, after " + booksInserted + " books");
+            }
+            booksInserted += batchInserted;
+        }
+    }
+
+    // Create the values for the next made up book.
+    public ContentValues nextBook() {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, nextTitle());
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, nextAuthor());
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 50 + random.nextInt(950));
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 199 + random.nextInt(4800));
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, random.nextInt(100));
+
+        int supplier = random.nextInt(SUPPLIER_COUNT);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier " + supplier);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, String.format(Locale.ENGLISH, "0207946%04d", supplier));
+        return bookValues;
+    }
+
+    // Return a random whole number below the bound, using this catalogue's random sequence.
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    // Titles are made from three words and a volume number, so most of them are unique.
+    private String nextTitle() {
+        return pick(TITLE_WORDS) + " " + pick(TITLE_WORDS) + " " + pick(TITLE_WORDS)
+                + " " + (1 + random.nextInt(50));
+    }
+
+    // A small fraction of books have a second author, as happens in the real catalogue.
+    private String nextAuthor() {
+        String author = pick(FIRST_NAMES) + " " + pick(LAST_NAMES);
+        if (random.nextInt(10) == 0) {
+            author += ", " + pick(FIRST_NAMES) + " " + pick(LAST_NAMES);
+        }
+        return author;
+    }
+
+    private String pick(String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+}
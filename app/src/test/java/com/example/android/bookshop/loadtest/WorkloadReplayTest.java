@@ -0,0 +1,207 @@
+package com.example.android.bookshop.loadtest;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookProvider;
+import com.example.android.bookshop.database.WorkloadTrace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs a workload recorded by the provider against a fresh database and reports the throughput
+ * and latency of each type of operation next to the latency that was recorded. A trace is
+ * recorded by calling the provider's set_workload_recording method with "true", and pulled from
+ * the app's files/workload directory. The test is skipped unless it is given a trace file or a
+ * directory of them, for example:
+ * <p>
+ * ./gradlew :app:testDebugUnitTest --tests '*WorkloadReplayTest' -Dbookshop.replay.trace=/tmp/workload
+ * -Dbookshop.replay.speed=original
+ * <p>
+ * At the default speed of max, each operation is run as soon as the one before it has finished.
+ * At original speed, each one waits until the same time after the start as it was recorded at.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class WorkloadReplayTest {
+
+    private static final String[] OPERATION_NAMES = {"", "query", "insert", "bulk", "update", "delete", "call"};
+
+    private final String tracePath = System.getProperty("bookshop.replay.trace");
+    private final boolean originalSpeed = "original".equals(System.getProperty("bookshop.replay.speed", "max"));
+    private final long seed = Long.getLong("bookshop.loadtest.seed", 42);
+
+    private ContentResolver contentResolver;
+
+    // The latency of each type of operation in the replay, and as it was recorded.
+    private final LatencyRecorder[] replayLatency = new LatencyRecorder[OPERATION_NAMES.length];
+    private final LatencyRecorder[] recordedLatency = new LatencyRecorder[OPERATION_NAMES.length];
+
+    private int operationCount;
+    private int skippedCount;
+    private int errorCount;
+    private int recordedErrorCount;
+
+    // When the latest operation replayed was started in the recording.
+    private long lastStartMicros;
+
+    @Before
+    public void setUp() {
+        assumeTrue(tracePath != null);
+
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        for (int type = 1; type < OPERATION_NAMES.length; type++) {
+            replayLatency[type] = new LatencyRecorder(OPERATION_NAMES[type]);
+            recordedLatency[type] = new LatencyRecorder(OPERATION_NAMES[type]);
+        }
+    }
+
+    // The app calls the provider from background threads, so the replay does too.
+    @Test
+    public void replay() throws Exception {
+        ExecutorService replayExecutor = Executors.newSingleThreadExecutor();
+        try {
+            replayExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    replayTraces();
+                    return null;
+                }
+            }).get();
+        } finally {
+            replayExecutor.shutdown();
+        }
+    }
+
+    private void replayTraces() throws Exception {
+        File[] traceFiles = WorkloadTrace.traceFiles(new File(tracePath));
+        assertTrue("No workload traces found in " + tracePath, traceFiles.length > 0);
+
+        /*
+         The books are made up, but there are as many of them as there were when the trace was
+         started, so the book IDs in the trace's URIs and selections find a book.
+        */
+        WorkloadTrace.Reader firstReader = new WorkloadTrace.Reader(traceFiles[0]);
+        int catalogueSize = (int) firstReader.getHighestBookId();
+        firstReader.close();
+        long populateStart = System.nanoTime();
+        new SyntheticCatalogue(seed).populate(contentResolver, catalogueSize);
+        System.out.println(String.format(Locale.ENGLISH, "Catalogue of %d books populated in %d ms",
+                catalogueSize, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - populateStart)));
+
+        long replayStart = System.nanoTime();
+        long firstStartMicros = -1;
+        for (File traceFile : traceFiles) {
+            WorkloadTrace.Reader reader = new WorkloadTrace.Reader(traceFile);
+            try {
+                WorkloadTrace.Operation operation;
+                while ((operation = reader.next()) != null) {
+                    if (firstStartMicros < 0) {
+                        firstStartMicros = operation.startMicros;
+                    }
+                    if (originalSpeed) {
+                        waitUntil(replayStart + TimeUnit.MICROSECONDS.toNanos(operation.startMicros - firstStartMicros));
+                    }
+                    replayOperation(operation);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - replayStart;
+
+        System.out.println(String.format(Locale.ENGLISH,
+                "%d operations from %d trace files replayed at %s speed in %d ms (%.1f ops/s), %d skipped, %d errors (%d recorded)",
+                operationCount, traceFiles.length, originalSpeed ? "original" : "max",
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), operationCount / (elapsedNanos / 1e9),
+                skippedCount, errorCount, recordedErrorCount));
+        System.out.println("Replayed:");
+        for (int type = 1; type < OPERATION_NAMES.length; type++) {
+            System.out.println(replayLatency[type].summary(elapsedNanos));
+        }
+
+        // The recorded throughput is worked out over the time that the trace covers.
+        long recordedNanos = Math.max(1, TimeUnit.MICROSECONDS.toNanos(lastStartMicros - Math.max(firstStartMicros, 0)));
+        System.out.println("Recorded:");
+        for (int type = 1; type < OPERATION_NAMES.length; type++) {
+            System.out.println(recordedLatency[type].summary(recordedNanos));
+        }
+    }
+
+    // Run one operation through the content resolver in the same way as it was called when recorded.
+    private void replayOperation(WorkloadTrace.Operation operation) {
+        lastStartMicros = operation.startMicros;
+        if (operation.outcome == WorkloadTrace.OUTCOME_ERROR) {
+            recordedErrorCount++;
+        }
+        if (!operation.replayable) {
+            skippedCount++;
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            switch (operation.type) {
+                case WorkloadTrace.OPERATION_QUERY:
+                    Cursor queryCursor = contentResolver.query(operation.uri, operation.projection,
+                            operation.selection, operation.selectionArgs, operation.sortOrder);
+                    if (queryCursor != null) {
+                        queryCursor.getCount();
+                        queryCursor.close();
+                    }
+                    break;
+                case WorkloadTrace.OPERATION_INSERT:
+                    contentResolver.insert(operation.uri, operation.values[0]);
+                    break;
+                case WorkloadTrace.OPERATION_BULK_INSERT:
+                    contentResolver.bulkInsert(operation.uri, operation.values);
+                    break;
+                case WorkloadTrace.OPERATION_UPDATE:
+                    contentResolver.update(operation.uri, operation.values[0], operation.selection, operation.selectionArgs);
+                    break;
+                case WorkloadTrace.OPERATION_DELETE:
+                    contentResolver.delete(operation.uri, operation.selection, operation.selectionArgs);
+                    break;
+                case WorkloadTrace.OPERATION_CALL:
+                    contentResolver.call(BookEntry.CONTENT_URI, operation.method, operation.arg, operation.extras);
+                    break;
+                default:
+                    skippedCount++;
+                    return;
+            }
+        } catch (RuntimeException e) {
+            // The made up values can break a rule that the recorded ones didn't, so errors are counted rather than failing the replay.
+            errorCount++;
+        }
+        replayLatency[operation.type].record(System.nanoTime() - start);
+        recordedLatency[operation.type].record(TimeUnit.MICROSECONDS.toNanos(operation.durationMicros));
+        operationCount++;
+    }
+
+    private static void waitUntil(long targetNanos) throws InterruptedException {
+        long waitNanos = targetNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
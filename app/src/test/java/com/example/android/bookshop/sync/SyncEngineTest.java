@@ -0,0 +1,395 @@
+package com.example.android.bookshop.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookProvider;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the sync engine against a local mock server, with a real provider and database behind it.
+ * The app syncs on a background thread, so each test runs on one too, which keeps the provider's
+ * strict main thread check happy.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class SyncEngineTest {
+
+    private MockWebServer server;
+    private ContentResolver contentResolver;
+    private ExecutorService syncExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        server = new MockWebServer();
+        server.start();
+        syncExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        syncExecutor.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void sendsChangesInBatchesUntilAcknowledged() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < 5; i++) {
+                    contentResolver.insert(BookEntry.CONTENT_URI, book("Book " + i, 3));
+                }
+
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                server.setDispatcher(headOffice);
+
+                SyncEngine.Result result = new SyncEngine(contentResolver, server.url("/sync").url(), 2).sync();
+                assertEquals(5, result.getBooksSent());
+                assertEquals(3, server.getRequestCount());
+
+                JSONObject firstRequest = headOffice.requests.get(0);
+                assertEquals(2, firstRequest.getJSONArray("books").length());
+                assertEquals("Book 0", firstRequest.getJSONArray("books").getJSONObject(0).getString(BookEntry.COLUMN_BOOK_NAME));
+
+                // Once everything has been acknowledged, only a later change is sent.
+                ContentValues quantityValues = new ContentValues();
+                quantityValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 2);
+                contentResolver.update(BookEntry.CONTENT_URI, quantityValues,
+                        BookEntry.COLUMN_BOOK_NAME + "=?", new String[]{"Book 3"});
+
+                result = new SyncEngine(contentResolver, server.url("/sync").url(), 2).sync();
+                assertEquals(1, result.getBooksSent());
+
+                JSONObject changeRequest = headOffice.requests.get(3);
+                JSONObject changedBook = changeRequest.getJSONArray("books").getJSONObject(0);
+                assertEquals("Book 3", changedBook.getString(BookEntry.COLUMN_BOOK_NAME));
+                assertEquals(2, changedBook.getInt(BookEntry.COLUMN_BOOK_QUANTITY));
+
+                // Numbers are sent as numbers, not as the strings they used to be read as.
+                assertTrue(changedBook.opt(BookEntry.COLUMN_BOOK_QUANTITY) instanceof Integer);
+                assertTrue(changedBook.opt(BookEntry.COLUMN_BOOK_PRICE) instanceof Integer);
+                assertEquals(JSONObject.NULL, changedBook.opt(BookEntry.COLUMN_DELETED_AT));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void resendsChangesThatWereNotAcknowledged() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                contentResolver.insert(BookEntry.CONTENT_URI, book("Unacknowledged", 1));
+
+                server.enqueue(new MockResponse().setResponseCode(503));
+                try {
+                    new SyncEngine(contentResolver, server.url("/sync").url()).sync();
+                    fail("A failed exchange should be reported");
+                } catch (IOException expected) {
+                    // The change is still waiting in the change log.
+                }
+
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                server.setDispatcher(headOffice);
+                assertEquals(1, new SyncEngine(contentResolver, server.url("/sync").url()).sync().getBooksSent());
+                assertEquals("Unacknowledged", headOffice.requests.get(0).getJSONArray("books")
+                        .getJSONObject(0).getString(BookEntry.COLUMN_BOOK_NAME));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void appliesServerDeltasOnceWithoutSendingThemBack() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                JSONObject serverBook = new JSONObject();
+                serverBook.put(BookEntry.COLUMN_GLOBAL_ID, "head-office-1");
+                serverBook.put(BookEntry.COLUMN_BOOK_NAME, "From Head Office");
+                serverBook.put(BookEntry.COLUMN_BOOK_AUTHORS, "An Author");
+                serverBook.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+                serverBook.put(BookEntry.COLUMN_BOOK_PRICE, 899);
+                serverBook.put(BookEntry.COLUMN_BOOK_QUANTITY, 99);
+                serverBook.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+                serverBook.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0123456789");
+                serverBook.put(BookEntry.COLUMN_DELETED_AT, JSONObject.NULL);
+                JSONArray serverBooks = new JSONArray().put(serverBook);
+
+                // The same reply is delivered twice, as if the first one had been retried.
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                headOffice.serverSequence = 3;
+                headOffice.serverBooks = serverBooks;
+                headOffice.serverCounters = new JSONArray().put(counter("head-office-1", "warehouse", 7, 0));
+                server.setDispatcher(headOffice);
+
+                SyncEngine syncEngine = new SyncEngine(contentResolver, server.url("/sync").url());
+                assertEquals(1, syncEngine.sync().getBooksReceived());
+                assertEquals(0, syncEngine.sync().getBooksReceived());
+
+                Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI,
+                        new String[]{BookEntry.COLUMN_BOOK_NAME, BookEntry.COLUMN_BOOK_QUANTITY}, null, null, null);
+                try {
+                    assertEquals(1, bookCursor.getCount());
+                    bookCursor.moveToFirst();
+                    assertEquals("From Head Office", bookCursor.getString(0));
+                    // The quantity comes from the merged counters, not from the quantity the server sent.
+                    assertEquals(7, bookCursor.getInt(1));
+                } finally {
+                    bookCursor.close();
+                }
+
+                // The second sync must not have sent the server's own book back to it.
+                JSONObject secondRequest = headOffice.requests.get(1);
+                assertEquals(0, secondRequest.getJSONArray("books").length());
+                assertEquals(3, secondRequest.getLong("server_sequence"));
+                return null;
+            }
+        });
+    }
+
+    /*
+     Two tills sell the same book while apart. Once the other till's counter arrives, both
+     sales are counted rather than one overwriting the other.
+    */
+    @Test
+    public void mergesSalesFromAnotherTill() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                contentResolver.insert(BookEntry.CONTENT_URI, book("Shared Title", 10));
+
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                server.setDispatcher(headOffice);
+                new SyncEngine(contentResolver, server.url("/sync").url()).sync();
+                JSONObject sentBook = headOffice.requests.get(0).getJSONArray("books").getJSONObject(0);
+                String globalId = sentBook.getString(BookEntry.COLUMN_GLOBAL_ID);
+
+                // This till sells two copies, and another till sells three of its own.
+                ContentValues quantityValues = new ContentValues();
+                quantityValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 8);
+                contentResolver.update(BookEntry.CONTENT_URI, quantityValues, null, null);
+
+                headOffice.serverSequence = 1;
+                headOffice.serverCounters = new JSONArray().put(counter(globalId, "other-till", 0, 3));
+                new SyncEngine(contentResolver, server.url("/sync").url()).sync();
+
+                Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI,
+                        new String[]{BookEntry.COLUMN_BOOK_QUANTITY}, null, null, null);
+                try {
+                    bookCursor.moveToFirst();
+                    assertEquals(5, bookCursor.getInt(0));
+                } finally {
+                    bookCursor.close();
+                }
+
+                // The local sale went to the server as this till's own counter.
+                JSONArray sentCounters = headOffice.requests.get(1).getJSONArray("counters");
+                assertEquals(1, sentCounters.length());
+                assertEquals(10, sentCounters.getJSONObject(0).getLong("increments"));
+                assertTrue(sentCounters.getJSONObject(0).opt("increments") instanceof Integer);
+                assertEquals(2, sentCounters.getJSONObject(0).getLong("decrements"));
+                return null;
+            }
+        });
+    }
+
+    // Run a test on the sync thread and wait for it, failing with whatever it threw.
+    private void inBackground(Callable<Void> test) throws Exception {
+        try {
+            syncExecutor.submit(test).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    // A book changed here that the server hasn't acknowledged yet keeps its change over the server's copy.
+    @Test
+    public void keepsUnsyncedLocalChanges() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                contentResolver.insert(BookEntry.CONTENT_URI, book("Local Title", 4));
+
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                server.setDispatcher(headOffice);
+                new SyncEngine(contentResolver, server.url("/sync").url()).sync();
+                JSONObject sentBook = headOffice.requests.get(0).getJSONArray("books").getJSONObject(0);
+
+                ContentValues nameValues = new ContentValues();
+                nameValues.put(BookEntry.COLUMN_BOOK_NAME, "Renamed Here");
+                contentResolver.update(BookEntry.CONTENT_URI, nameValues, null, null);
+
+                // The server doesn't take the rename this time, and sends back its own copy.
+                sentBook.put(BookEntry.COLUMN_BOOK_NAME, "Renamed At Head Office");
+                headOffice.acknowledgeNothing = true;
+                headOffice.serverSequence = 1;
+                headOffice.serverBooks = new JSONArray().put(sentBook);
+                assertEquals(0, new SyncEngine(contentResolver, server.url("/sync").url()).sync().getBooksReceived());
+                assertEquals("Renamed Here", bookNames());
+
+                // The rename is still waiting to be sent.
+                headOffice.acknowledgeNothing = false;
+                headOffice.serverBooks = new JSONArray();
+                new SyncEngine(contentResolver, server.url("/sync").url()).sync();
+                JSONArray resentBooks = headOffice.requests.get(headOffice.requests.size() - 1).getJSONArray("books");
+                assertEquals("Renamed Here", resentBooks.getJSONObject(0).getString(BookEntry.COLUMN_BOOK_NAME));
+                return null;
+            }
+        });
+    }
+
+    // A book from the server with the barcode of a book already here is skipped rather than failing the sync.
+    @Test
+    public void skipsServerBooksWithATakenIsbn() throws Exception {
+        inBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ContentValues localBook = book("Local Copy", 2);
+                localBook.put(BookEntry.COLUMN_ISBN, "9780141439518");
+                contentResolver.insert(BookEntry.CONTENT_URI, localBook);
+
+                JSONObject serverBook = new JSONObject();
+                serverBook.put(BookEntry.COLUMN_GLOBAL_ID, "head-office-2");
+                serverBook.put(BookEntry.COLUMN_BOOK_NAME, "Head Office Copy");
+                serverBook.put(BookEntry.COLUMN_BOOK_PRICE, 799);
+                serverBook.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+                serverBook.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0123456789");
+                serverBook.put(BookEntry.COLUMN_ISBN, "9780141439518");
+                serverBook.put(BookEntry.COLUMN_DELETED_AT, JSONObject.NULL);
+
+                HeadOfficeDispatcher headOffice = new HeadOfficeDispatcher();
+                headOffice.serverSequence = 1;
+                headOffice.serverBooks = new JSONArray().put(serverBook);
+                server.setDispatcher(headOffice);
+
+                assertEquals(0, new SyncEngine(contentResolver, server.url("/sync").url()).sync().getBooksReceived());
+                assertEquals("Local Copy", bookNames());
+                return null;
+            }
+        });
+    }
+
+    // Return the names of all the books, joined with commas.
+    private String bookNames() {
+        Cursor bookCursor = contentResolver.query(BookEntry.CONTENT_URI,
+                new String[]{BookEntry.COLUMN_BOOK_NAME}, null, null, BookEntry._ID);
+        StringBuilder bookNames = new StringBuilder();
+        try {
+            while (bookCursor.moveToNext()) {
+                bookNames.append(bookNames.length() == 0 ? "" : ",").append(bookCursor.getString(0));
+            }
+        } finally {
+            bookCursor.close();
+        }
+        return bookNames.toString();
+    }
+
+    private static JSONObject counter(String globalId, String deviceId, long increments, long decrements) throws Exception {
+        JSONObject counterJson = new JSONObject();
+        counterJson.put(BookEntry.COLUMN_GLOBAL_ID, globalId);
+        counterJson.put("device_id", deviceId);
+        counterJson.put("increments", increments);
+        counterJson.put("decrements", decrements);
+        return counterJson;
+    }
+
+    private static ContentValues book(String name, int quantity) {
+        ContentValues bookValues = new ContentValues();
+        bookValues.put(BookEntry.COLUMN_BOOK_NAME, name);
+        bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "An Author");
+        bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 200);
+        bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "0123456789");
+        return bookValues;
+    }
+
+    // The engine always gzips its requests, so unzip the body before reading it.
+    private static JSONObject readRequest(RecordedRequest request) throws Exception {
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+
+        InputStream bodyStream = new GZIPInputStream(request.getBody().inputStream());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = bodyStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return new JSONObject(new String(bytes.toByteArray(), "UTF-8"));
+    }
+
+    /*
+     A stand in for the head office server, which acknowledges everything it is sent and
+     replies with a fixed set of books and stock counters.
+    */
+    private static class HeadOfficeDispatcher extends Dispatcher {
+        final List<JSONObject> requests = new CopyOnWriteArrayList<>();
+        volatile long serverSequence;
+        volatile JSONArray serverBooks = new JSONArray();
+        volatile JSONArray serverCounters = new JSONArray();
+        volatile boolean acknowledgeNothing;
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            try {
+                JSONObject requestJson = readRequest(request);
+                requests.add(requestJson);
+
+                JSONObject responseJson = new JSONObject();
+                responseJson.put("acknowledged_sequence", acknowledgeNothing ? 0 : requestJson.getLong("last_sequence"));
+                responseJson.put("server_sequence", serverSequence);
+                responseJson.put("books", serverBooks);
+                responseJson.put("counters", serverCounters);
+                return new MockResponse().setBody(responseJson.toString());
+            } catch (Exception e) {
+                return new MockResponse().setResponseCode(400);
+            }
+        }
+    }
+}
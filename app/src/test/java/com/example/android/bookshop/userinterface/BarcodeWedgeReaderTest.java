@@ -0,0 +1,112 @@
+package com.example.android.bookshop.userinterface;
+
+import android.view.KeyEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds the barcode reader the key events a wedge scanner types, and checks which of them are
+ * taken as a scan and which are handed back to the activity.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BarcodeWedgeReaderTest {
+
+    // The time between the keys of a scan, well inside the reader's limit.
+    private static final long SCAN_KEY_GAP_MILLIS = 5;
+
+    private final List<String> scannedBarcodes = new ArrayList<>();
+    private final List<KeyEvent> handedBackEvents = new ArrayList<>();
+    private BarcodeWedgeReader barcodeReader;
+    private long eventTime;
+
+    @Before
+    public void setUp() {
+        barcodeReader = new BarcodeWedgeReader(new BarcodeWedgeReader.OnBarcodeScannedListener() {
+            @Override
+            public void onBarcodeScanned(String barcode) {
+                scannedBarcodes.add(barcode);
+            }
+        }, new BarcodeWedgeReader.KeyEventTarget() {
+            @Override
+            public void dispatchHeldKeyEvent(KeyEvent event) {
+                handedBackEvents.add(event);
+            }
+        });
+        eventTime = 1000;
+    }
+
+    @Test
+    public void scansAnIsbnEndingInX() {
+        typeDigits("080442957");
+        assertTrue(press(KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.ACTION_DOWN));
+        assertTrue(press(KeyEvent.KEYCODE_X, KeyEvent.ACTION_DOWN));
+        assertTrue(press(KeyEvent.KEYCODE_X, KeyEvent.ACTION_UP));
+        assertTrue(press(KeyEvent.KEYCODE_SHIFT_LEFT, KeyEvent.ACTION_UP));
+        assertTrue(press(KeyEvent.KEYCODE_ENTER, KeyEvent.ACTION_DOWN));
+        assertTrue(press(KeyEvent.KEYCODE_ENTER, KeyEvent.ACTION_UP));
+
+        assertEquals(Collections.singletonList("080442957X"), scannedBarcodes);
+        assertEquals(0, handedBackEvents.size());
+    }
+
+    @Test
+    public void scansAnEan13() {
+        typeDigits("9780141439518");
+        assertTrue(press(KeyEvent.KEYCODE_ENTER, KeyEvent.ACTION_DOWN));
+        assertTrue(press(KeyEvent.KEYCODE_ENTER, KeyEvent.ACTION_UP));
+
+        assertEquals(Collections.singletonList("9780141439518"), scannedBarcodes);
+        assertEquals(0, handedBackEvents.size());
+    }
+
+    @Test
+    public void handsBackAShortRunInOrder() {
+        typeDigits("123");
+        // Enter after too few digits isn't a scan, so it is left for the activity.
+        assertFalse(press(KeyEvent.KEYCODE_ENTER, KeyEvent.ACTION_DOWN));
+
+        assertEquals(0, scannedBarcodes.size());
+        assertEquals(6, handedBackEvents.size());
+        assertEquals(KeyEvent.KEYCODE_1, handedBackEvents.get(0).getKeyCode());
+        assertEquals(KeyEvent.KEYCODE_3, handedBackEvents.get(5).getKeyCode());
+    }
+
+    @Test
+    public void handsBackADigitAfterTheX() {
+        typeDigits("080442957");
+        press(KeyEvent.KEYCODE_X, KeyEvent.ACTION_DOWN);
+        press(KeyEvent.KEYCODE_X, KeyEvent.ACTION_UP);
+
+        // Nothing follows the X of an ISBN-10, so the run is handed back and the digit is typed.
+        assertFalse(press(KeyEvent.KEYCODE_1, KeyEvent.ACTION_DOWN));
+        assertEquals(0, scannedBarcodes.size());
+        assertEquals(20, handedBackEvents.size());
+    }
+
+    // Press and release each digit, as quickly as a scanner does, checking the reader holds them.
+    private void typeDigits(String digits) {
+        for (int i = 0; i < digits.length(); i++) {
+            int keyCode = KeyEvent.KEYCODE_0 + digits.charAt(i) - '0';
+            assertTrue(press(keyCode, KeyEvent.ACTION_DOWN));
+            assertTrue(press(keyCode, KeyEvent.ACTION_UP));
+        }
+    }
+
+    private boolean press(int keyCode, int action) {
+        eventTime += SCAN_KEY_GAP_MILLIS;
+        return barcodeReader.onKeyEvent(new KeyEvent(eventTime, eventTime, action, keyCode, 0));
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.bookshop.userinterface;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookshop.database.BookContract;
+import com.example.android.bookshop.database.BookContract.BookEntry;
+import com.example.android.bookshop.database.BookProvider;
+import com.example.android.bookshop.database.ProviderThread;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how the editor's save of an existing book is merged with a change made by someone
+ * else after the book was loaded: changes to other values are sent again on top of it, changes
+ * to the same value are handed back to the user, and a removal of more copies than are left
+ * is not written.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookSaveTest {
+
+    private static final String[] EDITOR_PROJECTION = {
+            BookEntry.COLUMN_BOOK_NAME,
+            BookEntry.COLUMN_BOOK_AUTHORS,
+            BookEntry.COLUMN_BOOK_PAGES,
+            BookEntry.COLUMN_ISBN,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BookEntry.COLUMN_VERSION};
+
+    private ContentResolver contentResolver;
+    private Uri bookUri;
+
+    @Before
+    public void setUp() throws Exception {
+        Robolectric.buildContentProvider(BookProvider.class).create(BookContract.CONTENT_AUTHORITY);
+        contentResolver = RuntimeEnvironment.application.getContentResolver();
+
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues bookValues = new ContentValues();
+                bookValues.put(BookEntry.COLUMN_BOOK_NAME, "Original name");
+                bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, "Test Author");
+                bookValues.put(BookEntry.COLUMN_BOOK_PAGES, 100);
+                bookValues.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+                bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, 5);
+                bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+                bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "02079460000");
+                bookUri = contentResolver.insert(BookEntry.CONTENT_URI, bookValues);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void retriesOnTopOfAChangeToOtherValues() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues loadedValues = readBook();
+
+                // A new price and a sale from the list while the book is open in the editor.
+                ContentValues otherChange = new ContentValues();
+                otherChange.put(BookEntry.COLUMN_BOOK_PRICE, 1250);
+                otherChange.put(BookEntry.COLUMN_BOOK_QUANTITY, 4);
+                assertEquals(1, contentResolver.update(bookUri, otherChange, null, null));
+
+                ContentValues bookDetails = editorValues(loadedValues);
+                bookDetails.put(BookEntry.COLUMN_BOOK_NAME, "New name");
+                bookDetails.put(BookEntry.COLUMN_BOOK_QUANTITY, 7);
+
+                BookSave save = BookSave.update(contentResolver, ContentUris.parseId(bookUri), loadedValues, bookDetails);
+
+                assertEquals(BookSave.SAVED, save.result);
+                ContentValues savedValues = readBook();
+                assertEquals("New name", savedValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+                assertEquals(1250, (int) savedValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
+                // The two copies added in the editor go on top of the sale.
+                assertEquals(6, (int) savedValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void handsBackAChangeToTheSameValue() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues loadedValues = readBook();
+
+                ContentValues otherChange = new ContentValues();
+                otherChange.put(BookEntry.COLUMN_BOOK_NAME, "Their name");
+                assertEquals(1, contentResolver.update(bookUri, otherChange, null, null));
+
+                ContentValues bookDetails = editorValues(loadedValues);
+                bookDetails.put(BookEntry.COLUMN_BOOK_NAME, "My name");
+                bookDetails.put(BookEntry.COLUMN_BOOK_QUANTITY, 6);
+
+                BookSave save = BookSave.update(contentResolver, ContentUris.parseId(bookUri), loadedValues, bookDetails);
+
+                assertEquals(BookSave.CONFLICT, save.result);
+                assertEquals("Their name", save.currentValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+                assertEquals("My name", save.changedValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+                assertEquals(1, save.quantityChange);
+
+                // Nothing is written until the user has chosen.
+                ContentValues bookValues = readBook();
+                assertEquals("Their name", bookValues.getAsString(BookEntry.COLUMN_BOOK_NAME));
+                assertEquals(5, (int) bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void keepsTheStockWhenCopiesWereSoldInTheMeantime() throws Exception {
+        ProviderThread.run(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ContentValues loadedValues = readBook();
+
+                // Four of the five copies are sold from the list.
+                ContentValues otherChange = new ContentValues();
+                otherChange.put(BookEntry.COLUMN_BOOK_QUANTITY, 1);
+                assertEquals(1, contentResolver.update(bookUri, otherChange, null, null));
+
+                // The editor removes three of the copies it loaded, along with a new price.
+                ContentValues bookDetails = editorValues(loadedValues);
+                bookDetails.put(BookEntry.COLUMN_BOOK_PRICE, 1249);
+                bookDetails.put(BookEntry.COLUMN_BOOK_QUANTITY, 2);
+
+                BookSave save = BookSave.update(contentResolver, ContentUris.parseId(bookUri), loadedValues, bookDetails);
+
+                assertEquals(BookSave.NOT_ENOUGH_STOCK, save.result);
+                assertEquals(1, (int) save.currentValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+                assertEquals(1249, (int) save.changedValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
+
+                ContentValues bookValues = readBook();
+                assertEquals(1, (int) bookValues.getAsInteger(BookEntry.COLUMN_BOOK_QUANTITY));
+                assertEquals(999, (int) bookValues.getAsInteger(BookEntry.COLUMN_BOOK_PRICE));
+                return null;
+            }
+        });
+    }
+
+    // Read the book's values and version, as the editor loads them.
+    private ContentValues readBook() {
+        Cursor bookCursor = contentResolver.query(bookUri, EDITOR_PROJECTION, null, null, null);
+        try {
+            bookCursor.moveToFirst();
+            ContentValues bookValues = new ContentValues();
+            bookValues.put(BookEntry.COLUMN_BOOK_NAME, bookCursor.getString(0));
+            bookValues.put(BookEntry.COLUMN_BOOK_AUTHORS, bookCursor.getString(1));
+            bookValues.put(BookEntry.COLUMN_BOOK_PAGES, bookCursor.getInt(2));
+            bookValues.put(BookEntry.COLUMN_ISBN, bookCursor.getString(3));
+            bookValues.put(BookEntry.COLUMN_BOOK_PRICE, bookCursor.getInt(4));
+            bookValues.put(BookEntry.COLUMN_BOOK_QUANTITY, bookCursor.getInt(5));
+            bookValues.put(BookEntry.COLUMN_SUPPLIER_NAME, bookCursor.getString(6));
+            bookValues.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, bookCursor.getString(7));
+            bookValues.put(BookEntry.COLUMN_VERSION, bookCursor.getLong(8));
+            return bookValues;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
+    // The values on screen when nothing has been changed yet, which the editor saves without the version.
+    private static ContentValues editorValues(ContentValues loadedValues) {
+        ContentValues bookDetails = new ContentValues(loadedValues);
+        bookDetails.remove(BookEntry.COLUMN_VERSION);
+        return bookDetails;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.bookshop.benchmark;
+
+import com.example.android.bookshop.core.BookValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ Benchmarks for the rules that the provider checks on every insert and update. The invalid
+ case measures the cost of building and throwing the exception for a rejected book.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BookValidatorBenchmark {
+
+    public String bookName = "The God Delusion";
+    public Integer bookPages = 464;
+    public Integer bookPrice = 999;
+    public Integer bookQuantity = 12;
+    public Integer invalidQuantity = -1;
+    public String supplierName = "Transworld";
+    public String supplierNumber = "02085792652";
+
+    // Check all of the attributes of a complete, valid book, as is done for an insert.
+    @Benchmark
+    public void validBook() {
+        BookValidator.checkName(bookName);
+        BookValidator.checkPages(bookPages);
+        BookValidator.checkPrice(bookPrice);
+        BookValidator.checkQuantity(bookQuantity);
+        BookValidator.checkSupplierName(supplierName);
+        BookValidator.checkSupplierNumber(supplierNumber);
+    }
+
+    // Check a single quantity, as is done when selling a unit from the book list.
+    @Benchmark
+    public void quantityUpdate() {
+        BookValidator.checkQuantity(bookQuantity);
+    }
+
+    @Benchmark
+    public void invalidQuantity(Blackhole blackhole) {
+        try {
+            BookValidator.checkQuantity(invalidQuantity);
+        } catch (IllegalArgumentException e) {
+            blackhole.consume(e);
+        }
+    }
+}
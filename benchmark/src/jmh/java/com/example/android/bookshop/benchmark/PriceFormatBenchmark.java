@@ -0,0 +1,56 @@
+package com.example.android.bookshop.benchmark;
+
+import com.example.android.bookshop.core.PriceFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ Benchmarks for the price helpers that run on the main thread, either for every keystroke in
+ the editor's price field or for every row that is bound in the book list.
+*/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PriceFormatBenchmark {
+
+    /*
+     The typed prices and the prices in pence are separate states, so that each benchmark only
+     runs once for each value it uses rather than for every pair of the two.
+    */
+    @State(Scope.Benchmark)
+    public static class TypedPrice {
+
+        // A price that is accepted, one with too many decimal places and one that starts with a point.
+        @Param({"1234.5", "12.345", ".99"})
+        public String typedPrice;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pence {
+
+        @Param({"0", "999", "123456"})
+        public int priceInPence;
+    }
+
+    @Benchmark
+    public String checkPriceFormat(TypedPrice price) {
+        return PriceFormat.checkPriceFormat("12.3", price.typedPrice, 4, 2);
+    }
+
+    @Benchmark
+    public String alterPriceDecimalCount(TypedPrice price) {
+        return PriceFormat.alterPriceDecimalCount("£" + price.typedPrice);
+    }
+
+    @Benchmark
+    public String convertPenceToPounds(Pence price) {
+        return PriceFormat.convertPenceToPounds(price.priceInPence);
+    }
+}
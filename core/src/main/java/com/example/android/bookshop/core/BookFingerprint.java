@@ -0,0 +1,43 @@
+package com.example.android.bookshop.core;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/*
+ Builds the fingerprint that two copies of the same book share, however their name and authors
+ were typed. Accents, case, spaces and punctuation are all dropped, so "The Hobbit" by
+ "J.R.R. Tolkien" has the same fingerprint as "the hobbit" by "JRR Tolkien".
+*/
+public final class BookFingerprint {
+
+    // Separates the name from the authors, so that moving letters from one to the other changes the fingerprint.
+    private static final char SEPARATOR = '/';
+
+    // Prevent anyone from instantiating this class.
+    private BookFingerprint() {
+    }
+
+    // Return the fingerprint of a book with the given name and authors, either of which may be null.
+    public static String of(String bookName, String bookAuthors) {
+        StringBuilder fingerprint = new StringBuilder();
+        appendNormalised(fingerprint, bookName);
+        fingerprint.append(SEPARATOR);
+        appendNormalised(fingerprint, bookAuthors);
+        return fingerprint.toString();
+    }
+
+    // Append the letters and digits of the text in lower case, without their accents.
+    private static void appendNormalised(StringBuilder fingerprint, String text) {
+        if (text == null) {
+            return;
+        }
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD).toLowerCase(Locale.ROOT);
+        for (int i = 0; i < decomposed.length(); i++) {
+            char character = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(character)) {
+                fingerprint.append(character);
+            }
+        }
+    }
+}
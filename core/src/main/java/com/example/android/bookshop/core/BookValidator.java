@@ -0,0 +1,115 @@
+package com.example.android.bookshop.core;
+
+/*
+ The rules that each book attribute must follow before it can be stored in the database. Each
+ check throws an IllegalArgumentException describing the problem if the given value breaks
+ its rule.
+*/
+public final class BookValidator {
+
+    // Prevent anyone from instantiating this class.
+    private BookValidator() {
+    }
+
+    // Check that the book name is not null.
+    public static void checkName(String bookName) {
+        if (bookName == null) {
+            throw new IllegalArgumentException("Book requires a name.");
+        }
+    }
+
+    // If the number of pages is provided, check that it's greater than or equal to 0.
+    public static void checkPages(Integer bookPages) {
+        if (bookPages != null && bookPages < 0) {
+            throw new IllegalArgumentException("Book requires a valid number of pages.");
+        }
+    }
+
+    // Check that the price is provided and that it is greater than or equal to 0.
+    public static void checkPrice(Integer bookPrice) {
+        if (bookPrice == null) {
+            throw new IllegalArgumentException("Book requires a price.");
+        } else if (bookPrice < 0) {
+            throw new IllegalArgumentException("Book requires a valid price.");
+        }
+    }
+
+    // Check that the quantity is provided and that it is greater than or equal to 0.
+    public static void checkQuantity(Integer bookQuantity) {
+        if (bookQuantity == null) {
+            throw new IllegalArgumentException("Book requires a quantity.");
+        } else if (bookQuantity < 0) {
+            throw new IllegalArgumentException("Book requires a valid quantity.");
+        }
+    }
+
+    // Check that the supplier name is not null.
+    public static void checkSupplierName(String supplierName) {
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Book requires a supplier name.");
+        }
+    }
+
+    // Check that the supplier number is not null.
+    public static void checkSupplierNumber(String supplierNumber) {
+        if (supplierNumber == null) {
+            throw new IllegalArgumentException("Book requires a supplier number.");
+        }
+    }
+
+    /*
+     If an ISBN or barcode is provided, check that it has the form of an EAN-8, UPC-A, ISBN-10
+     or EAN-13 number and that its check digit is right, so that a misread scan is turned away
+     rather than matched to the wrong book. Only an ISBN-10 may end with an X check digit.
+    */
+    public static void checkIsbn(String isbn) {
+        if (isbn == null) {
+            return;
+        }
+
+        int length = isbn.length();
+        if (length != 8 && length != 10 && length != 12 && length != 13) {
+            throw new IllegalArgumentException("Book requires a valid ISBN or barcode.");
+        }
+
+        for (int i = 0; i < length; i++) {
+            char digit = isbn.charAt(i);
+            boolean isbnCheckDigit = length == 10 && i == 9 && digit == 'X';
+            if ((digit < '0' || digit > '9') && !isbnCheckDigit) {
+                throw new IllegalArgumentException("Book requires a valid ISBN or barcode.");
+            }
+        }
+
+        boolean checkDigitValid = length == 10 ? isbn10CheckDigitValid(isbn) : gs1CheckDigitValid(isbn);
+        if (!checkDigitValid) {
+            throw new IllegalArgumentException("Book requires an ISBN or barcode with a valid check digit.");
+        }
+    }
+
+    /*
+     An ISBN-10 is valid when the sum of each digit times its weight, counting down from 10 for
+     the first digit to 1 for the check digit, is a multiple of 11. An X stands for 10.
+    */
+    private static boolean isbn10CheckDigitValid(String isbn) {
+        int sum = 0;
+        for (int i = 0; i < 10; i++) {
+            char digit = isbn.charAt(i);
+            int value = digit == 'X' ? 10 : digit - '0';
+            sum += (10 - i) * value;
+        }
+        return sum % 11 == 0;
+    }
+
+    /*
+     The EAN-8, UPC-A and EAN-13 numbers share one rule: counting from the check digit at the
+     right, the digits are weighted 1, 3, 1, 3 and so on, and the sum must be a multiple of 10.
+    */
+    private static boolean gs1CheckDigitValid(String barcode) {
+        int sum = 0;
+        for (int i = 0; i < barcode.length(); i++) {
+            int value = barcode.charAt(barcode.length() - 1 - i) - '0';
+            sum += i % 2 == 0 ? value : 3 * value;
+        }
+        return sum % 10 == 0;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.bookshop.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ A counter that can be changed on several devices at once and merged without losing any of
+ the changes. Each device only ever adds to its own running totals of increments and
+ decrements, and a merge keeps the larger of each device's totals. That makes merging
+ commutative, associative and idempotent, so copies can be merged in any order, any number of
+ times, and still agree. The value of the counter is the sum of the increments minus the sum
+ of the decrements.
+*/
+public final class PnCounter {
+
+    private final Map<String, Long> increments = new HashMap<>();
+    private final Map<String, Long> decrements = new HashMap<>();
+
+    // Add a positive or negative change made on the given device.
+    public void add(String deviceId, long delta) {
+        if (delta > 0) {
+            increment(deviceId, delta);
+        } else if (delta < 0) {
+            decrement(deviceId, -delta);
+        }
+    }
+
+    public void increment(String deviceId, long amount) {
+        checkAmount(amount);
+        increments.put(deviceId, getIncrements(deviceId) + amount);
+    }
+
+    public void decrement(String deviceId, long amount) {
+        checkAmount(amount);
+        decrements.put(deviceId, getDecrements(deviceId) + amount);
+    }
+
+    /*
+     Merge in the totals of one device from another copy of the counter, keeping the larger of
+     each. This is also how a stored counter is loaded, one device at a time.
+    */
+    public void mergeDevice(String deviceId, long deviceIncrements, long deviceDecrements) {
+        checkAmount(deviceIncrements);
+        checkAmount(deviceDecrements);
+        if (deviceIncrements > getIncrements(deviceId)) {
+            increments.put(deviceId, deviceIncrements);
+        }
+        if (deviceDecrements > getDecrements(deviceId)) {
+            decrements.put(deviceId, deviceDecrements);
+        }
+    }
+
+    // Merge another copy of the counter into this one.
+    public void merge(PnCounter other) {
+        for (String deviceId : other.getDeviceIds()) {
+            mergeDevice(deviceId, other.getIncrements(deviceId), other.getDecrements(deviceId));
+        }
+    }
+
+    public long value() {
+        long value = 0;
+        for (long deviceIncrements : increments.values()) {
+            value += deviceIncrements;
+        }
+        for (long deviceDecrements : decrements.values()) {
+            value -= deviceDecrements;
+        }
+        return value;
+    }
+
+    public long getIncrements(String deviceId) {
+        Long deviceIncrements = increments.get(deviceId);
+        return deviceIncrements == null ? 0 : deviceIncrements;
+    }
+
+    public long getDecrements(String deviceId) {
+        Long deviceDecrements = decrements.get(deviceId);
+        return deviceDecrements == null ? 0 : deviceDecrements;
+    }
+
+    // Return the IDs of every device that has changed the counter.
+    public Set<String> getDeviceIds() {
+        Set<String> deviceIds = new HashSet<>(increments.keySet());
+        deviceIds.addAll(decrements.keySet());
+        return Collections.unmodifiableSet(deviceIds);
+    }
+
+    private static void checkAmount(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Counter amounts can't be negative: " + amount);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PnCounter)) {
+            return false;
+        }
+
+        PnCounter otherCounter = (PnCounter) other;
+        for (String deviceId : union(getDeviceIds(), otherCounter.getDeviceIds())) {
+            if (getIncrements(deviceId) != otherCounter.getIncrements(deviceId)
+                    || getDecrements(deviceId) != otherCounter.getDecrements(deviceId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Devices with zero totals don't change the state, so they are left out of the hash.
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (String deviceId : getDeviceIds()) {
+            long deviceIncrements = getIncrements(deviceId);
+            long deviceDecrements = getDecrements(deviceId);
+            if (deviceIncrements != 0 || deviceDecrements != 0) {
+                hash += deviceId.hashCode() ^ (int) (deviceIncrements * 31 + deviceDecrements);
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "PnCounter{increments=" + increments + ", decrements=" + decrements + "}";
+    }
+
+    private static Set<String> union(Set<String> first, Set<String> second) {
+        Set<String> union = new HashSet<>(first);
+        union.addAll(second);
+        return union;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.bookshop.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ A trie of names that returns the names starting with a prefix in alphabetical order, in time
+ that depends on the length of the prefix and the number of suggestions rather than on the
+ number of names. Names are matched ignoring case and surrounding spaces, and each one counts
+ how many times it has been added, so that it is only removed once every copy has gone.
+*/
+public final class PrefixIndex {
+
+    private final Node root = new Node();
+    private int size;
+
+    // Add a name to the index. Empty names are ignored.
+    public synchronized void add(String name) {
+        String key = toKey(name);
+        if (key == null) {
+            return;
+        }
+
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            char character = key.charAt(i);
+            Node child = node.children.get(character);
+            if (child == null) {
+                child = new Node();
+                node.children.put(character, child);
+            }
+            node = child;
+        }
+
+        // Keep the spelling of the first copy, so that suggestions don't change as copies come and go.
+        if (node.count == 0) {
+            node.name = name.trim();
+            size++;
+        }
+        node.count++;
+    }
+
+    // Remove one copy of a name from the index, if it has one.
+    public synchronized void remove(String name) {
+        String key = toKey(name);
+        if (key == null) {
+            return;
+        }
+
+        // Keep the path down to the name, so that branches left empty can be pruned on the way back.
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].children.get(key.charAt(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+
+        Node node = path[key.length()];
+        if (node.count == 0) {
+            return;
+        }
+        node.count--;
+        if (node.count != 0) {
+            return;
+        }
+        node.name = null;
+        size--;
+
+        for (int i = key.length(); i > 0 && path[i].count == 0 && path[i].children.isEmpty(); i--) {
+            path[i - 1].children.remove(key.charAt(i - 1));
+        }
+    }
+
+    /*
+     Return up to the given number of names that start with the prefix, in alphabetical order.
+     An empty prefix returns no names rather than the whole index.
+    */
+    public synchronized List<String> suggest(String prefix, int limit) {
+        List<String> suggestions = new ArrayList<>();
+        String key = toKey(prefix);
+        if (key == null || limit <= 0) {
+            return suggestions;
+        }
+
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        if (node != null) {
+            collect(node, suggestions, limit);
+        }
+        return suggestions;
+    }
+
+    // Return the number of distinct names in the index.
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        root.children.clear();
+        root.count = 0;
+        root.name = null;
+        size = 0;
+    }
+
+    // Add the names below the node to the list in alphabetical order, until it is full.
+    private static void collect(Node node, List<String> suggestions, int limit) {
+        if (node.count != 0) {
+            suggestions.add(node.name);
+        }
+        for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+            if (suggestions.size() >= limit) {
+                return;
+            }
+            collect(child.getValue(), suggestions, limit);
+        }
+    }
+
+    private static String toKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    private static final class Node {
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        private String name;
+        private int count;
+    }
+}
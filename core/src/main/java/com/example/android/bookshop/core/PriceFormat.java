@@ -0,0 +1,111 @@
+package com.example.android.bookshop.core;
+
+import java.util.Locale;
+
+// Helper methods for formatting and checking the prices that are shown to the user.
+public final class PriceFormat {
+
+    // Prevent anyone from instantiating this class.
+    private PriceFormat() {
+    }
+
+    /*
+     Modified solution from Apoleo at:
+     https://stackoverflow.com/questions/5357455/limit-decimal-places-in-android-edittext.
+    */
+    public static String checkPriceFormat(String stringBeforeChange, String stringAfterChange, int maxBeforePoint, int maxDecimal) {
+        // If the first character in the String is a decimal point, add a zero to the beginning.
+        if (stringAfterChange.charAt(0) == '.') {
+            stringAfterChange = "0" + stringAfterChange;
+        }
+
+        int maxIndex = stringAfterChange.length();
+        boolean cursorAfterPoint = false;
+        int aboveDecimal = 0, belowDecimal = 0;
+        StringBuilder finalString = new StringBuilder("");
+
+        /*
+         Check that the character count before and after the decimal point is within the set limits.
+        */
+        for (int i = 0; i < maxIndex; i++) {
+            char currentChar = stringAfterChange.charAt(i);
+
+            /*
+             If the current character is not a point and the point hasn't been reached yet,
+             add one to the above decimal count.
+            */
+            if (currentChar != '.' && !cursorAfterPoint) {
+                aboveDecimal++;
+
+                /*
+                 If the above decimal count exceeds the limit, ignore the price change and return
+                 its previous state.
+                */
+                if (aboveDecimal > maxBeforePoint) {
+                    return stringBeforeChange;
+                }
+            } else if (currentChar == '.') {
+                // When the point is reached, flip the boolean indicating this.
+                cursorAfterPoint = true;
+            } else {
+                // If the current character is after the point, add one to the below decimal count.
+                belowDecimal++;
+                /*
+                 If the below decimal count exceeds the limit, ignore the price change and return
+                 its previous state.
+                */
+                if (belowDecimal > maxDecimal) {
+                    return stringBeforeChange;
+                }
+            }
+
+            // Add any accepted characters to the output string.
+            finalString.append(currentChar);
+        }
+
+        return finalString.toString();
+    }
+
+    /*
+     Add any additional zeros to the end of a price String if needed to ensure 2 decimal places.
+     Do this by counting the number of characters after the point and then adjusting accordingly.
+    */
+    public static String alterPriceDecimalCount(String priceFormatText) {
+        boolean afterPoint = false;
+        int belowPoint = 0;
+
+        for (int i = 0; i < priceFormatText.length(); i++) {
+            if (afterPoint) {
+                belowPoint++;
+            }
+
+            if (priceFormatText.charAt(i) == '.') {
+                afterPoint = true;
+            }
+        }
+
+        if (belowPoint == 0) {
+            return priceFormatText + "00";
+        } else if (belowPoint == 1) {
+            return priceFormatText + "0";
+        }
+
+        return priceFormatText;
+    }
+
+    // Convert pence to pounds and then format it to show 2 decimal places.
+    public static String convertPenceToPounds(int amountInPence) {
+        float amountInPounds = (float) amountInPence / 100;
+        return "£" + String.format(Locale.ENGLISH, "%.2f", amountInPounds);
+    }
+
+    /*
+     Format a total in pence, such as the value of all the stock, which can be too large for a
+     float to hold to the penny.
+    */
+    public static String convertPenceToPounds(long amountInPence) {
+        String sign = amountInPence < 0 ? "-" : "";
+        long absoluteAmount = Math.abs(amountInPence);
+        return sign + "£" + String.format(Locale.ENGLISH, "%d.%02d", absoluteAmount / 100, absoluteAmount % 100);
+    }
+}
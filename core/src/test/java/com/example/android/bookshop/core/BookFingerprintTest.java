@@ -0,0 +1,40 @@
+package com.example.android.bookshop.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests for the fingerprint that finds two copies of the same book however they were typed.
+ */
+public class BookFingerprintTest {
+
+    @Test
+    public void ignoresCaseSpacesAndPunctuation() {
+        assertEquals(BookFingerprint.of("The Hobbit", "J.R.R. Tolkien"), BookFingerprint.of("the hobbit", "JRR Tolkien"));
+        assertEquals(BookFingerprint.of("Emma", "Jane Austen"), BookFingerprint.of("  EMMA! ", "Jane-Austen"));
+        assertEquals("thehobbit/jrrtolkien", BookFingerprint.of("The Hobbit", "J.R.R. Tolkien"));
+    }
+
+    @Test
+    public void ignoresAccents() {
+        assertEquals(BookFingerprint.of("Les Misérables", "Victor Hugo"), BookFingerprint.of("Les Miserables", "Victor Hugo"));
+        assertEquals(BookFingerprint.of("Cien años de soledad", "Gabriel García Márquez"),
+                BookFingerprint.of("Cien anos de soledad", "Gabriel Garcia Marquez"));
+    }
+
+    @Test
+    public void keepsTheNameApartFromTheAuthors() {
+        // Moving a word from the name to the authors makes a different book.
+        assertNotEquals(BookFingerprint.of("Emma Jane", "Austen"), BookFingerprint.of("Emma", "Jane Austen"));
+        assertNotEquals(BookFingerprint.of("Emma", "Jane Austen"), BookFingerprint.of("Emma", "George Eliot"));
+    }
+
+    @Test
+    public void acceptsMissingValues() {
+        assertEquals("/", BookFingerprint.of(null, null));
+        assertEquals("emma/", BookFingerprint.of("Emma", null));
+        assertEquals(BookFingerprint.of("Emma", null), BookFingerprint.of("Emma", ""));
+    }
+}
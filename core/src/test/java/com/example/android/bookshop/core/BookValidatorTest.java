@@ -0,0 +1,56 @@
+package com.example.android.bookshop.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the ISBN and barcode rule, which has to turn away a misread scan before it is sold.
+ */
+public class BookValidatorTest {
+
+    @Test
+    public void acceptsValidCheckDigits() {
+        BookValidator.checkIsbn(null);
+        BookValidator.checkIsbn("9780141439518");
+        BookValidator.checkIsbn("0141439513");
+        BookValidator.checkIsbn("080442957X");
+        BookValidator.checkIsbn("036000291452");
+        BookValidator.checkIsbn("96385074");
+    }
+
+    @Test
+    public void rejectsWrongCheckDigits() {
+        assertRejected("9780141439519");
+        assertRejected("0141439514");
+        assertRejected("0804429570");
+        assertRejected("036000291453");
+        assertRejected("96385075");
+    }
+
+    @Test
+    public void rejectsSwappedDigits() {
+        // Swapping two neighbouring digits is the most common misreading that keeps the length.
+        assertRejected("9780141435918");
+        assertRejected("1041439513");
+    }
+
+    @Test
+    public void rejectsMalformedNumbers() {
+        assertRejected("");
+        assertRejected("978014143951");
+        assertRejected("97801414395180");
+        assertRejected("978014143951X");
+        assertRejected("X141439513");
+        assertRejected("978-0141439518");
+    }
+
+    private static void assertRejected(String isbn) {
+        try {
+            BookValidator.checkIsbn(isbn);
+            fail("Accepted " + isbn);
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
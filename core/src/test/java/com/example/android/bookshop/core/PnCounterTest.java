@@ -0,0 +1,116 @@
+package com.example.android.bookshop.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Property tests for the stock counter, which merge copies of it built from random histories
+ * of sales, deliveries and partial merges between devices.
+ */
+public class PnCounterTest {
+
+    private static final int RUNS = 500;
+    private static final int MAX_DEVICES = 5;
+    private static final int MAX_OPERATIONS = 60;
+
+    private final Random random = new Random(Long.getLong("bookshop.pncounter.seed", 2018));
+
+    @Test
+    public void mergeIsCommutative() {
+        for (int run = 0; run < RUNS; run++) {
+            PnCounter first = randomCounter();
+            PnCounter second = randomCounter();
+
+            assertEquals(merged(first, second), merged(second, first));
+        }
+    }
+
+    @Test
+    public void mergeIsAssociative() {
+        for (int run = 0; run < RUNS; run++) {
+            PnCounter first = randomCounter();
+            PnCounter second = randomCounter();
+            PnCounter third = randomCounter();
+
+            assertEquals(merged(merged(first, second), third), merged(first, merged(second, third)));
+        }
+    }
+
+    @Test
+    public void mergeIsIdempotent() {
+        for (int run = 0; run < RUNS; run++) {
+            PnCounter counter = randomCounter();
+
+            assertEquals(counter, merged(counter, counter));
+            assertEquals(counter.value(), merged(counter, counter).value());
+        }
+    }
+
+    /*
+     Run a random history on several devices, where each one changes its own copy of the
+     counter and now and then merges in the copy of another device. However the merges fall,
+     once every copy has been merged together no change may be lost.
+    */
+    @Test
+    public void noChangeIsLostWhateverTheMergeOrder() {
+        for (int run = 0; run < RUNS; run++) {
+            int deviceCount = 1 + random.nextInt(MAX_DEVICES);
+            PnCounter[] copies = new PnCounter[deviceCount];
+            for (int device = 0; device < deviceCount; device++) {
+                copies[device] = new PnCounter();
+            }
+
+            long expectedValue = 0;
+            int operationCount = random.nextInt(MAX_OPERATIONS);
+            for (int operation = 0; operation < operationCount; operation++) {
+                int device = random.nextInt(deviceCount);
+                if (random.nextInt(4) == 0) {
+                    copies[device].merge(copies[random.nextInt(deviceCount)]);
+                } else {
+                    long delta = random.nextInt(21) - 10;
+                    copies[device].add(deviceId(device), delta);
+                    expectedValue += delta;
+                }
+            }
+
+            // Merge the copies together in a random order, from a random starting copy.
+            PnCounter result = new PnCounter();
+            for (int merge = 0; merge < deviceCount * 2; merge++) {
+                result.merge(copies[random.nextInt(deviceCount)]);
+            }
+            for (PnCounter copy : copies) {
+                result.merge(copy);
+            }
+
+            assertEquals(expectedValue, result.value());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeAmountsAreRejected() {
+        new PnCounter().increment(deviceId(0), -1);
+    }
+
+    private PnCounter randomCounter() {
+        PnCounter counter = new PnCounter();
+        int operationCount = random.nextInt(MAX_OPERATIONS);
+        for (int operation = 0; operation < operationCount; operation++) {
+            counter.add(deviceId(random.nextInt(MAX_DEVICES)), random.nextInt(21) - 10);
+        }
+        return counter;
+    }
+
+    private static PnCounter merged(PnCounter first, PnCounter second) {
+        PnCounter result = new PnCounter();
+        result.merge(first);
+        result.merge(second);
+        return result;
+    }
+
+    private static String deviceId(int device) {
+        return "device-" + device;
+    }
+}
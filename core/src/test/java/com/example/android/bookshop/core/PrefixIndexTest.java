@@ -0,0 +1,84 @@
+package com.example.android.bookshop.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the index behind the editor's name suggestions, which has to keep a name until its
+ * last copy goes and return the matches in order.
+ */
+public class PrefixIndexTest {
+
+    @Test
+    public void suggestsNamesInAlphabeticalOrder() {
+        PrefixIndex index = new PrefixIndex();
+        index.add("Jane Austen");
+        index.add("James Joyce");
+        index.add("George Eliot");
+        index.add("Jack London");
+
+        assertEquals(Arrays.asList("Jack London", "James Joyce", "Jane Austen"), index.suggest("ja", 10));
+        assertEquals(Arrays.asList("Jack London", "James Joyce"), index.suggest("ja", 2));
+        assertEquals(Collections.singletonList("George Eliot"), index.suggest("George Eliot", 10));
+        assertEquals(Collections.<String>emptyList(), index.suggest("jo", 10));
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpaces() {
+        PrefixIndex index = new PrefixIndex();
+        index.add("  Jane Austen ");
+        index.add("JANE AUSTEN");
+
+        // Both are the same name, which keeps the spelling of the first copy.
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList("Jane Austen"), index.suggest(" JANE a", 10));
+    }
+
+    @Test
+    public void keepsANameUntilEveryCopyIsRemoved() {
+        PrefixIndex index = new PrefixIndex();
+        index.add("Jane Austen");
+        index.add("Jane Austen");
+        index.add("Jane Eyre");
+
+        index.remove("jane austen");
+        assertEquals(Arrays.asList("Jane Austen", "Jane Eyre"), index.suggest("jane", 10));
+
+        index.remove("Jane Austen");
+        assertEquals(Collections.singletonList("Jane Eyre"), index.suggest("jane", 10));
+        assertEquals(1, index.size());
+
+        // Removing a name that has gone, or was never there, changes nothing.
+        index.remove("Jane Austen");
+        index.remove("Jane");
+        assertEquals(Collections.singletonList("Jane Eyre"), index.suggest("jane", 10));
+    }
+
+    @Test
+    public void ignoresEmptyNamesAndPrefixes() {
+        PrefixIndex index = new PrefixIndex();
+        index.add(null);
+        index.add("   ");
+        index.add("Jane Austen");
+
+        assertEquals(1, index.size());
+        assertEquals(Collections.<String>emptyList(), index.suggest("", 10));
+        assertEquals(Collections.<String>emptyList(), index.suggest(null, 10));
+        assertEquals(Collections.<String>emptyList(), index.suggest("jane", 0));
+    }
+
+    @Test
+    public void clearRemovesEveryName() {
+        PrefixIndex index = new PrefixIndex();
+        index.add("Jane Austen");
+        index.add("George Eliot");
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertEquals(Collections.<String>emptyList(), index.suggest("jane", 10));
+    }
+}